@@ -62,9 +62,11 @@ import org.apache.ode.bpel.connector.BpelServerConnector;
 import org.apache.ode.bpel.dao.BpelDAOConnectionFactory;
 import org.apache.ode.bpel.eapi.AbstractExtensionBundle;
 import org.apache.ode.bpel.engine.BpelServerImpl;
+import org.apache.ode.bpel.engine.CostAwareDehydrationPolicy;
 import org.apache.ode.bpel.engine.CountLRUDehydrationPolicy;
 import org.apache.ode.bpel.engine.cron.CronScheduler;
 import org.apache.ode.bpel.extvar.jdbc.JdbcExternalVariableModule;
+import org.apache.ode.bpel.evtproc.AsyncBpelEventListener;
 import org.apache.ode.bpel.iapi.BpelEventListener;
 import org.apache.ode.bpel.iapi.EndpointReferenceContext;
 import org.apache.ode.bpel.iapi.ProcessConf;
@@ -82,6 +84,7 @@ import org.apache.ode.scheduler.simple.SimpleScheduler;
 import org.apache.ode.store.ClusterProcessStoreImpl;
 import org.apache.ode.store.ProcessStoreImpl;
 import org.apache.ode.utils.GUID;
+import org.apache.ode.utils.VirtualThreads;
 import org.apache.ode.utils.fs.TempFileManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -118,6 +121,9 @@ public class ODEServer {
 
     protected ExecutorService _executorService;
 
+    /** Bounded pool for the scheduler transactions, only used along with virtual threads. */
+    protected ExecutorService _txExecutorService;
+
     protected Scheduler _scheduler;
 
     protected CronScheduler _cronScheduler;
@@ -441,6 +447,10 @@ public class ODEServer {
                 _executorService.shutdownNow();
                 _executorService = null;
             }
+            if (_txExecutorService != null) {
+                _txExecutorService.shutdownNow();
+                _txExecutorService = null;
+            }
 
             __log.info(__msgs.msgOdeShutdownCompleted());
         } finally {
@@ -546,28 +556,45 @@ public class ODEServer {
         } else
             scheduler = new SimpleScheduler(new GUID().toString(), new JdbcDelegate(_db.getDataSource()), _odeConfig.getProperties());
         scheduler.setExecutorService(_executorService);
+        scheduler.setTransactionExecutorService(_txExecutorService);
         scheduler.setTransactionManager(_txMgr);
         return scheduler;
     }
 
-    private void initBpelServer(EndpointReferenceContextImpl eprContext) {
-        if (__log.isDebugEnabled()) {
-            __log.debug("ODE initializing");
-        }
-        ThreadFactory threadFactory = new ThreadFactory() {
+    private ThreadFactory newThreadFactory(final String prefix) {
+        return new ThreadFactory() {
             int threadNumber = 0;
-            public Thread newThread(Runnable r) {
+            public synchronized Thread newThread(Runnable r) {
                 threadNumber += 1;
-                Thread t = new Thread(r, "ODEServer-"+threadNumber);
+                Thread t = new Thread(r, prefix+threadNumber);
                 t.setDaemon(true);
                 return t;
             }
         };
+    }
+
+    private void initBpelServer(EndpointReferenceContextImpl eprContext) {
+        if (__log.isDebugEnabled()) {
+            __log.debug("ODE initializing");
+        }
+        if (_odeConfig.isVirtualThreads()) {
+            _executorService = VirtualThreads.newThreadPerTaskExecutor("ODEServer-virtual-");
+            if (_executorService == null) {
+                __log.warn("Virtual threads are not supported by this JVM, falling back to a platform thread pool.");
+            } else {
+                // blocking partner invocations go to virtual threads, transactions stay bounded by the connection pool
+                _txExecutorService = Executors.newFixedThreadPool(_odeConfig.getDbThreadPoolSize(), newThreadFactory("ODEServer-tx-"));
+                __log.info("Using virtual threads, " + _odeConfig.getDbThreadPoolSize() + " threads for transactions.");
+            }
+        }
 
-        if (_odeConfig.getThreadPoolMaxSize() == 0)
-            _executorService = Executors.newCachedThreadPool(threadFactory);
-        else
-            _executorService = Executors.newFixedThreadPool(_odeConfig.getThreadPoolMaxSize(), threadFactory);
+        if (_executorService == null) {
+            ThreadFactory threadFactory = newThreadFactory("ODEServer-");
+            if (_odeConfig.getThreadPoolMaxSize() == 0)
+                _executorService = Executors.newCachedThreadPool(threadFactory);
+            else
+                _executorService = Executors.newFixedThreadPool(_odeConfig.getThreadPoolMaxSize(), threadFactory);
+        }
 
         {
             List<String> targets = new ArrayList<String>();
@@ -596,10 +623,18 @@ public class ODEServer {
         _bpelServer.setBindingContext(new BindingContextImpl(this));
         _bpelServer.setScheduler(_scheduler);
         if (_odeConfig.isDehydrationEnabled()) {
-            CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
-            dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
-            dehy.setProcessMaxCount(_odeConfig.getDehydrationMaximumCount());
-            _bpelServer.setDehydrationPolicy(dehy);
+            if ("cost".equals(_odeConfig.getDehydrationPolicy())) {
+                CostAwareDehydrationPolicy dehy = new CostAwareDehydrationPolicy();
+                dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
+                dehy.setProcessMaxCount(_odeConfig.getDehydrationMaximumCount());
+                dehy.setHeapBudget(_odeConfig.getDehydrationHeapBudget());
+                _bpelServer.setDehydrationPolicy(dehy);
+            } else {
+                CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
+                dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
+                dehy.setProcessMaxCount(_odeConfig.getDehydrationMaximumCount());
+                _bpelServer.setDehydrationPolicy(dehy);
+            }
         }
         _bpelServer.setMigrationTransactionTimeout(_odeConfig.getMigrationTransactionTimeout());
         _bpelServer.setConfigProperties(_odeConfig.getProperties());
@@ -609,6 +644,14 @@ public class ODEServer {
         _bpelServer.setProcessThrottledMaximumSize(_odeConfig.getProcessThrottledMaximumSize());
         _bpelServer.setHydrationLazy(_odeConfig.isHydrationLazy());
         _bpelServer.setHydrationLazyMinimumSize(_odeConfig.getHydrationLazyMinimumSize());
+        _bpelServer.setInstanceStateCacheMaximumSize(_odeConfig.getInstanceStateCacheMaximumSize());
+        _bpelServer.setRouteCacheMaximumSize(_odeConfig.getRouteCacheMaximumSize());
+        _bpelServer.setMessageQueueTtl(_odeConfig.getMessageQueueTtl());
+        _bpelServer.setVariableCacheMaximumSize(_odeConfig.getVariableCacheMaximumSize());
+        _bpelServer.setXmlStorageFormat(_odeConfig.getXmlStorageFormat());
+        _bpelServer.setXslCacheMaximumSize(_odeConfig.getXslCacheMaximumSize());
+        _bpelServer.setPrecompileExpressions(_odeConfig.isHydrationPrecompile());
+        _bpelServer.setInstanceLockStriped(_odeConfig.isInstanceLockStriped());
     }
 
     private void initHttpConnectionManager() throws ServletException {
@@ -673,10 +716,24 @@ public class ODEServer {
     private void registerEventListeners() {
         String listenersStr = _odeConfig.getEventListeners();
         if (listenersStr != null) {
+            List<String> syncListeners = new ArrayList<String>();
+            if (_odeConfig.getSyncEventListeners() != null) {
+                for (StringTokenizer tokenizer = new StringTokenizer(_odeConfig.getSyncEventListeners(), ",; "); tokenizer.hasMoreTokens();)
+                    syncListeners.add(tokenizer.nextToken());
+            }
             for (StringTokenizer tokenizer = new StringTokenizer(listenersStr, ",;"); tokenizer.hasMoreTokens();) {
                 String listenerCN = tokenizer.nextToken();
                 try {
-                    _bpelServer.registerBpelEventListener((BpelEventListener) Class.forName(listenerCN).newInstance());
+                    BpelEventListener listener = (BpelEventListener) Class.forName(listenerCN).newInstance();
+                    if (_odeConfig.isEventListenersAsync() && !syncListeners.contains(listenerCN)) {
+                        AsyncBpelEventListener async = new AsyncBpelEventListener(listener,
+                                _odeConfig.getEventListenersAsyncCapacity(),
+                                AsyncBpelEventListener.Overflow.valueOf(_odeConfig.getEventListenersAsyncPolicy().toUpperCase()),
+                                _odeConfig.getEventListenersAsyncBatch());
+                        async.setSpillDirectory(_workRoot);
+                        listener = async;
+                    }
+                    _bpelServer.registerBpelEventListener(listener);
                     __log.info(__msgs.msgBpelEventListenerRegistered(listenerCN));
                 } catch (Exception e) {
                     __log.warn("Couldn't register the event listener " + listenerCN + ", the class couldn't be "
@@ -60,6 +60,9 @@ import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.GUID;
 import org.apache.ode.utils.Namespaces;
 import org.apache.ode.utils.Properties;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -71,6 +74,11 @@ public class ODEService {
 
     private static final Logger __log = LoggerFactory.getLogger(ODEService.class);
 
+    private static final Timer __requestTimer = MetricsRegistry.getDefault().timer("ode_axis2_service_request_duration_seconds",
+            "Time spent handling SOAP requests to process services, including the wait for the response.");
+    private static final Counter __requestFaults = MetricsRegistry.getDefault().counter("ode_axis2_service_request_faults_total",
+            "SOAP requests to process services that returned a fault.");
+
     public static final String CALLBACK_SESSION_ENDPOINT = "callbackSessionEndpoint";
     public static final String TARGET_SESSION_ENDPOINT = "targetSessionEndpoint";
 
@@ -104,6 +112,19 @@ public class ODEService {
 
     public void onAxisMessageExchange(MessageContext msgContext, MessageContext outMsgContext, SOAPFactory soapFactory)
             throws AxisFault {
+        long start = __requestTimer.start();
+        try {
+            doAxisMessageExchange(msgContext, outMsgContext, soapFactory);
+        } catch (AxisFault e) {
+            __requestFaults.inc();
+            throw e;
+        } finally {
+            __requestTimer.stop(start);
+        }
+    }
+
+    private void doAxisMessageExchange(MessageContext msgContext, MessageContext outMsgContext, SOAPFactory soapFactory)
+            throws AxisFault {
         boolean success = true;
         MyRoleMessageExchange odeMex = null;
         Future responseFuture = null;
@@ -53,6 +53,9 @@ import org.apache.ode.bpel.iapi.ProcessConf;
 import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.il.OMUtils;
 import org.apache.ode.utils.*;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 import org.apache.ode.utils.uuid.UUID;
 import org.apache.ode.utils.wsdl.Messages;
 import org.w3c.dom.Document;
@@ -85,6 +88,11 @@ public class SoapExternalService implements ExternalService {
 
     private static final org.apache.ode.utils.wsdl.Messages msgs = Messages.getMessages(Messages.class);
 
+    private static final Timer __invokeTimer = MetricsRegistry.getDefault().timer("ode_axis2_partner_invoke_duration_seconds",
+            "Time spent invoking SOAP partner services.");
+    private static final Counter __invokeFailures = MetricsRegistry.getDefault().counter("ode_axis2_partner_invoke_failures_total",
+            "SOAP partner invocations that failed with a communication error.");
+
 
     private static ThreadLocal<ServiceClient> _cachedClients = new ThreadLocal<ServiceClient>();
     private WatchDog<Map, OptionsObserver> _axisOptionsWatchDog;
@@ -202,6 +210,7 @@ public class SoapExternalService implements ExternalService {
                         // blocks other operations that could have been listed there as well.
                         _executorService.submit(new Callable<Object>() {
                             public Object call() throws Exception {
+                                long start = __invokeTimer.start();
                                 try {
                                     operationClient.execute(true);
                                     MessageContext response = operationClient.getMessageContext(WSDLConstants.MESSAGE_LABEL_IN_VALUE);
@@ -215,10 +224,12 @@ public class SoapExternalService implements ExternalService {
                                         reply(mexId, operation, response, response.isFault());
                                     }
                                 } catch (Throwable t) {
+                                    __invokeFailures.inc();
                                     String errmsg = "Error sending message (mex=" + odeMex + "): " + t.getMessage();
                                     __log.error(errmsg, t);
                                     replyWithFailure(mexId, MessageExchange.FailureType.COMMUNICATION_ERROR, errmsg);
                                 } finally {
+                                    __invokeTimer.stop(start);
                                     // release the HTTP connection, we don't need it anymore
                                     TransportOutDescription out = mctx.getTransportOut();
                                     if (out != null && out.getSender() != null) {
@@ -238,12 +249,15 @@ public class SoapExternalService implements ExternalService {
             } else { /** one-way case * */
                 _executorService.submit(new Callable<Object>() {
                     public Object call() throws Exception {
+                        long start = __invokeTimer.start();
                         try {
                             operationClient.execute(true);
                         } catch (Throwable t) {
+                            __invokeFailures.inc();
                             String errmsg = "Error sending message (mex=" + odeMex + "): " + t.getMessage();
                             __log.error(errmsg, t);
                         } finally {
+                            __invokeTimer.stop(start);
                             // release the HTTP connection, we don't need it anymore
                             TransportOutDescription out = mctx.getTransportOut();
                             if (out != null && out.getSender() != null) {
@@ -28,6 +28,7 @@ import org.apache.axis2.AxisFault;
 import org.apache.axis2.transport.http.AxisServlet;
 import org.apache.ode.axis2.ODEServer;
 import org.apache.ode.axis2.service.DeploymentBrowser;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 
 import java.io.*;
 
@@ -38,6 +39,8 @@ import java.io.*;
 public class ODEAxisServlet extends AxisServlet {
     private static final long serialVersionUID = 4898351526757154917L;
 
+    private static final String METRICS_PATH = "/metrics";
+
     private ODEServer _odeServer;
     private DeploymentBrowser _browser;
 
@@ -59,6 +62,12 @@ public class ODEAxisServlet extends AxisServlet {
     }
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (METRICS_PATH.equals(request.getServletPath())) {
+            // Prometheus scrape endpoint
+            response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+            MetricsRegistry.getDefault().writeText(response.getWriter());
+            return;
+        }
         if (!_browser.doFilter(request, response)) super.doGet(request, response);
     }
 
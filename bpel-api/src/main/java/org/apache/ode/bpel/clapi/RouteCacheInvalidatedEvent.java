@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.clapi;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Published once a transaction changing the message routes of a process committed, so that the other nodes update
+ * the routes they cached: either a route was created on a correlator, or routes of an instance were removed (they
+ * were consumed or the instance completed).
+ */
+public class RouteCacheInvalidatedEvent extends ProcessStoreClusterEvent {
+
+    private final QName processId;
+
+    private final String correlatorId;
+
+    private final Long instanceId;
+
+    private final String groupId;
+
+    private RouteCacheInvalidatedEvent(String deploymentUnit, QName processId, String correlatorId, Long instanceId, String groupId) {
+        super(deploymentUnit);
+        this.processId = processId;
+        this.correlatorId = correlatorId;
+        this.instanceId = instanceId;
+        this.groupId = groupId;
+        info = "Route Cache Invalidation Event";
+    }
+
+    public static RouteCacheInvalidatedEvent forNewRoute(String deploymentUnit, QName processId, String correlatorId) {
+        return new RouteCacheInvalidatedEvent(deploymentUnit, processId, correlatorId, null, null);
+    }
+
+    public static RouteCacheInvalidatedEvent forRemovedRoutes(String deploymentUnit, QName processId, Long instanceId, String groupId) {
+        return new RouteCacheInvalidatedEvent(deploymentUnit, processId, null, instanceId, groupId);
+    }
+
+    public QName getProcessId() {
+        return processId;
+    }
+
+    /**
+     * @return the correlator of the new route, <code>null</code> for removed routes
+     */
+    public String getCorrelatorId() {
+        return correlatorId;
+    }
+
+    /**
+     * @return the instance whose routes were removed, <code>null</code> for a new route
+     */
+    public Long getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @return the group of the removed routes, <code>null</code> when the instance completed
+     */
+    public String getGroupId() {
+        return groupId;
+    }
+
+    @Override
+    public String toString() {
+        return "{RouteCacheInvalidatedEvent#" + processId + (instanceId != null ? "#" + instanceId + "#" + groupId : "#" + correlatorId) + "}";
+    }
+}
@@ -103,6 +103,12 @@ public interface EvaluationContext {
      */
     QName getProcessQName();
 
+    /**
+     * Reads the current process's id, which differs between versions of the same process.
+     * @return process id
+     */
+    QName getPID();
+
     /**
      * Indicates whether simple types should be narrowed to a Java type when
      * using this evaluation context.
@@ -114,6 +114,20 @@ public interface BpelDAOConnection {
 
     MessageExchangeDAO getMessageExchange(String mexid);
 
+    /**
+     * Take the messages that have been waiting for a route since before some time off the queues of their
+     * correlators.
+     * @param queuedBefore time the messages were queued before
+     * @param maxCount maximum number of messages to dequeue
+     * @return the dequeued message exchanges
+     */
+    List<MessageExchangeDAO> dequeueExpiredMessages(Date queuedBefore, int maxCount);
+
+    /**
+     * @return the number of messages queued on all the correlators, waiting for a route
+     */
+    long getQueuedMessageCount();
+
     /**
      * Returns an interface for process and instance management.
      *
@@ -113,6 +113,15 @@ public interface CorrelatorDAO {
    */
   void removeRoutes(String routeGroupId, ProcessInstanceDAO target);
 
+  /**
+   * Check whether routes with the given route-group identifier are still registered for an instance, as
+   * {@link #removeRoutes} would remove them.
+   * @param routeGroupId identifier of the group of routes
+   * @param target target process instance
+   * @return true if at least one route of the group is registered
+   */
+  boolean hasRoutes(String routeGroupId, ProcessInstanceDAO target);
+
     /**
      * @return all routes registered on this correlator, use with care as it can potentially return a lot of values
      */
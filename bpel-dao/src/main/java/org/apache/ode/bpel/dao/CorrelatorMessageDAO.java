@@ -20,10 +20,16 @@
 package org.apache.ode.bpel.dao;
 
 import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
 
 public interface CorrelatorMessageDAO {
 
     CorrelationKey getCorrelationKey();
 
     void setCorrelationKey(CorrelationKey ckey);
+
+    /**
+     * @return the correlation keys the message is queued with
+     */
+    CorrelationKeySet getCorrelationKeySet();
 }
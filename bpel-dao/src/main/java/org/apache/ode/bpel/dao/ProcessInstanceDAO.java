@@ -24,6 +24,7 @@ import org.w3c.dom.Element;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
@@ -86,6 +87,13 @@ public interface ProcessInstanceDAO {
      */
     void setExecutionState(byte[] execState);
 
+    /**
+     * Get the version of the execution state, the number of times it was set. Reading the version doesn't
+     * read the execution state itself.
+     * @return execution state version, 0 if the state was never set or was set before versions were kept
+     */
+    int getExecutionStateCounter();
+
     /**
      * Get the process.
      *
@@ -210,6 +218,13 @@ public interface ProcessInstanceDAO {
      */
     void insertBpelEvent(ProcessInstanceEvent event);
 
+    /**
+     * Insert several BPEL events to the database at once, typically all the events of a transaction.
+     * Implementations should write them in a single batch.
+     * @param events BPEL events, in the order they were fired
+     */
+    void insertBpelEvents(List<ProcessInstanceEvent> events);
+
     /**
      * Get a triple containing the first
      * @return
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Bounded LRU cache of parsed variable values, used by the persistent {@link XmlDataDAO} implementations so that
+ * a variable read in several transactions isn't parsed again in each of them.
+ *
+ * <p>
+ * Entries are keyed by the identifier of the variable record and stamped with the length and checksum of the
+ * serialized value they were parsed from or written as. An entry is only used if the value read from the database
+ * still matches its stamp, so a rolled back transaction or another cluster node writing the variable only cause a
+ * miss. A DAO puts the value it writes in the cache, replacing the previous one.
+ * </p>
+ *
+ * <p>
+ * The cache keeps its own copy of the values and hands out copies of it, an importNode being much cheaper than a
+ * parse. A cached value is never seen by the engine, so nothing changes it and it can be read by several threads,
+ * the copies being made under the cache lock.
+ * </p>
+ *
+ * <p>
+ * The cache is weighted by the length of the serialized values and is disabled when its maximum size is zero.
+ * </p>
+ */
+public class XmlDataCache {
+    private static final Counter __hits = MetricsRegistry.getDefault().counter("ode_variable_cache_hits_total",
+            "Variable reads served with an already parsed value.");
+    private static final Counter __misses = MetricsRegistry.getDefault().counter("ode_variable_cache_misses_total",
+            "Variable reads that had to parse the persisted value.");
+
+    private static final XmlDataCache __default = new XmlDataCache(0);
+
+    /** Entries in access order, the eldest entry is the first to be evicted. */
+    private final LinkedHashMap<Object, Entry> _entries = new LinkedHashMap<Object, Entry>(64, 0.75f, true);
+
+    /** Maximum total length of the cached values, 0 disables the cache. */
+    private volatile long _maxSize;
+
+    /** Current total length of the cached values. Guarded by this. */
+    private long _size;
+
+    static {
+        MetricsRegistry.getDefault().gauge("ode_variable_cache_size", "Total length of the cached variable values.",
+                new Gauge.Value() {
+                    public long get() {
+                        return __default.getSize();
+                    }
+                });
+    }
+
+    public XmlDataCache(long maxSize) {
+        _maxSize = maxSize;
+    }
+
+    /**
+     * @return the cache shared by the DAO implementations
+     */
+    public static XmlDataCache getDefault() {
+        return __default;
+    }
+
+    public boolean isEnabled() {
+        return _maxSize > 0;
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        _maxSize = maxSize;
+        shrink();
+    }
+
+    public long getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * @param key identifier of the variable record
+     * @param length length of the serialized value currently stored
+     * @param checksum checksum of the serialized value currently stored
+     * @return a copy of the parsed value in a new document, or <code>null</code> if none is cached or it doesn't
+     *         match the stored one
+     */
+    public synchronized Node get(Object key, int length, long checksum) {
+        Entry entry = _entries.get(key);
+        if (entry == null || entry.length != length || entry.checksum != checksum) {
+            __misses.inc();
+            return null;
+        }
+        __hits.inc();
+        return copy(entry.value);
+    }
+
+    /**
+     * Cache a copy of the parsed form of a serialized value, replacing the previous value of the variable. The
+     * given value stays the caller's.
+     */
+    public void put(Object key, int length, long checksum, Node value) {
+        if (!isEnabled()) return;
+        if (length > _maxSize) {
+            remove(key);
+            return;
+        }
+        // Copied outside of the lock, the value is only seen by the caller
+        Node copy = copy(value);
+        synchronized (this) {
+            Entry old = _entries.put(key, new Entry(length, checksum, copy));
+            if (old != null) _size -= old.length;
+            _size += length;
+            shrink();
+        }
+    }
+
+    private static Node copy(Node value) {
+        Document doc = DOMUtils.newDocument();
+        Node copy = doc.importNode(value, true);
+        doc.appendChild(copy);
+        return copy;
+    }
+
+    public synchronized void remove(Object key) {
+        Entry old = _entries.remove(key);
+        if (old != null) _size -= old.length;
+    }
+
+    public synchronized void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+    private void shrink() {
+        for (Iterator<Map.Entry<Object, Entry>> it = _entries.entrySet().iterator(); _size > _maxSize && it.hasNext();) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            _size -= eldest.length;
+        }
+    }
+
+    public synchronized int getCount() {
+        return _entries.size();
+    }
+
+    public synchronized long getSize() {
+        return _size;
+    }
+
+    /**
+     * CRC32 of the UTF-16 code units of a value, computed without encoding the whole string.
+     */
+    public static long checksum(String data) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[Math.min(8192, data.length() * 2)];
+        int pos = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            buffer[pos++] = (byte) (c >> 8);
+            buffer[pos++] = (byte) c;
+            if (pos == buffer.length) {
+                crc.update(buffer, 0, pos);
+                pos = 0;
+            }
+        }
+        crc.update(buffer, 0, pos);
+        return crc.getValue();
+    }
+
+    public static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "{XmlDataCache: count=" + _entries.size() + ", size=" + _size + "/" + _maxSize + "}";
+    }
+
+    private static class Entry {
+        final int length;
+        final long checksum;
+        final Node value;
+
+        Entry(int length, long checksum, Node value) {
+            this.length = length;
+            this.checksum = checksum;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.dao;
+
+import java.io.IOException;
+
+import org.w3c.dom.Element;
+
+/**
+ * Storage format of the XML values (variables, messages, faults) persisted by the DAO implementations.
+ * Implementations are registered with {@link XmlDataCodecs} under a unique identifier that is written in the
+ * header of every encoded value, so a value can be read whatever format is currently configured.
+ */
+public interface XmlDataCodec {
+
+    /**
+     * @return identifier written in the value header, 0-15 are reserved for the codecs shipped with ODE
+     */
+    byte getId();
+
+    /**
+     * @return name used to select the codec in the configuration
+     */
+    String getName();
+
+    /**
+     * Encode a value (without header).
+     */
+    byte[] encode(Element value);
+
+    /**
+     * Decode an encoded value (without header).
+     *
+     * @param data buffer holding the encoded value
+     * @param offset start of the encoded value in the buffer
+     * @param length length of the encoded value
+     * @return the document element of a new document
+     */
+    Element decode(byte[] data, int offset, int length) throws IOException;
+}
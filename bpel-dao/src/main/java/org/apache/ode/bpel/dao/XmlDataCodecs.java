@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.xml.BinaryXml;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Registry of the available {@link XmlDataCodec}s, selection of the format values are written in and handling
+ * of the encoded value header.
+ *
+ * <p>
+ * An encoded value starts with a 6 bytes header: a 4 bytes magic sequence starting with a zero byte, the header
+ * format version and the codec identifier. Values without the magic sequence are textual XML as written by
+ * previous versions and by the {@link #TEXT} codec, so databases holding both keep working whatever format is
+ * configured.
+ * </p>
+ *
+ * <p>
+ * Columns holding character data get the Base64 form of the encoded value, textual XML can't start with the
+ * Base64 form of the magic sequence either.
+ * </p>
+ */
+public class XmlDataCodecs {
+    private static final Logger __log = LoggerFactory.getLogger(XmlDataCodecs.class);
+
+    static final byte[] MAGIC = new byte[] { 0, 'O', 'D', 'X' };
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    /** Base64 form of the first three bytes of the magic sequence, which don't depend on what follows. */
+    static final String STRING_MAGIC = Base64.getEncoder().encodeToString(new byte[] { MAGIC[0], MAGIC[1], MAGIC[2] });
+
+    /** Textual XML, no header. */
+    public static final XmlDataCodec TEXT = new XmlDataCodec() {
+        public byte getId() {
+            return 0;
+        }
+        public String getName() {
+            return "text";
+        }
+        public byte[] encode(Element value) {
+            return DOMUtils.domToBytes(value);
+        }
+        public Element decode(byte[] data, int offset, int length) throws IOException {
+            try {
+                return DOMUtils.stringToDOM(new String(data, offset, length));
+            } catch (SAXException e) {
+                throw new IOException("Invalid XML value", e);
+            }
+        }
+    };
+
+    /** Binary XML, see {@link BinaryXml}. */
+    public static final XmlDataCodec BINARY = new BinaryXmlDataCodec((byte) 1, "binary", false);
+
+    /** Deflate compressed binary XML. */
+    public static final XmlDataCodec BINARY_DEFLATE = new BinaryXmlDataCodec((byte) 2, "binary-deflate", true);
+
+    private static final ConcurrentHashMap<Byte, XmlDataCodec> __byId = new ConcurrentHashMap<Byte, XmlDataCodec>();
+    private static final ConcurrentHashMap<String, XmlDataCodec> __byName = new ConcurrentHashMap<String, XmlDataCodec>();
+
+    /** Format new values are written in. */
+    private static volatile XmlDataCodec __default = TEXT;
+
+    static {
+        register(TEXT);
+        register(BINARY);
+        register(BINARY_DEFLATE);
+    }
+
+    /**
+     * Make a codec available for encoding (by name) and decoding (by identifier).
+     */
+    public static void register(XmlDataCodec codec) {
+        XmlDataCodec existing = __byId.putIfAbsent(codec.getId(), codec);
+        if (existing != null && existing != codec)
+            throw new IllegalArgumentException("Codec identifier " + codec.getId() + " already used by " + existing.getName());
+        __byName.put(codec.getName(), codec);
+    }
+
+    /**
+     * Find a codec by name.
+     * @return the codec, {@link #TEXT} if the name is null or unknown
+     */
+    public static XmlDataCodec getCodec(String name) {
+        if (name == null) return TEXT;
+        XmlDataCodec codec = __byName.get(name.trim().toLowerCase());
+        if (codec == null) {
+            __log.warn("Unknown XML storage format " + name + ", values will be stored as text.");
+            return TEXT;
+        }
+        return codec;
+    }
+
+    /**
+     * @return the codec new values are written with
+     */
+    public static XmlDataCodec getDefault() {
+        return __default;
+    }
+
+    public static void setDefault(XmlDataCodec codec) {
+        __default = codec == null ? TEXT : codec;
+    }
+
+    /**
+     * Encode a value with the configured codec, including the header.
+     */
+    public static byte[] encode(Element value) {
+        return encode(__default, value);
+    }
+
+    public static byte[] encode(XmlDataCodec codec, Element value) {
+        if (codec == TEXT) return TEXT.encode(value);
+
+        byte[] body = codec.encode(value);
+        byte[] encoded = new byte[HEADER_LENGTH + body.length];
+        System.arraycopy(MAGIC, 0, encoded, 0, MAGIC.length);
+        encoded[MAGIC.length] = VERSION;
+        encoded[MAGIC.length + 1] = codec.getId();
+        System.arraycopy(body, 0, encoded, HEADER_LENGTH, body.length);
+        return encoded;
+    }
+
+    /**
+     * Decode a value as read from the database, whatever codec was used to write it.
+     */
+    public static Element decode(byte[] data) throws SAXException, IOException {
+        if (!isEncoded(data)) return DOMUtils.stringToDOM(data);
+
+        byte version = data[MAGIC.length];
+        if (version != VERSION)
+            throw new IOException("Unsupported XML value header version " + version);
+        byte id = data[MAGIC.length + 1];
+        XmlDataCodec codec = __byId.get(id);
+        if (codec == null)
+            throw new IOException("No XML storage codec registered with identifier " + id);
+        return codec.decode(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+    }
+
+    /**
+     * Encode a value with the configured codec for a character column.
+     */
+    public static String encodeToString(Element value) {
+        XmlDataCodec codec = __default;
+        if (codec == TEXT) return DOMUtils.domToString(value);
+        return Base64.getEncoder().encodeToString(encode(codec, value));
+    }
+
+    /**
+     * Decode a value as read from a character column, whatever codec was used to write it.
+     */
+    public static Element decode(String data) throws SAXException, IOException {
+        if (!isEncoded(data)) return DOMUtils.stringToDOM(data);
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(data);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted XML value", e);
+        }
+        return decode(bytes);
+    }
+
+    static boolean isEncoded(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    static boolean isEncoded(String data) {
+        return data != null && data.startsWith(STRING_MAGIC);
+    }
+
+    /**
+     * Binary XML, optionally deflate compressed.
+     */
+    private static class BinaryXmlDataCodec implements XmlDataCodec {
+        private final byte _id;
+        private final String _name;
+        private final boolean _deflate;
+
+        BinaryXmlDataCodec(byte id, String name, boolean deflate) {
+            _id = id;
+            _name = name;
+            _deflate = deflate;
+        }
+
+        public byte getId() {
+            return _id;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public byte[] encode(Element value) {
+            byte[] binary = BinaryXml.write(value);
+            if (!_deflate) return binary;
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            try {
+                deflater.setInput(binary);
+                deflater.finish();
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, binary.length / 4));
+                byte[] buf = new byte[8192];
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(buf);
+                    bos.write(buf, 0, len);
+                }
+                return bos.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        public Element decode(byte[] data, int offset, int length) throws IOException {
+            if (!_deflate) return BinaryXml.read(data, offset, length);
+
+            Inflater inflater = new Inflater(true);
+            try {
+                // nowrap streams need an extra dummy byte to signal the end of input
+                byte[] input = new byte[length + 1];
+                System.arraycopy(data, offset, input, 0, length);
+                inflater.setInput(input);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(length * 4);
+                byte[] buf = new byte[8192];
+                while (!inflater.finished()) {
+                    int len = inflater.inflate(buf);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new IOException("Truncated XML value");
+                    bos.write(buf, 0, len);
+                }
+                byte[] binary = bos.toByteArray();
+                return BinaryXml.read(binary, 0, binary.length);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted XML value", e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        public String toString() {
+            return "{BinaryXmlDataCodec " + _name + ", deflate=" + _deflate + "}";
+        }
+    }
+}
@@ -55,11 +55,13 @@ public interface XmlDataDAO {
   public void remove();
 
   /**
-   * Set the data value of a variable.
+   * Set the data value of a variable. Implementations don't write a value that is known to be the one already
+   * stored.
    *
    * @param val value
+   * @return <code>false</code> if the value was unchanged and wasn't written, <code>true</code> otherwise
    */
-  public void set(Node val);
+  public boolean set(Node val);
 
   /**
    * Return the value of a property.  Properties are useful
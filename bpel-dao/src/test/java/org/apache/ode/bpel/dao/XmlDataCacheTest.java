@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.dao;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class XmlDataCacheTest extends TestCase {
+
+    private static Element value(String text) throws Exception {
+        return DOMUtils.stringToDOM("<foo><bar>" + text + "</bar></foo>");
+    }
+
+    public void testGetCopies() throws Exception {
+        XmlDataCache cache = new XmlDataCache(1000);
+        Element value = value("baz");
+        cache.put(1L, 10, 42L, value);
+        // The cache keeps its own copy
+        value.getFirstChild().setTextContent("changed");
+
+        Node first = cache.get(1L, 10, 42L);
+        assertNotSame(value, first);
+        assertEquals("baz", first.getTextContent());
+        assertSame(first.getOwnerDocument().getDocumentElement(), first);
+        first.getFirstChild().setTextContent("changed");
+
+        Node second = cache.get(1L, 10, 42L);
+        assertNotSame(first, second);
+        assertEquals("baz", second.getTextContent());
+    }
+
+    public void testStaleStamp() throws Exception {
+        XmlDataCache cache = new XmlDataCache(1000);
+        cache.put(1L, 10, 42L, value("baz"));
+        assertNull(cache.get(1L, 11, 42L));
+        assertNull(cache.get(1L, 10, 43L));
+        assertNull(cache.get(2L, 10, 42L));
+        assertNotNull(cache.get(1L, 10, 42L));
+
+        // A new value replaces the previous one
+        cache.put(1L, 12, 44L, value("qux"));
+        assertNull(cache.get(1L, 10, 42L));
+        assertEquals("qux", cache.get(1L, 12, 44L).getTextContent());
+        assertEquals(1, cache.getCount());
+        assertEquals(12, cache.getSize());
+    }
+
+    public void testEvictionBySize() throws Exception {
+        XmlDataCache cache = new XmlDataCache(100);
+        cache.put(1L, 40, 1L, value("one"));
+        cache.put(2L, 40, 2L, value("two"));
+        // Reading the first value makes the second one the eldest
+        assertNotNull(cache.get(1L, 40, 1L));
+        cache.put(3L, 40, 3L, value("three"));
+
+        assertEquals(2, cache.getCount());
+        assertEquals(80, cache.getSize());
+        assertNotNull(cache.get(1L, 40, 1L));
+        assertNull(cache.get(2L, 40, 2L));
+        assertNotNull(cache.get(3L, 40, 3L));
+
+        // Values larger than the cache aren't kept, and drop the previous value of the variable
+        cache.put(1L, 101, 4L, value("big"));
+        assertNull(cache.get(1L, 40, 1L));
+        assertNull(cache.get(1L, 101, 4L));
+        assertEquals(40, cache.getSize());
+
+        cache.setMaxSize(30);
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testDisabled() throws Exception {
+        XmlDataCache cache = new XmlDataCache(0);
+        assertFalse(cache.isEnabled());
+        cache.put(1L, 10, 42L, value("baz"));
+        assertEquals(0, cache.getCount());
+        assertNull(cache.get(1L, 10, 42L));
+    }
+
+    public void testMetrics() throws Exception {
+        Counter hits = (Counter) MetricsRegistry.getDefault().get("ode_variable_cache_hits_total");
+        Counter misses = (Counter) MetricsRegistry.getDefault().get("ode_variable_cache_misses_total");
+        long hitsBefore = hits.get();
+        long missesBefore = misses.get();
+
+        XmlDataCache cache = XmlDataCache.getDefault();
+        cache.setMaxSize(1000);
+        try {
+            cache.put(1L, 10, 42L, value("baz"));
+            cache.get(1L, 10, 42L);
+            cache.get(1L, 10, 43L);
+            cache.get(2L, 10, 42L);
+
+            assertEquals(hitsBefore + 1, hits.get());
+            assertEquals(missesBefore + 2, misses.get());
+            assertEquals(10L, MetricsRegistry.getDefault().snapshot().get("ode_variable_cache_size").longValue());
+        } finally {
+            cache.clear();
+            cache.setMaxSize(0);
+        }
+    }
+
+    public void testChecksum() throws Exception {
+        // Same String.hashCode
+        assertFalse(XmlDataCache.checksum("Aa") == XmlDataCache.checksum("BB"));
+        assertFalse(XmlDataCache.checksum("abc") == XmlDataCache.checksum("acb"));
+        assertEquals(XmlDataCache.checksum("abc"), XmlDataCache.checksum(new String("abc")));
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++) large.append((char) ('a' + i % 26));
+        long checksum = XmlDataCache.checksum(large.toString());
+        large.setCharAt(9000, '\u00e9');
+        assertFalse(checksum == XmlDataCache.checksum(large.toString()));
+        assertEquals(XmlDataCache.checksum(""), XmlDataCache.checksum(new byte[0]));
+    }
+}
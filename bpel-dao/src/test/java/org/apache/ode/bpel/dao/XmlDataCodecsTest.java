@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.dao;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Element;
+
+public class XmlDataCodecsTest extends TestCase {
+
+    private static final String XML = "<foo xmlns=\"urn:test\" a=\"1\"><bar>baz</bar><bar>qux</bar></foo>";
+
+    private Element value() throws Exception {
+        return DOMUtils.stringToDOM(XML);
+    }
+
+    private static void assertValue(Element e) {
+        assertEquals("urn:test", e.getNamespaceURI());
+        assertEquals("foo", e.getLocalName());
+        assertEquals("1", e.getAttribute("a"));
+        assertEquals("bazqux", e.getTextContent());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        XmlDataCodecs.setDefault(null);
+    }
+
+    public void testLegacyText() throws Exception {
+        // Rows written before codecs existed are plain XML, in binary and character columns
+        assertValue(XmlDataCodecs.decode(XML.getBytes("UTF-8")));
+        assertValue(XmlDataCodecs.decode(XML));
+        assertFalse(XmlDataCodecs.isEncoded(XML.getBytes("UTF-8")));
+        assertFalse(XmlDataCodecs.isEncoded(XML));
+
+        // The text codec writes the same, without header
+        byte[] text = XmlDataCodecs.encode(XmlDataCodecs.TEXT, value());
+        assertFalse(XmlDataCodecs.isEncoded(text));
+        assertValue(DOMUtils.stringToDOM(text));
+        assertEquals(DOMUtils.domToString(value()), XmlDataCodecs.encodeToString(value()));
+    }
+
+    public void testRoundTrip() throws Exception {
+        for (XmlDataCodec codec : new XmlDataCodec[] { XmlDataCodecs.TEXT, XmlDataCodecs.BINARY, XmlDataCodecs.BINARY_DEFLATE }) {
+            assertValue(XmlDataCodecs.decode(XmlDataCodecs.encode(codec, value())));
+        }
+    }
+
+    public void testBinaryDeflate() throws Exception {
+        StringBuilder xml = new StringBuilder("<foo>");
+        for (int i = 0; i < 500; i++) xml.append("<bar>some repeated content</bar>");
+        xml.append("</foo>");
+        Element large = DOMUtils.stringToDOM(xml.toString());
+
+        byte[] plain = XmlDataCodecs.encode(XmlDataCodecs.BINARY, large);
+        byte[] deflated = XmlDataCodecs.encode(XmlDataCodecs.BINARY_DEFLATE, large);
+        assertTrue(XmlDataCodecs.isEncoded(deflated));
+        assertEquals(XmlDataCodecs.BINARY_DEFLATE.getId(), deflated[XmlDataCodecs.MAGIC.length + 1]);
+        assertTrue(deflated.length < plain.length / 4);
+
+        Element decoded = XmlDataCodecs.decode(deflated);
+        assertEquals(500, decoded.getElementsByTagName("bar").getLength());
+        assertEquals(large.getTextContent(), decoded.getTextContent());
+
+        // Cut short, the value must not decode to something partial
+        byte[] truncated = new byte[deflated.length / 2];
+        System.arraycopy(deflated, 0, truncated, 0, truncated.length);
+        try {
+            XmlDataCodecs.decode(truncated);
+            fail("Truncated value decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testEncodeToString() throws Exception {
+        XmlDataCodecs.setDefault(XmlDataCodecs.BINARY_DEFLATE);
+        String data = XmlDataCodecs.encodeToString(value());
+        assertTrue(XmlDataCodecs.isEncoded(data));
+        assertTrue(data.startsWith(XmlDataCodecs.STRING_MAGIC));
+        // Plain Base64, safe for any character column
+        assertTrue(XmlDataCodecs.isEncoded(Base64.getDecoder().decode(data)));
+        assertValue(XmlDataCodecs.decode(data));
+
+        try {
+            XmlDataCodecs.decode(XmlDataCodecs.STRING_MAGIC + "!!!");
+            fail("Corrupted value decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMixedFormats() throws Exception {
+        // Values written under different configurations all decode, whatever the current default
+        byte[][] rows = new byte[][] {
+                XML.getBytes("UTF-8"),
+                XmlDataCodecs.encode(XmlDataCodecs.BINARY, value()),
+                XmlDataCodecs.encode(XmlDataCodecs.BINARY_DEFLATE, value()) };
+        String[] clobs = new String[3];
+        XmlDataCodecs.setDefault(XmlDataCodecs.TEXT);
+        clobs[0] = XmlDataCodecs.encodeToString(value());
+        XmlDataCodecs.setDefault(XmlDataCodecs.BINARY);
+        clobs[1] = XmlDataCodecs.encodeToString(value());
+        XmlDataCodecs.setDefault(XmlDataCodecs.BINARY_DEFLATE);
+        clobs[2] = XmlDataCodecs.encodeToString(value());
+
+        for (XmlDataCodec codec : new XmlDataCodec[] { XmlDataCodecs.TEXT, XmlDataCodecs.BINARY_DEFLATE }) {
+            XmlDataCodecs.setDefault(codec);
+            for (byte[] row : rows) assertValue(XmlDataCodecs.decode(row));
+            for (String clob : clobs) assertValue(XmlDataCodecs.decode(clob));
+        }
+    }
+
+    public void testUnknownCodec() throws Exception {
+        byte[] data = XmlDataCodecs.encode(XmlDataCodecs.BINARY, value());
+        data[XmlDataCodecs.MAGIC.length + 1] = 42;
+        try {
+            XmlDataCodecs.decode(data);
+            fail("Value with an unknown codec decoded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("42"));
+        }
+
+        assertSame(XmlDataCodecs.TEXT, XmlDataCodecs.getCodec("nosuchcodec"));
+        assertSame(XmlDataCodecs.TEXT, XmlDataCodecs.getCodec(null));
+        assertSame(XmlDataCodecs.BINARY_DEFLATE, XmlDataCodecs.getCodec(" Binary-Deflate "));
+    }
+
+    public void testUnknownVersion() throws Exception {
+        byte[] data = XmlDataCodecs.encode(XmlDataCodecs.BINARY, value());
+        data[XmlDataCodecs.MAGIC.length] = XmlDataCodecs.VERSION + 1;
+        try {
+            XmlDataCodecs.decode(data);
+            fail("Value with an unknown header version decoded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+    }
+
+    public void testDuplicateId() throws Exception {
+        try {
+            XmlDataCodecs.register(new XmlDataCodec() {
+                public byte getId() {
+                    return XmlDataCodecs.BINARY.getId();
+                }
+                public String getName() {
+                    return "duplicate";
+                }
+                public byte[] encode(Element value) {
+                    return null;
+                }
+                public Element decode(byte[] data, int offset, int length) {
+                    return null;
+                }
+            });
+            fail("Codec registered twice under the same identifier");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertSame(XmlDataCodecs.TEXT, XmlDataCodecs.getCodec("duplicate"));
+    }
+}
@@ -70,6 +70,10 @@ public class OdeConfigProperties {
 
     public static final String PROP_THREAD_POOL_SIZE = "threads.pool.size";
 
+    public static final String PROP_THREADS_VIRTUAL = "threads.virtual";
+
+    public static final String PROP_DB_THREAD_POOL_SIZE = "threads.db.pool.size";
+
     public static final String PROP_CONNECTOR_PORT = "jca.port";
 
     public static final String PROP_CONNECTOR_NAME = "jca.name";
@@ -80,6 +84,16 @@ public class OdeConfigProperties {
 
     public static final String PROP_EVENT_LISTENERS = "event.listeners";
 
+    public static final String PROP_EVENT_LISTENERS_ASYNC = "event.listeners.async";
+
+    public static final String PROP_EVENT_LISTENERS_ASYNC_CAPACITY = "event.listeners.async.capacity";
+
+    public static final String PROP_EVENT_LISTENERS_ASYNC_POLICY = "event.listeners.async.policy";
+
+    public static final String PROP_EVENT_LISTENERS_ASYNC_BATCH = "event.listeners.async.batch";
+
+    public static final String PROP_EVENT_LISTENERS_SYNC = "event.listeners.sync";
+
     public static final String PROP_MEX_INTERCEPTORS = "mex.interceptors";
 
     public static final String PROP_MEX_INMEM_TTL = "mex.inmem.ttl";
@@ -90,16 +104,36 @@ public class OdeConfigProperties {
 
     public static final String PROP_PROCESS_DEHYDRATION_MAXIMUM_COUNT = "process.dehydration.maximum.count";
 
+    public static final String PROP_PROCESS_DEHYDRATION_POLICY = "process.dehydration.policy";
+
+    public static final String PROP_PROCESS_DEHYDRATION_HEAP_BUDGET = "process.dehydration.heap.budget";
+
     public static final String PROP_PROCESS_HYDRATION_LAZY = "process.hydration.lazy";
 
     public static final String PROP_PROCESS_HYDRATION_LAZY_MINIMUM_SIZE = "process.hydration.lazy.minimum.size";
 
+    public static final String PROP_PROCESS_HYDRATION_PRECOMPILE = "process.hydration.precompile";
+
     public static final String PROP_PROCESS_HYDRATION_THROTTLED_MAXIMUM_COUNT = "process.hydration.throttled.maximum.count";
 
     public static final String PROP_PROCESS_HYDRATION_THROTTLED_MAXIMUM_SIZE = "process.hydration.throttled.maximum.size";
 
     public static final String PROP_PROCESS_INSTANCE_THROTTLED_MAXIMUM_COUNT = "process.instance.throttled.maximum.count";
 
+    public static final String PROP_INSTANCE_STATE_CACHE_SIZE = "instance.state.cache.size";
+
+    public static final String PROP_VARIABLE_CACHE_SIZE = "variable.cache.size";
+
+    public static final String PROP_ROUTE_CACHE_SIZE = "route.cache.size";
+
+    public static final String PROP_MESSAGE_QUEUE_TTL = "message.queue.ttl";
+
+    public static final String PROP_XML_STORAGE_FORMAT = "xml.storage.format";
+
+    public static final String PROP_XSL_CACHE_SIZE = "xsl.cache.size";
+
+    public static final String PROP_INSTANCE_LOCK_STRIPED = "instance.lock.striped";
+
     public static final String PROP_DAOCF = "dao.factory";
 
     public static final String PROP_MIGRATION_TRANSACTION_TIMEOUT = "migration.transaction.timeout";
@@ -273,6 +307,21 @@ public class OdeConfigProperties {
         return Integer.valueOf(getProperty(OdeConfigProperties.PROP_THREAD_POOL_SIZE, "0"));
     }
 
+    /**
+     * Run the integration layer tasks on virtual threads (Java 21+) instead of a platform thread pool.
+     */
+    public boolean isVirtualThreads() {
+        return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_THREADS_VIRTUAL, "false"));
+    }
+
+    /**
+     * Size of the platform thread pool running the scheduler transactions when virtual threads are used, defaults
+     * to the maximum size of the connection pool.
+     */
+    public int getDbThreadPoolSize() {
+        return Integer.valueOf(getProperty(OdeConfigProperties.PROP_DB_THREAD_POOL_SIZE, String.valueOf(getPoolMaxSize())));
+    }
+
     public int getPoolMaxSize() {
         return Integer.valueOf(getProperty(OdeConfigProperties.PROP_POOL_MAX, "10"));
     }
@@ -313,6 +362,36 @@ public class OdeConfigProperties {
         return getProperty(PROP_EVENT_LISTENERS);
     }
 
+    /**
+     * @return whether the event listeners get their events from a dedicated thread instead of the engine threads
+     */
+    public boolean isEventListenersAsync() {
+        return Boolean.valueOf(getProperty(PROP_EVENT_LISTENERS_ASYNC, "false"));
+    }
+
+    public int getEventListenersAsyncCapacity() {
+        return Integer.valueOf(getProperty(PROP_EVENT_LISTENERS_ASYNC_CAPACITY, "10000"));
+    }
+
+    /**
+     * @return what to do with the events of a listener that can't keep up: "block", "drop" or "spill" (to disk)
+     */
+    public String getEventListenersAsyncPolicy() {
+        return getProperty(PROP_EVENT_LISTENERS_ASYNC_POLICY, "block");
+    }
+
+    public int getEventListenersAsyncBatch() {
+        return Integer.valueOf(getProperty(PROP_EVENT_LISTENERS_ASYNC_BATCH, "100"));
+    }
+
+    /**
+     * @return the listeners that still get their events synchronously, in the engine transaction, when
+     * asynchronous dispatch is on
+     */
+    public String getSyncEventListeners() {
+        return getProperty(PROP_EVENT_LISTENERS_SYNC);
+    }
+
     public String getMessageExchangeInterceptors() {
         return getProperty(PROP_MEX_INTERCEPTORS);
     }
@@ -333,10 +412,31 @@ public class OdeConfigProperties {
         return Integer.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_MAXIMUM_COUNT, ""+1000));
     }
 
+    /**
+     * @return "lru" for the count/age based policy, "cost" for the frequency and size aware one
+     */
+    public String getDehydrationPolicy() {
+        return getProperty(PROP_PROCESS_DEHYDRATION_POLICY, "lru");
+    }
+
+    /**
+     * @return the maximum footprint in bytes of the hydrated processes for the cost dehydration policy, 0 for no limit
+     */
+    public long getDehydrationHeapBudget() {
+        return Long.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_HEAP_BUDGET, "0"));
+    }
+
     public boolean isHydrationLazy() {
         return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_HYDRATION_LAZY, "true"));
     }
 
+    /**
+     * @return whether the expressions of a process are compiled when it is hydrated instead of on first use
+     */
+    public boolean isHydrationPrecompile() {
+        return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_HYDRATION_PRECOMPILE, "false"));
+    }
+
     public int getHydrationLazyMinimumSize() {
         return Integer.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_HYDRATION_LAZY_MINIMUM_SIZE, String.valueOf(0)));
     }
@@ -357,6 +457,50 @@ public class OdeConfigProperties {
         return getProcessThrottledMaximumSize() == Long.MAX_VALUE;
     }
 
+    public long getInstanceStateCacheMaximumSize() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_INSTANCE_STATE_CACHE_SIZE, "0"));
+    }
+
+    /**
+     * @return number of message routes of persistent instances kept in memory to match inbound messages, 0 to disable
+     */
+    public int getRouteCacheMaximumSize() {
+        return Integer.valueOf(getProperty(OdeConfigProperties.PROP_ROUTE_CACHE_SIZE, "0"));
+    }
+
+    /**
+     * @return time, in milliseconds, a message may wait for an instance matching its correlation keys before it
+     *         fails, 0 to keep it queued forever
+     */
+    public long getMessageQueueTtl() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_MESSAGE_QUEUE_TTL, "0"));
+    }
+
+    /**
+     * @return total length, in characters, of the parsed variable values kept between transactions, 0 to disable
+     */
+    public long getVariableCacheMaximumSize() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_VARIABLE_CACHE_SIZE, "0"));
+    }
+
+    /**
+     * @return format variables, messages and faults are stored in: text, binary or binary-deflate
+     */
+    public String getXmlStorageFormat() {
+        return getProperty(OdeConfigProperties.PROP_XML_STORAGE_FORMAT, "text");
+    }
+
+    /**
+     * @return total length, in characters, of the compiled XSL sheets kept in cache, 0 for no limit
+     */
+    public long getXslCacheMaximumSize() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_XSL_CACHE_SIZE, String.valueOf(16 * 1024 * 1024)));
+    }
+
+    public boolean isInstanceLockStriped() {
+        return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_INSTANCE_LOCK_STRIPED, "false"));
+    }
+
     public boolean isDbLoggingEnabled() {
         return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_DB_LOGGING, "false"));
     }
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.elang;
+
+import org.apache.ode.utils.NSContext;
+
+/**
+ * Key of the compiled forms of an expression kept by the expression runtimes. Expressions with the same text and
+ * namespace context compile to the same thing, whatever the activity they belong to: the variables and links are
+ * only looked up when evaluating.
+ */
+public final class ExpressionKey {
+    private final String _expression;
+    private final NSContext _nsContext;
+
+    public ExpressionKey(String expression, NSContext nsContext) {
+        _expression = expression;
+        _nsContext = nsContext;
+    }
+
+    public int hashCode() {
+        return _expression.hashCode() * 31 + (_nsContext == null ? 0 : _nsContext.hashCode());
+    }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ExpressionKey)) return false;
+        ExpressionKey other = (ExpressionKey) obj;
+        return _expression.equals(other._expression)
+                && (_nsContext == null ? other._nsContext == null : _nsContext.equals(other._nsContext));
+    }
+}
@@ -24,6 +24,7 @@ import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Map;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
@@ -47,6 +48,7 @@ public class XslRuntimeUriResolver implements URIResolver {
     private static final Logger __log = LoggerFactory.getLogger(XslRuntimeUriResolver.class);
 
     private OXPath10Expression _expr;
+    private Map<URI, OXslSheet> _sheets;
     private final URI _baseResourceURI;
 
     public XslRuntimeUriResolver(OXPath10Expression expr, URI baseResourceURI) {
@@ -54,6 +56,15 @@ public class XslRuntimeUriResolver implements URIResolver {
         _baseResourceURI= baseResourceURI;
     }
 
+    /**
+     * Resolver looking up the sheets of a whole process, used to parse them ahead of the
+     * expressions that use them.
+     */
+    public XslRuntimeUriResolver(Map<URI, OXslSheet> sheets, URI baseResourceURI) {
+        _sheets = sheets;
+        _baseResourceURI= baseResourceURI;
+    }
+
     public Source resolve(String href, String base) throws TransformerException {
         URI uri;
         try {
@@ -62,7 +73,7 @@ public class XslRuntimeUriResolver implements URIResolver {
             return null;
         }
 
-        OXslSheet sheet = _expr.getXslSheet(uri);
+        OXslSheet sheet = _expr != null ? _expr.getXslSheet(uri) : _sheets.get(uri);
         if( sheet != null) {
             String result = sheet.getSheetBody();
             if (result != null) {
@@ -31,6 +31,10 @@ class BpelDocumentNavigator extends DocumentNavigator {
         _documentRoot = docRoot;
     }
 
+    void setDocumentRoot(Node docRoot) {
+        _documentRoot = docRoot;
+    }
+
     public Object getDocumentNode(Object contextNode) {
         return _documentRoot;
     }
@@ -102,6 +102,14 @@ class JaxenContexts implements FunctionContext, VariableContext {
         _doXslTransform = new DoXslTransformFunction();
     }
 
+    /**
+     * Rebind the contexts, and the functions they resolve, to another evaluation.
+     */
+    void bind(OXPath10Expression oxpath, EvaluationContext xpathEvalCtx) {
+        _oxpath = oxpath;
+        _xpathEvalCtx = xpathEvalCtx;
+    }
+
     /**
      * @see org.jaxen.FunctionContext#getFunction(java.lang.String,
      *      java.lang.String, java.lang.String)
@@ -388,9 +396,9 @@ class JaxenContexts implements FunctionContext, VariableContext {
             DOMSource source = new DOMSource(varDoc);
             Object result;
             XslRuntimeUriResolver resolver = new XslRuntimeUriResolver(_oxpath, _xpathEvalCtx.getBaseResourceURI());
-            XslTransformHandler.getInstance().cacheXSLSheet(_xpathEvalCtx.getProcessQName(), xslUri, xslSheet.getSheetBody(), resolver);
             try {
-                result = XslTransformHandler.getInstance().transform(_xpathEvalCtx.getProcessQName(), xslUri, source, parametersMap, resolver);
+                result = XslTransformHandler.getInstance().transform(_xpathEvalCtx.getPID(), xslUri,
+                        xslSheet.getSheetBody(), source, parametersMap, resolver);
             } catch (Exception e) {
                 throw new WrappedFaultException.JaxenFunctionException(
                         new FaultException(_oxpath.getOwner().getConstants().getQnSubLanguageExecutionFault(),
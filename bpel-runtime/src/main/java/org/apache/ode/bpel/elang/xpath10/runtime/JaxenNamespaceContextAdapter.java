@@ -36,6 +36,13 @@ class JaxenNamespaceContextAdapter implements NamespaceContext {
     _namespaceContext = ctx;
   }
 
+  /**
+   * Rebind the adapter to the namespace context of another expression.
+   */
+  void bind(javax.xml.namespace.NamespaceContext ctx) {
+    _namespaceContext = ctx;
+  }
+
   public String translateNamespacePrefixToUri(String prefix) {
     String namespaceURI = _namespaceContext.getNamespaceURI(prefix);
     if (__log.isDebugEnabled()) {
@@ -25,10 +25,12 @@ import org.apache.ode.bpel.elang.xpath10.obj.OXPath10Expression;
 import org.apache.ode.bpel.explang.ConfigurationException;
 import org.apache.ode.bpel.explang.EvaluationContext;
 import org.apache.ode.bpel.explang.EvaluationException;
-import org.apache.ode.bpel.explang.ExpressionLanguageRuntime;
+import org.apache.ode.bpel.explang.PrecompilingExpressionLanguageRuntime;
 import org.apache.ode.bpel.obj.OExpression;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.ISO8601DateParser;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.xsd.Duration;
 import org.apache.ode.utils.xsl.XslTransformHandler;
 import org.jaxen.Context;
@@ -48,16 +50,30 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * XPath 1.0 Expression Language run-time subsytem.
+ *
+ * <p>
+ * Parsed Jaxen expressions are kept by expression text, they hold no evaluation state. The Jaxen function,
+ * variable and namespace contexts are pooled and rebound to each evaluation. A runtime is created for each
+ * hydrated process, so both only live as long as the process stays hydrated.
+ * </p>
  */
-public class XPath10ExpressionRuntime implements ExpressionLanguageRuntime {
+public class XPath10ExpressionRuntime implements PrecompilingExpressionLanguageRuntime {
     /** Class-level logger. */
     private static final Logger __log = LoggerFactory.getLogger(XPath10ExpressionRuntime.class);
 
+    private static final Counter __compilations = MetricsRegistry.getDefault().counter("ode_xpath10_compilations_total",
+            "XPath 1.0 expressions parsed at run time.");
+
     /** Compiled expression cache. */
-    private final Map<String, XPath> _compiledExpressions = new HashMap<String, XPath>();
+    private final ConcurrentHashMap<String, XPath> _compiledExpressions = new ConcurrentHashMap<String, XPath>();
+
+    /** Idle evaluation contexts, an evaluation borrows one and rebinds it. */
+    private final ConcurrentLinkedQueue<PooledSupport> _idleSupports = new ConcurrentLinkedQueue<PooledSupport>();
 
     /** Registered extension functions. */
     private final Map _extensionFunctions = new HashMap();
@@ -68,37 +84,47 @@ public class XPath10ExpressionRuntime implements ExpressionLanguageRuntime {
     }
 
     public String evaluateAsString(OExpression cexp, EvaluationContext ctx) throws FaultException, EvaluationException {
+        PooledSupport support = acquire((OXPath10Expression) cexp, ctx);
         try {
-            return compile((OXPath10Expression) cexp).stringValueOf(createContext((OXPath10Expression) cexp, ctx));
+            return compile((OXPath10Expression) cexp).stringValueOf(support.newContext(ctx));
         } catch (JaxenException e) {
             handleJaxenException(e);
+        } finally {
+            release(support);
         }
         throw new AssertionError("UNREACHABLE");
     }
 
     public boolean evaluateAsBoolean(OExpression cexp, EvaluationContext ctx) throws FaultException,
             EvaluationException {
+        PooledSupport support = acquire((OXPath10Expression) cexp, ctx);
         try {
-            return compile((OXPath10Expression) cexp).booleanValueOf(createContext((OXPath10Expression) cexp, ctx));
+            return compile((OXPath10Expression) cexp).booleanValueOf(support.newContext(ctx));
         } catch (JaxenException e) {
             handleJaxenException(e);
+        } finally {
+            release(support);
         }
         throw new AssertionError("UNREACHABLE");
     }
 
     public Number evaluateAsNumber(OExpression cexp, EvaluationContext ctx) throws FaultException, EvaluationException {
+        PooledSupport support = acquire((OXPath10Expression) cexp, ctx);
         try {
-            return compile((OXPath10Expression) cexp).numberValueOf(createContext((OXPath10Expression) cexp, ctx));
+            return compile((OXPath10Expression) cexp).numberValueOf(support.newContext(ctx));
         } catch (JaxenException e) {
             handleJaxenException(e);
+        } finally {
+            release(support);
         }
         throw new AssertionError("UNREACHABLE");
     }
 
     public List evaluate(OExpression cexp, EvaluationContext ctx) throws FaultException, EvaluationException {
+        PooledSupport support = acquire((OXPath10Expression) cexp, ctx);
         try {
             XPath compiledXPath = compile((OXPath10Expression) cexp);
-            Context context = createContext((OXPath10Expression) cexp, ctx);
+            Context context = support.newContext(ctx);
 
             List retVal = compiledXPath.selectNodes(context);
 
@@ -127,6 +153,8 @@ public class XPath10ExpressionRuntime implements ExpressionLanguageRuntime {
 
         } catch (JaxenException je) {
             handleJaxenException(je);
+        } finally {
+            release(support);
         }
         throw new AssertionError("UNREACHABLE");
     }
@@ -178,25 +206,40 @@ public class XPath10ExpressionRuntime implements ExpressionLanguageRuntime {
         }
     }
 
-    private Context createContext(OXPath10Expression oxpath, EvaluationContext ctx) {
-        JaxenContexts bpelSupport = new JaxenContexts(oxpath, _extensionFunctions, ctx);
-        ContextSupport support = new ContextSupport(new JaxenNamespaceContextAdapter(oxpath.getNamespaceCtx()), bpelSupport,
-                bpelSupport, new BpelDocumentNavigator(ctx.getRootNode()));
-        Context jctx = new Context(support);
+    /**
+     * Borrow evaluation contexts bound to the given evaluation. Nested and concurrent evaluations each get their
+     * own, pooled ones are created as needed.
+     */
+    private PooledSupport acquire(OXPath10Expression oxpath, EvaluationContext ctx) {
+        PooledSupport support = _idleSupports.poll();
+        if (support == null) support = new PooledSupport(_extensionFunctions);
+        support.bind(oxpath, ctx);
+        return support;
+    }
 
-        if (ctx.getRootNode() != null)
-            jctx.setNodeSet(Collections.singletonList(ctx.getRootNode()));
+    private void release(PooledSupport support) {
+        // Don't keep the evaluation (and the instance it belongs to) reachable from the pool
+        support.bind(null, null);
+        _idleSupports.offer(support);
+    }
 
-        return jctx;
+    public void precompile(OExpression cexp) throws EvaluationException {
+        if (!(cexp instanceof OXPath10Expression)) return;
+        try {
+            compile((OXPath10Expression) cexp);
+        } catch (JaxenException e) {
+            throw new EvaluationException("Error while parsing an XPath expression: " + e.toString(), e);
+        }
     }
 
     private XPath compile(OXPath10Expression exp) throws JaxenException {
         XPath xpath = _compiledExpressions.get(exp.getXpath());
         if (xpath == null) {
+            // Parsed expressions don't depend on the evaluation, concurrent parses of the same one are harmless
             xpath = new DOMXPath(exp.getXpath());
-            synchronized (_compiledExpressions) {
-                _compiledExpressions.put(exp.getXpath(), xpath);
-            }
+            __compilations.inc();
+            XPath existing = _compiledExpressions.putIfAbsent(exp.getXpath(), xpath);
+            if (existing != null) xpath = existing;
         }
         return xpath;
     }
@@ -211,4 +254,37 @@ public class XPath10ExpressionRuntime implements ExpressionLanguageRuntime {
         }
 
     }
+
+    /**
+     * Jaxen contexts for one evaluation at a time, rebound to each evaluation instead of being created again.
+     */
+    private static class PooledSupport {
+        final JaxenContexts bpelSupport;
+        final JaxenNamespaceContextAdapter namespaces;
+        final BpelDocumentNavigator navigator;
+        final ContextSupport support;
+
+        PooledSupport(Map extensionFunctions) {
+            bpelSupport = new JaxenContexts(null, extensionFunctions, null);
+            namespaces = new JaxenNamespaceContextAdapter(null);
+            navigator = new BpelDocumentNavigator(null);
+            support = new ContextSupport(namespaces, bpelSupport, bpelSupport, navigator);
+        }
+
+        void bind(OXPath10Expression oxpath, EvaluationContext ctx) {
+            bpelSupport.bind(oxpath, ctx);
+            namespaces.bind(oxpath == null ? null : oxpath.getNamespaceCtx());
+            navigator.setDocumentRoot(ctx == null ? null : ctx.getRootNode());
+        }
+
+        /**
+         * @return a new Jaxen context, contexts are cheap and are changed by Jaxen during the evaluation
+         */
+        Context newContext(EvaluationContext ctx) {
+            Context jctx = new Context(support);
+            if (ctx.getRootNode() != null)
+                jctx.setNodeSet(Collections.singletonList(ctx.getRootNode()));
+            return jctx;
+        }
+    }
 }
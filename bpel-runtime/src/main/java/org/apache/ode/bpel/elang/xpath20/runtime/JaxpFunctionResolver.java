@@ -84,6 +84,15 @@ public class JaxpFunctionResolver implements XPathFunctionResolver {
         _oxpath = oxpath;
     }
 
+    /**
+     * Rebind the resolver, and the functions it already resolved, to another evaluation. Used to run a compiled
+     * expression again without recompiling it.
+     */
+    public void bind(EvaluationContext ectx, OXPath20ExpressionBPEL20 oxpath) {
+        _ectx = ectx;
+        _oxpath = oxpath;
+    }
+
     public XPathFunction resolveFunction(QName functionName, int arity) {
         if (__log.isDebugEnabled()) {
             __log.debug("Resolving function " + functionName);
@@ -304,9 +313,9 @@ public class JaxpFunctionResolver implements XPathFunctionResolver {
             DOMSource source = new DOMSource(varDoc);
             Object result;
             XslRuntimeUriResolver resolver = new XslRuntimeUriResolver(_oxpath, _ectx.getBaseResourceURI());
-            XslTransformHandler.getInstance().cacheXSLSheet(_ectx.getProcessQName(), xslUri, xslSheet.getSheetBody(), resolver);
             try {
-                result = XslTransformHandler.getInstance().transform(_ectx.getProcessQName(), xslUri, source, parametersMap, resolver);
+                result = XslTransformHandler.getInstance().transform(_ectx.getPID(), xslUri,
+                        xslSheet.getSheetBody(), source, parametersMap, resolver);
             } catch (Exception e) {
             	__log.warn("Could not transform XSL sheet " + args.get(0) + " on element " + DOMUtils.domToString(varElmt), e);
                 throw new XPathFunctionException(
@@ -583,8 +592,9 @@ public class JaxpFunctionResolver implements XPathFunctionResolver {
             } else {
                 refChild = children.item(position + 1);
             }
+            Document clonedDocument = clonedElmt.getOwnerDocument();
             for (int i = 0; i < childNodes.size(); i++) {
-                clonedElmt.insertBefore((Node) childNodes.get(i), refChild);
+                clonedElmt.insertBefore(clonedDocument.importNode((Node) childNodes.get(i), true), refChild);
             }
             return clonedElmt;
         }
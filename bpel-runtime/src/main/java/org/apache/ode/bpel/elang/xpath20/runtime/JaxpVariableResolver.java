@@ -62,6 +62,15 @@ public class JaxpVariableResolver implements XPathVariableResolver {
         _config = config;
     }
 
+    /**
+     * Rebind the resolver to another evaluation. Variables are resolved when the expression is evaluated, so a
+     * compiled expression can be run again with a rebound resolver.
+     */
+    public void bind(EvaluationContext ectx, OXPath10ExpressionBPEL20 oxpath) {
+        _ectx = ectx;
+        _oxpath = oxpath;
+    }
+
     public Object resolveVariable(QName variableName) {
         if (__log.isDebugEnabled()) {
             __log.debug("Resolving variable " + variableName);
@@ -24,6 +24,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
@@ -41,16 +43,20 @@ import net.sf.saxon.xpath.XPathFactoryImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.common.FaultException;
+import org.apache.ode.bpel.elang.ExpressionKey;
 import org.apache.ode.bpel.elang.xpath10.obj.OXPath10Expression;
 import org.apache.ode.bpel.elang.xpath20.compiler.WrappedResolverException;
 import org.apache.ode.bpel.elang.xpath20.obj.OXPath20ExpressionBPEL20;
 import org.apache.ode.bpel.explang.ConfigurationException;
 import org.apache.ode.bpel.explang.EvaluationContext;
 import org.apache.ode.bpel.explang.EvaluationException;
-import org.apache.ode.bpel.explang.ExpressionLanguageRuntime;
+import org.apache.ode.bpel.explang.PrecompilingExpressionLanguageRuntime;
 import org.apache.ode.bpel.obj.OExpression;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.ISO8601DateParser;
+import org.apache.ode.utils.NSContext;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.xsd.Duration;
 import org.apache.ode.utils.xsl.XslTransformHandler;
 import org.w3c.dom.Document;
@@ -62,8 +68,14 @@ import org.w3c.dom.Text;
 /**
  * XPath 2.0 Expression Language run-time subsytem.
  * Saxon implementation.
+ *
+ * <p>
+ * Compiled expressions are kept and reused, along with their resolvers which are rebound to each evaluation. A
+ * runtime is created for each hydrated process, so the cache only holds the expressions of one process version
+ * and goes away when the process is dehydrated.
+ * </p>
  */
-public class XPath20ExpressionRuntime implements ExpressionLanguageRuntime {
+public class XPath20ExpressionRuntime implements PrecompilingExpressionLanguageRuntime {
 
     static final short NODE_TYPE = 1;
     static final short NODESET_TYPE = 2;
@@ -74,8 +86,15 @@ public class XPath20ExpressionRuntime implements ExpressionLanguageRuntime {
     /** Class-level logger. */
     private static final Logger __log = LoggerFactory.getLogger(XPath20ExpressionRuntime.class);
     
+    private static final Counter __compilations = MetricsRegistry.getDefault().counter("ode_xpath20_compilations_total",
+            "XPath 2.0 expressions compiled at run time.");
+
     private final XPathFactory _xpf = new XPathFactoryImpl();
 
+    /** Idle compiled expressions, by expression text and namespace context. */
+    private final ConcurrentHashMap<ExpressionKey, ConcurrentLinkedQueue<CompiledExpression>> _compiled =
+            new ConcurrentHashMap<ExpressionKey, ConcurrentLinkedQueue<CompiledExpression>>();
+
     public XPath20ExpressionRuntime(){
     }
 
@@ -232,17 +251,15 @@ public class XPath20ExpressionRuntime implements ExpressionLanguageRuntime {
     }
 
     private Object evaluate(OExpression cexp, EvaluationContext ctx, QName type) throws FaultException, EvaluationException {
+        OXPath20ExpressionBPEL20 oxpath20 = ((OXPath20ExpressionBPEL20) cexp);
+        String xpath = ((OXPath10Expression)cexp).getXpath();
+        ConcurrentLinkedQueue<CompiledExpression> idle = idleExpressions(xpath, oxpath20.getNamespaceCtx());
+        // Each evaluation needs its own resolvers, concurrent ones get their own copy of the expression
+        CompiledExpression compiled = idle.poll();
         try {
-            OXPath20ExpressionBPEL20 oxpath20 = ((OXPath20ExpressionBPEL20) cexp);
-
-            JaxpFunctionResolver funcResolver = new JaxpFunctionResolver(ctx, oxpath20);
-            JaxpVariableResolver varResolver = new JaxpVariableResolver(ctx, oxpath20, ((XPathFactoryImpl) _xpf).getConfiguration());
-            XPath xpe = _xpf.newXPath();
-            xpe.setXPathFunctionResolver(funcResolver);
-            xpe.setXPathVariableResolver(varResolver);
-            xpe.setNamespaceContext(oxpath20.getNamespaceCtx());
-            String xpath = ((OXPath10Expression)cexp).getXpath();
-            XPathExpression expr = xpe.compile(xpath);
+            if (compiled == null) compiled = compile(xpath, oxpath20);
+            compiled.bind(ctx, oxpath20);
+            XPathExpression expr = compiled.expr;
             Node contextNode = ctx.getRootNode();
             if (contextNode == null) {
                 contextNode = DOMUtils.newDocument();
@@ -298,6 +315,63 @@ public class XPath20ExpressionRuntime implements ExpressionLanguageRuntime {
         } catch (Throwable t) {
              __log.debug("Could not evaluate expression because of ", t);
             throw new EvaluationException("Error while executing an XPath expression: ", t);
+        } finally {
+            if (compiled != null) {
+                compiled.bind(null, null);
+                idle.offer(compiled);
+            }
+        }
+    }
+
+    public void precompile(OExpression cexp) throws EvaluationException {
+        if (!(cexp instanceof OXPath20ExpressionBPEL20)) return;
+        OXPath20ExpressionBPEL20 oxpath20 = (OXPath20ExpressionBPEL20) cexp;
+        ConcurrentLinkedQueue<CompiledExpression> idle = idleExpressions(oxpath20.getXpath(), oxpath20.getNamespaceCtx());
+        if (!idle.isEmpty()) return;
+        try {
+            idle.offer(compile(oxpath20.getXpath(), oxpath20));
+        } catch (XPathExpressionException e) {
+            throw new EvaluationException("Error while compiling an XPath expression: " + e.toString(), e);
+        }
+    }
+
+    private ConcurrentLinkedQueue<CompiledExpression> idleExpressions(String xpath, NSContext nsContext) {
+        ExpressionKey key = new ExpressionKey(xpath, nsContext);
+        ConcurrentLinkedQueue<CompiledExpression> idle = _compiled.get(key);
+        if (idle == null) {
+            idle = new ConcurrentLinkedQueue<CompiledExpression>();
+            ConcurrentLinkedQueue<CompiledExpression> existing = _compiled.putIfAbsent(key, idle);
+            if (existing != null) idle = existing;
+        }
+        return idle;
+    }
+
+    private CompiledExpression compile(String xpath, OXPath20ExpressionBPEL20 oxpath20) throws XPathExpressionException {
+        JaxpFunctionResolver funcResolver = new JaxpFunctionResolver(null, oxpath20);
+        JaxpVariableResolver varResolver = new JaxpVariableResolver(null, oxpath20, ((XPathFactoryImpl) _xpf).getConfiguration());
+        XPath xpe = _xpf.newXPath();
+        xpe.setXPathFunctionResolver(funcResolver);
+        xpe.setXPathVariableResolver(varResolver);
+        xpe.setNamespaceContext(oxpath20.getNamespaceCtx());
+        XPathExpression expr = xpe.compile(xpath);
+        __compilations.inc();
+        return new CompiledExpression(expr, funcResolver, varResolver);
+    }
+
+    private static final class CompiledExpression {
+        final XPathExpression expr;
+        final JaxpFunctionResolver funcResolver;
+        final JaxpVariableResolver varResolver;
+
+        CompiledExpression(XPathExpression expr, JaxpFunctionResolver funcResolver, JaxpVariableResolver varResolver) {
+            this.expr = expr;
+            this.funcResolver = funcResolver;
+            this.varResolver = varResolver;
+        }
+
+        void bind(EvaluationContext ctx, OXPath20ExpressionBPEL20 oxpath20) {
+            funcResolver.bind(ctx, oxpath20);
+            varResolver.bind(ctx, oxpath20);
         }
     }
 }
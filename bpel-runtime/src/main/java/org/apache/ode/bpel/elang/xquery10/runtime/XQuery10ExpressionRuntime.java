@@ -29,13 +29,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xquery.XQConnection;
 import javax.xml.xquery.XQConstants;
-import javax.xml.xquery.XQDataSource;
 import javax.xml.xquery.XQException;
 import javax.xml.xquery.XQItem;
 import javax.xml.xquery.XQItemType;
@@ -59,6 +60,7 @@ import net.sf.saxon.xqj.SaxonXQItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.common.FaultException;
+import org.apache.ode.bpel.elang.ExpressionKey;
 import org.apache.ode.bpel.elang.xpath20.compiler.Constants;
 import org.apache.ode.bpel.elang.xpath20.compiler.WrappedResolverException;
 import org.apache.ode.bpel.elang.xpath20.runtime.JaxpFunctionResolver;
@@ -68,11 +70,15 @@ import org.apache.ode.bpel.elang.xquery10.obj.OXQuery10ExpressionBPEL20;
 import org.apache.ode.bpel.explang.ConfigurationException;
 import org.apache.ode.bpel.explang.EvaluationContext;
 import org.apache.ode.bpel.explang.EvaluationException;
-import org.apache.ode.bpel.explang.ExpressionLanguageRuntime;
+import org.apache.ode.bpel.explang.PrecompilingExpressionLanguageRuntime;
 import org.apache.ode.bpel.obj.OExpression;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.ISO8601DateParser;
 import org.apache.ode.utils.NSContext;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 import org.apache.ode.utils.xsd.Duration;
 import org.apache.ode.utils.xsl.XslTransformHandler;
 import org.w3c.dom.Document;
@@ -84,9 +90,15 @@ import org.w3c.dom.Text;
 
 /**
  * XQuery 1.0 Expression Language run-time subsytem. Saxon implementation.
+ *
+ * <p>
+ * All the expressions of a runtime, hence of a hydrated process, share one Saxon configuration. Prepared
+ * expressions are kept by query text and namespace context, and their external variables are bound again for
+ * each evaluation.
+ * </p>
  */
 @SuppressWarnings("deprecation")
-public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
+public class XQuery10ExpressionRuntime implements PrecompilingExpressionLanguageRuntime {
     static final short NODE_TYPE = 1;
     static final short NODESET_TYPE = 2;
     static final short STRING_TYPE = 3;
@@ -96,10 +108,39 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
     /** Class-level logger. */
     private static final Logger __log = LoggerFactory.getLogger(XQuery10ExpressionRuntime.class);
 
+    private static final Counter __cacheHits = MetricsRegistry.getDefault().counter("ode_xquery10_cache_hits_total",
+            "XQuery evaluations that reused a prepared expression.");
+    private static final Counter __cacheMisses = MetricsRegistry.getDefault().counter("ode_xquery10_cache_misses_total",
+            "XQuery evaluations that had to prepare their expression.");
+    private static final Timer __compileTimer = MetricsRegistry.getDefault().timer("ode_xquery10_compile_seconds",
+            "Time spent preparing XQuery expressions.");
+
+    static {
+        MetricsRegistry.getDefault().gauge("ode_xquery10_cache_hit_ratio_percent",
+                "Share of the XQuery evaluations that reused a prepared expression.", new Gauge.Value() {
+                    public long get() {
+                        long hits = __cacheHits.get();
+                        long total = hits + __cacheMisses.get();
+                        return total == 0 ? 0 : hits * 100 / total;
+                    }
+                });
+    }
+
+    /** Shared by all the expressions of this runtime, and so their configuration. */
+    private final SaxonXQDataSource _xqds = new SaxonXQDataSource();
+
+    /** Idle prepared expressions, by query text and namespace context. */
+    private final ConcurrentHashMap<ExpressionKey, ConcurrentLinkedQueue<PreparedExpression>> _prepared =
+            new ConcurrentHashMap<ExpressionKey, ConcurrentLinkedQueue<PreparedExpression>>();
+
     /**
      * Creates a new XQuery10ExpressionRuntime object.
      */
     public XQuery10ExpressionRuntime() {
+        Configuration configuration = _xqds.getConfiguration();
+        configuration.setAllNodesUntyped(true);
+        configuration.setHostLanguage(Configuration.XQUERY);
+        configuration.setSchemaValidationMode(Validation.SKIP);
     }
 
     /**
@@ -334,40 +375,28 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
      */
     private Object evaluate(OExpression cexp, EvaluationContext ctx, QName type)
         throws FaultException, EvaluationException {
+        OXQuery10ExpressionBPEL20 oxquery10 = ((OXQuery10ExpressionBPEL20) cexp);
+        ConcurrentLinkedQueue<PreparedExpression> idle = idleExpressions(oxquery10.getXquery(), oxquery10.getNamespaceCtx());
+        PreparedExpression prepared = idle.poll();
+        // Only reused if all its external variables get bound again
+        boolean reusable = true;
         try {
-            OXQuery10ExpressionBPEL20 oxquery10 = ((OXQuery10ExpressionBPEL20) cexp);
-
-            XQDataSource xqds = new SaxonXQDataSource();
-            XQConnection xqconn = xqds.getConnection();
-
-            Configuration configuration = ((SaxonXQConnection) xqconn).getConfiguration();
-            configuration.setAllNodesUntyped(true);
-            configuration.setHostLanguage(Configuration.XQUERY);
-
-            XQStaticContext staticEnv = xqconn.getStaticContext();
-
-            NSContext nsContext = oxquery10.getNamespaceCtx();
-            Set<String> prefixes = nsContext.getPrefixes();
-            for (String prefix : prefixes) {
-                String uri = nsContext.getNamespaceURI(prefix);
-                staticEnv.declareNamespace(prefix, uri);
+            if (prepared == null) {
+                __cacheMisses.inc();
+                prepared = prepare(oxquery10);
+            } else {
+                __cacheHits.inc();
             }
-
-            configuration.setSchemaValidationMode(Validation.SKIP);
-            xqconn.setStaticContext(staticEnv);
-
-            // Prepare expression, for starters
-            String xquery = oxquery10.getXquery().replaceFirst(
-                    Constants.XQUERY_FUNCTION_HANDLER_COMPILER,
-                    Constants.XQUERY_FUNCTION_HANDLER_RUNTIME);
-            XQPreparedExpression exp = xqconn.prepareExpression(xquery);
+            XQConnection xqconn = prepared.connection;
+            XQPreparedExpression exp = prepared.expression;
+            Configuration configuration = _xqds.getConfiguration();
 
             JaxpFunctionResolver funcResolver = new JaxpFunctionResolver(ctx,
                     oxquery10);
             JaxpVariableResolver variableResolver = new JaxpVariableResolver(ctx,
                     oxquery10, configuration);
             // Bind external variables to runtime values
-            for (QName variable : exp.getAllUnboundExternalVariables()) {
+            for (QName variable : exp.getAllExternalVariables()) {
                 // Evaluate referenced variable
                 Object value = variableResolver.resolveVariable(variable);
 
@@ -383,6 +412,7 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
                          }
                      } catch (XPathException e) {
                          __log.warn("", e);
+                         reusable = false;
                      }
                  } else {
 
@@ -415,8 +445,13 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
                          } else {
                              if (xqType instanceof XQItemType) {
                                  exp.bindObject(variable, value, (XQItemType) xqType);
+                             } else {
+                                 reusable = false;
                              }
                          }
+                     } else {
+                         // Would keep the value of the previous evaluation
+                         reusable = false;
                      }
                   }
             }
@@ -468,6 +503,66 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
         } catch (WrappedResolverException wre) {
             __log.debug("Could not evaluate expression because of ", wre);
             throw (FaultException) wre.getCause();
+        } finally {
+            if (prepared != null) {
+                if (reusable) {
+                    idle.offer(prepared);
+                } else {
+                    prepared.close();
+                }
+            }
+        }
+    }
+
+    public void precompile(OExpression cexp) throws EvaluationException {
+        if (!(cexp instanceof OXQuery10ExpressionBPEL20)) return;
+        OXQuery10ExpressionBPEL20 oxquery10 = (OXQuery10ExpressionBPEL20) cexp;
+        ConcurrentLinkedQueue<PreparedExpression> idle = idleExpressions(oxquery10.getXquery(), oxquery10.getNamespaceCtx());
+        if (!idle.isEmpty()) return;
+        try {
+            idle.offer(prepare(oxquery10));
+        } catch (XQException e) {
+            throw new EvaluationException("Error while preparing an XQuery expression: " + e.toString(), e);
+        }
+    }
+
+    private ConcurrentLinkedQueue<PreparedExpression> idleExpressions(String xquery, NSContext nsContext) {
+        ExpressionKey key = new ExpressionKey(xquery, nsContext);
+        ConcurrentLinkedQueue<PreparedExpression> idle = _prepared.get(key);
+        if (idle == null) {
+            idle = new ConcurrentLinkedQueue<PreparedExpression>();
+            ConcurrentLinkedQueue<PreparedExpression> existing = _prepared.putIfAbsent(key, idle);
+            if (existing != null) idle = existing;
+        }
+        return idle;
+    }
+
+    /**
+     * Prepare an expression on its own connection, as the namespaces are declared in the connection static context.
+     */
+    private PreparedExpression prepare(OXQuery10ExpressionBPEL20 oxquery10) throws XQException {
+        long start = __compileTimer.start();
+        XQConnection xqconn = _xqds.getConnection();
+        try {
+            XQStaticContext staticEnv = xqconn.getStaticContext();
+
+            NSContext nsContext = oxquery10.getNamespaceCtx();
+            Set<String> prefixes = nsContext.getPrefixes();
+            for (String prefix : prefixes) {
+                String uri = nsContext.getNamespaceURI(prefix);
+                staticEnv.declareNamespace(prefix, uri);
+            }
+            xqconn.setStaticContext(staticEnv);
+
+            String xquery = oxquery10.getXquery().replaceFirst(
+                    Constants.XQUERY_FUNCTION_HANDLER_COMPILER,
+                    Constants.XQUERY_FUNCTION_HANDLER_RUNTIME);
+            return new PreparedExpression(xqconn, xqconn.prepareExpression(xquery));
+        } catch (XQException e) {
+            xqconn.close();
+            throw e;
+        } finally {
+            __compileTimer.stop(start);
         }
     }
 
@@ -642,4 +737,23 @@ public class XQuery10ExpressionRuntime implements ExpressionLanguageRuntime {
         }
         return resultValue;
     }
+
+    private static final class PreparedExpression {
+        final XQConnection connection;
+        final XQPreparedExpression expression;
+
+        PreparedExpression(XQConnection connection, XQPreparedExpression expression) {
+            this.connection = connection;
+            this.expression = expression;
+        }
+
+        void close() {
+            try {
+                expression.close();
+                connection.close();
+            } catch (XQException e) {
+                __log.debug("Couldn't close a prepared XQuery expression", e);
+            }
+        }
+    }
 }
@@ -22,6 +22,8 @@ package org.apache.ode.bpel.engine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.clapi.ClusterLock;
+import org.apache.ode.bpel.clapi.RouteCacheInvalidatedEvent;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
 import org.apache.ode.bpel.dao.MessageExchangeDAO;
 import org.apache.ode.bpel.dao.ProcessDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
@@ -53,6 +55,9 @@ import org.apache.ode.bpel.obj.OProcess;
 import org.apache.ode.bpel.runtime.InvalidProcessException;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.Namespaces;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -63,12 +68,19 @@ import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of the {@link BpelEngine} interface: provides the server methods that should be invoked in the context of a
@@ -103,6 +115,15 @@ public class BpelEngineImpl implements BpelEngine {
 
     private static final Messages __msgs = MessageBundle.getMessages(Messages.class);
 
+    private static final Timer __jobTimer = MetricsRegistry.getDefault().timer("ode_engine_job_duration_seconds",
+            "Time spent processing scheduled jobs in the engine.");
+    private static final Counter __jobFailures = MetricsRegistry.getDefault().counter("ode_engine_job_failures_total",
+            "Scheduled jobs that failed in the engine.");
+    private static final Counter __lockTimeouts = MetricsRegistry.getDefault().counter("ode_engine_instance_lock_timeouts_total",
+            "Jobs rescheduled because their instance was locked.");
+    private static final Counter __messagesExpired = MetricsRegistry.getDefault().counter("ode_correlator_messages_expired_total",
+            "Queued messages failed because no instance matched them before they expired.");
+
     private static final double PROCESS_OVERHEAD_MEMORY_FACTOR = 1.2;
 
     /** Active processes, keyed by process id. */
@@ -115,12 +136,37 @@ public class BpelEngineImpl implements BpelEngine {
     private SharedEndpoints _sharedEps;
 
     /** Manage instance-level locks. */
-    private final ClusterLock<Long> _instanceLockManager;
+    private volatile ClusterLock<Long> _instanceLockManager;
+
+    /**
+     * Instances locked by the transaction running on the current thread. The scheduler may run several jobs of the
+     * same instance in one transaction, the instance lock is only taken by the first of them. The value is the
+     * runtime context of the last job of the transaction that executed the instance, so that the next job picks
+     * its hydrated state up instead of reading it again.
+     */
+    private final ThreadLocal<Map<Long, BpelRuntimeContextImpl>> _txInstances = new ThreadLocal<Map<Long, BpelRuntimeContextImpl>>() {
+        protected Map<Long, BpelRuntimeContextImpl> initialValue() {
+            // completion callbacks may run on another thread
+            return Collections.synchronizedMap(new HashMap<Long, BpelRuntimeContextImpl>());
+        }
+    };
 
     final Contexts _contexts;
 
-    private final Map<QName, Long> _hydratedSizes = new HashMap<QName, Long>();
-    private final Map<QName, Long> _unhydratedSizes = new HashMap<QName, Long>();
+    /** Process footprints, updated on hydration and read by the dehydration policy on the reaper thread. */
+    private final Map<QName, Long> _hydratedSizes = new ConcurrentHashMap<QName, Long>();
+    private final Map<QName, Long> _unhydratedSizes = new ConcurrentHashMap<QName, Long>();
+
+    /** Hydrated execution state of persistent instances, kept between transactions (disabled by default). */
+    private final InstanceStateCache _instanceStateCache = new InstanceStateCache(0);
+
+    /** Message routes of persistent instances, to match inbound messages without a query (disabled by default). */
+    private final RouteCache _routeCache = new RouteCache(0);
+
+    /** Compile the expressions of the processes when they are hydrated rather than on first evaluation. */
+    private boolean _precompileExpressions;
+
+    private ExecutorService _precompileExec;
 
     public BpelEngineImpl(Contexts contexts) {
         _contexts = contexts;
@@ -433,26 +479,68 @@ public class BpelEngineImpl implements BpelEngine {
         // We lock the instance to prevent concurrent transactions and prevent unnecessary rollbacks,
         // Note that we don't want to wait too long here to get our lock, since we are likely holding
         // on to scheduler's locks of various sorts.
+        final Map<Long, BpelRuntimeContextImpl> txInstances = _txInstances.get();
+        if (iid != null && txInstances.containsKey(iid)) {
+            // Already locked by this transaction
+            return;
+        }
+        final ClusterLock<Long> lockManager = _instanceLockManager;
         try {
-            _instanceLockManager.
-                    lock(iid, 1, TimeUnit.MICROSECONDS);
+            lockManager.lock(iid, 1, TimeUnit.MICROSECONDS);
             _contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
                 public void afterCompletion(boolean success) {
-                    _instanceLockManager.unlock(iid);
+                    txInstances.remove(iid);
+                    lockManager.unlock(iid);
                 }
                 public void beforeCompletion() { }
             });
+            if (iid != null) txInstances.put(iid, null);
         } catch (InterruptedException e) {
             // Retry later.
             __log.debug("Thread interrupted, job will be rescheduled");
             throw new Scheduler.JobProcessorException(true);
         } catch (org.apache.ode.bpel.engine.InstanceLockManager.TimeoutException e) {
+            __lockTimeouts.inc();
             __log.debug("Instance " + iid + " is busy, rescheduling job.");
             throw new Scheduler.JobProcessorException(true);
         }
     }
 
+    /**
+     * Leave the hydrated state of an instance to the next job of the current transaction, if it holds the instance
+     * lock.
+     */
+    void handOverInstance(Long iid, BpelRuntimeContextImpl runtimeContext) {
+        Map<Long, BpelRuntimeContextImpl> txInstances = _txInstances.get();
+        synchronized (txInstances) {
+            if (txInstances.containsKey(iid)) txInstances.put(iid, runtimeContext);
+        }
+    }
+
+    /**
+     * @return the runtime context that last executed the instance in the current transaction, <code>null</code> if
+     *         none did
+     */
+    BpelRuntimeContextImpl takeOverInstance(Long iid) {
+        Map<Long, BpelRuntimeContextImpl> txInstances = _txInstances.get();
+        synchronized (txInstances) {
+            return txInstances.containsKey(iid) ? txInstances.put(iid, null) : null;
+        }
+    }
+
     public void onScheduledJob(Scheduler.JobInfo jobInfo) throws Scheduler.JobProcessorException {
+        long start = __jobTimer.start();
+        try {
+            doScheduledJob(jobInfo);
+        } catch (Scheduler.JobProcessorException e) {
+            __jobFailures.inc();
+            throw e;
+        } finally {
+            __jobTimer.stop(start);
+        }
+    }
+
+    private void doScheduledJob(Scheduler.JobInfo jobInfo) throws Scheduler.JobProcessorException {
         final JobDetails we = jobInfo.jobDetail;
 
         if( __log.isTraceEnabled() ) __log.trace("[JOB] onScheduledJob " + jobInfo + "" + we.getInstanceId());
@@ -690,6 +778,14 @@ public class BpelEngineImpl implements BpelEngine {
         return hydratedFootprint;
     }
 
+    long getProcessFootprint(BpelProcess process) {
+        Long size = _hydratedSizes.get(process.getPID());
+        if (size == null) {
+            size = _unhydratedSizes.get(process.getPID());
+        }
+        return size != null && size.longValue() > 0 ? size.longValue() : process.getEstimatedHydratedSize();
+    }
+
     public long getHydratedProcessSize(QName processName) {
         return getHydratedProcessSize(_activeProcesses.get(processName));
     }
@@ -767,6 +863,122 @@ public class BpelEngineImpl implements BpelEngine {
         return _processThrottledMaximumSize;
     }
 
+    /**
+     * Switch between the single-mutex {@link InstanceLockManager} and the {@link StripedInstanceLockManager}.
+     * Only meant to be called at initialization time and ignored when a cluster manager provides the locks.
+     */
+    public void setInstanceLockStriped(boolean striped) {
+        if (_contexts.clusterManager != null) return;
+        _instanceLockManager = striped ? new StripedInstanceLockManager() : new InstanceLockManager();
+    }
+
+    public ClusterLock<Long> getInstanceLockManager() {
+        return _instanceLockManager;
+    }
+
+    public InstanceStateCache getInstanceStateCache() {
+        return _instanceStateCache;
+    }
+
+    public void setInstanceStateCacheMaximumSize(long instanceStateCacheMaximumSize) {
+        _instanceStateCache.setMaxSize(instanceStateCacheMaximumSize);
+    }
+
+    public RouteCache getRouteCache() {
+        return _routeCache;
+    }
+
+    public void setRouteCacheMaximumSize(int routeCacheMaximumSize) {
+        _routeCache.setMaxSize(routeCacheMaximumSize);
+    }
+
+    /**
+     * @return whether inbound messages are matched with the route cache
+     */
+    boolean isRouteCacheEnabled() {
+        return _routeCache.isEnabled();
+    }
+
+    /**
+     * Let the other cluster nodes know that routes they may have cached changed. To be called once the transaction
+     * changing the routes committed.
+     */
+    void publishRouteCacheInvalidation(RouteCacheInvalidatedEvent event) {
+        if (_contexts.clusterManager == null) return;
+        try {
+            _contexts.clusterManager.publishProcessStoreClusterEvent(event);
+        } catch (RuntimeException e) {
+            __log.warn("Failed to publish " + event, e);
+        }
+    }
+
+    /**
+     * Update the route cache for routes changed on another node.
+     */
+    void onRouteCacheInvalidated(RouteCacheInvalidatedEvent event) {
+        if (event.getInstanceId() == null) {
+            // The correlator has a route we don't know of, it has to be loaded again
+            _routeCache.reset(event.getProcessId(), event.getCorrelatorId());
+        } else {
+            List<RouteCache.CachedRoute> removed = _routeCache.invalidate(event.getInstanceId(), event.getGroupId());
+            // A completed instance may leave routes in the database
+            if (event.getGroupId() == null) _routeCache.reset(removed);
+        }
+    }
+
+    /**
+     * Fail the messages queued on a correlator before the given time, no instance having matched their
+     * correlation keys since. Requires a transaction. The DAO write-locks the queued messages before taking
+     * them off their queues and leaves out those a matcher took meanwhile, so a message is either matched
+     * or expired, never both.
+     * @return the number of expired messages
+     */
+    int expireQueuedMessages(BpelDAOConnection conn, Date queuedBefore, int maxCount) {
+        List<MessageExchangeDAO> expired = conn.dequeueExpiredMessages(queuedBefore, maxCount);
+        for (MessageExchangeDAO mexdao : expired) {
+            __log.warn("Message exchange " + mexdao.getMessageExchangeId() + " expired in the queue of its correlator,"
+                    + " no process instance matched its correlation keys.");
+            ProcessDAO pdao = mexdao.getProcess();
+            BpelProcess process = pdao == null ? null : _activeProcesses.get(pdao.getProcessId());
+            MyRoleMessageExchangeImpl mex = new MyRoleMessageExchangeImpl(process, this, mexdao);
+            mex.setFailure(FailureType.NOMATCH, "No process instance matching correlation keys.", null);
+            if (process != null && MessageExchangePattern.REQUEST_RESPONSE.toString().equals(mexdao.getPattern())) {
+                process.doAsyncReply(mex, null);
+            }
+        }
+        __messagesExpired.add(expired.size());
+        return expired.size();
+    }
+
+    public boolean isPrecompileExpressions() {
+        return _precompileExpressions;
+    }
+
+    public void setPrecompileExpressions(boolean precompileExpressions) {
+        _precompileExpressions = precompileExpressions;
+    }
+
+    /**
+     * @return the threads compiling expressions at hydration time, one per processor, stopped when idle
+     */
+    synchronized ExecutorService getPrecompileExecutor() {
+        if (_precompileExec == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor exec = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger _count = new AtomicInteger();
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ODEPrecompile-" + _count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            exec.allowCoreThreadTimeOut(true);
+            _precompileExec = exec;
+        }
+        return _precompileExec;
+    }
+
     public void setProcessSize(QName processId, boolean hydratedOnce) {
         BpelProcess process = _activeProcesses.get(processId);
         long processSize = process.sizeOf();
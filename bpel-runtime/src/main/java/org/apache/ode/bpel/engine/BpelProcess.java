@@ -22,6 +22,7 @@ import java.io.File;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,14 +31,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.wsdl.Fault;
+import javax.wsdl.Operation;
 import javax.xml.namespace.QName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.agents.memory.SizingAgent;
+import org.apache.ode.bpel.clapi.RouteCacheInvalidatedEvent;
 import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.common.FaultException;
 import org.apache.ode.bpel.common.ProcessState;
 import org.apache.ode.bpel.dao.BpelDAOConnection;
@@ -45,7 +50,10 @@ import org.apache.ode.bpel.dao.CorrelatorDAO;
 import org.apache.ode.bpel.dao.MessageExchangeDAO;
 import org.apache.ode.bpel.dao.ProcessDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.bpel.elang.XslRuntimeUriResolver;
 import org.apache.ode.bpel.engine.PartnerLinkMyRoleImpl.RoutingInfo;
+import org.apache.ode.bpel.engine.codec.ExecutionStateCodec;
+import org.apache.ode.bpel.engine.codec.ExecutionStateCodecs;
 import org.apache.ode.bpel.engine.extvar.ExternalVariableConf;
 import org.apache.ode.bpel.engine.extvar.ExternalVariableManager;
 import org.apache.ode.bpel.evt.ProcessInstanceEvent;
@@ -62,16 +70,22 @@ import org.apache.ode.bpel.iapi.PartnerRoleChannel;
 import org.apache.ode.bpel.iapi.PartnerRoleMessageExchange;
 import org.apache.ode.bpel.iapi.ProcessConf;
 import org.apache.ode.bpel.iapi.ProcessConf.CLEANUP_CATEGORY;
+import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.bpel.iapi.Scheduler.JobDetails;
 import org.apache.ode.bpel.iapi.Scheduler.JobType;
 import org.apache.ode.bpel.intercept.InstanceCountThrottler;
 import org.apache.ode.bpel.intercept.InterceptorInvoker;
 import org.apache.ode.bpel.intercept.MessageExchangeInterceptor;
+import org.apache.ode.bpel.obj.OBase;
 import org.apache.ode.bpel.obj.OElementVarType;
+import org.apache.ode.bpel.obj.OEventHandler;
+import org.apache.ode.bpel.obj.OExpression;
 import org.apache.ode.bpel.obj.OExpressionLanguage;
 import org.apache.ode.bpel.obj.OMessageVarType;
 import org.apache.ode.bpel.obj.OPartnerLink;
+import org.apache.ode.bpel.obj.OPickReceive;
 import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.OXslSheet;
 import org.apache.ode.bpel.obj.serde.DeSerializer;
 import org.apache.ode.bpel.runtime.BpelRuntimeContext;
 import org.apache.ode.bpel.runtime.ExpressionLanguageRuntimeRegistry;
@@ -82,7 +96,11 @@ import org.apache.ode.bpel.runtime.channels.FaultData;
 import org.apache.ode.jacob.soup.ReplacementMap;
 import org.apache.ode.utils.ObjectPrinter;
 import org.apache.ode.utils.Properties;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 import org.apache.ode.utils.msg.MessageBundle;
+import org.apache.ode.utils.xsl.XslTransformHandler;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -99,6 +117,15 @@ public class BpelProcess {
 
     private static final Messages __msgs = MessageBundle.getMessages(Messages.class);
 
+    private static final Timer __hydrationTimer = MetricsRegistry.getDefault().timer("ode_process_hydration_duration_seconds",
+            "Time spent loading compiled processes.");
+    private static final Counter __dehydrations = MetricsRegistry.getDefault().counter("ode_process_dehydrations_total",
+            "Processes unloaded from memory.");
+    private static final Counter __rehydrations = MetricsRegistry.getDefault().counter("ode_process_rehydrations_total",
+            "Processes loaded again after having been unloaded.");
+    private static final Counter __directAliasExtractions = MetricsRegistry.getDefault().counter("ode_property_alias_direct_extractions_total",
+            "Property values selected by walking a child path rather than evaluating the alias query.");
+
     private volatile Map<OPartnerLink, PartnerLinkPartnerRoleImpl> _partnerRoles;
 
     private volatile Map<OPartnerLink, PartnerLinkMyRoleImpl> _myRoles;
@@ -121,6 +148,10 @@ public class BpelProcess {
     private boolean _hydratedOnce = false;
     /** Last time the process was used. */
     private volatile long _lastUsed;
+    /** Number of times the process was used, sampled by the dehydration policy. */
+    private final AtomicLong _useCount = new AtomicLong();
+    /** Duration of the last hydration, in nanoseconds. */
+    private volatile long _hydrationTime;
 
     BpelEngineImpl _engine;
     ClassLoader _classLoader = getClass().getClassLoader();
@@ -128,6 +159,11 @@ public class BpelProcess {
     DebuggerSupport _debugger;
     ExpressionLanguageRuntimeRegistry _expLangRuntimeRegistry;
     private ReplacementMap _replacementMap;
+
+    /** Correlators with routes of the "all" policy, not matched with the route cache. */
+    private volatile Set<String> _allRouteCorrelators;
+    /** Direct extractors of the property aliases whose query is a plain child path. */
+    private volatile Map<OProcess.OPropertyAlias, PropertyAliasExtractor> _aliasExtractors;
     final ProcessConf _pconf;
     
     /** {@link MessageExchangeInterceptor}s registered for this process. */
@@ -141,10 +177,15 @@ public class BpelProcess {
 
     private ExternalVariableManager _evm;
 
+    /** Codec used to write the execution state of this process' instances, set on activation. */
+    private ExecutionStateCodec _executionStateCodec = ExecutionStateCodecs.NONE;
+
     public static final QName PROP_PATH = new QName("PATH");
     public static final QName PROP_SVG = new QName("SVG");
     public static final QName PROP_LAZY_HYDRATE = new QName("process.hydration.lazy");
     public static final QName PROP_MAX_INSTANCES = new QName("process.instance.throttled.maximum.count");
+    public static final QName PROP_EXEC_STATE_DELTA = new QName("process.executionstate.delta");
+    public static final QName PROP_EXEC_STATE_CODEC = new QName("process.executionstate.codec");
 
     // The ratio of in-memory vs serialized size of compiled bpel object.
     private static final int PROCESS_MEMORY_TO_SERIALIZED_SIZE_RATIO = 5;
@@ -387,7 +428,15 @@ public class BpelProcess {
                       return true;
                   } else if (routing.messageRoute != null) {
                       // Found a route, hitting it
-                      _engine.acquireInstanceLock(routing.messageRoute.getTargetInstance().getInstanceId());
+                      ProcessInstanceDAO instance = routing.messageRoute.getTargetInstance();
+                      _engine.acquireInstanceLock(instance.getInstanceId());
+                      if (routing.messageRoute instanceof CachedMessageRoute
+                              && !routing.correlator.hasRoutes(routing.messageRoute.getGroupId(), instance)) {
+                          // The cached route got consumed before we got the instance, route again
+                          __log.debug("Cached route " + routing.messageRoute + " no longer valid, job will be rescheduled");
+                          _engine.getRouteCache().invalidate(instance.getInstanceId(), routing.messageRoute.getGroupId());
+                          throw new Scheduler.JobProcessorException(true);
+                      }
                       target.invokeInstance(mex, routing);
                       return true;
                   }
@@ -445,10 +494,19 @@ public class BpelProcess {
         Node lValue = ectx.getRootNode();
 
         if (alias.getLocation() != null) {
-            try {
-                lValue = _expLangRuntimeRegistry.evaluateNode(alias.getLocation(), ectx);
-            } catch (EvaluationException ec) {
-                throw new FaultException(getOProcess().getConstants().getQnSelectionFailure(), alias.getDescription());
+            Map<OProcess.OPropertyAlias, PropertyAliasExtractor> extractors = _aliasExtractors;
+            PropertyAliasExtractor extractor = extractors == null ? null : extractors.get(alias);
+            // a path selecting no or several nodes is left to the runtime, which reports it
+            Node selected = extractor == null || lValue == null ? null : extractor.select(lValue);
+            if (selected != null) {
+                __directAliasExtractions.inc();
+                lValue = selected;
+            } else {
+                try {
+                    lValue = _expLangRuntimeRegistry.evaluateNode(alias.getLocation(), ectx);
+                } catch (EvaluationException ec) {
+                    throw new FaultException(getOProcess().getConstants().getQnSelectionFailure(), alias.getDescription());
+                }
             }
         }
 
@@ -649,6 +707,86 @@ public class BpelProcess {
         return plink.getName() + "." + opName;
     }
 
+    /**
+     * @return whether messages routed through a correlator can be matched with the route cache; correlators with
+     * routes of the "all" policy can't, a message may match several of their routes
+     */
+    boolean isRouteCached(String correlatorId) {
+        Set<String> allRouteCorrelators = _allRouteCorrelators;
+        return allRouteCorrelators != null && !isInMemory() && _engine.isRouteCacheEnabled()
+            && !allRouteCorrelators.contains(correlatorId);
+    }
+
+    /**
+     * Cache a route created by an instance. The route is cached before the transaction creating it commits, so
+     * that the routes of its correlator being loaded at the same time can't miss it, and again once it committed.
+     */
+    void routeAdded(String correlatorId, Long iid, String groupId, int index, CorrelationKeySet keySet, String route) {
+        if (!isRouteCached(correlatorId)) return;
+        final RouteCache cache = _engine.getRouteCache();
+        final RouteCache.CachedRoute cached = new RouteCache.CachedRoute(_pid, correlatorId, iid, groupId, index, route, keySet);
+        _engine._contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+            public void afterCompletion(boolean success) {
+                if (success) {
+                    // The correlator may have been reset and loaded again without the route
+                    cache.put(cached);
+                    _engine.publishRouteCacheInvalidation(RouteCacheInvalidatedEvent.forNewRoute(_pconf.getPackage(),
+                            _pid, cached.correlatorId));
+                } else {
+                    cache.reset(Collections.singletonList(cached));
+                }
+            }
+            public void beforeCompletion() {
+                cache.put(cached);
+            }
+        });
+    }
+
+    /**
+     * Drop cached routes of an instance, to be called whenever routes of the instance are removed or it completes.
+     *
+     * @param groupId group of the removed routes, <code>null</code> when the instance completed, its remaining
+     * routes may stay in the database
+     */
+    public void routesRemoved(final Long iid, final String groupId) {
+        if (isInMemory() || !_engine.isRouteCacheEnabled()) return;
+        final RouteCache cache = _engine.getRouteCache();
+        final List<RouteCache.CachedRoute> removed = cache.invalidate(iid, groupId);
+        if (groupId == null) cache.reset(removed);
+        _engine._contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+            public void afterCompletion(boolean success) {
+                // Routes loaded by other transactions before the commit must not stay cached
+                List<RouteCache.CachedRoute> loaded = cache.invalidate(iid, groupId);
+                // Rolled back, the database still has the routes we dropped
+                if (!success) cache.reset(removed);
+                if (!success || groupId == null) cache.reset(loaded);
+                if (success)
+                    _engine.publishRouteCacheInvalidation(RouteCacheInvalidatedEvent.forRemovedRoutes(_pconf.getPackage(),
+                            _pid, iid, groupId));
+            }
+            public void beforeCompletion() {
+            }
+        });
+    }
+
+    private static Set<String> findAllRouteCorrelators(OProcess oprocess) {
+        Set<String> correlators = new HashSet<String>();
+        for (OBase child : oprocess.getChildren()) {
+            OPartnerLink plink = null;
+            Operation operation = null;
+            if (child instanceof OPickReceive.OnMessage && "all".equals(((OPickReceive.OnMessage) child).getRoute())) {
+                plink = ((OPickReceive.OnMessage) child).getPartnerLink();
+                operation = ((OPickReceive.OnMessage) child).getOperation();
+            } else if (child instanceof OEventHandler.OEvent && "all".equals(((OEventHandler.OEvent) child).getRoute())) {
+                plink = ((OEventHandler.OEvent) child).getPartnerLink();
+                operation = ((OEventHandler.OEvent) child).getOperation();
+            }
+            if (plink != null && operation != null)
+                correlators.add(genCorrelatorId(plink, operation.getName()));
+        }
+        return correlators;
+    }
+
     /**
      * De-serialize the compiled process representation from a stream.
      *
@@ -684,6 +822,8 @@ public class BpelProcess {
         if (getInstanceMaximumCount() < Integer.MAX_VALUE)
             registerMessageExchangeInterceptor(new InstanceCountThrottler());
 
+        _executionStateCodec = ExecutionStateCodecs.getCodec(getProcessProperty(PROP_EXEC_STATE_CODEC, null));
+
         if (__log.isDebugEnabled()) {
             __log.debug("Activating " + _pid);
         }
@@ -800,14 +940,26 @@ public class BpelProcess {
     }
 
     public void saveEvent(ProcessInstanceEvent event, ProcessInstanceDAO instanceDao, List<String> scopeNames) {
+        saveEvent(event, instanceDao, scopeNames, null);
+    }
+
+    /**
+     * @param pendingEvents when not null, the event is added there to be inserted later with the other events of
+     * the transaction instead of being inserted right away
+     */
+    void saveEvent(ProcessInstanceEvent event, ProcessInstanceDAO instanceDao, List<String> scopeNames,
+                   List<ProcessInstanceEvent> pendingEvents) {
         markused();
         if (_pconf.isEventEnabled(scopeNames, event.getType())) {
             // notify the listeners
             _engine.fireEvent(event);
 
-            if (instanceDao != null && !event.isEventPersistingCancelled())
-                instanceDao.insertBpelEvent(event);
-            else
+            if (instanceDao != null && !event.isEventPersistingCancelled()) {
+                if (pendingEvents != null)
+                    pendingEvents.add(event);
+                else
+                    instanceDao.insertBpelEvent(event);
+            } else
                 __log.debug("Couldn't find instance to save event, no event generated!");
         }
     }
@@ -908,6 +1060,29 @@ public class BpelProcess {
     /** Keep track of the time the process was last used. */
     private final void markused() {
         _lastUsed = System.currentTimeMillis();
+        _useCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of times the process was used since it got registered
+     */
+    public long getUseCount() {
+        return _useCount.get();
+    }
+
+    /**
+     * @return the time the last hydration of the process took in nanoseconds, 0 if it was never hydrated
+     */
+    public long getHydrationTime() {
+        return _hydrationTime;
+    }
+
+    /**
+     * @return the memory footprint of the process once hydrated, as measured after its first hydration
+     *  or estimated from the size of the compiled process
+     */
+    public long getFootprint() {
+        return _engine.getProcessFootprint(this);
     }
 
     /** Create a version-appropriate runtime context. */
@@ -922,17 +1097,27 @@ public class BpelProcess {
             super(new Runnable[2]);
             _transitions[0] = new Runnable() {
                 public void run() {
+                    __dehydrations.inc();
                     doDehydrate();
                 }
             };
             _transitions[1] = new Runnable() {
                 public void run() {
-                    doHydrate();
+                    if (_hydratedOnce) __rehydrations.inc();
+                    long start = __hydrationTimer.start();
+                    try {
+                        doHydrate();
+                    } finally {
+                        _hydrationTime = System.nanoTime() - start;
+                        __hydrationTimer.record(_hydrationTime);
+                    }
                 }
             };
         }
 
         private void doDehydrate() {
+            // Cached instance state points to the model objects that are about to go away
+            _engine.getInstanceStateCache().evictProcess(_pid);
             if (_oprocess != null) {
                 _oprocess.dehydrate();
                 _oprocess = null;
@@ -958,6 +1143,8 @@ public class BpelProcess {
 //            }
             _replacementMap = null;
             _expLangRuntimeRegistry = null;
+            _allRouteCorrelators = null;
+            _aliasExtractors = null;
         }
 
         private void doHydrate() {
@@ -998,6 +1185,12 @@ public class BpelProcess {
             // Create an expression language registry for this process
             _expLangRuntimeRegistry = new ExpressionLanguageRuntimeRegistry();
             registerExprLang(_oprocess);
+            parseXslSheets(_oprocess);
+            _allRouteCorrelators = findAllRouteCorrelators(_oprocess);
+            _aliasExtractors = PropertyAliasExtractor.compileAll(_oprocess);
+            if (_engine.isPrecompileExpressions()) {
+                precompileExpressions(_oprocess);
+            }
 
             // Checking for registered extension bundles, throw an exception when
             // a "mustUnderstand" extension is not available
@@ -1132,6 +1325,56 @@ public class BpelProcess {
         }
     }
 
+    /**
+     * Compile all the expressions of the process in parallel, so that the first instances don't pay for it.
+     * Expressions that don't compile are reported and left alone, they fail again when evaluated.
+     */
+    private void precompileExpressions(OProcess oprocess) {
+        long start = System.currentTimeMillis();
+        final ExpressionLanguageRuntimeRegistry registry = _expLangRuntimeRegistry;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (OBase child : oprocess.getChildren()) {
+            if (!(child instanceof OExpression)) continue;
+            final OExpression expr = (OExpression) child;
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    try {
+                        registry.precompile(expr);
+                    } catch (Exception e) {
+                        __log.warn("Couldn't precompile expression " + expr + " of process " + _pid, e);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            _engine.getPrecompileExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (__log.isDebugEnabled())
+            __log.debug("Precompiled " + tasks.size() + " expressions of process " + _pid + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Parse the XSL sheets of the process, so that the first bpws:doXslTransform calls don't pay for it. Sheets
+     * already cached from the same body are kept. Sheets that don't parse are reported and left to the first
+     * transform using them.
+     */
+    private void parseXslSheets(OProcess oprocess) {
+        Map<URI, OXslSheet> sheets = oprocess.getXslSheets();
+        if (sheets == null || sheets.isEmpty()) return;
+        XslRuntimeUriResolver resolver = new XslRuntimeUriResolver(sheets, getBaseResourceURI());
+        for (OXslSheet sheet : sheets.values()) {
+            try {
+                XslTransformHandler.getInstance().cacheXSLSheet(_pid, sheet.getUri(), sheet.getSheetBody(), resolver);
+            } catch (Exception e) {
+                __log.warn("Couldn't parse XSL sheet " + sheet.getUri() + " of process " + _pid, e);
+            }
+        }
+    }
+
     private void registerExprLang(OProcess oprocess) {
         for (OExpressionLanguage elang : oprocess.getExpressionLanguages()) {
             try {
@@ -1239,6 +1482,22 @@ public class BpelProcess {
         return getProcessProperty(PROP_LAZY_HYDRATE) != null;
     }
 
+    /**
+     * When enabled, the instance execution state is only written back to the database when a
+     * transaction actually changed it; otherwise the full snapshot is written on every transaction.
+     */
+    public boolean isExecutionStateDelta() {
+        return Boolean.valueOf(getProcessProperty(PROP_EXEC_STATE_DELTA, "false"));
+    }
+
+    /**
+     * Codec applied to the execution state of new writes, selected with the
+     * <code>process.executionstate.codec</code> property (none, fast or best).
+     */
+    public ExecutionStateCodec getExecutionStateCodec() {
+        return _executionStateCodec;
+    }
+
     public int getInstanceMaximumCount() {
         return Integer.valueOf(getProcessProperty(PROP_MAX_INSTANCES, Integer.toString(_engine.getInstanceThrottledMaximumCount())));
     }
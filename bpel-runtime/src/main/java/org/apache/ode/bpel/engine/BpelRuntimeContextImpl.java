@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
@@ -50,6 +51,8 @@ import org.apache.ode.bpel.dao.ScopeStateEnum;
 import org.apache.ode.bpel.dao.XmlDataDAO;
 import org.apache.ode.bpel.eapi.AbstractExtensionBundle;
 import org.apache.ode.bpel.eapi.ExtensionOperation;
+import org.apache.ode.bpel.engine.codec.ExecutionStateCodec;
+import org.apache.ode.bpel.engine.codec.ExecutionStateCodecs;
 import org.apache.ode.bpel.evar.ExternalVariableModule.Value;
 import org.apache.ode.bpel.evar.ExternalVariableModuleException;
 import org.apache.ode.bpel.evt.CorrelationSetWriteEvent;
@@ -97,12 +100,16 @@ import org.apache.ode.bpel.runtime.channels.PickResponse;
 import org.apache.ode.bpel.runtime.channels.TimerResponse;
 import org.apache.ode.jacob.JacobRunnable;
 import org.apache.ode.jacob.ProcessUtil;
+import org.apache.ode.jacob.soup.ReplacementMap;
 import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
 import org.apache.ode.jacob.vpu.JacobVPU;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.GUID;
 import org.apache.ode.utils.Namespaces;
 import org.apache.ode.utils.ObjectPrinter;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -112,6 +119,23 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
 
     private static final Logger __log = LoggerFactory.getLogger(BpelRuntimeContextImpl.class);
 
+    private static final Timer __executeTimer = MetricsRegistry.getDefault().timer("ode_instance_execute_duration_seconds",
+            "Time spent running instances, including the serialization of their state.");
+    private static final Counter __stateBytesWritten = MetricsRegistry.getDefault().counter("ode_instance_state_written_bytes_total",
+            "Size of the execution states written to the database.");
+    private static final Counter __stateHandOvers = MetricsRegistry.getDefault().counter("ode_instance_state_handovers_total",
+            "Executions that reused the state hydrated by the previous job of the same transaction.");
+    private static final Counter __stateWritesSkipped = MetricsRegistry.getDefault().counter("ode_instance_state_writes_skipped_total",
+            "Execution state writes skipped because the state did not change.");
+    private static final Counter __eventsBatched = MetricsRegistry.getDefault().counter("ode_instance_events_batched_total",
+            "Events inserted in a batch at the end of an execution.");
+    private static final Counter __variableWritesSkipped = MetricsRegistry.getDefault().counter("ode_variable_writes_skipped_total",
+            "Variable writes skipped because the value did not change.");
+    private static final Timer __dequeueTimer = MetricsRegistry.getDefault().timer("ode_correlator_dequeue_duration_seconds",
+            "Time spent looking up the queued message matching a new route.");
+    private static final Counter __messagesDequeued = MetricsRegistry.getDefault().counter("ode_correlator_messages_dequeued_total",
+            "Queued messages matched by a new route.");
+
     /** Data-access object for process instance. */
     protected ProcessInstanceDAO _dao;
 
@@ -136,6 +160,35 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
     
     private boolean _forceFlush;
 
+    /** Only write the execution state back to the DAO when it differs from what was last persisted. */
+    private final boolean _persistChangedStateOnly;
+
+    /** Execution state as last read from / written to the DAO (only kept in changed-only mode). */
+    private byte[] _persistedState;
+
+    /** Replacement map the soup is bound to, identifies the process model generation for the instance cache. */
+    private final ReplacementMap _replacementMap;
+
+    /** Serialized state committed by this transaction, handed to the instance cache on commit. */
+    private byte[] _committedState;
+
+    /** Version of {@link #_committedState}. */
+    private int _committedStateCounter;
+
+    private boolean _cacheSynchronizerRegistered;
+
+    /** Version of the state left by the last execution, for the next job of the transaction to take the soup over. */
+    private int _handedOverStateCounter;
+
+    /** Events fired during {@link #execute()}, inserted together once the execution is over. */
+    private List<ProcessInstanceEvent> _pendingEvents;
+
+    /** Encoding applied to the serialized execution state before it is written. */
+    private final ExecutionStateCodec _stateCodec;
+
+    /** Variable writes of this transaction skipped because the value did not change. */
+    private int _skippedVariableWrites;
+
     /** Five second maximum for continous execution. */
     private long _maxReductionTimeMs = 2000000;
 
@@ -149,10 +202,13 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         _vpu.registerExtension(BpelRuntimeContext.class, this);
 
         _soup = new ExecutionQueueImpl(null);
-        _soup.setReplacementMap(_bpelProcess.getReplacementMap(dao.getProcess().getProcessId()));
+        _replacementMap = _bpelProcess.getReplacementMap(dao.getProcess().getProcessId());
+        _soup.setReplacementMap(_replacementMap);
         _outstandingRequests = null;
         _imaManager = new IMAManager2();
         _vpu.setContext(_soup);
+        _persistChangedStateOnly = !bpelProcess.isInMemory() && bpelProcess.isExecutionStateDelta();
+        _stateCodec = bpelProcess.getExecutionStateCodec();
 
         if (bpelProcess.isInMemory()) {
             ProcessInstanceDaoImpl inmem = (ProcessInstanceDaoImpl) _dao;
@@ -162,15 +218,51 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                 _vpu.setContext(_soup);
             }
         } else {
-            byte[] daoState = dao.getExecutionState();
-            if (daoState != null) {
-                ByteArrayInputStream iis = new ByteArrayInputStream(daoState);
-                try {
-                    _soup.read(iis);
-                } catch (Exception ex) {
-                    throw new RuntimeException(ex);
+            // the version tells whether the soup we have is current, without reading the state itself
+            int stateCounter = dao.getExecutionStateCounter();
+            BpelRuntimeContextImpl previous = stateCounter == 0 ? null : _bpelProcess._engine.takeOverInstance(_iid);
+            InstanceStateCache cache = _bpelProcess._engine.getInstanceStateCache();
+            if (previous != null && previous._replacementMap == _replacementMap
+                    && previous._handedOverStateCounter == stateCounter) {
+                // A previous job of this transaction ran the instance, its soup is what we would read
+                if (__log.isDebugEnabled()) __log.debug("Taking over the execution state of instance " + _iid);
+                __stateHandOvers.inc();
+                _soup = previous._soup;
+                _imaManager = previous._imaManager;
+                _vpu.setContext(_soup);
+                // the soup moves on with us, the previous context must not cache it on commit
+                previous._committedState = null;
+                if (_persistChangedStateOnly) {
+                    _persistedState = previous._persistedState;
+                }
+            } else {
+                InstanceStateCache.Entry cached = null;
+                if (stateCounter != 0 && cache.isEnabled()) {
+                    cached = cache.checkout(_iid, _replacementMap, stateCounter);
+                }
+                if (cached != null) {
+                    if (__log.isDebugEnabled()) __log.debug("Reusing cached execution state for instance " + _iid);
+                    _soup = cached.soup;
+                    _imaManager = cached.imaManager;
+                    _vpu.setContext(_soup);
+                    if (_persistChangedStateOnly) {
+                        _persistedState = cached.state != null ? cached.state : dao.getExecutionState();
+                    }
+                } else {
+                    byte[] daoState = dao.getExecutionState();
+                    if (daoState != null) {
+                        try {
+                            ByteArrayInputStream iis = new ByteArrayInputStream(ExecutionStateCodecs.decode(daoState));
+                            _soup.read(iis);
+                        } catch (Exception ex) {
+                            throw new RuntimeException(ex);
+                        }
+                        _imaManager = (IMAManager2) _soup.getGlobalData();
+                        if (_persistChangedStateOnly) {
+                            _persistedState = daoState;
+                        }
+                    }
                 }
-                _imaManager = (IMAManager2) _soup.getGlobalData();
             }
         }
 
@@ -233,6 +325,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         evt.setOldState(_dao.getState());
         _dao.setState(ProcessState.STATE_COMPLETED_WITH_FAULT);
         evt.setNewState(ProcessState.STATE_COMPLETED_WITH_FAULT);
+        _bpelProcess.routesRemoved(_iid, null);
         sendEvent(evt);
 
         sendEvent(new ProcessCompletionEvent(faultData.getFaultName()));
@@ -262,6 +355,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         evt.setOldState(_dao.getState());
         _dao.setState(ProcessState.STATE_COMPLETED_OK);
         evt.setNewState(ProcessState.STATE_COMPLETED_OK);
+        _bpelProcess.routesRemoved(_iid, null);
         sendEvent(evt);
 
         sendEvent(new ProcessCompletionEvent(null));
@@ -393,11 +487,13 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
             }
         }
 
+        String groupId = ProcessUtil.exportChannel(pickResponseChannel);
         for (int i = 0; i < selectors.length; ++i) {
             CorrelatorDAO correlator = correlators.get(i);
             Selector selector = selectors[i];
 
-            correlator.addRoute(ProcessUtil.exportChannel(pickResponseChannel), _dao, i, selector.correlationKeySet, selector.route);
+            correlator.addRoute(groupId, _dao, i, selector.correlationKeySet, selector.route);
+            _bpelProcess.routeAdded(correlator.getCorrelatorId(), _iid, groupId, i, selector.correlationKeySet, selector.route);
             scheduleCorrelatorMatcher(correlator.getCorrelatorId(), selector.correlationKeySet);
 
             if (BpelProcess.__log.isDebugEnabled()) {
@@ -499,15 +595,21 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
     public Node readVariable(Long scopeInstanceId, String varname, boolean forWriting) throws FaultException {
         ScopeDAO scopedao = _dao.getScope(scopeInstanceId);
         XmlDataDAO var = scopedao.getVariable(varname);
-        return (var == null || var.isNull()) ? null : var.get();
+        if (var == null || var.isNull()) return null;
+        // Values shared by several variables are copied before being changed
+        return forWriting ? DOMUtils.copyIfShared(var.get()) : var.get();
     }
 
     public Node writeVariable(VariableInstance variable, Node changes) {
         ScopeDAO scopeDAO = _dao.getScope(variable.scopeInstance);
         XmlDataDAO dataDAO = scopeDAO.getVariable(variable.declaration.getName());
-        dataDAO.set(changes);
-
-        writeProperties(variable, changes, dataDAO);
+        if (dataDAO.set(changes)) {
+            writeProperties(variable, changes, dataDAO);
+        } else {
+            // Same value, its properties are already up to date
+            _skippedVariableWrites++;
+            __variableWritesSkipped.inc();
+        }
         return dataDAO.get();
     }
 
@@ -636,6 +738,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         evt.setOldState(_dao.getState());
         _dao.setState(ProcessState.STATE_TERMINATED);
         evt.setNewState(ProcessState.STATE_TERMINATED);
+        _bpelProcess.routesRemoved(_iid, null);
         sendEvent(evt);
         sendEvent(new ProcessTerminationEvent());
 
@@ -761,7 +864,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
             message.setType(operation.getInput().getMessage().getQName());
         else
             message.setType(null);
-        buildOutgoingMessage(message, outgoingMessage);
+        Element outgoingData = buildOutgoingMessage(message, outgoingMessage);
 
         // Get he my-role EPR (if myrole exists) for optional use by partner
         // (for callback mechanism).
@@ -793,7 +896,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
             }
 
             Message odeRequest = myRoleMex.createMessage(operation.getInput().getMessage().getQName());
-            odeRequest.setMessage(outgoingMessage);
+            odeRequest.setMessage(outgoingData);
             ((MessageImpl)odeRequest)._dao.setHeader(message.getHeader());
 
             if (BpelProcess.__log.isDebugEnabled()) {
@@ -889,34 +992,58 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         }
     }
 
-    protected void buildOutgoingMessage(MessageDAO message, Element outgoingElmt) {
-        if (outgoingElmt == null) return;
+    /**
+     * Sets the data and the header parts of a message from a variable value. The value is read without being
+     * copied and may be shared with other variables, so the message gets a copy of it.
+     * @return the data of the message, without the header parts
+     */
+    protected Element buildOutgoingMessage(MessageDAO message, Element outgoingElmt) {
+        if (outgoingElmt == null) return null;
+
+        Document dataDoc = DOMUtils.newDocument();
+        Element data = (Element) dataDoc.importNode(outgoingElmt, true);
+        dataDoc.appendChild(data);
 
         Document doc = DOMUtils.newDocument();
         Element header = doc.createElement("header");
-        NodeList parts = outgoingElmt.getChildNodes();
+        NodeList parts = data.getChildNodes();
         for (int m = 0; m < parts.getLength(); m++) {
             if (parts.item(m).getNodeType() == Node.ELEMENT_NODE) {
                 Element part = (Element) parts.item(m);
                 if (part.getAttribute("headerPart") != null && part.getAttribute("headerPart").length() > 0) {
                     header.appendChild(doc.importNode(part, true));
                     // remove the element from the list AND decrement the index to avoid skipping the next element!!
-                    outgoingElmt.removeChild(part);
+                    data.removeChild(part);
                     m--;
                 }
             }
         }
-        message.setData(outgoingElmt);
+        message.setData(data);
         message.setHeader(header);
+        return data;
     }
 
     public void execute() {
+        long start = __executeTimer.start();
+        _pendingEvents = new ArrayList<ProcessInstanceEvent>();
+        try {
+            doExecute();
+        } finally {
+            _pendingEvents = null;
+            __executeTimer.stop(start);
+            if (_skippedVariableWrites > 0 && __log.isDebugEnabled())
+                __log.debug("Skipped " + _skippedVariableWrites + " unchanged variable writes on instance " + _iid);
+        }
+    }
+
+    private void doExecute() {
         long maxTime = System.currentTimeMillis() + _maxReductionTimeMs;
         boolean canReduce = true;
         assert _outstandingRequests == null && _imaManager != null;
         while (ProcessState.canExecute(_dao.getState()) && System.currentTimeMillis() < maxTime && canReduce && !_forceFlush) {
             canReduce = _vpu.execute();
         }
+        flushEvents();
         _dao.setLastActiveTime(new Date());
         if (!ProcessState.isFinished(_dao.getState())) {
             if (__log.isDebugEnabled()) __log.debug("Setting execution state on instance " + _iid);
@@ -926,14 +1053,29 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                 // don't serialize in-memory processes
                 ((ProcessInstanceDaoImpl) _dao).setSoup(_soup);
             } else {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream(10000);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(_persistedState != null ? _persistedState.length : 10000);
+                byte[] state;
                 try {
                     _soup.write(bos);
                     bos.close();
+                    state = ExecutionStateCodecs.encode(_stateCodec, bos.toByteArray());
                 } catch (Exception ex) {
                     throw new RuntimeException(ex);
                 }
-                _dao.setExecutionState(bos.toByteArray());
+                if (_persistChangedStateOnly && Arrays.equals(state, _persistedState)) {
+                    // Nothing fired that modified the soup, the row already holds this state
+                    if (__log.isDebugEnabled()) __log.debug("Execution state unchanged for instance " + _iid + ", skipping write");
+                    __stateWritesSkipped.inc();
+                } else {
+                    _dao.setExecutionState(state);
+                    __stateBytesWritten.add(state.length);
+                    if (_persistChangedStateOnly) {
+                        _persistedState = state;
+                    }
+                }
+                cacheOnCommit(state);
+                _handedOverStateCounter = _dao.getExecutionStateCounter();
+                _bpelProcess._engine.handOverInstance(_iid, this);
             }
 
             if (ProcessState.canExecute(_dao.getState()) && canReduce) {
@@ -954,9 +1096,36 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                     throw new BpelEngineException(e);
                 }
             }
+        } else {
+            // The soup moved on but is not written anymore, it must not outlive this transaction
+            _committedState = null;
         }
     }
 
+    /**
+     * Keep the hydrated state of this instance around for its next transaction, once the state we just
+     * serialized is committed.
+     */
+    private void cacheOnCommit(byte[] state) {
+        final InstanceStateCache cache = _bpelProcess._engine.getInstanceStateCache();
+        if (!cache.isEnabled()) return;
+
+        _committedState = state;
+        _committedStateCounter = _dao.getExecutionStateCounter();
+        if (_cacheSynchronizerRegistered) return;
+        _bpelProcess._engine._contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+            public void afterCompletion(boolean success) {
+                if (success && _committedState != null) {
+                    cache.checkin(_iid, new InstanceStateCache.Entry(_bpelProcess.getPID(), _replacementMap,
+                            _soup, _imaManager, _committedStateCounter, _committedState, _persistChangedStateOnly));
+                }
+            }
+            public void beforeCompletion() {
+            }
+        });
+        _cacheSynchronizerRegistered = true;
+    }
+
     public void inputMsgMatch(final String responsechannel, final int idx, MyRoleMessageExchangeImpl mex) {
         // if we have a message match, this instance should be marked
         // active if it isn't already
@@ -989,6 +1158,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         // In case this is a pick event, we remove routes,
         // and cancel the outstanding requests.
         _dao.getProcess().removeRoutes(timerResponseChannel, _dao);
+        _bpelProcess.routesRemoved(_iid, timerResponseChannel);
         _imaManager.cancel(timerResponseChannel, true);
 
         // Ignore timer events after the process is finished.
@@ -1012,6 +1182,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         // receive/reply association.
         final String id = ProcessUtil.exportChannel(timerResponseChannel);
         _dao.getProcess().removeRoutes(id, _dao);
+        _bpelProcess.routesRemoved(_iid, id);
         _imaManager.cancel(id, true);
 
         _vpu.inject(new JacobRunnable() {
@@ -1115,7 +1286,17 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         }
 
         // saving
-        _bpelProcess.saveEvent(event, _dao, scopeNames);
+        _bpelProcess.saveEvent(event, _dao, scopeNames, _pendingEvents);
+    }
+
+    /**
+     * Insert the events fired since the beginning of the execution in one go.
+     */
+    private void flushEvents() {
+        if (_pendingEvents == null || _pendingEvents.isEmpty()) return;
+        __eventsBatched.add(_pendingEvents.size());
+        _dao.insertBpelEvents(_pendingEvents);
+        _pendingEvents.clear();
     }
 
     public static String debugInfoToString(org.apache.ode.bpel.obj.DebugInfo debugInfo) {
@@ -1439,8 +1620,11 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         }
 
         // Now see if there is a message that matches this selector.
+        long dequeueStart = __dequeueTimer.start();
         MessageExchangeDAO mexdao = correlator.dequeueMessage(ckeySet);
+        __dequeueTimer.stop(dequeueStart);
         if (mexdao != null) {
+            __messagesDequeued.inc();
             __log.debug("MatcherEvent handling: found matching message in DB (i.e. message arrived before <receive>)");
             if( MessageExchangePattern.REQUEST_RESPONSE.toString().equals(mexdao.getPattern())) {
                 __log.warn("A message arrived before a receive is ready for a request/response pattern. This may be processed to success. However, you should consider revising your process since a TCP port and a container thread will be held for a longer time and the process will not scale under heavy load.");
@@ -1450,6 +1634,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                 __log.debug("Removing routes for GroupID: {} Instance: {}",mroute.getGroupId(),_dao.getInstanceId());
                 // We have a match, so we can get rid of the routing entries.
                 correlator.removeRoutes(mroute.getGroupId(), _dao);
+                _bpelProcess.routesRemoved(_iid, mroute.getGroupId());
             }
 
             // Selecting first route to proceed, other matching entries are ignored
@@ -1506,6 +1691,10 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         return _bpelProcess.getProcessType();
     }
 
+    public QName getPID() {
+        return _bpelProcess.getPID();
+    }
+
     public Date getCurrentEventDateTime() {
         if (_currentEventDateTime == null)
             return Calendar.getInstance().getTime();
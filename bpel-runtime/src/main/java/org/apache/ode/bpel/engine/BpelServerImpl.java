@@ -36,10 +36,15 @@ import javax.xml.namespace.QName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.clapi.ClusterManager;
+import org.apache.ode.bpel.clapi.ProcessStoreClusterEvent;
+import org.apache.ode.bpel.clapi.ProcessStoreClusterListener;
+import org.apache.ode.bpel.clapi.RouteCacheInvalidatedEvent;
 import org.apache.ode.bpel.dao.BpelDAOConnection;
 import org.apache.ode.bpel.dao.BpelDAOConnectionFactory;
 import org.apache.ode.bpel.dao.DeferredProcessInstanceCleanable;
 import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.XmlDataCache;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.apache.ode.bpel.eapi.AbstractExtensionBundle;
 import org.apache.ode.bpel.engine.cron.CronScheduler;
 import org.apache.ode.bpel.engine.migration.MigrationHandler;
@@ -61,6 +66,8 @@ import org.apache.ode.bpel.iapi.Scheduler.MapSerializableRunnable;
 import org.apache.ode.bpel.iapi.Scheduler.Synchronizer;
 import org.apache.ode.bpel.intercept.MessageExchangeInterceptor;
 import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.apache.ode.utils.stl.CollectionsX;
 import org.apache.ode.utils.stl.MemberOfFunction;
@@ -111,6 +118,9 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
     private int _hydrationLazyMinimumSize;
     private int _migrationTransactionTimeout;
     private Thread processDefReaper;
+    private long _messageQueueTtl;
+    private Thread messageQueuePurger;
+    private volatile long _queuedMessageCount;
 
     BpelEngineImpl _engine;
     protected BpelDatabase _db;
@@ -171,6 +181,15 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                 processDefReaper.setDaemon(true);
                 processDefReaper.start();
             }
+            MetricsRegistry.getDefault().gauge("ode_correlator_queued_messages",
+                    "Messages queued on the correlators, as last sampled by the message queue purger.", new Gauge.Value() {
+                public long get() {
+                    return _queuedMessageCount;
+                }
+            });
+            messageQueuePurger = new Thread(new MessageQueuePurger(), "MessageQueuePurger");
+            messageQueuePurger.setDaemon(true);
+            messageQueuePurger.start();
         } finally {
             _mngmtLock.writeLock().unlock();
         }
@@ -236,6 +255,10 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                 processDefReaper.interrupt();
                 processDefReaper = null;
             }
+            if (messageQueuePurger != null) {
+                messageQueuePurger.interrupt();
+                messageQueuePurger = null;
+            }
             _contexts.scheduler.stop();
             _engine = null;
             _state = State.INIT;
@@ -377,7 +400,8 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                 if (p != null)
                 {
                     _registeredProcesses.remove(p);
-                    XslTransformHandler.getInstance().clearXSLSheets(p.getProcessType());
+                    XslTransformHandler.getInstance().clearXSLSheets(pid);
+                    _engine.getRouteCache().evictProcess(pid);
                     __log.info(__msgs.msgProcessUnregistered(pid));
                 }
             }
@@ -503,6 +527,49 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         }
     }
 
+    /**
+     * Samples the number of messages queued on the correlators, waiting for an instance to match them, and fails
+     * those waiting for longer than the message queue time-to-live. In a cluster, only the master purges.
+     */
+    private class MessageQueuePurger implements Runnable {
+        private static final int BATCH_SIZE = 100;
+
+        public void run() {
+            __log.debug("Starting message queue purger thread.");
+            long pollingTime = _messageQueueTtl > 0 ? Math.max(1000, Math.min(60000, _messageQueueTtl / 4)) : 60000;
+            try {
+                while (true) {
+                    try {
+                        if (_messageQueueTtl > 0 && (_contexts.clusterManager == null || _contexts.clusterManager.isMaster())) {
+                            final Date queuedBefore = new Date(System.currentTimeMillis() - _messageQueueTtl);
+                            int expired;
+                            do {
+                                expired = _db.exec(new BpelDatabase.Callable<Integer>() {
+                                    public Integer run(BpelDAOConnection conn) throws Exception {
+                                        return _engine.expireQueuedMessages(conn, queuedBefore, BATCH_SIZE);
+                                    }
+                                });
+                                if (expired > 0) __log.info("Expired " + expired + " queued messages.");
+                            } while (expired == BATCH_SIZE);
+                        }
+                        _queuedMessageCount = _db.exec(new BpelDatabase.Callable<Long>() {
+                            public Long run(BpelDAOConnection conn) throws Exception {
+                                return conn.getQueuedMessageCount();
+                            }
+                        });
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        __log.warn("Failed to purge the message queues.", e);
+                    }
+                    Thread.sleep(pollingTime);
+                }
+            } catch (InterruptedException e) {
+                __log.debug(e.getMessage(), e);
+            }
+        }
+    }
+
     public void setDehydrationPolicy(DehydrationPolicy dehydrationPolicy) {
         _dehydrationPolicy = dehydrationPolicy;
     }
@@ -546,8 +613,19 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         _contexts.bindingContext = bc;
     }
 
-    public void setClusterManagerImpl(ClusterManager cm) {
+    public void setClusterManagerImpl(final ClusterManager cm) {
         _contexts.clusterManager = cm;
+        if (cm != null) {
+            // Routes created or consumed on other nodes change our cached routes
+            cm.registerClusterProcessStoreMessageListener(new ProcessStoreClusterListener() {
+                public void onProcessStoreClusterEvent(ProcessStoreClusterEvent message) {
+                    if (message instanceof RouteCacheInvalidatedEvent
+                            && !cm.getNodeID().equals(message.getEventGeneratingNode())) {
+                        _engine.onRouteCacheInvalidated((RouteCacheInvalidatedEvent) message);
+                    }
+                }
+            });
+        }
     }
 
     public DebuggerContext getDebugger(QName pid) throws BpelEngineException {
@@ -582,6 +660,46 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         _engine.setProcessThrottledMaximumCount(hydrationThrottledMaximumCount);
     }
 
+    public void setInstanceLockStriped(boolean instanceLockStriped) {
+        _engine.setInstanceLockStriped(instanceLockStriped);
+    }
+
+    public void setInstanceStateCacheMaximumSize(long instanceStateCacheMaximumSize) {
+        _engine.setInstanceStateCacheMaximumSize(instanceStateCacheMaximumSize);
+    }
+
+    public void setRouteCacheMaximumSize(int routeCacheMaximumSize) {
+        _engine.setRouteCacheMaximumSize(routeCacheMaximumSize);
+    }
+
+    /**
+     * Set how long a message may wait in the queue of a correlator for an instance to match it before it fails,
+     * in milliseconds. The default 0 keeps queued messages forever.
+     */
+    public void setMessageQueueTtl(long messageQueueTtl) {
+        _messageQueueTtl = messageQueueTtl;
+    }
+
+    public void setVariableCacheMaximumSize(long variableCacheMaximumSize) {
+        XmlDataCache.getDefault().setMaxSize(variableCacheMaximumSize);
+    }
+
+    /**
+     * Select the format new variable, message and fault values are stored in, values already stored in
+     * another format can still be read.
+     */
+    public void setXmlStorageFormat(String xmlStorageFormat) {
+        XmlDataCodecs.setDefault(XmlDataCodecs.getCodec(xmlStorageFormat));
+    }
+
+    public void setXslCacheMaximumSize(long xslCacheMaximumSize) {
+        XslTransformHandler.getInstance().setMaxSize(xslCacheMaximumSize);
+    }
+
+    public void setPrecompileExpressions(boolean precompileExpressions) {
+        _engine.setPrecompileExpressions(precompileExpressions);
+    }
+
     public void setHydrationLazyMinimumSize(int hydrationLazyMinimumSize) {
         this._hydrationLazyMinimumSize = hydrationLazyMinimumSize;
     }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.MessageRouteDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+
+/**
+ * Read-only message route found in the {@link RouteCache}.
+ */
+class CachedMessageRoute implements MessageRouteDAO {
+    private final RouteCache.CachedRoute _route;
+    private final ProcessInstanceDAO _instance;
+
+    CachedMessageRoute(RouteCache.CachedRoute route, ProcessInstanceDAO instance) {
+        _route = route;
+        _instance = instance;
+    }
+
+    public ProcessInstanceDAO getTargetInstance() {
+        return _instance;
+    }
+
+    public String getGroupId() {
+        return _route.getGroupId();
+    }
+
+    public int getIndex() {
+        return _route.getIndex();
+    }
+
+    public String getRoute() {
+        return _route.getRoute();
+    }
+
+    public CorrelationKeySet getCorrelationKeySet() {
+        return _route.getCorrelationKeySet();
+    }
+
+    public void setCorrelationKeySet(CorrelationKeySet keySet) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setCorrelationKey(CorrelationKey key) {
+        throw new UnsupportedOperationException();
+    }
+
+    public CorrelationKey getCorrelationKey() {
+        CorrelationKeySet keySet = getCorrelationKeySet();
+        return keySet.isEmpty() ? null : keySet.iterator().next();
+    }
+
+    public String toString() {
+        return "{CachedMessageRoute " + _route + "}";
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+
+/**
+ * Dehydration policy that keeps the processes that are the most expensive to lose. Idle processes still go after
+ * a maximum age; beyond that, when the hydrated processes exceed the heap budget or the maximum count, the ones
+ * with the lowest <i>frequency x hydration cost / footprint</i> are dehydrated first. A large process that is used
+ * all the time and takes long to load is kept, while a rarely used one is dropped even if it was used recently.
+ *
+ * <p>
+ * Access frequencies are kept in a small count-min sketch that is halved periodically, as in TinyLFU, so the
+ * popularity of a process fades out once it stops being used. The hydration cost is the measured duration of the
+ * last hydration and the footprint the size measured after the first hydration, or the estimate derived from the
+ * compiled process size until then.
+ * </p>
+ */
+public class CostAwareDehydrationPolicy implements DehydrationPolicy {
+    private static final Logger __log = LoggerFactory.getLogger(CostAwareDehydrationPolicy.class);
+
+    /** Cost assumed for a process that was never hydrated by this engine, in nanoseconds. */
+    private static final long DEFAULT_HYDRATION_TIME = 1000000L;
+
+    /** Maximum age of a process before it is quiesced */
+    private long _processMaxAge = 20 * 60 * 1000;
+    /** Maximum process count before the least valuable ones get quiesced */
+    private int _processMaxCount = 1000;
+    /** Maximum total footprint of the hydrated processes, 0 for no limit */
+    private long _heapBudget = 0;
+
+    private final FrequencySketch _frequencies = new FrequencySketch();
+
+    /** Use counts of the processes at the previous round, used to feed the sketch with the new accesses only. */
+    private final Map<BpelProcess, Long> _lastUseCounts = new WeakHashMap<BpelProcess, Long>();
+
+    /** Footprint of the hydrated processes kept at the last round, over all the policies. */
+    private static final AtomicLong __hydratedFootprint = new AtomicLong();
+    static {
+        MetricsRegistry.getDefault().gauge("ode_process_hydrated_footprint_bytes",
+                "Footprint of the hydrated processes, as of the last dehydration round.", new Gauge.Value() {
+                    public long get() {
+                        return __hydratedFootprint.get();
+                    }
+                });
+    }
+
+    public synchronized List<BpelProcess> markForDehydration(List<BpelProcess> runningProcesses) {
+        ArrayList<BpelProcess> ripped = new ArrayList<BpelProcess>();
+        ArrayList<Candidate> kept = new ArrayList<Candidate>(runningProcesses.size());
+
+        long now = System.currentTimeMillis();
+        long footprint = 0;
+        for (BpelProcess process : runningProcesses) {
+            recordUses(process);
+            if (_processMaxAge > 0 && now - process.getLastUsed() > _processMaxAge) {
+                // The oldies have to go first
+                ripped.add(process);
+            } else {
+                // The processes keep being used meanwhile, sample what the decision is based on once
+                Candidate candidate = new Candidate(process, _frequencies.estimate(process.getPID()));
+                footprint += candidate.size;
+                kept.add(candidate);
+            }
+        }
+
+        if ((_heapBudget > 0 && footprint > _heapBudget) || kept.size() > _processMaxCount) {
+            // Least valuable first
+            Collections.sort(kept, new Comparator<Candidate>() {
+                public int compare(Candidate c1, Candidate c2) {
+                    return Double.compare(c1.score, c2.score);
+                }
+            });
+            int count = kept.size();
+            for (Candidate candidate : kept) {
+                if (!((_heapBudget > 0 && footprint > _heapBudget) || count > _processMaxCount)) break;
+                if (candidate.process.getInstanceInUseCount() > 0) continue;
+
+                if (__log.isDebugEnabled())
+                    __log.debug("Dehydrating " + candidate.process.getPID() + ", score " + candidate.score
+                            + ", footprint " + footprint + "/" + _heapBudget);
+                ripped.add(candidate.process);
+                footprint -= candidate.size;
+                count--;
+            }
+        }
+        __hydratedFootprint.set(footprint);
+
+        return ripped;
+    }
+
+    private void recordUses(BpelProcess process) {
+        long uses = process.getUseCount();
+        Long last = _lastUseCounts.put(process, uses);
+        long delta = uses - (last == null ? 0 : last.longValue());
+        if (delta > 0) {
+            _frequencies.increment(process.getPID(), delta);
+        }
+    }
+
+    public void setProcessMaxAge(long processMaxAge) {
+        _processMaxAge = processMaxAge;
+    }
+
+    public void setProcessMaxCount(int processMaxCount) {
+        _processMaxCount = processMaxCount;
+    }
+
+    public void setHeapBudget(long heapBudget) {
+        _heapBudget = heapBudget;
+    }
+
+    /**
+     * Process being considered for dehydration, with the values its score was computed from.
+     */
+    private static class Candidate {
+        final BpelProcess process;
+        final long size;
+        final double score;
+
+        Candidate(BpelProcess process, int frequency) {
+            this.process = process;
+            size = Math.max(process.getFootprint(), 1);
+            long cost = process.getHydrationTime() > 0 ? process.getHydrationTime() : DEFAULT_HYDRATION_TIME;
+            score = (double) (frequency + 1) * cost / size;
+        }
+    }
+
+    /**
+     * Count-min sketch of the process accesses, aged by halving all counters once enough accesses were recorded.
+     */
+    static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int WIDTH = 1024;
+        /** Number of recorded accesses after which all the counters are halved. */
+        private static final int SAMPLE_SIZE = 10 * WIDTH;
+        private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+        private final int[][] _counters = new int[DEPTH][WIDTH];
+        private long _additions;
+
+        void increment(Object key, long count) {
+            int hash = key.hashCode();
+            for (int i = 0; i < DEPTH; i++) {
+                int[] row = _counters[i];
+                int index = index(hash, i);
+                row[index] = (int) Math.min(Integer.MAX_VALUE, row[index] + count);
+            }
+            _additions += count;
+            if (_additions >= SAMPLE_SIZE) {
+                reset();
+            }
+        }
+
+        int estimate(Object key) {
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, _counters[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private void reset() {
+            for (int[] row : _counters) {
+                for (int j = 0; j < WIDTH; j++) {
+                    row[j] >>>= 1;
+                }
+            }
+            _additions /= 2;
+        }
+
+        private static int index(int hash, int i) {
+            int h = hash * SEEDS[i];
+            h ^= h >>> 16;
+            return h & (WIDTH - 1);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.ode.jacob.soup.ReplacementMap;
+import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
+
+/**
+ * Bounded LRU cache of the hydrated JACOB state of persistent instances, so that consecutive transactions on the
+ * same instance don't have to deserialize the execution state again.
+ *
+ * <p>
+ * An entry is taken out of the cache when a transaction starts working on the instance and is only put back once that
+ * transaction committed, so a rolled back transaction can never leave a modified soup behind. Entries are stamped with
+ * the version of the execution state that was committed along with them (see
+ * {@link org.apache.ode.bpel.dao.ProcessInstanceDAO#getExecutionStateCounter()}); an entry is only reused if the
+ * version currently in the database is still the same, which also covers the instance having been processed by
+ * another cluster node in between. The state itself doesn't have to be read for that.
+ * </p>
+ *
+ * <p>
+ * The cache is weighted by the serialized size of the execution state and is disabled when its maximum size is zero.
+ * </p>
+ */
+public class InstanceStateCache {
+    private static final Logger __log = LoggerFactory.getLogger(InstanceStateCache.class);
+
+    /** Entries in access order, the eldest entry is the first to be evicted. */
+    private final LinkedHashMap<Long, Entry> _entries = new LinkedHashMap<Long, Entry>(64, 0.75f, true);
+
+    /** Maximum total size (in serialized bytes) of the cached state, 0 disables the cache. */
+    private volatile long _maxSize;
+
+    /** Current total size of the cached state. Guarded by this. */
+    private long _size;
+
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    public InstanceStateCache(long maxSize) {
+        _maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return _maxSize > 0;
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        _maxSize = maxSize;
+        shrink();
+    }
+
+    public long getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Take the cached state of an instance out of the cache.
+     *
+     * @param iid instance id
+     * @param replacementMap replacement map the instance state is (going to be) bound to
+     * @param stateCounter version of the execution state currently stored in the database
+     * @return the cached entry, or <code>null</code> if none is available or it is stale
+     */
+    public synchronized Entry checkout(Long iid, ReplacementMap replacementMap, int stateCounter) {
+        Entry entry = _entries.remove(iid);
+        if (entry == null) {
+            _misses++;
+            return null;
+        }
+        _size -= entry.stateLength;
+
+        // The process got rehydrated (new model objects) or someone else wrote the instance since we cached it
+        if (entry.replacementMap != replacementMap || stateCounter == 0 || entry.stateCounter != stateCounter) {
+            if (__log.isDebugEnabled())
+                __log.debug("Discarding stale cached state for instance " + iid);
+            _misses++;
+            return null;
+        }
+        _hits++;
+        return entry;
+    }
+
+    /**
+     * Put the state of an instance in the cache, after the transaction that wrote it committed.
+     */
+    public synchronized void checkin(Long iid, Entry entry) {
+        if (!isEnabled() || entry.stateLength > _maxSize) return;
+
+        Entry old = _entries.put(iid, entry);
+        if (old != null) _size -= old.stateLength;
+        _size += entry.stateLength;
+        shrink();
+    }
+
+    public synchronized void evict(Long iid) {
+        Entry old = _entries.remove(iid);
+        if (old != null) _size -= old.stateLength;
+    }
+
+    /**
+     * Drop all the entries of a process, needed when the process gets dehydrated as the cached state references
+     * its compiled model.
+     */
+    public synchronized void evictProcess(QName pid) {
+        for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.pid.equals(pid)) {
+                it.remove();
+                _size -= entry.stateLength;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+    private void shrink() {
+        for (Iterator<Map.Entry<Long, Entry>> it = _entries.entrySet().iterator(); _size > _maxSize && it.hasNext();) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            _size -= eldest.stateLength;
+            _evictions++;
+        }
+    }
+
+    public synchronized int getCount() {
+        return _entries.size();
+    }
+
+    public synchronized long getSize() {
+        return _size;
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    public synchronized long getEvictions() {
+        return _evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "{InstanceStateCache: count=" + _entries.size() + ", size=" + _size + "/" + _maxSize
+            + ", hits=" + _hits + ", misses=" + _misses + ", evictions=" + _evictions + "}";
+    }
+
+    /**
+     * Hydrated state of one instance.
+     */
+    public static class Entry {
+        final QName pid;
+        final ReplacementMap replacementMap;
+        final ExecutionQueueImpl soup;
+        final IMAManager2 imaManager;
+        final int stateCounter;
+        final int stateLength;
+        /** Serialized state, only kept for the runtimes comparing it with the state they write next. */
+        final byte[] state;
+
+        Entry(QName pid, ReplacementMap replacementMap, ExecutionQueueImpl soup, IMAManager2 imaManager,
+              int stateCounter, byte[] state, boolean keepState) {
+            this.pid = pid;
+            this.replacementMap = replacementMap;
+            this.soup = soup;
+            this.imaManager = imaManager;
+            this.stateCounter = stateCounter;
+            this.stateLength = state.length;
+            this.state = keepState ? state : null;
+        }
+    }
+}
@@ -28,6 +28,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.namespace.QName;
 
@@ -282,30 +284,44 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
         });
     }
 
+    /**
+     * Uses a {@link ReentrantLock} rather than a monitor, so that a virtual thread waiting for the response
+     * doesn't pin its carrier thread.
+     */
     static class ResponseCallback {
+        private final ReentrantLock _lock = new ReentrantLock();
+        private final Condition _received = _lock.newCondition();
         private boolean _timedout;
         private boolean _waiting = true;
 
-        synchronized boolean responseReceived() {
-            if (_timedout) {
-                return false;
+        boolean responseReceived() {
+            _lock.lock();
+            try {
+                if (_timedout) {
+                    return false;
+                }
+                _waiting = false;
+                _received.signal();
+                return true;
+            } finally {
+                _lock.unlock();
             }
-            _waiting = false;
-            this.notify();
-            return true;
         }
 
-        synchronized void waitResponse(long timeout) {
+        void waitResponse(long timeout) {
             long etime = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
             long ctime;
+            _lock.lock();
             try {
                 while (_waiting && (ctime = System.currentTimeMillis()) < etime) {
-                    this.wait(etime - ctime);
+                    _received.await(etime - ctime, TimeUnit.MILLISECONDS);
                 }
             } catch (InterruptedException ie) {
                 // ignore
+            } finally {
+                _timedout = _waiting;
+                _lock.unlock();
             }
-            _timedout = _waiting;
         }
     }
 }
@@ -19,6 +19,8 @@
 package org.apache.ode.bpel.engine;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +59,8 @@ import org.apache.ode.bpel.obj.OScope;
 import org.apache.ode.bpel.runtime.InvalidProcessException;
 import org.apache.ode.bpel.runtime.PROCESS;
 import org.apache.ode.utils.ObjectPrinter;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -67,6 +71,8 @@ import org.w3c.dom.Node;
 public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
     private static final Logger __log = LoggerFactory.getLogger(BpelProcess.class);
     private static final Messages __msgs = MessageBundle.getMessages(Messages.class);
+    private static final Counter __messagesQueued = MetricsRegistry.getDefault().counter("ode_correlator_messages_queued_total",
+            "Messages queued on a correlator because no instance matched their correlation keys.");
 
     /** The local endpoint for this "myrole". */
     public Endpoint _endpoint;
@@ -150,6 +156,13 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
 
         //Avoid searching for message route when enqueue is enabled. It is only when no message route is found, enqueue will be enabled.
         if(!enqueue) {
+            MessageRouteDAO cachedRoute = findCachedRoute(correlatorId, keySet);
+            if (cachedRoute != null) {
+                __log.debug("INPUTMSG: " + correlatorId + ": ckeySet " + cachedRoute.getCorrelationKeySet() + " cached route is to " + cachedRoute);
+                routingInfos.add(new RoutingInfo(cachedRoute, cachedRoute.getCorrelationKeySet(), correlator, keySet));
+                return routingInfos;
+            }
+
             // Try to find a route for one of our keys.
             List<MessageRouteDAO> messageRoutes = correlator.findRoute(keySet);
             if (messageRoutes != null && messageRoutes.size() > 0) {
@@ -158,6 +171,7 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
                     routingInfos.add(new RoutingInfo(messageRoute, messageRoute.getCorrelationKeySet(), correlator, keySet));
                 }
             }
+            if (_process.isRouteCached(correlatorId)) loadRoutes(correlator);
         }
 
         if (routingInfos.size() == 0) {
@@ -167,6 +181,50 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         return routingInfos;
     }
 
+    /**
+     * Match a message with the route cache.
+     *
+     * @return the route of the instance waiting for the message, <code>null</code> if the cache doesn't know
+     */
+    private MessageRouteDAO findCachedRoute(String correlatorId, CorrelationKeySet keySet) {
+        if (!_process.isRouteCached(correlatorId)) return null;
+
+        RouteCache cache = _process._engine.getRouteCache();
+        RouteCache.CachedRoute cached = cache.find(_process.getPID(), correlatorId, keySet);
+        if (cached == null) return null;
+        ProcessInstanceDAO instance = _process.getProcessDAO().getInstance(cached.getInstanceId());
+        if (instance == null || org.apache.ode.bpel.common.ProcessState.isFinished(instance.getState())) {
+            // Deleted or completed behind our back, its routes may still be in the database
+            cache.reset(cache.invalidate(cached.getInstanceId(), null));
+            return null;
+        }
+        return new CachedMessageRoute(cached, instance);
+    }
+
+    /**
+     * Cache all the routes of a correlator the cache doesn't know all the routes of yet, so that the next messages
+     * can be matched with the cache.
+     */
+    private void loadRoutes(CorrelatorDAO correlator) {
+        RouteCache cache = _process._engine.getRouteCache();
+        String correlatorId = correlator.getCorrelatorId();
+        long version = cache.beginLoad(_process.getPID(), correlatorId);
+        if (version < 0) return;
+
+        List<RouteCache.CachedRoute> routes = null;
+        try {
+            Collection<MessageRouteDAO> messageRoutes = correlator.getAllRoutes();
+            routes = new ArrayList<RouteCache.CachedRoute>(messageRoutes.size());
+            for (MessageRouteDAO messageRoute : messageRoutes) {
+                routes.add(new RouteCache.CachedRoute(_process.getPID(), correlatorId,
+                        messageRoute.getTargetInstance().getInstanceId(), messageRoute.getGroupId(),
+                        messageRoute.getIndex(), messageRoute.getRoute(), messageRoute.getCorrelationKeySet()));
+            }
+        } finally {
+            cache.endLoad(_process.getPID(), correlatorId, routes, version);
+        }
+    }
+
     public static class RoutingInfo {
         public MessageRouteDAO messageRoute;
         public CorrelationKeySet matchedKeySet;
@@ -241,6 +299,7 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         // Kill the route so some new message does not get routed to
         // same process instance.
         routing.correlator.removeRoutes(routing.messageRoute.getGroupId(), instanceDao);
+        process2.routesRemoved(instanceDao.getInstanceId(), routing.messageRoute.getGroupId());
 
         // send process instance event
         CorrelationMatchEvent evt = new CorrelationMatchEvent(new QName(process2.getOProcess().getTargetNamespace(),
@@ -297,6 +356,7 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
 
                 // No match, means we add message exchange to the queue.
                 routing.correlator.enqueueMessage(mex.getDAO(), routing.wholeKeySet);
+                __messagesQueued.inc();
 
                 // Do we really need this? Check ODE-1048
 /*                JobDetails we = new JobDetails();
@@ -326,6 +386,10 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         return _plinkDef.getMyRoleOperation(operationName);
     }
 
+    /**
+     * Compute the keys of all the correlation sets of the operation in one go, the value of a property alias used
+     * by several correlation sets being extracted once.
+     */
     private CorrelationKeySet computeCorrelationKeys(MyRoleMessageExchangeImpl mex) {
         CorrelationKeySet keySet = new CorrelationKeySet();
 
@@ -333,18 +397,18 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         Element msg = mex.getRequest().getMessage();
         Map<String, Node> headerParts = mex.getRequest().getHeaderParts();
         javax.wsdl.Message msgDescription = operation.getInput().getMessage();
+        OMessageVarType messageType = _process.getOProcess().getMessageTypes().get(msgDescription.getQName());
+        Map<OProcess.OPropertyAlias, String> values = new IdentityHashMap<OProcess.OPropertyAlias, String>();
 
         Set<OScope.CorrelationSet> csets = _plinkDef.getNonInitiatingCorrelationSetsForOperation(operation);
         for (OScope.CorrelationSet cset : csets) {
-            CorrelationKey key = computeCorrelationKey(cset,
-                    _process.getOProcess().getMessageTypes().get(msgDescription.getQName()), msg, headerParts);
+            CorrelationKey key = computeCorrelationKey(cset, messageType, msg, headerParts, values);
             keySet.add(key);
         }
 
         csets = _plinkDef.getJoinningCorrelationSetsForOperation(operation);
         for (OScope.CorrelationSet cset : csets) {
-            CorrelationKey key = computeCorrelationKey(cset,
-                    _process.getOProcess().getMessageTypes().get(msgDescription.getQName()), msg, headerParts);
+            CorrelationKey key = computeCorrelationKey(cset, messageType, msg, headerParts, values);
             keySet.add(key);
         }
 
@@ -356,12 +420,15 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         return keySet;
     }
 
+    /**
+     * @param values values of the aliases already extracted from the message
+     */
     @SuppressWarnings("unchecked")
     private CorrelationKey computeCorrelationKey(OScope.CorrelationSet cset, OMessageVarType messagetype,
-            Element msg, Map<String, Node> headerParts) {
+            Element msg, Map<String, Node> headerParts, Map<OProcess.OPropertyAlias, String> values) {
     	CorrelationKey key = null;
     	
-        String[] values = new String[cset.getProperties().size()];
+        String[] valueArray = new String[cset.getProperties().size()];
 
         int jIdx = 0;
         for (Iterator j = cset.getProperties().iterator(); j.hasNext(); ++jIdx) {
@@ -375,21 +442,24 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
                         + "' with message type '" + messagetype + "'");
             }
 
-            String value;
-            try {
-                value = _process.extractProperty(msg, headerParts, alias, msg.toString());
-            } catch (FaultException fe) {
-                String emsg = __msgs.msgPropertyAliasDerefFailedOnMessage(alias.getDescription(), fe.getMessage());
-                __log.error(emsg, fe);
-                throw new InvalidMessageException(emsg, fe);
+            String value = values.get(alias);
+            if (value == null) {
+                try {
+                    value = _process.extractProperty(msg, headerParts, alias, msg.toString());
+                } catch (FaultException fe) {
+                    String emsg = __msgs.msgPropertyAliasDerefFailedOnMessage(alias.getDescription(), fe.getMessage());
+                    __log.error(emsg, fe);
+                    throw new InvalidMessageException(emsg, fe);
+                }
+                values.put(alias, value);
             }
-            values[jIdx] = value;
+            valueArray[jIdx] = value;
         }
 
         if( cset.isHasJoinUseCases() ) {
-            key = new OptionalCorrelationKey(cset.getName(), values);
+            key = new OptionalCorrelationKey(cset.getName(), valueArray);
         } else {
-            key = new CorrelationKey(cset.getName(), values);
+            key = new CorrelationKey(cset.getName(), valueArray);
         }
 
         return key;
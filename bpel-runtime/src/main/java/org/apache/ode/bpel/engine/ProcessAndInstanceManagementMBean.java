@@ -22,6 +22,7 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -38,6 +39,7 @@ import javax.management.ReflectionException;
 
 import org.apache.ode.bpel.iapi.BpelServer;
 import org.apache.ode.bpel.iapi.ProcessStore;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 
 
 /**
@@ -48,6 +50,10 @@ import org.apache.ode.bpel.iapi.ProcessStore;
 public class ProcessAndInstanceManagementMBean implements DynamicMBean {
 
     private MBeanInfo _mbeanInfo;
+    /** {@link #_mbeanInfo} along with the metric attributes, rebuilt when metrics get added or removed. */
+    private MBeanInfo _metricsInfo;
+    private int _metricsVersion;
+    private final MetricsRegistry _metrics = MetricsRegistry.getDefault();
     private ProcessAndInstanceManagementImpl _pm;
 
     private static final List<String> __excludes = new ArrayList<String>();
@@ -98,18 +104,47 @@ public class ProcessAndInstanceManagementMBean implements DynamicMBean {
                 attributes, constructors, operations, notifications);
     }
 
+    /**
+     * The engine metrics are exposed as read-only attributes.
+     */
     public Object getAttribute(String attribute)
             throws AttributeNotFoundException, MBeanException,
             ReflectionException {
-        throw new UnsupportedOperationException();
+        Number value = _metrics.value(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
     }
 
     public AttributeList getAttributes(String[] attributes) {
-        throw new UnsupportedOperationException();
+        Map<String, Number> values = _metrics.snapshot();
+        AttributeList result = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = values.get(attribute);
+            if (value != null) {
+                result.add(new Attribute(attribute, value));
+            }
+        }
+        return result;
     }
 
-    public MBeanInfo getMBeanInfo() {
-        return _mbeanInfo;
+    public synchronized MBeanInfo getMBeanInfo() {
+        // metrics get registered as the components start up, list the current ones
+        int version = _metrics.getVersion();
+        if (_metricsInfo == null || version != _metricsVersion) {
+            Map<String, Number> values = _metrics.snapshot();
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>(values.size());
+            for (Map.Entry<String, Number> value : values.entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        "Engine metric " + value.getKey(), true, false, false));
+            }
+            _metricsInfo = new MBeanInfo(_mbeanInfo.getClassName(), _mbeanInfo.getDescription(),
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), _mbeanInfo.getConstructors(),
+                    _mbeanInfo.getOperations(), _mbeanInfo.getNotifications());
+            _metricsVersion = version;
+        }
+        return _metricsInfo;
     }
 
     public Object invoke(String actionName, Object[] params, String[] signature)
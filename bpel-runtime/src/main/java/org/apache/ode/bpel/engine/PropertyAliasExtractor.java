@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.elang.xpath10.obj.OXPath10ExpressionBPEL20;
+import org.apache.ode.bpel.obj.OExpression;
+import org.apache.ode.bpel.obj.OProcess;
+import org.w3c.dom.Node;
+
+/**
+ * Selects the node a property alias query points to without going through the expression language runtime, when
+ * the query is a plain path of child elements such as <code>tns:order/tns:id</code>. Other queries are left to the
+ * runtime, which compiles them once and reuses them.
+ */
+class PropertyAliasExtractor {
+    private static final String NAME = "[A-Za-z_][\\w.\\-]*";
+    private static final String STEP = NAME + "(:" + NAME + ")?";
+    private static final Pattern CHILD_PATH = Pattern.compile("(\\./)?" + STEP + "(/" + STEP + ")*");
+
+    /** Names of the child elements walked down from the root of the alias, in order. */
+    private final QName[] _path;
+
+    private PropertyAliasExtractor(QName[] path) {
+        _path = path;
+    }
+
+    /**
+     * @return the extractors of the aliases of all the properties of a process whose query is a plain child path
+     */
+    static Map<OProcess.OPropertyAlias, PropertyAliasExtractor> compileAll(OProcess oprocess) {
+        // OBase equality is by id, which isn't unique across the aliases of a process
+        Map<OProcess.OPropertyAlias, PropertyAliasExtractor> extractors =
+                new IdentityHashMap<OProcess.OPropertyAlias, PropertyAliasExtractor>();
+        List<OProcess.OProperty> properties = oprocess.getProperties();
+        if (properties == null) return extractors;
+        for (OProcess.OProperty property : properties) {
+            if (property.getAliases() == null) continue;
+            for (OProcess.OPropertyAlias alias : property.getAliases()) {
+                PropertyAliasExtractor extractor = compile(alias.getLocation());
+                if (extractor != null) extractors.put(alias, extractor);
+            }
+        }
+        return extractors;
+    }
+
+    /**
+     * @return an extractor for the query, <code>null</code> if the query isn't a plain child path
+     */
+    static PropertyAliasExtractor compile(OExpression location) {
+        if (!(location instanceof OXPath10ExpressionBPEL20)) return null;
+        OXPath10ExpressionBPEL20 xpath = (OXPath10ExpressionBPEL20) location;
+        if (xpath.isInsertMissingData() || xpath.getXpath() == null) return null;
+        return compile(xpath.getXpath().trim(), xpath.getNamespaceCtx());
+    }
+
+    static PropertyAliasExtractor compile(String xpath, NamespaceContext nsContext) {
+        if (!CHILD_PATH.matcher(xpath).matches()) return null;
+        if (xpath.startsWith("./")) xpath = xpath.substring(2);
+
+        String[] steps = xpath.split("/");
+        QName[] path = new QName[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            int colon = steps[i].indexOf(':');
+            if (colon < 0) {
+                // unprefixed names are in no namespace, unless a runtime picks a default one up
+                String defaultNs = nsContext == null ? null : nsContext.getNamespaceURI("");
+                if (defaultNs != null && defaultNs.length() > 0) return null;
+                path[i] = new QName(null, steps[i]);
+            } else {
+                String ns = nsContext == null ? null : nsContext.getNamespaceURI(steps[i].substring(0, colon));
+                if (ns == null || ns.length() == 0) return null;
+                path[i] = new QName(ns, steps[i].substring(colon + 1));
+            }
+        }
+        return new PropertyAliasExtractor(path);
+    }
+
+    /**
+     * @return the only element the path selects under the root, <code>null</code> if it selects none or several
+     */
+    Node select(Node root) {
+        Node current = root;
+        for (QName step : _path) {
+            Node match = null;
+            for (Node child = current.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && matches(child, step)) {
+                    if (match != null) return null;
+                    match = child;
+                }
+            }
+            if (match == null) return null;
+            current = match;
+        }
+        return current;
+    }
+
+    private static boolean matches(Node element, QName name) {
+        String localName = element.getLocalName() != null ? element.getLocalName() : element.getNodeName();
+        if (!name.getLocalPart().equals(localName)) return false;
+        String ns = element.getNamespaceURI();
+        return name.getNamespaceURI().equals(ns == null ? "" : ns);
+    }
+}
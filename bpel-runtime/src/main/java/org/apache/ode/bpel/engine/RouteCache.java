@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.common.CorrelationKey;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of the message routes of persistent instances, so that an inbound message can be matched with the
+ * instance waiting for it without querying the correlator.
+ *
+ * <p>
+ * Routes are cached per process and correlator, indexed by the canonical form of their correlation key set. A
+ * message is matched by looking up each subset of its keys, the same subsets the database correlators match. Only
+ * unambiguous lookups are answered: when several cached routes match the message, the caller goes to the database,
+ * which knows which route comes first.
+ * </p>
+ *
+ * <p>
+ * The first route of a correlator matching a message wins, so a lookup can only be answered when none of the routes
+ * of the correlator is missing from the cache. A correlator becomes complete once all its routes were loaded from the
+ * database with {@link #beginLoad} and {@link #endLoad}. Routes created by instances are put in the cache before the
+ * transaction creating them commits, whether the correlator is complete or not, so that a load running at the same
+ * time can't miss them. A correlator stops being complete, and has its routes dropped, when one of its routes is
+ * evicted or when routes are dropped from the cache while the database may still have them ({@link #reset}).
+ * </p>
+ *
+ * <p>
+ * Routes removed from the database are dropped with {@link #invalidate}. A cached route can still outlive its database
+ * row, when a load read it while the transaction removing it was running, so a route found in the cache must be
+ * confirmed against the database once the instance lock is held.
+ * </p>
+ *
+ * <p>
+ * In a cluster, the routes created and removed on a node are published to the other nodes once the transaction
+ * committed, as a {@link org.apache.ode.bpel.clapi.RouteCacheInvalidatedEvent}: a new route resets its correlator,
+ * removed routes are dropped. Until the event arrives, a node doesn't know of a route created elsewhere; the message
+ * then goes to the database, or matches a cached route created before, which the database would pick first too.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded by the number of cached routes and is disabled when its maximum size is zero.
+ * </p>
+ */
+public class RouteCache {
+    private static final Logger __log = LoggerFactory.getLogger(RouteCache.class);
+
+    /** Messages with more keys than this have too many key subsets to look up, they go to the database. */
+    static final int MAX_KEYS = 6;
+
+    /** Routes per process and correlator. */
+    private final Map<QName, Map<String, CorrelatorRoutes>> _routes = new HashMap<QName, Map<String, CorrelatorRoutes>>();
+
+    /** Routes per instance. */
+    private final Map<Long, List<CachedRoute>> _routesByInstance = new HashMap<Long, List<CachedRoute>>();
+
+    /** All routes in insertion order, the eldest route is the first to be evicted. */
+    private final LinkedHashSet<CachedRoute> _lru = new LinkedHashSet<CachedRoute>();
+
+    /** Maximum number of cached routes, 0 disables the cache. */
+    private volatile int _maxSize;
+
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+    private long _loads;
+
+    public RouteCache(int maxSize) {
+        _maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return _maxSize > 0;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        _maxSize = maxSize;
+        // Correlators too large for the previous size may fit now
+        for (Map<String, CorrelatorRoutes> correlators : _routes.values()) {
+            for (CorrelatorRoutes correlator : correlators.values()) correlator.oversized = false;
+        }
+        shrink();
+    }
+
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Find the route matching a message.
+     *
+     * @param pid process
+     * @param correlatorId correlator the message is routed through
+     * @param keySet correlation keys of the message
+     * @return the only cached route matching the message, <code>null</code> if there is none or more than one, or if
+     * the routes of the correlator aren't all cached
+     */
+    public synchronized CachedRoute find(QName pid, String correlatorId, CorrelationKeySet keySet) {
+        CorrelatorRoutes routes = getCorrelatorRoutes(pid, correlatorId, false);
+        CachedRoute found = null;
+        if (routes != null && routes.complete && keys(keySet).size() <= MAX_KEYS) {
+            for (CorrelationKeySet subSet : keySet.findSubSets()) {
+                List<CachedRoute> candidates = routes.byKeySet.get(subSet.toCanonicalString());
+                if (candidates == null) continue;
+                if (found != null || candidates.size() > 1) {
+                    // Several instances are waiting for this message, let the database pick one
+                    found = null;
+                    break;
+                }
+                found = candidates.get(0);
+            }
+        }
+        if (found == null) _misses++;
+        else _hits++;
+        return found;
+    }
+
+    /**
+     * @return whether a route is cached
+     */
+    public synchronized boolean contains(CachedRoute route) {
+        return _lru.contains(route);
+    }
+
+    /**
+     * @return whether all the routes of a correlator are cached
+     */
+    public synchronized boolean isComplete(QName pid, String correlatorId) {
+        CorrelatorRoutes routes = getCorrelatorRoutes(pid, correlatorId, false);
+        return routes != null && routes.complete;
+    }
+
+    /**
+     * Start loading the routes of a correlator that isn't complete. The routes must be read from the database after
+     * this call and handed to {@link #endLoad}, even when reading them failed.
+     *
+     * @return stamp to pass to {@link #endLoad}, -1 if the correlator needs no load, has more routes than the cache
+     * can hold or is being loaded by another thread
+     */
+    public synchronized long beginLoad(QName pid, String correlatorId) {
+        if (!isEnabled()) return -1;
+        CorrelatorRoutes routes = getCorrelatorRoutes(pid, correlatorId, true);
+        if (routes.complete || routes.oversized || routes.loading) return -1;
+        routes.loading = true;
+        return routes.version;
+    }
+
+    /**
+     * Cache the routes of a correlator read from the database, and mark the correlator complete unless it was reset
+     * while the routes were being read.
+     *
+     * @param loaded all the routes of the correlator, <code>null</code> if they couldn't be read
+     * @param version stamp returned by {@link #beginLoad}
+     * @return whether the correlator is complete
+     */
+    public synchronized boolean endLoad(QName pid, String correlatorId, List<CachedRoute> loaded, long version) {
+        CorrelatorRoutes routes = getCorrelatorRoutes(pid, correlatorId, false);
+        if (routes == null) return false;
+        routes.loading = false;
+        if (loaded == null || !isEnabled() || routes.version != version) return false;
+        if (loaded.size() > _maxSize) {
+            routes.oversized = true;
+            if (__log.isDebugEnabled())
+                __log.debug("Not caching the " + loaded.size() + " routes of correlator " + correlatorId + " of " + pid);
+            return false;
+        }
+        for (CachedRoute route : loaded) add(route);
+        routes.complete = true;
+        _loads++;
+        shrink();
+        return routes.complete;
+    }
+
+    /**
+     * Cache a route created by an instance. To be called before the transaction creating the route commits, and
+     * again once it committed.
+     */
+    public synchronized void put(CachedRoute route) {
+        if (!isEnabled()) return;
+        add(route);
+        shrink();
+    }
+
+    /**
+     * Drop the routes of an instance removed from the database.
+     *
+     * @param groupId group of the removed routes, <code>null</code> for all the routes of the instance
+     * @return the routes dropped
+     */
+    public synchronized List<CachedRoute> invalidate(Long iid, String groupId) {
+        List<CachedRoute> routes = _routesByInstance.get(iid);
+        if (routes == null) return Collections.emptyList();
+        List<CachedRoute> invalid = new ArrayList<CachedRoute>(routes.size());
+        for (CachedRoute route : routes) {
+            if (groupId == null || groupId.equals(route.groupId)) invalid.add(route);
+        }
+        for (CachedRoute route : invalid) remove(route);
+        if (__log.isDebugEnabled())
+            __log.debug("Invalidated the cached routes " + (groupId == null ? "" : groupId + " ") + "of instance " + iid);
+        return invalid;
+    }
+
+    /**
+     * Drop the routes of the correlators of some routes, which are no longer known to be all cached. To be called
+     * when routes got dropped from the cache while the database may still have them.
+     */
+    public synchronized void reset(Collection<CachedRoute> routes) {
+        for (CachedRoute route : routes) reset(route.pid, route.correlatorId);
+    }
+
+    /**
+     * Drop all the routes of a process.
+     */
+    public synchronized void evictProcess(QName pid) {
+        Map<String, CorrelatorRoutes> correlators = _routes.get(pid);
+        if (correlators == null) return;
+        for (CorrelatorRoutes correlator : correlators.values()) {
+            for (CachedRoute route : correlator.routes()) removeRoute(route);
+            // A load still running must not mark the correlator complete
+            correlator.version++;
+        }
+        _routes.remove(pid);
+    }
+
+    public synchronized void clear() {
+        for (Map<String, CorrelatorRoutes> correlators : _routes.values()) {
+            for (CorrelatorRoutes correlator : correlators.values()) correlator.version++;
+        }
+        _routes.clear();
+        _routesByInstance.clear();
+        _lru.clear();
+    }
+
+    /**
+     * Drop the routes of a correlator, which is no longer known to have all its routes cached.
+     */
+    public synchronized void reset(QName pid, String correlatorId) {
+        CorrelatorRoutes routes = getCorrelatorRoutes(pid, correlatorId, false);
+        if (routes == null) return;
+        for (CachedRoute route : routes.routes()) removeRoute(route);
+        routes.byKeySet.clear();
+        routes.complete = false;
+        routes.version++;
+        if (__log.isDebugEnabled())
+            __log.debug("Reset the cached routes of correlator " + correlatorId + " of " + pid);
+    }
+
+    private void add(CachedRoute route) {
+        CorrelatorRoutes routes = getCorrelatorRoutes(route.pid, route.correlatorId, true);
+        List<CachedRoute> candidates = routes.byKeySet.get(route.keySet);
+        if (candidates == null) {
+            candidates = new ArrayList<CachedRoute>(1);
+            routes.byKeySet.put(route.keySet, candidates);
+        }
+        for (CachedRoute candidate : candidates) {
+            // Already known
+            if (candidate.instanceId.equals(route.instanceId) && candidate.groupId.equals(route.groupId)
+                    && candidate.index == route.index) return;
+        }
+        candidates.add(route);
+
+        List<CachedRoute> instanceRoutes = _routesByInstance.get(route.instanceId);
+        if (instanceRoutes == null) {
+            instanceRoutes = new ArrayList<CachedRoute>(2);
+            _routesByInstance.put(route.instanceId, instanceRoutes);
+        }
+        instanceRoutes.add(route);
+        _lru.add(route);
+    }
+
+    /**
+     * Remove a route, the correlator entry is kept as it knows whether the correlator is complete.
+     */
+    private void remove(CachedRoute route) {
+        if (!_lru.contains(route)) return;
+        CorrelatorRoutes routes = getCorrelatorRoutes(route.pid, route.correlatorId, false);
+        List<CachedRoute> candidates = routes.byKeySet.get(route.keySet);
+        candidates.remove(route);
+        if (candidates.isEmpty()) routes.byKeySet.remove(route.keySet);
+        removeRoute(route);
+    }
+
+    /**
+     * Remove a route from the instance and eviction indexes.
+     */
+    private void removeRoute(CachedRoute route) {
+        if (!_lru.remove(route)) return;
+        List<CachedRoute> instanceRoutes = _routesByInstance.get(route.instanceId);
+        instanceRoutes.remove(route);
+        if (instanceRoutes.isEmpty()) _routesByInstance.remove(route.instanceId);
+    }
+
+    private void shrink() {
+        while (_lru.size() > _maxSize) {
+            // The correlator can't answer without all its routes, drop them all
+            CachedRoute eldest = _lru.iterator().next();
+            int count = _lru.size();
+            reset(eldest.pid, eldest.correlatorId);
+            _evictions += count - _lru.size();
+        }
+    }
+
+    private CorrelatorRoutes getCorrelatorRoutes(QName pid, String correlatorId, boolean create) {
+        Map<String, CorrelatorRoutes> correlators = _routes.get(pid);
+        if (correlators == null) {
+            if (!create) return null;
+            correlators = new HashMap<String, CorrelatorRoutes>();
+            _routes.put(pid, correlators);
+        }
+        CorrelatorRoutes routes = correlators.get(correlatorId);
+        if (routes == null && create) {
+            routes = new CorrelatorRoutes();
+            correlators.put(correlatorId, routes);
+        }
+        return routes;
+    }
+
+    /** Canonical forms of the keys of a key set. */
+    static Set<String> keys(CorrelationKeySet keySet) {
+        Set<String> keys = new HashSet<String>();
+        for (Iterator<CorrelationKey> it = keySet.iterator(); it.hasNext();) {
+            CorrelationKey key = it.next();
+            keys.add(key.toCanonicalString());
+        }
+        return keys;
+    }
+
+    public synchronized int getCount() {
+        return _lru.size();
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    public synchronized long getEvictions() {
+        return _evictions;
+    }
+
+    public synchronized long getLoads() {
+        return _loads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "{RouteCache: count=" + _lru.size() + "/" + _maxSize + ", hits=" + _hits + ", misses=" + _misses
+            + ", evictions=" + _evictions + ", loads=" + _loads + "}";
+    }
+
+    /**
+     * Cached routes of a correlator.
+     */
+    private static class CorrelatorRoutes {
+        /** Routes per key set. */
+        final Map<String, List<CachedRoute>> byKeySet = new HashMap<String, List<CachedRoute>>();
+        /** Whether all the routes of the correlator are cached. */
+        boolean complete;
+        /** Whether the correlator had more routes than the cache can hold when it was last loaded. */
+        boolean oversized;
+        /** Whether a thread is loading the routes. */
+        boolean loading;
+        /** Bumped when the routes are reset, a load started before doesn't complete the correlator. */
+        long version;
+
+        List<CachedRoute> routes() {
+            List<CachedRoute> routes = new ArrayList<CachedRoute>();
+            for (List<CachedRoute> candidates : byKeySet.values()) routes.addAll(candidates);
+            return routes;
+        }
+    }
+
+    /**
+     * Message route of a persistent instance.
+     */
+    public static class CachedRoute {
+        final QName pid;
+        final String correlatorId;
+        final Long instanceId;
+        final String groupId;
+        final int index;
+        final String route;
+        /** Canonical form of the route correlation key set. */
+        final String keySet;
+        final Set<String> keys;
+
+        public CachedRoute(QName pid, String correlatorId, Long instanceId, String groupId, int index, String route,
+                CorrelationKeySet keySet) {
+            this.pid = pid;
+            this.correlatorId = correlatorId;
+            this.instanceId = instanceId;
+            this.groupId = groupId;
+            this.index = index;
+            this.route = route;
+            this.keySet = keySet.toCanonicalString();
+            this.keys = keys(keySet);
+        }
+
+        public Long getInstanceId() {
+            return instanceId;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public CorrelationKeySet getCorrelationKeySet() {
+            return new CorrelationKeySet(keySet);
+        }
+
+        @Override
+        public String toString() {
+            return "{CachedRoute " + correlatorId + " " + keySet + " -> " + instanceId + "/" + groupId + "/" + index + "}";
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.ode.bpel.clapi.ClusterLock;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
+
+/**
+ * Instance-level locks without a global monitor. Every locked instance gets its own fair semaphore, so waiters
+ * queue per instance and the lock is handed over in FIFO order, only waking up the next waiter. Entries are
+ * reference counted and removed from the lock table once nobody holds or waits for them anymore.
+ *
+ * <p>
+ * Same semantics as {@link InstanceLockManager}: the lock isn't reentrant and can be released by another thread
+ * than the one that acquired it (transaction completion callbacks). Like it, it is only valid for a single
+ * processing node. Contention statistics are kept for monitoring, and published in the {@link MetricsRegistry}.
+ * </p>
+ */
+public class StripedInstanceLockManager implements ClusterLock<Long> {
+    private static final Logger __log = LoggerFactory.getLogger(StripedInstanceLockManager.class);
+
+    /** Threads waiting for an instance lock, over all the lock managers. */
+    private static final AtomicInteger __waiting = new AtomicInteger();
+
+    private static final Counter __contended = MetricsRegistry.getDefault().counter("ode_instance_lock_contended_total",
+            "Instance lock requests that found the instance already locked.");
+    private static final Timer __waitTimer = MetricsRegistry.getDefault().timer("ode_instance_lock_wait_duration_seconds",
+            "Time spent waiting for a contended instance lock.");
+    static {
+        MetricsRegistry.getDefault().gauge("ode_instance_lock_waiting_threads", "Threads waiting for an instance lock.",
+                new Gauge.Value() {
+                    public long get() {
+                        return __waiting.get();
+                    }
+                });
+    }
+
+    private final ConcurrentHashMap<Long, InstanceLock> _locks = new ConcurrentHashMap<Long, InstanceLock>();
+
+    private final AtomicLong _acquisitions = new AtomicLong();
+    private final AtomicLong _contended = new AtomicLong();
+    private final AtomicLong _timeouts = new AtomicLong();
+    private final AtomicLong _totalWaitNanos = new AtomicLong();
+    private final AtomicLong _maxWaitNanos = new AtomicLong();
+    private final AtomicInteger _waiting = new AtomicInteger();
+    private final AtomicInteger _maxWaiting = new AtomicInteger();
+
+    public void lock(Long key) {
+        // Noting to do here.
+    }
+
+    public void lock(Long iid, int time, TimeUnit tu) throws InterruptedException, TimeoutException {
+        if (iid == null) return;
+
+        if (__log.isDebugEnabled())
+            __log.debug(Thread.currentThread() + ": lock(iid=" + iid + ", time=" + time + tu + ")");
+
+        InstanceLock li = retain(iid);
+        boolean acquired = false;
+        try {
+            // The untimed tryAcquire() would barge in front of the waiters, this one honours the fairness
+            acquired = li.permit.tryAcquire(0, TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                _contended.incrementAndGet();
+                __contended.inc();
+                updateMax(_maxWaiting, _waiting.incrementAndGet());
+                __waiting.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    acquired = li.permit.tryAcquire(time, tu);
+                } finally {
+                    _waiting.decrementAndGet();
+                    __waiting.decrementAndGet();
+                    long waited = System.nanoTime() - start;
+                    __waitTimer.record(waited);
+                    _totalWaitNanos.addAndGet(waited);
+                    updateMax(_maxWaitNanos, waited);
+                }
+            }
+        } finally {
+            if (!acquired) release(iid, li);
+        }
+
+        if (!acquired) {
+            _timeouts.incrementAndGet();
+            if (__log.isDebugEnabled())
+                __log.debug(Thread.currentThread() + ": lock(iid=" + iid + ", time=" + time + tu + ")-->TIMEOUT (held by " + li.owner.get() + ")");
+            throw new TimeoutException();
+        }
+        li.owner.set(Thread.currentThread());
+        _acquisitions.incrementAndGet();
+        if (__log.isDebugEnabled())
+            __log.debug(Thread.currentThread() + ": lock(iid=" + iid + ", time=" + time + tu + ")-->GRANTED");
+    }
+
+    public void unlock(Long iid) {
+        if (iid == null) return;
+
+        if (__log.isDebugEnabled())
+            __log.debug(Thread.currentThread() + ": unlock(iid=" + iid + ")");
+
+        InstanceLock li = _locks.get(iid);
+        if (li == null || li.owner.getAndSet(null) == null)
+            throw new IllegalStateException("Instance not locked, cannot unlock!");
+
+        // Fair semaphore, the permit goes to the longest waiting thread
+        li.permit.release();
+        release(iid, li);
+    }
+
+    public boolean tryLock(Long key) {
+        // Noting to do here.
+        return false;
+    }
+
+    public boolean tryLock(Long key, int time, TimeUnit tu) {
+        // Noting to do here.
+        return false;
+    }
+
+    public void putIfAbsent(Long key, Long keyVal) {
+        // Noting to do here.
+    }
+
+    /** Get the lock entry of an instance, registering the caller as a user of it. */
+    private InstanceLock retain(Long iid) {
+        while (true) {
+            InstanceLock li = _locks.get(iid);
+            if (li == null) {
+                InstanceLock created = new InstanceLock();
+                li = _locks.putIfAbsent(iid, created);
+                if (li == null) li = created;
+            }
+            if (li.retain()) return li;
+            // Entry got retired concurrently, it's being removed; try again with a fresh one
+            _locks.remove(iid, li);
+        }
+    }
+
+    private void release(Long iid, InstanceLock li) {
+        if (li.release()) _locks.remove(iid, li);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value));
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value));
+    }
+
+    /** Number of successful lock acquisitions. */
+    public long getAcquisitions() {
+        return _acquisitions.get();
+    }
+
+    /** Number of lock requests that found the instance already locked. */
+    public long getContendedAcquisitions() {
+        return _contended.get();
+    }
+
+    /** Number of lock requests that timed out. */
+    public long getTimeouts() {
+        return _timeouts.get();
+    }
+
+    /** Total time spent waiting for instance locks, in milliseconds. */
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(_totalWaitNanos.get());
+    }
+
+    /** Longest time spent waiting for an instance lock, in milliseconds. */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(_maxWaitNanos.get());
+    }
+
+    /** Number of threads currently waiting for an instance lock. */
+    public int getQueueLength() {
+        return _waiting.get();
+    }
+
+    public int getMaxQueueLength() {
+        return _maxWaiting.get();
+    }
+
+    /** Number of instances currently locked or waited for. */
+    public int getLockedCount() {
+        return _locks.size();
+    }
+
+    @Override
+    public String toString() {
+        return "{StripedInstanceLockManager: locked=" + _locks.size() + ", acquisitions=" + getAcquisitions()
+            + ", contended=" + getContendedAcquisitions() + ", timeouts=" + getTimeouts()
+            + ", waiting=" + getQueueLength() + "}";
+    }
+
+    /**
+     * Lock entry of an instance.
+     */
+    private static class InstanceLock {
+        final Semaphore permit = new Semaphore(1, true);
+
+        /** Thread that acquired the lock, null when free. */
+        final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+
+        /** Threads holding or waiting for this lock, -1 once the entry is retired. */
+        private final AtomicInteger users = new AtomicInteger();
+
+        boolean retain() {
+            while (true) {
+                int n = users.get();
+                if (n < 0) return false;
+                if (users.compareAndSet(n, n + 1)) return true;
+            }
+        }
+
+        /** @return true if this was the last user and the entry is now retired */
+        boolean release() {
+            return users.decrementAndGet() == 0 && users.compareAndSet(0, -1);
+        }
+    }
+}
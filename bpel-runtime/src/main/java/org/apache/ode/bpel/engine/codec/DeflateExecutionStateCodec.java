@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate compression of the execution state. Used both for the fast codec (lowest compression level)
+ * and the high-ratio one (highest compression level), they share the same stream format.
+ */
+public class DeflateExecutionStateCodec implements ExecutionStateCodec {
+
+    private final byte _id;
+    private final String _name;
+    private final int _level;
+
+    public DeflateExecutionStateCodec(byte id, String name, int level) {
+        _id = id;
+        _name = name;
+        _level = level;
+    }
+
+    public byte getId() {
+        return _id;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public byte[] encode(byte[] state) throws CodecException {
+        Deflater deflater = new Deflater(_level, true);
+        try {
+            deflater.setInput(state);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, state.length / 4));
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buf);
+                bos.write(buf, 0, len);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public byte[] decode(byte[] data, int offset, int length, int stateLength) throws CodecException {
+        Inflater inflater = new Inflater(true);
+        try {
+            // nowrap streams need an extra dummy byte to signal the end of input
+            byte[] input = new byte[length + 1];
+            System.arraycopy(data, offset, input, 0, length);
+            inflater.setInput(input);
+            byte[] state = new byte[stateLength];
+            int read = 0;
+            while (read < stateLength) {
+                int len = inflater.inflate(state, read, stateLength - read);
+                if (len == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                read += len;
+            }
+            if (read != stateLength)
+                throw new CodecException("Truncated execution state, expected " + stateLength + " bytes but got " + read);
+            return state;
+        } catch (DataFormatException e) {
+            throw new CodecException("Corrupted execution state", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public String toString() {
+        return "{DeflateExecutionStateCodec " + _name + ", level=" + _level + "}";
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine.codec;
+
+/**
+ * Encoding applied to the serialized JACOB execution state of an instance before it is handed to the
+ * DAO layer. Implementations are registered with {@link ExecutionStateCodecs} under a unique identifier that
+ * is written in the header of every encoded state, so the state can be decoded whatever codec is currently
+ * configured for the process.
+ */
+public interface ExecutionStateCodec {
+
+    /**
+     * @return identifier written in the state header, 0-15 are reserved for the codecs shipped with ODE
+     */
+    byte getId();
+
+    /**
+     * @return name used to select the codec in the deployment descriptor
+     */
+    String getName();
+
+    /**
+     * Encode the serialized execution state (without header).
+     */
+    byte[] encode(byte[] state) throws CodecException;
+
+    /**
+     * Decode an encoded execution state (without header).
+     *
+     * @param data buffer holding the encoded state
+     * @param offset start of the encoded state in the buffer
+     * @param length length of the encoded state
+     * @param stateLength length of the decoded state as recorded at encoding time
+     */
+    byte[] decode(byte[] data, int offset, int length, int stateLength) throws CodecException;
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the available {@link ExecutionStateCodec}s and handling of the encoded state header.
+ *
+ * <p>
+ * An encoded state starts with a 10 bytes header: a 4 bytes magic sequence, the header format version, the codec
+ * identifier and the length of the decoded state (big endian int). States without the magic sequence are plain
+ * serialized JACOB soups (Java serialization streams always start with 0xACED) as written by previous versions
+ * and by the {@link #NONE} codec, so existing rows keep working.
+ * </p>
+ */
+public class ExecutionStateCodecs {
+    private static final Logger __log = LoggerFactory.getLogger(ExecutionStateCodecs.class);
+
+    static final byte[] MAGIC = new byte[] { 'O', 'D', 'E', 'S' };
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = MAGIC.length + 6;
+
+    /** States smaller than this aren't worth compressing. */
+    private static final int MIN_ENCODED_LENGTH = 256;
+
+    /** Plain serialized state, no header. */
+    public static final ExecutionStateCodec NONE = new ExecutionStateCodec() {
+        public byte getId() {
+            return 0;
+        }
+        public String getName() {
+            return "none";
+        }
+        public byte[] encode(byte[] state) {
+            return state;
+        }
+        public byte[] decode(byte[] data, int offset, int length, int stateLength) {
+            byte[] state = new byte[length];
+            System.arraycopy(data, offset, state, 0, length);
+            return state;
+        }
+    };
+
+    /** Fast compression, favors CPU over size. */
+    public static final ExecutionStateCodec FAST = new DeflateExecutionStateCodec((byte) 1, "fast", Deflater.BEST_SPEED);
+
+    /** High-ratio compression, favors size over CPU. */
+    public static final ExecutionStateCodec BEST = new DeflateExecutionStateCodec((byte) 2, "best", Deflater.BEST_COMPRESSION);
+
+    private static final ConcurrentHashMap<Byte, ExecutionStateCodec> __byId = new ConcurrentHashMap<Byte, ExecutionStateCodec>();
+    private static final ConcurrentHashMap<String, ExecutionStateCodec> __byName = new ConcurrentHashMap<String, ExecutionStateCodec>();
+
+    static {
+        register(NONE);
+        register(FAST);
+        register(BEST);
+    }
+
+    /**
+     * Make a codec available for encoding (by name) and decoding (by identifier).
+     */
+    public static void register(ExecutionStateCodec codec) {
+        ExecutionStateCodec existing = __byId.putIfAbsent(codec.getId(), codec);
+        if (existing != null && existing != codec)
+            throw new IllegalArgumentException("Codec identifier " + codec.getId() + " already used by " + existing.getName());
+        __byName.put(codec.getName(), codec);
+    }
+
+    /**
+     * Find a codec by name.
+     * @return the codec, {@link #NONE} if the name is null or unknown
+     */
+    public static ExecutionStateCodec getCodec(String name) {
+        if (name == null) return NONE;
+        ExecutionStateCodec codec = __byName.get(name.trim().toLowerCase());
+        if (codec == null) {
+            __log.warn("Unknown execution state codec " + name + ", state will be stored uncompressed.");
+            return NONE;
+        }
+        return codec;
+    }
+
+    /**
+     * Encode a serialized execution state with the given codec, including the header.
+     */
+    public static byte[] encode(ExecutionStateCodec codec, byte[] state) throws CodecException {
+        if (codec == NONE || state.length < MIN_ENCODED_LENGTH) return state;
+
+        byte[] body = codec.encode(state);
+        // Not worth it, keep it plain
+        if (body.length + HEADER_LENGTH >= state.length) return state;
+
+        byte[] encoded = new byte[HEADER_LENGTH + body.length];
+        System.arraycopy(MAGIC, 0, encoded, 0, MAGIC.length);
+        int pos = MAGIC.length;
+        encoded[pos++] = VERSION;
+        encoded[pos++] = codec.getId();
+        encoded[pos++] = (byte) (state.length >>> 24);
+        encoded[pos++] = (byte) (state.length >>> 16);
+        encoded[pos++] = (byte) (state.length >>> 8);
+        encoded[pos++] = (byte) state.length;
+        System.arraycopy(body, 0, encoded, pos, body.length);
+        return encoded;
+    }
+
+    /**
+     * Decode an execution state as read from the database, whatever codec was used to write it.
+     */
+    public static byte[] decode(byte[] data) throws CodecException {
+        if (!isEncoded(data)) return data;
+
+        int pos = MAGIC.length;
+        byte version = data[pos++];
+        if (version != VERSION)
+            throw new CodecException("Unsupported execution state header version " + version);
+        byte id = data[pos++];
+        int stateLength = ((data[pos++] & 0xff) << 24) | ((data[pos++] & 0xff) << 16)
+                | ((data[pos++] & 0xff) << 8) | (data[pos++] & 0xff);
+        ExecutionStateCodec codec = __byId.get(id);
+        if (codec == null)
+            throw new CodecException("No execution state codec registered with identifier " + id);
+        return codec.decode(data, pos, data.length - pos, stateLength);
+    }
+
+    static boolean isEncoded(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine.migration;
+
+import org.apache.ode.bpel.engine.BpelProcess;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.CorrelatorDAO;
+import org.apache.ode.bpel.dao.CorrelatorMessageDAO;
+import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.apache.ode.bpel.obj.OPartnerLink;
+import org.apache.ode.bpel.obj.OProcess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.wsdl.Operation;
+import java.util.Set;
+import java.util.Iterator;
+
+/**
+ * Queues the messages waiting on a correlator again, so that the DAO implementations indexing the keys of the
+ * queued messages (ODE_CORRELATOR_MESSAGE_KEY) create the index of the messages queued before. The DAO
+ * implementations whose queued messages aren't message exchanges already index them. The table itself is
+ * created by schema-updates/ODE_CORRELATOR_MESSAGE_KEY.sql.
+ */
+public class MessageQueueKeysMigration implements Migration {
+    private static final Logger __log = LoggerFactory.getLogger(MessageQueueKeysMigration.class);
+
+    public boolean migrate(Set<BpelProcess> registeredProcesses, BpelDAOConnection connection) {
+        for (BpelProcess process : registeredProcesses) {
+            __log.debug("Indexing the queued message keys of process " + process.getConf().getProcessId());
+            ProcessDAO processDao = connection.getProcess(process.getConf().getProcessId());
+            if (processDao != null) migrate(processDao, process.getOProcess());
+        }
+        return true;
+    }
+
+    /**
+     * Queues the messages waiting on the correlators of the operations of a process again.
+     */
+    public void migrate(ProcessDAO processDao, OProcess oprocess) {
+        for (OPartnerLink plink : oprocess.getAllPartnerLinks()) {
+            if (plink.hasMyRole()) {
+                for (Iterator opI = plink.getMyRolePortType().getOperations().iterator(); opI.hasNext();) {
+                    Operation op = (Operation)opI.next();
+                    CorrelatorDAO corr = processDao.getCorrelator(plink.getName() + "." + op.getName());
+                    if (corr != null) {
+                        for (CorrelatorMessageDAO msgDAO : corr.getAllMessages()) {
+                            if (msgDAO instanceof MessageExchangeDAO) {
+                                corr.enqueueMessage((MessageExchangeDAO) msgDAO, msgDAO.getCorrelationKeySet());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
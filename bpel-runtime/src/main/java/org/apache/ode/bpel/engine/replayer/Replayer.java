@@ -265,6 +265,7 @@ public class Replayer {
 
                                 ctx.runtimeContext.inputMsgMatch(routing.messageRoute.getGroupId(), routing.messageRoute.getIndex(), mex);
                                 routing.correlator.removeRoutes(routing.messageRoute.getGroupId(), ctx.runtimeContext.getDAO());
+                                p.routesRemoved(iid, routing.messageRoute.getGroupId());
 
                                 mex.setCorrelationStatus(MyRoleMessageExchange.CorrelationStatus.MATCHED);
                                 mex.getDAO().setInstance(routing.messageRoute.getTargetInstance());
@@ -313,6 +313,7 @@ public class ReplayerBpelRuntimeContextImpl extends BpelRuntimeContextImpl {
                     // Kill the route so some new message does not get routed to
                     // same process instance.
                     routing.correlator.removeRoutes(routing.messageRoute.getGroupId(), _dao);
+                    _bpelProcess.routesRemoved(_dao.getInstanceId(), routing.messageRoute.getGroupId());
 
                     execute();
                     return true;
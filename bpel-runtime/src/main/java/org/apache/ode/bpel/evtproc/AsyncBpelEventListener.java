@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.evtproc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.VariableModificationEvent;
+import org.apache.ode.bpel.iapi.BatchingBpelEventListener;
+import org.apache.ode.bpel.iapi.BpelEventListener;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Delivers the events of another listener from a dedicated thread, so that slow listeners don't hold the engine
+ * threads and their transactions. Events are queued in a bounded buffer and delivered in order, in batches to a
+ * {@link BatchingBpelEventListener}. When the buffer is full, depending on the {@link Overflow} policy, the engine
+ * thread waits, the event is dropped, or the events are spilled to a file until the listener catches up.
+ *
+ * <p>
+ * The variable values carried by {@link VariableModificationEvent}s are the live DOM of the variables, they are
+ * copied before the event is queued as the instance goes on modifying them.
+ * </p>
+ *
+ * <p>
+ * Listeners that need to run in the engine transaction (to veto it or to read uncommitted data) must not be wrapped.
+ * </p>
+ */
+public class AsyncBpelEventListener implements BatchingBpelEventListener {
+    private static final Logger __log = LoggerFactory.getLogger(AsyncBpelEventListener.class);
+
+    /** User data key marking the documents of the values already copied, when several listeners are async. */
+    private static final String DETACHED = AsyncBpelEventListener.class.getName() + ".detached";
+
+    public enum Overflow {
+        /** Wait for room in the buffer */
+        BLOCK,
+        /** Discard the event */
+        DROP,
+        /** Write the events to a file until the buffer is drained */
+        SPILL
+    }
+
+    private final BpelEventListener _delegate;
+    private final ArrayBlockingQueue<BpelEvent> _queue;
+    private final Overflow _overflow;
+    private final int _batchSize;
+
+    private File _spillDirectory;
+    /** Spill file being written, guarded by the spill lock. */
+    private File _spillFile;
+    private ObjectOutputStream _spillOut;
+    private int _spilledCount;
+    private final Object _spillLock = new Object();
+    /** Set while the new events go to the spill file, to keep them after the ones already in the buffer. */
+    private volatile boolean _spilling;
+
+    private volatile boolean _running;
+    private Thread _thread;
+
+    private final Timer _lag;
+    private final Counter _dropped;
+    private final Counter _spilled;
+
+    public AsyncBpelEventListener(BpelEventListener delegate, int capacity, Overflow overflow, int batchSize) {
+        _delegate = delegate;
+        _queue = new ArrayBlockingQueue<BpelEvent>(capacity);
+        _overflow = overflow;
+        _batchSize = Math.max(batchSize, 1);
+
+        String prefix = "ode_event_listener_" + delegate.getClass().getSimpleName().replaceAll("[^A-Za-z0-9_]", "_");
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        _lag = metrics.timer(prefix + "_lag_seconds", "Time between the firing and the delivery of the events.");
+        _dropped = metrics.counter(prefix + "_dropped_total", "Events dropped because the listener was too slow.");
+        _spilled = metrics.counter(prefix + "_spilled_total", "Events spilled to disk because the listener was too slow.");
+        metrics.gauge(prefix + "_queued", "Events waiting for delivery in memory.", new Gauge.Value() {
+            public long get() {
+                return _queue.size();
+            }
+        });
+    }
+
+    public BpelEventListener getDelegate() {
+        return _delegate;
+    }
+
+    /**
+     * Directory of the spill files, defaults to the temporary directory.
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        _spillDirectory = spillDirectory;
+    }
+
+    public void startup(Properties configProperties) {
+        _delegate.startup(configProperties);
+        _running = true;
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                deliverLoop();
+            }
+        }, "ODEEventListener-" + _delegate.getClass().getSimpleName());
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Delivers the events already fired before shutting the delegate down.
+     */
+    public void shutdown() {
+        _running = false;
+        if (_thread != null) {
+            try {
+                _thread.join(30000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (_thread.isAlive())
+                __log.warn("Event listener " + _delegate.getClass().getName() + " didn't get all its events in time, "
+                        + _queue.size() + " events discarded.");
+            _thread = null;
+        }
+        _delegate.shutdown();
+    }
+
+    public void onEvent(BpelEvent bpelEvent) {
+        detach(bpelEvent);
+        switch (_overflow) {
+        case BLOCK:
+            try {
+                _queue.put(bpelEvent);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                _dropped.inc();
+            }
+            break;
+        case DROP:
+            if (!_queue.offer(bpelEvent)) _dropped.inc();
+            break;
+        case SPILL:
+            if (_spilling || !_queue.offer(bpelEvent)) {
+                synchronized (_spillLock) {
+                    if (_spilling || !_queue.offer(bpelEvent)) spill(bpelEvent);
+                }
+            }
+            break;
+        }
+    }
+
+    public void onEvents(List<BpelEvent> bpelEvents) {
+        for (BpelEvent bpelEvent : bpelEvents)
+            onEvent(bpelEvent);
+    }
+
+    private void spill(BpelEvent bpelEvent) {
+        try {
+            if (_spillOut == null) {
+                _spillFile = File.createTempFile("ode-events", ".spill", _spillDirectory);
+                _spillOut = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(_spillFile)));
+                _spilling = true;
+            }
+            _spillOut.writeObject(new SpilledEvent(bpelEvent));
+            // Don't keep references to the written events
+            _spillOut.reset();
+            _spilledCount++;
+            _spilled.inc();
+        } catch (IOException e) {
+            __log.error("Couldn't spill an event for " + _delegate.getClass().getName() + ", event dropped.", e);
+            _dropped.inc();
+        }
+    }
+
+    private void deliverLoop() {
+        while (_running || !_queue.isEmpty() || _spilling) {
+            BpelEvent first;
+            try {
+                first = _queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first != null) {
+                List<BpelEvent> batch = new ArrayList<BpelEvent>(_batchSize);
+                batch.add(first);
+                _queue.drainTo(batch, _batchSize - 1);
+                deliver(batch);
+            } else if (_spilling) {
+                // The buffer is empty, everything older than the spilled events was delivered
+                deliverSpilled();
+            }
+        }
+    }
+
+    private void deliverSpilled() {
+        File file;
+        int count;
+        synchronized (_spillLock) {
+            try {
+                _spillOut.close();
+            } catch (IOException e) {
+                __log.warn("Couldn't close the spill file " + _spillFile, e);
+            }
+            file = _spillFile;
+            count = _spilledCount;
+            _spillOut = null;
+            _spillFile = null;
+            _spilledCount = 0;
+            _spilling = false;
+        }
+
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            List<BpelEvent> batch = new ArrayList<BpelEvent>(_batchSize);
+            for (int i = 0; i < count; i++) {
+                batch.add(((SpilledEvent) in.readObject()).toEvent());
+                if (batch.size() == _batchSize) {
+                    deliver(batch);
+                    batch = new ArrayList<BpelEvent>(_batchSize);
+                }
+            }
+            if (!batch.isEmpty()) deliver(batch);
+        } catch (EOFException e) {
+            __log.error("Spill file " + file + " is truncated, some events were not delivered.");
+        } catch (Exception e) {
+            __log.error("Couldn't read the spill file " + file + ", some events were not delivered.", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            // Not deleteOnExit(), it would keep the name of every spill file until the JVM exits
+            if (!file.delete()) __log.warn("Couldn't delete the spill file " + file + ".");
+        }
+    }
+
+    private void deliver(List<BpelEvent> batch) {
+        long now = System.currentTimeMillis();
+        for (BpelEvent bpelEvent : batch) {
+            if (bpelEvent.getTimestamp() != null)
+                _lag.record((now - bpelEvent.getTimestamp().getTime()) * 1000000L);
+        }
+        try {
+            if (_delegate instanceof BatchingBpelEventListener) {
+                ((BatchingBpelEventListener) _delegate).onEvents(batch);
+            } else {
+                for (BpelEvent bpelEvent : batch)
+                    _delegate.onEvent(bpelEvent);
+            }
+        } catch (Throwable t) {
+            __log.warn("Event listener " + _delegate.getClass().getName() + " failed to handle " + batch.size()
+                    + " events.", t);
+        }
+    }
+
+    public String toString() {
+        return "Async[" + _delegate + "]";
+    }
+
+    /**
+     * Replace the variable value of the event by a copy in a document of its own.
+     */
+    static void detach(BpelEvent bpelEvent) {
+        if (!(bpelEvent instanceof VariableModificationEvent)) return;
+        VariableModificationEvent event = (VariableModificationEvent) bpelEvent;
+        Node value = event.getNewValue();
+        if (value == null) return;
+        if (value.getOwnerDocument() != null && value.getOwnerDocument().getUserData(DETACHED) != null) return;
+
+        if (value.getNodeType() == Node.DOCUMENT_NODE) value = ((Document) value).getDocumentElement();
+        Document doc = DOMUtils.newDocument();
+        Node copy = doc.importNode(value, true);
+        if (copy.getNodeType() == Node.ELEMENT_NODE) doc.appendChild(copy);
+        doc.setUserData(DETACHED, Boolean.TRUE, null);
+        event.setNewValue(copy);
+    }
+
+    /**
+     * Event written to the spill file. The variable value of a {@link VariableModificationEvent} is transient, it
+     * is written along as text.
+     */
+    private static class SpilledEvent implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final BpelEvent event;
+        private final String value;
+        private final boolean element;
+
+        SpilledEvent(BpelEvent event) {
+            this.event = event;
+            Node newValue = event instanceof VariableModificationEvent
+                    ? ((VariableModificationEvent) event).getNewValue() : null;
+            element = newValue != null && newValue.getNodeType() == Node.ELEMENT_NODE;
+            value = newValue == null ? null : element ? DOMUtils.domToString(newValue) : newValue.getTextContent();
+        }
+
+        BpelEvent toEvent() throws Exception {
+            if (value != null) {
+                Node newValue;
+                if (element) {
+                    Element root = DOMUtils.stringToDOM(value);
+                    root.getOwnerDocument().setUserData(DETACHED, Boolean.TRUE, null);
+                    newValue = root;
+                } else {
+                    Document doc = DOMUtils.newDocument();
+                    doc.setUserData(DETACHED, Boolean.TRUE, null);
+                    newValue = doc.createTextNode(value);
+                }
+                ((VariableModificationEvent) event).setNewValue(newValue);
+            }
+            return event;
+        }
+    }
+}
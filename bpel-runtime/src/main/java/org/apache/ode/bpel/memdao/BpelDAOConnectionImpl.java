@@ -229,6 +229,27 @@ class BpelDAOConnectionImpl implements BpelDAOConnection {
         return _mexStore.get(mexid);
     }
 
+    public List<MessageExchangeDAO> dequeueExpiredMessages(Date queuedBefore, int maxCount) {
+        List<MessageExchangeDAO> expired = new ArrayList<MessageExchangeDAO>();
+        for (ProcessDaoImpl process : _store.values()) {
+            for (CorrelatorDaoImpl correlator : process._correlators.values()) {
+                if (expired.size() >= maxCount) return expired;
+                correlator.dequeueMessagesBefore(queuedBefore.getTime(), maxCount - expired.size(), expired);
+            }
+        }
+        return expired;
+    }
+
+    public long getQueuedMessageCount() {
+        long count = 0;
+        for (ProcessDaoImpl process : _store.values()) {
+            for (CorrelatorDaoImpl correlator : process._correlators.values()) {
+                count += correlator.getQueuedMessageCount();
+            }
+        }
+        return count;
+    }
+
     private int compareInstanceUsingKey(String key, ProcessInstanceDAO instanceDAO1, ProcessInstanceDAO instanceDAO2) {
         String s1 = null;
         String s2 = null;
@@ -25,24 +25,64 @@ import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.*;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Collection;
+import java.util.Map;
 
 /**
  * A very simple, in-memory implementation of the {@link CorrelatorDAO} interface.
+ *
+ * <p>
+ * Routes are indexed by the canonical form of their correlation key set, and queued messages by the canonical
+ * forms of all the subsets of their key set. A message is routable to a route if its key set contains the key set
+ * of the route, so a message finds its routes by looking up the subsets of its key set, and a route finds its
+ * message by looking up its own key set. The candidates are still checked with
+ * {@link CorrelationKeySet#isRoutableTo}, the index only saves the scan of all the routes and messages.
+ * </p>
  */
 class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
     private static final Logger __log = LoggerFactory.getLogger(CorrelatorDaoImpl.class);
 
+    /**
+     * Key sets with more keys than this aren't broken down into subsets, messages holding them are matched by a
+     * scan and look routes up by a scan.
+     */
+    static final int MAX_INDEXED_KEYS = 6;
+
+    private static final Comparator<MessageRouteDaoImpl> ROUTE_ORDER = new Comparator<MessageRouteDaoImpl>() {
+        public int compare(MessageRouteDaoImpl o1, MessageRouteDaoImpl o2) {
+            return o1._seq < o2._seq ? -1 : (o1._seq == o2._seq ? 0 : 1);
+        }
+    };
+
     private String _correlatorId;
-    private List<MsgQueueEntry> _messages;
-    private List<MessageRouteDaoImpl> _routes;
     private BpelDAOConnectionImpl _conn;
 
+    /** Sequence giving the order routes were added and messages were queued in. */
+    private long _seq;
+
+    /** Queued messages, in queuing order. */
+    private LinkedHashSet<MsgQueueEntry> _messages = new LinkedHashSet<MsgQueueEntry>();
+    /** Queued messages by the canonical forms of the subsets of their key set. */
+    private Map<String, LinkedHashSet<MsgQueueEntry>> _messagesByKeys = new HashMap<String, LinkedHashSet<MsgQueueEntry>>();
+    /** Queued messages with too many keys to be indexed. */
+    private LinkedHashSet<MsgQueueEntry> _unindexedMessages = new LinkedHashSet<MsgQueueEntry>();
+
+    /** Routes, in the order they were added. */
+    private LinkedHashSet<MessageRouteDaoImpl> _routes = new LinkedHashSet<MessageRouteDaoImpl>();
+    /** Routes by the canonical form of their key set. */
+    private Map<String, LinkedHashSet<MessageRouteDaoImpl>> _routesByKeys = new HashMap<String, LinkedHashSet<MessageRouteDaoImpl>>();
+    /** Routes by target instance. */
+    private Map<ProcessInstanceDaoImpl, List<MessageRouteDaoImpl>> _routesByInstance = new HashMap<ProcessInstanceDaoImpl, List<MessageRouteDaoImpl>>();
+    /** "all" routes with an opaque key set, which also take messages without keys. */
+    private LinkedHashSet<MessageRouteDaoImpl> _opaqueAllRoutes = new LinkedHashSet<MessageRouteDaoImpl>();
+
     CorrelatorDaoImpl(String correlatorId, BpelDAOConnectionImpl conn) {
-        _messages = new ArrayList<MsgQueueEntry>();
-        _routes = new ArrayList<MessageRouteDaoImpl>();
         _correlatorId = correlatorId;
         _conn = conn;
     }
@@ -51,14 +91,27 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         if (__log.isDebugEnabled()) {
             __log.debug("dequeueEarliest: MATCHING correlationKey=" + instanceKeySet);
         }
-        for (Iterator<MsgQueueEntry> i = _messages.iterator(); i.hasNext();) {
-            MsgQueueEntry mqe = i.next();
-            CorrelationKeySet aKeySet = mqe.keySet;
-            if (aKeySet.isRoutableTo(instanceKeySet, false)) {
-                i.remove();
-                return mqe.message;
+        MsgQueueEntry match = null;
+        LinkedHashSet<MsgQueueEntry> candidates = _messagesByKeys.get(instanceKeySet.toCanonicalString());
+        if (candidates != null) {
+            for (MsgQueueEntry mqe : candidates) {
+                if (mqe.keySet.isRoutableTo(instanceKeySet, false)) {
+                    match = mqe;
+                    break;
+                }
+            }
+        }
+        for (MsgQueueEntry mqe : _unindexedMessages) {
+            if (match != null && mqe.seq > match.seq) break;
+            if (mqe.keySet.isRoutableTo(instanceKeySet, false)) {
+                match = mqe;
+                break;
             }
         }
+        if (match != null) {
+            removeMessage(match);
+            return match.message;
+        }
         if (__log.isDebugEnabled()) {
             __log.debug("dequeueEarliest: MATCH NOT FOUND!");
         }
@@ -81,6 +134,10 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         ((ProcessInstanceDaoImpl)target).removeRoutes(routeGroupId);
     }
 
+    public boolean hasRoutes(String routeGroupId, ProcessInstanceDAO target) {
+        return ((ProcessInstanceDaoImpl)target).hasRoutes(routeGroupId);
+    }
+
     public Collection<MessageRouteDAO> getAllRoutes() {
         return new ArrayList<MessageRouteDAO>(_routes);
     }
@@ -95,7 +152,42 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         }
 
         MsgQueueEntry mqe = new MsgQueueEntry(mex, keySet);
+        mqe.seq = _seq++;
+        mqe.queuedAt = System.currentTimeMillis();
         _messages.add(mqe);
+        indexMessage(mqe);
+    }
+
+    /**
+     * Take the messages queued before some time off the queue, earliest first.
+     * @param expired list the messages get added to
+     */
+    void dequeueMessagesBefore(long queuedBefore, int maxCount, List<MessageExchangeDAO> expired) {
+        for (Iterator<MsgQueueEntry> i = _messages.iterator(); i.hasNext() && maxCount > 0; maxCount--) {
+            MsgQueueEntry mqe = i.next();
+            if (mqe.queuedAt >= queuedBefore) break;
+            i.remove();
+            unindexMessage(mqe);
+            expired.add(mqe.message);
+        }
+    }
+
+    int getQueuedMessageCount() {
+        return _messages.size();
+    }
+
+    /**
+     * @return number of distinct key sets in the route index
+     */
+    int getIndexedRouteKeyCount() {
+        return _routesByKeys.size();
+    }
+
+    /**
+     * @return number of distinct key subsets in the message index
+     */
+    int getIndexedMessageKeyCount() {
+        return _messagesByKeys.size();
     }
 
     public void addRoute(String routeId,ProcessInstanceDAO target, int idx, CorrelationKeySet keySet, String routePolicy) {
@@ -106,7 +198,7 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         final MessageRouteDaoImpl mr = new MessageRouteDaoImpl((ProcessInstanceDaoImpl)target, routeId, keySet, idx, routePolicy);
         _conn.defer(new Runnable() {
             public void run() {
-                _routes.add(mr);
+                _addRoute(mr);
             }
         });
     }
@@ -115,15 +207,127 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         return true;
     }
 
+    void _addRoute(MessageRouteDaoImpl route) {
+        route._correlator = this;
+        route._seq = _seq++;
+        _routes.add(route);
+        List<MessageRouteDaoImpl> instanceRoutes = _routesByInstance.get(route._instance);
+        if (instanceRoutes == null) {
+            instanceRoutes = new ArrayList<MessageRouteDaoImpl>(2);
+            _routesByInstance.put(route._instance, instanceRoutes);
+        }
+        instanceRoutes.add(route);
+        indexRoute(route);
+    }
+
     void _removeRoutes(String routeGroupId, ProcessInstanceDaoImpl target) {
-        for (Iterator<MessageRouteDaoImpl> i = _routes.iterator(); i.hasNext();) {
+        List<MessageRouteDaoImpl> instanceRoutes = _routesByInstance.get(target);
+        if (instanceRoutes == null) return;
+        for (Iterator<MessageRouteDaoImpl> i = instanceRoutes.iterator(); i.hasNext();) {
             MessageRouteDaoImpl we = i.next();
-            if ((we._groupId.equals(routeGroupId) || routeGroupId == null) && we._instance == target) {
+            if (we._groupId.equals(routeGroupId) || routeGroupId == null) {
                 i.remove();
+                _routes.remove(we);
+                unindexRoute(we);
+            }
+        }
+        if (instanceRoutes.isEmpty()) _routesByInstance.remove(target);
+    }
+
+    boolean _hasRoutes(String routeGroupId, ProcessInstanceDaoImpl target) {
+        List<MessageRouteDaoImpl> instanceRoutes = _routesByInstance.get(target);
+        if (instanceRoutes == null) return false;
+        for (MessageRouteDaoImpl we : instanceRoutes) {
+            if (we._groupId.equals(routeGroupId)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Index a route again after its key set changed.
+     */
+    void reindexRoute(MessageRouteDaoImpl route) {
+        if (!_routes.contains(route)) return;
+        unindexRoute(route);
+        indexRoute(route);
+    }
+
+    private void indexRoute(MessageRouteDaoImpl route) {
+        route._indexKey = route._ckeySet.toCanonicalString();
+        LinkedHashSet<MessageRouteDaoImpl> routes = _routesByKeys.get(route._indexKey);
+        if (routes == null) {
+            routes = new LinkedHashSet<MessageRouteDaoImpl>(2);
+            _routesByKeys.put(route._indexKey, routes);
+        }
+        routes.add(route);
+        if ("all".equals(route.getRoute()) && route._ckeySet.isOpaque()) _opaqueAllRoutes.add(route);
+    }
+
+    private void unindexRoute(MessageRouteDaoImpl route) {
+        LinkedHashSet<MessageRouteDaoImpl> routes = _routesByKeys.get(route._indexKey);
+        if (routes != null) {
+            routes.remove(route);
+            if (routes.isEmpty()) _routesByKeys.remove(route._indexKey);
+        }
+        _opaqueAllRoutes.remove(route);
+    }
+
+    private void indexMessage(MsgQueueEntry mqe) {
+        mqe.indexKeys = subsetKeys(mqe.keySet);
+        if (mqe.indexKeys == null) {
+            _unindexedMessages.add(mqe);
+            return;
+        }
+        for (String key : mqe.indexKeys) {
+            LinkedHashSet<MsgQueueEntry> messages = _messagesByKeys.get(key);
+            if (messages == null) {
+                messages = new LinkedHashSet<MsgQueueEntry>(2);
+                _messagesByKeys.put(key, messages);
             }
+            messages.add(mqe);
         }
     }
 
+    private void unindexMessage(MsgQueueEntry mqe) {
+        if (mqe.indexKeys == null) {
+            _unindexedMessages.remove(mqe);
+            return;
+        }
+        for (String key : mqe.indexKeys) {
+            LinkedHashSet<MsgQueueEntry> messages = _messagesByKeys.get(key);
+            if (messages != null) {
+                messages.remove(mqe);
+                if (messages.isEmpty()) _messagesByKeys.remove(key);
+            }
+        }
+    }
+
+    private void removeMessage(MsgQueueEntry mqe) {
+        _messages.remove(mqe);
+        unindexMessage(mqe);
+    }
+
+    /**
+     * @return the canonical forms of all the subsets of a key set, the empty one included, or <code>null</code> if
+     *         the key set has more than {@link #MAX_INDEXED_KEYS} keys
+     */
+    static List<String> subsetKeys(CorrelationKeySet keySet) {
+        List<CorrelationKey> keys = new ArrayList<CorrelationKey>();
+        for (Iterator<CorrelationKey> i = keySet.iterator(); i.hasNext();) {
+            keys.add(i.next());
+            if (keys.size() > MAX_INDEXED_KEYS) return null;
+        }
+        List<String> subsetKeys = new ArrayList<String>(1 << keys.size());
+        for (int bits = 0; bits < (1 << keys.size()); bits++) {
+            CorrelationKeySet subset = new CorrelationKeySet();
+            for (int i = 0; i < keys.size(); i++) {
+                if ((bits & (1 << i)) != 0) subset.add(keys.get(i));
+            }
+            subsetKeys.add(subset.toCanonicalString());
+        }
+        return subsetKeys;
+    }
+
     /**
      * @see java.lang.Object#toString()
      */
@@ -142,6 +346,9 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
     private class MsgQueueEntry implements CorrelatorMessageDAO {
         public MessageExchangeDAO message;
         public CorrelationKeySet keySet;
+        long seq;
+        long queuedAt;
+        List<String> indexKeys;
 
         private MsgQueueEntry(MessageExchangeDAO mex,
                               CorrelationKeySet keySet) {
@@ -154,8 +361,15 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
         }
 
         public void setCorrelationKey(CorrelationKey ckey) {
+            boolean queued = _messages.contains(this);
+            if (queued) unindexMessage(this);
             keySet = new CorrelationKeySet();
             keySet.add(ckey);
+            if (queued) indexMessage(this);
+        }
+
+        public CorrelationKeySet getCorrelationKeySet() {
+            return keySet;
         }
     }
 
@@ -171,7 +385,7 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
 
         __log.debug("findRoute: keySet={}",correlationKeySet);
 
-        for (MessageRouteDaoImpl route : _routes) {
+        for (MessageRouteDaoImpl route : findCandidateRoutes(correlationKeySet)) {
             assert route._ckeySet != null;
 
             if(correlationKeySet.isRoutableTo(route._ckeySet, "all".equals(route.getRoute()))) {
@@ -188,4 +402,21 @@ class CorrelatorDaoImpl extends DaoBaseImpl implements CorrelatorDAO {
 
         return routes;
     }
+
+    /**
+     * @return the routes a message with the given key set may be routable to, in the order they were added
+     */
+    private Collection<MessageRouteDaoImpl> findCandidateRoutes(CorrelationKeySet keySet) {
+        List<String> subsetKeys = subsetKeys(keySet);
+        if (subsetKeys == null) return _routes;
+
+        List<MessageRouteDaoImpl> candidates = new ArrayList<MessageRouteDaoImpl>();
+        for (String key : subsetKeys) {
+            LinkedHashSet<MessageRouteDaoImpl> routes = _routesByKeys.get(key);
+            if (routes != null) candidates.addAll(routes);
+        }
+        if (keySet.isEmpty()) candidates.addAll(_opaqueAllRoutes);
+        if (candidates.size() > 1) Collections.sort(candidates, ROUTE_ORDER);
+        return candidates;
+    }
 }
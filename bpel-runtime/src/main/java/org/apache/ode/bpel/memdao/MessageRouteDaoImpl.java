@@ -34,6 +34,13 @@ class MessageRouteDaoImpl extends DaoBaseImpl implements MessageRouteDAO {
     int _idx;
     String _route;
 
+    /** Correlator the route was added to, <code>null</code> until the transaction adding it completes. */
+    CorrelatorDaoImpl _correlator;
+    /** Order the route was added in. */
+    long _seq;
+    /** Key the correlator indexed the route with. */
+    String _indexKey;
+
     MessageRouteDaoImpl(ProcessInstanceDaoImpl owner, String groupId, CorrelationKeySet ckeySet, int idx, String routePolicy) {
         _instance = owner;
         _groupId = groupId;
@@ -65,6 +72,7 @@ class MessageRouteDaoImpl extends DaoBaseImpl implements MessageRouteDAO {
     public void setCorrelationKey(CorrelationKey key) {
         _ckeySet = new CorrelationKeySet();
         _ckeySet.add(key);
+        if (_correlator != null) _correlator.reindexRoute(this);
     }
 
     public CorrelationKey getCorrelationKey() {
@@ -73,5 +81,6 @@ class MessageRouteDaoImpl extends DaoBaseImpl implements MessageRouteDAO {
 
     public void setCorrelationKeySet(CorrelationKeySet keySet) {
         _ckeySet = keySet;
+        if (_correlator != null) _correlator.reindexRoute(this);
     }
 }
@@ -134,6 +134,10 @@ public class ProcessInstanceDaoImpl extends DaoBaseImpl implements ProcessInstan
         throw new IllegalStateException("In-memory instances are never serialized");
     }
 
+    public int getExecutionStateCounter() {
+        return 0;
+    }
+
     public Object getSoup() {
         return _soup;
     }
@@ -229,6 +233,10 @@ public class ProcessInstanceDaoImpl extends DaoBaseImpl implements ProcessInstan
         _events.add(event);
     }
 
+    public void insertBpelEvents(List<ProcessInstanceEvent> events) {
+        _events.addAll(events);
+    }
+
     public int getEventCount() {
         return _events.size();
     }
@@ -404,6 +412,12 @@ public class ProcessInstanceDaoImpl extends DaoBaseImpl implements ProcessInstan
             correlator._removeRoutes(routeGroupId, this);
     }
 
+    boolean hasRoutes(String routeGroupId) {
+        for (CorrelatorDaoImpl correlator : _processDao._correlators.values())
+            if (correlator._hasRoutes(routeGroupId, this)) return true;
+        return false;
+    }
+
     public BpelDAOConnection getConnection() {
         return _conn;
     }
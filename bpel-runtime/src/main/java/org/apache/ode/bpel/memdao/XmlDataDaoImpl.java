@@ -55,6 +55,8 @@ class XmlDataDaoImpl extends DaoBaseImpl implements XmlDataDAO {
      */
     public Node get() {
         if (_data == null) return null;
+        // Elements are shared with the engine, which copies them before changing them
+        if (_data instanceof Element) return _data;
 
         Document doc = DOMUtils.newDocument();
         Node copy = doc.importNode(_data, true);
@@ -76,18 +78,27 @@ class XmlDataDaoImpl extends DaoBaseImpl implements XmlDataDAO {
     /**
      * @see XmlDataDAO#set(org.w3c.dom.Node)
      */
-    public void set(Node val) {
+    public boolean set(Node val) {
         if (val == null || !(val instanceof Element)) {
             _data = val;
-            return;
+            return true;
         }
         // For some reason we're getting some weird DOM trees from ServiceMix. Until we
         // spot where it exactly comes from, this fixes it.
         // The weirdness lies in elements being in xmlns="" when printed with a DOMWriter
         // but having a ns when the elements are queried directly.
+        if (DOMUtils.isShared(val)) {
+            // Shared values are never changed, writing back our own value is a no-op
+            if (val == _data) return false;
+            // Already a value of another variable
+            _data = val;
+            return true;
+        }
         Document doc = DOMUtils.newDocument();
         _data = doc.importNode(val, true);
         doc.appendChild(_data);
+        DOMUtils.markShared((Element) _data);
+        return true;
     }
 
     /**
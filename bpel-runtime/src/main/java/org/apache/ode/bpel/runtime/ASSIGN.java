@@ -220,13 +220,13 @@ class ASSIGN extends ACTIVITY {
             OAssign.VariableRef varRef = (OAssign.VariableRef) from;
             sendVariableReadEvent(_scopeFrame.resolve(varRef.getVariable()));
             Node data = fetchVariableData(_scopeFrame.resolve(varRef.getVariable()), false);
-            retVal = evalQuery(data, varRef.getPart() != null ? varRef.getPart() : varRef.getHeaderPart(), varRef.getLocation(), getEvaluationContext());
+            retVal = evalQuery(data, varRef.getPart() != null ? varRef.getPart() : varRef.getHeaderPart(), varRef.getLocation(), getEvaluationContext(), false);
         } else if (from instanceof OAssign.PropertyRef) {
             OAssign.PropertyRef propRef = (OAssign.PropertyRef) from;
             sendVariableReadEvent(_scopeFrame.resolve(propRef.getVariable()));
             Node data = fetchVariableData(_scopeFrame.resolve(propRef.getVariable()), false);
             retVal = evalQuery(data, propRef.getPropertyAlias().getPart(),
-                    propRef.getPropertyAlias().getLocation(), getEvaluationContext());
+                    propRef.getPropertyAlias().getLocation(), getEvaluationContext(), false);
         } else if (from instanceof OAssign.PartnerLinkRef) {
             OAssign.PartnerLinkRef pLinkRef = (OAssign.PartnerLinkRef) from;
             PartnerLinkInstance pLink = _scopeFrame.resolve(pLinkRef.getPartnerLink());
@@ -401,6 +401,8 @@ class ASSIGN extends ACTIVITY {
                 final VariableInstance rval = _scopeFrame
                         .resolve(((VariableRef) ocopy.getFrom()).getVariable());
                 Element lvalue = (Element) fetchVariableData(rval, false);
+                // Both variables hold the same message until one of them changes
+                DOMUtils.markShared(lvalue);
                 initializeVariable(lval, lvalue);
                 se = new VariableModificationEvent(lval.declaration.getName());
                 ((VariableModificationEvent)se).setNewValue(lvalue);
@@ -436,18 +438,18 @@ class ASSIGN extends ACTIVITY {
                 VariableRef varRef = ((VariableRef) ocopy.getTo());
                 if (varRef.getHeaderPart() != null) headerAssign = true;
                 lvaluePtr = evalQuery(lvalue, varRef.getPart() != null ? varRef.getPart() : varRef.getHeaderPart(), varRef.getLocation(),
-                        new EvaluationContextProxy(varRef.getVariable(), lvalue));
+                        new EvaluationContextProxy(varRef.getVariable(), lvalue), true);
             } else if (ocopy.getTo() instanceof OAssign.PropertyRef) {
                 PropertyRef propRef = ((PropertyRef) ocopy.getTo());
                 lvaluePtr = evalQuery(lvalue, propRef.getPropertyAlias().getPart(),
                         propRef.getPropertyAlias().getLocation(),
                         new EvaluationContextProxy(propRef.getVariable(),
-                                lvalue));
+                                lvalue), true);
             } else if (ocopy.getTo() instanceof OAssign.LValueExpression) {
                 LValueExpression lexpr = (LValueExpression) ocopy.getTo();
                 lexpr.setInsertMissingToData(ocopy.isInsertMissingToData());
                 lvaluePtr = evalQuery(lvalue, null, lexpr.getExpression(),
-                        new EvaluationContextProxy(lexpr.getVariable(), lvalue));
+                        new EvaluationContextProxy(lexpr.getVariable(), lvalue), true);
                 if (__log.isDebugEnabled())
                     __log.debug("lvaluePtr expr res " + lvaluePtr);
             }
@@ -471,8 +473,15 @@ class ASSIGN extends ACTIVITY {
                 if (headerAssign && parentNode != null && "message".equals(parentNode.getNodeName()) && rvalue.getNodeType()==Node.ELEMENT_NODE ) {
                     lvalue = copyInto((Element)lvalue, (Element) lvaluePtr, (Element) rvalue);
                 } else if (rvalue.getNodeType() == Node.ELEMENT_NODE && lvaluePtr.getNodeType() == Node.ELEMENT_NODE) {
-                    lvalue = replaceElement((Element)lvalue, (Element) lvaluePtr, (Element) rvalue,
-                            ocopy.isKeepSrcElementName());
+                    if (!(ocopy.getFrom() instanceof OAssign.PartnerLinkRef)
+                            && canShare(lvalue, lvaluePtr, (Element) rvalue, ocopy.isKeepSrcElementName())) {
+                        // Whole value copy, the variables hold the same value until one of them changes
+                        DOMUtils.markShared((Element) rvalue);
+                        lvalue = rvalue;
+                    } else {
+                        lvalue = replaceElement((Element)lvalue, (Element) lvaluePtr, (Element) rvalue,
+                                ocopy.isKeepSrcElementName());
+                    }
                 } else {
                     lvalue = replaceContent(lvalue, lvaluePtr, rvalue.getTextContent());
                 }
@@ -522,6 +531,18 @@ class ASSIGN extends ACTIVITY {
         getBpelRuntimeContext().writeEndpointReference(plval, (Element)rvalue);
     }
 
+    /**
+     * Whether the copy of an element replaces the whole lvalue with the same element, in which case the lvalue can
+     * take the rvalue itself instead of a copy of it.
+     */
+    private boolean canShare(Node lval, Node ptr, Element src, boolean keepSrcElement) {
+        if (lval != ptr || !(lval.getParentNode() instanceof Document) || !(src.getParentNode() instanceof Document))
+            return false;
+        if (keepSrcElement) return true;
+        // Otherwise the copy takes the name and the attributes of the lvalue
+        return !ptr.hasAttributes() && DOMUtils.getNodeQName(ptr).equals(DOMUtils.getNodeQName(src));
+    }
+
     private Element replaceElement(Element lval, Element ptr, Element src,
                                 boolean keepSrcElement) {
         Document doc = ptr.getOwnerDocument();
@@ -634,7 +655,7 @@ class ASSIGN extends ACTIVITY {
     }
 
     private Node evalQuery(Node data, OMessageVarType.Part part,
-                           OExpression expression, EvaluationContext ec) throws FaultException {
+                           OExpression expression, EvaluationContext ec, boolean forWriting) throws FaultException {
         assert data != null;
 
         if (part != null) {
@@ -653,7 +674,8 @@ class ASSIGN extends ACTIVITY {
                 if (qualLVal == null) {
                     qualLVal = data.getOwnerDocument().createElementNS(null, part.getName());
                     ((Element)qualLVal).setAttribute("headerPart", "true");
-                    data.appendChild(qualLVal);
+                    // Rvalues are read without copy, the part is only added to the lvalues being changed
+                    if (forWriting) data.appendChild(qualLVal);
                 }
             }
             data = qualLVal;
@@ -807,6 +829,10 @@ class ASSIGN extends ACTIVITY {
             return _ctx.getProcessQName();
         }
 
+        public QName getPID() {
+            return _ctx.getPID();
+        }
+
         public Date getCurrentEventDateTime() {
             return Calendar.getInstance().getTime();
         }
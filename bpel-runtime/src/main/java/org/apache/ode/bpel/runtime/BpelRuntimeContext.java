@@ -305,6 +305,8 @@ public interface BpelRuntimeContext {
 
     QName getProcessQName();
 
+    QName getPID();
+
     void processOutstandingRequest(PartnerLinkInstance partnerLink, String opName, String bpelMexId, String odeMexId) throws FaultException;
 
     Date getCurrentEventDateTime();
@@ -154,6 +154,10 @@ public class ExprEvaluationContextImpl implements EvaluationContext {
         return _native.getProcessQName();
     }
 
+    public QName getPID() {
+        return _native.getPID();
+    }
+
     public Date getCurrentEventDateTime() {
         return _native.getCurrentEventDateTime();
     }
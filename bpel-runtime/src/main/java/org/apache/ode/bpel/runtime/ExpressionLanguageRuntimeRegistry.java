@@ -23,6 +23,7 @@ import org.apache.ode.bpel.explang.ConfigurationException;
 import org.apache.ode.bpel.explang.EvaluationContext;
 import org.apache.ode.bpel.explang.EvaluationException;
 import org.apache.ode.bpel.explang.ExpressionLanguageRuntime;
+import org.apache.ode.bpel.explang.PrecompilingExpressionLanguageRuntime;
 import org.apache.ode.bpel.obj.OExpression;
 import org.apache.ode.bpel.obj.OExpressionLanguage;
 import org.apache.ode.utils.xsd.Duration;
@@ -92,6 +93,15 @@ public class ExpressionLanguageRuntimeRegistry  {
     return findRuntime(cexp).evaluateAsDuration(cexp, ctx);
   }
 
+  /**
+   * Compile an expression ahead of its first evaluation, when its language runtime supports it.
+   */
+  public void precompile(OExpression cexp) throws EvaluationException {
+    ExpressionLanguageRuntime runtime = findRuntime(cexp);
+    if (runtime instanceof PrecompilingExpressionLanguageRuntime)
+      ((PrecompilingExpressionLanguageRuntime) runtime).precompile(cexp);
+  }
+
   private ExpressionLanguageRuntime findRuntime(OExpression cexp) {
     return _runtimes.get(cexp.getExpressionLanguage());
   }
@@ -96,6 +96,10 @@ public class PropertyAliasEvaluationContext implements EvaluationContext {
         throw new InvalidProcessException("Process execution information not available in this context.");
     }
 
+    public QName getPID() {
+        throw new InvalidProcessException("Process execution information not available in this context.");
+    }
+
     public Node getPartData(Element message, Part part) throws FaultException {
         // TODO Auto-generated method stub
         return null;
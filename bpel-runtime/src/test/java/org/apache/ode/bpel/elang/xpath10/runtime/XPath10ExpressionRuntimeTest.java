@@ -111,6 +111,10 @@ public class XPath10ExpressionRuntimeTest implements EvaluationContext {
         return null;
     }
 
+    public QName getPID() {
+        return null;
+    }
+
     public boolean narrowTypes() {
         return false;
     }
@@ -300,6 +300,10 @@ public class XPath20ExpressionRuntimeTest implements EvaluationContext {
         return null;
     }
 
+    public QName getPID() {
+        return null;
+    }
+
     public Date getCurrentEventDateTime() {
         return null;
     }
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.iapi.ProcessConf;
+
+/**
+ * Test case for {@link CostAwareDehydrationPolicy}.
+ */
+public class CostAwareDehydrationPolicyTest extends TestCase {
+
+    CostAwareDehydrationPolicy _policy;
+
+    public void setUp() {
+        _policy = new CostAwareDehydrationPolicy();
+    }
+
+    public void testMaxAge() {
+        _policy.setProcessMaxAge(1000);
+        TestProcess idle = new TestProcess("idle", 1000, 1000);
+        idle.lastUsed = System.currentTimeMillis() - 2000;
+        TestProcess used = new TestProcess("used", 1000, 1000);
+        assertEquals(Arrays.asList(idle), _policy.markForDehydration(list(idle, used)));
+    }
+
+    public void testLeastFrequentFirst() {
+        _policy.setProcessMaxCount(1);
+        TestProcess rare = new TestProcess("rare", 1000, 1000);
+        TestProcess hot = new TestProcess("hot", 1000, 1000);
+        rare.uses = 1;
+        hot.uses = 100;
+        assertEquals(Arrays.asList(rare), _policy.markForDehydration(list(hot, rare)));
+    }
+
+    public void testCheapestToReloadFirst() {
+        _policy.setProcessMaxCount(1);
+        TestProcess cheap = new TestProcess("cheap", 1000, 1000);
+        TestProcess expensive = new TestProcess("expensive", 1000, 100000);
+        assertEquals(Arrays.asList(cheap), _policy.markForDehydration(list(expensive, cheap)));
+    }
+
+    public void testHeapBudget() {
+        _policy.setHeapBudget(1500);
+        TestProcess small = new TestProcess("small", 1000, 1000);
+        TestProcess large = new TestProcess("large", 2000, 1000);
+        // same use and cost, the large one frees more for less
+        assertEquals(Arrays.asList(large), _policy.markForDehydration(list(small, large)));
+        assertEquals(0, _policy.markForDehydration(list(small)).size());
+    }
+
+    public void testInUseKept() {
+        _policy.setProcessMaxCount(1);
+        TestProcess busy = new TestProcess("busy", 1000, 1000);
+        TestProcess other = new TestProcess("other", 1000, 1000);
+        busy.inUse = 1;
+        other.uses = 100;
+        assertEquals(Arrays.asList(other), _policy.markForDehydration(list(busy, other)));
+    }
+
+    public void testFrequencyAging() {
+        CostAwareDehydrationPolicy.FrequencySketch sketch = new CostAwareDehydrationPolicy.FrequencySketch();
+        QName hot = new QName("urn:test", "hot");
+        sketch.increment(hot, 1000);
+        assertTrue(sketch.estimate(hot) >= 1000);
+        // enough accesses to something else to age the counters
+        sketch.increment(new QName("urn:test", "other"), 10 * 1024);
+        assertTrue(sketch.estimate(hot) <= 500);
+        assertEquals(0, sketch.estimate(new QName("urn:test", "never")));
+    }
+
+    private static List<BpelProcess> list(BpelProcess... processes) {
+        return new ArrayList<BpelProcess>(Arrays.asList(processes));
+    }
+
+    private static ProcessConf conf(final QName pid) {
+        return (ProcessConf) Proxy.newProxyInstance(ProcessConf.class.getClassLoader(),
+                new Class[] { ProcessConf.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return "getProcessId".equals(method.getName()) ? pid : null;
+                    }
+                });
+    }
+
+    static class TestProcess extends BpelProcess {
+        long lastUsed = System.currentTimeMillis();
+        long uses;
+        final long footprint;
+        final long hydrationTime;
+        int inUse;
+
+        TestProcess(String name, long footprint, long hydrationTime) {
+            super(conf(new QName("urn:test", name)));
+            this.footprint = footprint;
+            this.hydrationTime = hydrationTime;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        public long getUseCount() {
+            return uses;
+        }
+
+        public long getFootprint() {
+            return footprint;
+        }
+
+        public long getHydrationTime() {
+            return hydrationTime;
+        }
+
+        public int getInstanceInUseCount() {
+            return inUse;
+        }
+
+        public String toString() {
+            return getPID().getLocalPart();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.jacob.vpu.ExecutionQueueImpl;
+
+/**
+ * Test case for {@link InstanceStateCache}.
+ */
+public class InstanceStateCacheTest extends TestCase {
+
+    private static final QName PID = new QName("urn:test", "process-1");
+
+    InstanceStateCache _cache;
+
+    public void setUp() {
+        _cache = new InstanceStateCache(100);
+    }
+
+    private InstanceStateCache.Entry entry(QName pid, int stateCounter, byte[] state) {
+        return new InstanceStateCache.Entry(pid, null, new ExecutionQueueImpl(null), new IMAManager2(), stateCounter, state, false);
+    }
+
+    public void testHitOnMatchingVersion() {
+        InstanceStateCache.Entry e = entry(PID, 3, new byte[] { 1, 2, 3 });
+        _cache.checkin(1L, e);
+        assertSame(e, _cache.checkout(1L, null, 3));
+        // checked out entries are no longer cached
+        assertNull(_cache.checkout(1L, null, 3));
+        assertEquals(1, _cache.getHits());
+        assertEquals(1, _cache.getMisses());
+    }
+
+    public void testStaleVersion() {
+        _cache.checkin(1L, entry(PID, 3, new byte[] { 1, 2, 3 }));
+        // written again since, e.g. by another cluster node, whatever the state
+        assertNull(_cache.checkout(1L, null, 4));
+        assertEquals(0, _cache.getSize());
+    }
+
+    public void testUnknownVersion() {
+        // rows written before the versions were kept
+        _cache.checkin(1L, entry(PID, 0, new byte[] { 1, 2, 3 }));
+        assertNull(_cache.checkout(1L, null, 0));
+    }
+
+    public void testKeptState() {
+        byte[] state = new byte[] { 1, 2, 3 };
+        _cache.checkin(1L, new InstanceStateCache.Entry(PID, null, new ExecutionQueueImpl(null), new IMAManager2(), 1, state, true));
+        assertSame(state, _cache.checkout(1L, null, 1).state);
+        _cache.checkin(1L, entry(PID, 2, state));
+        assertNull(_cache.checkout(1L, null, 2).state);
+    }
+
+    public void testSizeEviction() {
+        _cache.checkin(1L, entry(PID, 1, new byte[60]));
+        _cache.checkin(2L, entry(PID, 1, new byte[30]));
+        _cache.checkin(3L, entry(PID, 1, new byte[30]));
+        assertEquals(2, _cache.getCount());
+        assertEquals(60, _cache.getSize());
+        assertNull(_cache.checkout(1L, null, 1));
+        assertNotNull(_cache.checkout(2L, null, 1));
+    }
+
+    public void testEvictProcess() {
+        _cache.checkin(1L, entry(PID, 1, new byte[10]));
+        _cache.checkin(2L, entry(new QName("urn:test", "process-2"), 1, new byte[10]));
+        _cache.evictProcess(PID);
+        assertEquals(1, _cache.getCount());
+        assertNotNull(_cache.checkout(2L, null, 1));
+    }
+
+    public void testDisabled() {
+        _cache.setMaxSize(0);
+        assertFalse(_cache.isEnabled());
+        _cache.checkin(1L, entry(PID, 1, new byte[10]));
+        assertEquals(0, _cache.getCount());
+    }
+}
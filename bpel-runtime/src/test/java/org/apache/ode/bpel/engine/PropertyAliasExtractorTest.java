@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.NSContext;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Test case for {@link PropertyAliasExtractor}.
+ */
+public class PropertyAliasExtractorTest extends TestCase {
+
+    private NSContext _nsContext;
+    private Element _order;
+
+    public void setUp() throws Exception {
+        _nsContext = new NSContext();
+        _nsContext.register("tns", "urn:order");
+        _order = DOMUtils.stringToDOM("<order xmlns='urn:order'><id>42</id><customer><name>joe</name></customer>"
+                + "<line>a</line><line>b</line><note xmlns=''>n</note></order>");
+    }
+
+    public void testCompileChildPaths() {
+        assertNotNull(PropertyAliasExtractor.compile("tns:id", _nsContext));
+        assertNotNull(PropertyAliasExtractor.compile("./tns:customer/tns:name", _nsContext));
+        assertNotNull(PropertyAliasExtractor.compile("note", _nsContext));
+        assertNull(PropertyAliasExtractor.compile("tns:line[1]", _nsContext));
+        assertNull(PropertyAliasExtractor.compile("//tns:id", _nsContext));
+        assertNull(PropertyAliasExtractor.compile("tns:customer/@name", _nsContext));
+        assertNull(PropertyAliasExtractor.compile("string(tns:id)", _nsContext));
+        assertNull(PropertyAliasExtractor.compile("foo:id", _nsContext));
+    }
+
+    public void testSelect() {
+        assertEquals("42", text(PropertyAliasExtractor.compile("tns:id", _nsContext).select(_order)));
+        assertEquals("joe", text(PropertyAliasExtractor.compile("./tns:customer/tns:name", _nsContext).select(_order)));
+        assertEquals("n", text(PropertyAliasExtractor.compile("note", _nsContext).select(_order)));
+    }
+
+    public void testSelectNoneOrSeveral() {
+        assertNull(PropertyAliasExtractor.compile("tns:line", _nsContext).select(_order));
+        assertNull(PropertyAliasExtractor.compile("tns:missing", _nsContext).select(_order));
+        assertNull(PropertyAliasExtractor.compile("id", _nsContext).select(_order));
+    }
+
+    private static String text(Node node) {
+        return node == null ? null : node.getTextContent();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.clapi.ClusterManager;
+import org.apache.ode.bpel.clapi.RouteCacheInvalidatedEvent;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+/**
+ * Test case for {@link RouteCache}.
+ */
+public class RouteCacheTest extends TestCase {
+
+    private static final QName PID = new QName("urn:test", "process-1");
+
+    RouteCache _cache;
+
+    public void setUp() {
+        _cache = new RouteCache(3);
+    }
+
+    private RouteCache.CachedRoute route(long iid, String keySet) {
+        return route("pl.op", iid, keySet);
+    }
+
+    private RouteCache.CachedRoute route(String correlatorId, long iid, String keySet) {
+        return new RouteCache.CachedRoute(PID, correlatorId, iid, "g" + iid, 0, "one", new CorrelationKeySet(keySet));
+    }
+
+    private RouteCache.CachedRoute find(String keySet) {
+        return _cache.find(PID, "pl.op", new CorrelationKeySet(keySet));
+    }
+
+    private boolean load(RouteCache.CachedRoute... routes) {
+        long version = _cache.beginLoad(PID, "pl.op");
+        return _cache.endLoad(PID, "pl.op", Arrays.asList(routes), version);
+    }
+
+    public void testFindBySubset() {
+        RouteCache.CachedRoute r = route(1L, "@2[1~a]");
+        assertTrue(load(r));
+        assertSame(r, find("@2[1~a]"));
+        assertSame(r, find("@2[1~a],[2~b]"));
+        assertNull(find("@2[1~b]"));
+        assertNull(_cache.find(PID, "pl.other", new CorrelationKeySet("@2[1~a]")));
+        assertEquals(2, _cache.getHits());
+        assertEquals(2, _cache.getMisses());
+    }
+
+    public void testAmbiguousMatch() {
+        assertTrue(load(route(1L, "@2[1~a]"), route(2L, "@2[2~b]")));
+        assertNotNull(find("@2[1~a]"));
+        // Both routes match, only the database knows which one comes first
+        assertNull(find("@2[1~a],[2~b]"));
+    }
+
+    public void testIncomplete() {
+        // Routes created by instances don't tell about the older routes of the correlator
+        RouteCache.CachedRoute r = route(1L, "@2[1~a]");
+        _cache.put(r);
+        assertTrue(_cache.contains(r));
+        assertFalse(_cache.isComplete(PID, "pl.op"));
+        assertNull(find("@2[1~a]"));
+
+        // Loaded, put routes are kept along the loaded ones
+        assertTrue(load(route(2L, "@2[2~b]")));
+        assertSame(r, find("@2[1~a]"));
+        assertNotNull(find("@2[2~b]"));
+        assertEquals(-1, _cache.beginLoad(PID, "pl.op"));
+        assertEquals(1, _cache.getLoads());
+    }
+
+    public void testPutDuringLoad() {
+        long version = _cache.beginLoad(PID, "pl.op");
+        // Only one load at a time
+        assertEquals(-1, _cache.beginLoad(PID, "pl.op"));
+        // Created while the routes were read, not committed in time to be read
+        RouteCache.CachedRoute r = route(2L, "@2[1~a]");
+        _cache.put(r);
+        assertTrue(_cache.endLoad(PID, "pl.op", Collections.singletonList(route(1L, "@2[2~b]")), version));
+        assertSame(r, find("@2[1~a]"));
+    }
+
+    public void testResetDuringLoad() {
+        long version = _cache.beginLoad(PID, "pl.op");
+        _cache.put(route(1L, "@2[1~a]"));
+        _cache.reset(Collections.singletonList(route(1L, "@2[1~a]")));
+        assertFalse(_cache.endLoad(PID, "pl.op", Collections.singletonList(route(2L, "@2[2~b]")), version));
+        assertFalse(_cache.isComplete(PID, "pl.op"));
+        assertEquals(0, _cache.getCount());
+
+        // Failed reads end the load too
+        version = _cache.beginLoad(PID, "pl.op");
+        assertFalse(_cache.endLoad(PID, "pl.op", null, version));
+        assertTrue(load(route(2L, "@2[2~b]")));
+    }
+
+    public void testInvalidate() {
+        RouteCache.CachedRoute r1 = route(1L, "@2[1~a]");
+        RouteCache.CachedRoute r2 = new RouteCache.CachedRoute(PID, "pl.op", 1L, "h1", 0, "one", new CorrelationKeySet("@2[2~b]"));
+        assertTrue(load(r1, r2));
+        assertEquals(Collections.singletonList(r1), _cache.invalidate(1L, "g1"));
+        assertFalse(_cache.contains(r1));
+        assertNull(find("@2[1~a]"));
+        // Other groups of the instance are still there, the correlator is still complete
+        assertSame(r2, find("@2[2~b]"));
+
+        assertEquals(Collections.singletonList(r2), _cache.invalidate(1L, null));
+        assertEquals(0, _cache.getCount());
+        assertTrue(_cache.isComplete(PID, "pl.op"));
+    }
+
+    public void testReset() {
+        RouteCache.CachedRoute r1 = route(1L, "@2[1~a]");
+        assertTrue(load(r1, route(2L, "@2[2~b]")));
+        _cache.put(route("pl.other", 3L, "@2[3~c]"));
+        // The routes of a rolled back removal are still in the database
+        _cache.reset(_cache.invalidate(1L, null));
+        assertFalse(_cache.isComplete(PID, "pl.op"));
+        assertNull(find("@2[2~b]"));
+        // Other correlators aren't affected
+        assertEquals(1, _cache.getCount());
+    }
+
+    public void testEviction() {
+        assertTrue(load(route(1L, "@2[1~k1]"), route(2L, "@2[1~k2]")));
+        _cache.put(route("pl.other", 3L, "@2[1~k3]"));
+        _cache.put(route("pl.other", 4L, "@2[1~k4]"));
+        // The eldest route got evicted, with the other routes of its correlator
+        assertEquals(2, _cache.getCount());
+        assertEquals(2, _cache.getEvictions());
+        assertFalse(_cache.isComplete(PID, "pl.op"));
+        assertNull(find("@2[1~k2]"));
+    }
+
+    public void testOversized() {
+        long version = _cache.beginLoad(PID, "pl.op");
+        List<RouteCache.CachedRoute> routes = new ArrayList<RouteCache.CachedRoute>();
+        for (long i = 1; i <= 4; i++) routes.add(route(i, "@2[1~k" + i + "]"));
+        assertFalse(_cache.endLoad(PID, "pl.op", routes, version));
+        assertEquals(0, _cache.getCount());
+        // Not loaded again until the cache is resized
+        assertEquals(-1, _cache.beginLoad(PID, "pl.op"));
+        _cache.setMaxSize(4);
+        version = _cache.beginLoad(PID, "pl.op");
+        assertTrue(_cache.endLoad(PID, "pl.op", routes, version));
+    }
+
+    public void testEvictProcess() {
+        long version = _cache.beginLoad(PID, "pl.op");
+        _cache.put(route(1L, "@2[1~a]"));
+        _cache.evictProcess(PID);
+        assertEquals(0, _cache.getCount());
+        // A load running while the process got evicted doesn't complete the correlator
+        assertFalse(_cache.endLoad(PID, "pl.op", Collections.<RouteCache.CachedRoute>emptyList(), version));
+        assertNull(find("@2[1~a]"));
+    }
+
+    public void testDisabled() {
+        _cache.setMaxSize(0);
+        _cache.put(route(1L, "@2[1~a]"));
+        assertEquals(0, _cache.getCount());
+        assertEquals(-1, _cache.beginLoad(PID, "pl.op"));
+    }
+
+    public void testClusterInvalidation() {
+        Mockery context = new Mockery();
+        final ClusterManager clusterManager = context.mock(ClusterManager.class);
+        final RouteCacheInvalidatedEvent published = RouteCacheInvalidatedEvent.forNewRoute("du", PID, "pl.op");
+        context.checking(new Expectations() {{
+            allowing(clusterManager).getInstanceLock(); will(returnValue(null));
+            oneOf(clusterManager).publishProcessStoreClusterEvent(published);
+        }});
+
+        Contexts contexts = new Contexts();
+        contexts.clusterManager = clusterManager;
+        BpelEngineImpl engine = new BpelEngineImpl(contexts);
+        engine.setRouteCacheMaximumSize(10);
+        assertTrue(engine.isRouteCacheEnabled());
+        engine.publishRouteCacheInvalidation(published);
+        context.assertIsSatisfied();
+
+        _cache = engine.getRouteCache();
+        RouteCache.CachedRoute r1 = route(1L, "@2[1~a]");
+        RouteCache.CachedRoute r2 = route(2L, "@2[2~b]");
+        assertTrue(load(r1, r2));
+
+        // Consumed on another node
+        engine.onRouteCacheInvalidated(RouteCacheInvalidatedEvent.forRemovedRoutes("du", PID, 1L, "g1"));
+        assertFalse(_cache.contains(r1));
+        assertNull(find("@2[1~a]"));
+        assertSame(r2, find("@2[2~b]"));
+
+        // Created on another node, the correlator has to be loaded again
+        engine.onRouteCacheInvalidated(RouteCacheInvalidatedEvent.forNewRoute("du", PID, "pl.op"));
+        assertFalse(_cache.isComplete(PID, "pl.op"));
+        assertNull(find("@2[2~b]"));
+        RouteCache.CachedRoute r3 = route(3L, "@2[3~c]");
+        assertTrue(load(r2, r3));
+        assertSame(r3, find("@2[3~c]"));
+
+        // Completed on another node, its other routes may still be in the database
+        engine.onRouteCacheInvalidated(RouteCacheInvalidatedEvent.forRemovedRoutes("du", PID, 3L, null));
+        assertFalse(_cache.contains(r3));
+        assertFalse(_cache.isComplete(PID, "pl.op"));
+    }
+}
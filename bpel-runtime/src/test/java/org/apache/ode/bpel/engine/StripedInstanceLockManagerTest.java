@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
+
+/**
+ * Test case for {@link StripedInstanceLockManager}.
+ */
+public class StripedInstanceLockManagerTest extends TestCase {
+
+    StripedInstanceLockManager _ilm;
+
+    public void setUp() {
+        _ilm = new StripedInstanceLockManager();
+    }
+
+    public void testDistinctness() throws Exception {
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        _ilm.lock(2L, 0, TimeUnit.MILLISECONDS);
+        _ilm.unlock(1L);
+        _ilm.unlock(2L);
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        _ilm.lock(2L, 0, TimeUnit.MILLISECONDS);
+        assertEquals(4, _ilm.getAcquisitions());
+    }
+
+    public void testExclusion() throws Exception {
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        try {
+            _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+            fail("Should have timedout.");
+        } catch (StripedInstanceLockManager.TimeoutException te) {
+            // expected
+        }
+        assertEquals(1, _ilm.getTimeouts());
+        assertEquals(1, _ilm.getContendedAcquisitions());
+    }
+
+    public void testContentionMetrics() throws Exception {
+        Counter contended = (Counter) MetricsRegistry.getDefault().get("ode_instance_lock_contended_total");
+        Timer waits = (Timer) MetricsRegistry.getDefault().get("ode_instance_lock_wait_duration_seconds");
+        long contendedBefore = contended.get();
+        long waitsBefore = waits.getCount();
+
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        try {
+            _ilm.lock(1L, 10, TimeUnit.MILLISECONDS);
+            fail("Should have timedout.");
+        } catch (StripedInstanceLockManager.TimeoutException te) {
+            // expected
+        }
+        assertEquals(contendedBefore + 1, contended.get());
+        assertEquals(waitsBefore + 1, waits.getCount());
+        assertEquals(0L, MetricsRegistry.getDefault().snapshot().get("ode_instance_lock_waiting_threads").longValue());
+    }
+
+    public void testUnlockNotLocked() throws Exception {
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        _ilm.unlock(1L);
+        try {
+            _ilm.unlock(1L);
+            fail("Should not unlock twice.");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+
+    public void testLockTableCleanup() throws Exception {
+        _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        try {
+            _ilm.lock(1L, 0, TimeUnit.MILLISECONDS);
+        } catch (StripedInstanceLockManager.TimeoutException te) {
+            // expected
+        }
+        assertEquals(1, _ilm.getLockedCount());
+        _ilm.unlock(1L);
+        assertEquals(0, _ilm.getLockedCount());
+    }
+
+    public void testWakeUpQueue() throws Exception {
+        _ilm.lock(1L, 0, TimeUnit.MICROSECONDS);
+        Thread t1 = new TThread();
+        Thread t2 = new TThread();
+        Thread t3 = new TThread();
+        Thread t4 = new TThread();
+
+        t1.start();
+        t2.start();
+        t3.start();
+        t4.start();
+
+        Thread.sleep(100);
+        _ilm.unlock(1L);
+
+        t1.join(2000);
+        t2.join(2000);
+        t3.join(2000);
+        t4.join(2000);
+
+        assertFalse(t1.isAlive());
+        assertFalse(t2.isAlive());
+        assertFalse(t3.isAlive());
+        assertFalse(t4.isAlive());
+        assertEquals(5, _ilm.getAcquisitions());
+        assertEquals(0, _ilm.getQueueLength());
+        assertEquals(0, _ilm.getLockedCount());
+    }
+
+    private class TThread extends Thread {
+        public void run() {
+            try {
+                _ilm.lock(1L, 1000, TimeUnit.MILLISECONDS);
+                Thread.sleep(100);
+                _ilm.unlock(1L);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                fail("Unexpected ex");
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine.codec;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ExecutionStateCodecs}.
+ */
+public class ExecutionStateCodecsTest extends TestCase {
+
+    private byte[] state(int length) {
+        byte[] state = new byte[length];
+        // Looks like a serialization stream and compresses reasonably well
+        state[0] = (byte) 0xAC;
+        state[1] = (byte) 0xED;
+        for (int i = 2; i < length; i++) {
+            state[i] = (byte) (i % 17);
+        }
+        return state;
+    }
+
+    public void testRoundTrip() throws Exception {
+        byte[] state = state(10000);
+        for (ExecutionStateCodec codec : new ExecutionStateCodec[] { ExecutionStateCodecs.FAST, ExecutionStateCodecs.BEST }) {
+            byte[] encoded = ExecutionStateCodecs.encode(codec, state);
+            assertTrue(ExecutionStateCodecs.isEncoded(encoded));
+            assertTrue(encoded.length < state.length);
+            assertTrue(Arrays.equals(state, ExecutionStateCodecs.decode(encoded)));
+        }
+    }
+
+    public void testPlainStateIsReadAsIs() throws Exception {
+        byte[] state = state(10000);
+        assertSame(state, ExecutionStateCodecs.encode(ExecutionStateCodecs.NONE, state));
+        assertSame(state, ExecutionStateCodecs.decode(state));
+    }
+
+    public void testSmallStateNotEncoded() throws Exception {
+        byte[] state = state(100);
+        assertSame(state, ExecutionStateCodecs.encode(ExecutionStateCodecs.BEST, state));
+    }
+
+    public void testCodecLookup() {
+        assertSame(ExecutionStateCodecs.FAST, ExecutionStateCodecs.getCodec("fast"));
+        assertSame(ExecutionStateCodecs.BEST, ExecutionStateCodecs.getCodec(" Best "));
+        assertSame(ExecutionStateCodecs.NONE, ExecutionStateCodecs.getCodec(null));
+        assertSame(ExecutionStateCodecs.NONE, ExecutionStateCodecs.getCodec("lzma"));
+    }
+}
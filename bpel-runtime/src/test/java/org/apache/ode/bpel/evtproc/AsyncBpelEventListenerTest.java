@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.evtproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.bpel.evt.ProcessInstanceStartedEvent;
+import org.apache.ode.bpel.evt.VariableModificationEvent;
+import org.apache.ode.bpel.iapi.BatchingBpelEventListener;
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Element;
+
+/**
+ * Test the {@link AsyncBpelEventListener} delivery and overflow policies.
+ */
+public class AsyncBpelEventListenerTest extends TestCase {
+
+    RecordingListener _listener;
+
+    public void setUp() {
+        _listener = new RecordingListener();
+    }
+
+    public void testDeliveryOrder() {
+        AsyncBpelEventListener async = new AsyncBpelEventListener(_listener, 16, AsyncBpelEventListener.Overflow.BLOCK, 5);
+        async.startup(null);
+        List<BpelEvent> fired = fire(async, 100);
+        async.shutdown();
+
+        assertEquals(fired, _listener.events);
+        assertTrue(_listener.shutdown);
+        for (int size : _listener.batchSizes)
+            assertTrue(size <= 5);
+    }
+
+    public void testDrop() throws Exception {
+        _listener.gate = new CountDownLatch(1);
+        AsyncBpelEventListener async = new AsyncBpelEventListener(_listener, 4, AsyncBpelEventListener.Overflow.DROP, 1);
+        async.startup(null);
+        fire(async, 20);
+        _listener.gate.countDown();
+        async.shutdown();
+
+        // The blocked batch and a full buffer went through, the rest was dropped
+        assertTrue(_listener.events.size() <= 5);
+        assertFalse(_listener.events.isEmpty());
+    }
+
+    public void testSpill() throws Exception {
+        _listener.gate = new CountDownLatch(1);
+        AsyncBpelEventListener async = new AsyncBpelEventListener(_listener, 4, AsyncBpelEventListener.Overflow.SPILL, 3);
+        File spillDirectory = File.createTempFile("ode-events", "");
+        spillDirectory.delete();
+        spillDirectory.mkdir();
+        async.setSpillDirectory(spillDirectory);
+        async.startup(null);
+        List<BpelEvent> fired = fire(async, 50);
+        _listener.gate.countDown();
+        fired.addAll(fire(async, 50));
+        async.shutdown();
+
+        // The drained spill files are gone
+        assertEquals(0, spillDirectory.list().length);
+        spillDirectory.delete();
+
+        // Spilled events come back as copies, compare the process instance ids
+        assertEquals(fired.size(), _listener.events.size());
+        for (int i = 0; i < fired.size(); i++)
+            assertEquals(((ProcessInstanceStartedEvent) fired.get(i)).getProcessInstanceId(),
+                    ((ProcessInstanceStartedEvent) _listener.events.get(i)).getProcessInstanceId());
+    }
+
+    public void testVariableValueDetached() throws Exception {
+        _listener.gate = new CountDownLatch(1);
+        AsyncBpelEventListener async = new AsyncBpelEventListener(_listener, 16, AsyncBpelEventListener.Overflow.BLOCK, 1);
+        async.startup(null);
+        Element variable = DOMUtils.stringToDOM("<order><id>1</id></order>");
+        VariableModificationEvent event = new VariableModificationEvent("order");
+        event.setNewValue(variable);
+        async.onEvent(event);
+        // the instance goes on with its variable
+        variable.getFirstChild().setTextContent("2");
+        _listener.gate.countDown();
+        async.shutdown();
+
+        Element delivered = (Element) ((VariableModificationEvent) _listener.events.get(0)).getNewValue();
+        assertNotSame(variable, delivered);
+        assertEquals("1", delivered.getFirstChild().getTextContent());
+    }
+
+    public void testSpillVariableValue() throws Exception {
+        _listener.gate = new CountDownLatch(1);
+        AsyncBpelEventListener async = new AsyncBpelEventListener(_listener, 1, AsyncBpelEventListener.Overflow.SPILL, 1);
+        async.startup(null);
+        for (int i = 0; i < 5; i++) {
+            VariableModificationEvent event = new VariableModificationEvent("order");
+            event.setNewValue(DOMUtils.stringToDOM("<order><id>" + i + "</id></order>"));
+            async.onEvent(event);
+        }
+        _listener.gate.countDown();
+        async.shutdown();
+
+        assertEquals(5, _listener.events.size());
+        for (int i = 0; i < 5; i++) {
+            Element value = (Element) ((VariableModificationEvent) _listener.events.get(i)).getNewValue();
+            assertEquals(String.valueOf(i), value.getFirstChild().getTextContent());
+        }
+    }
+
+    private List<BpelEvent> fire(AsyncBpelEventListener async, int count) {
+        List<BpelEvent> fired = new ArrayList<BpelEvent>();
+        for (int i = 0; i < count; i++) {
+            ProcessInstanceStartedEvent event = new ProcessInstanceStartedEvent();
+            event.setProcessInstanceId((long) i);
+            async.onEvent(event);
+            fired.add(event);
+        }
+        return fired;
+    }
+
+    static class RecordingListener implements BatchingBpelEventListener {
+        final List<BpelEvent> events = Collections.synchronizedList(new ArrayList<BpelEvent>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile CountDownLatch gate;
+        volatile boolean shutdown;
+
+        public void onEvents(List<BpelEvent> bpelEvents) {
+            try {
+                if (gate != null) gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batchSizes.add(bpelEvents.size());
+            events.addAll(bpelEvents);
+        }
+
+        public void onEvent(BpelEvent bpelEvent) {
+            onEvents(Collections.singletonList(bpelEvent));
+        }
+
+        public void startup(Properties configProperties) {
+        }
+
+        public void shutdown() {
+            shutdown = true;
+        }
+    }
+}
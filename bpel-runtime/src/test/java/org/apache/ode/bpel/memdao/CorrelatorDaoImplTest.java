@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.memdao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.apache.ode.bpel.dao.MessageRouteDAO;
+
+public class CorrelatorDaoImplTest extends TestCase {
+    private CorrelatorDaoImpl _correlator;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        _correlator = new CorrelatorDaoImpl("corr", null);
+    }
+
+    public void testRoutePolicies() {
+        ProcessInstanceDaoImpl one1 = addRoute("@2[1~a]", "one");
+        ProcessInstanceDaoImpl one2 = addRoute("@2[1~a]", "one");
+        ProcessInstanceDaoImpl all1 = addRoute("@2[1~a]", "all");
+        ProcessInstanceDaoImpl all2 = addRoute("@2[2~b]", "all");
+        addRoute("@2[1~x]", "one");
+
+        List<MessageRouteDAO> routes = _correlator.findRoute(new CorrelationKeySet("@2[1~a],[2~b]"));
+        assertEquals(3, routes.size());
+        assertSame(one1, routes.get(0).getTargetInstance());
+        assertSame(all1, routes.get(1).getTargetInstance());
+        assertSame(all2, routes.get(2).getTargetInstance());
+
+        _correlator._removeRoutes(null, one1);
+        routes = _correlator.findRoute(new CorrelationKeySet("@2[1~a]"));
+        assertEquals(2, routes.size());
+        assertSame(one2, routes.get(0).getTargetInstance());
+        assertSame(all1, routes.get(1).getTargetInstance());
+
+        assertTrue(_correlator.findRoute(new CorrelationKeySet("@2[2~a]")).isEmpty());
+    }
+
+    public void testRoutesWithoutKeys() {
+        ProcessInstanceDaoImpl any = addRoute("@2", "one");
+        ProcessInstanceDaoImpl opaque = addRoute("@2[-1~x]", "all");
+
+        List<MessageRouteDAO> routes = _correlator.findRoute(new CorrelationKeySet("@2[1~a]"));
+        assertEquals(1, routes.size());
+        assertSame(any, routes.get(0).getTargetInstance());
+
+        routes = _correlator.findRoute(new CorrelationKeySet());
+        assertEquals(2, routes.size());
+        assertSame(opaque, routes.get(1).getTargetInstance());
+    }
+
+    public void testDequeueEarliestMessage() {
+        MessageExchangeDAO mex1 = new MessageExchangeDAOImpl('M', "mex1");
+        MessageExchangeDAO mex2 = new MessageExchangeDAOImpl('M', "mex2");
+        MessageExchangeDAO mex3 = new MessageExchangeDAOImpl('M', "mex3");
+        _correlator.enqueueMessage(mex1, new CorrelationKeySet("@2[1~a]"));
+        _correlator.enqueueMessage(mex2, new CorrelationKeySet("@2[1~a],[2~b]"));
+        _correlator.enqueueMessage(mex3, new CorrelationKeySet("@2[1~a],[2~b],[3~c],[4~d],[5~e],[6~f],[7~g]"));
+
+        assertSame(mex2, _correlator.dequeueMessage(new CorrelationKeySet("@2[2~b]")));
+        assertSame(mex3, _correlator.dequeueMessage(new CorrelationKeySet("@2[2~b]")));
+        assertNull(_correlator.dequeueMessage(new CorrelationKeySet("@2[2~b]")));
+        assertSame(mex1, _correlator.dequeueMessage(new CorrelationKeySet()));
+        assertTrue(_correlator.getAllMessages().isEmpty());
+    }
+
+    public void testDequeueExpiredMessages() {
+        MessageExchangeDAO mex1 = new MessageExchangeDAOImpl('M', "mex1");
+        MessageExchangeDAO mex2 = new MessageExchangeDAOImpl('M', "mex2");
+        _correlator.enqueueMessage(mex1, new CorrelationKeySet("@2[1~a]"));
+        _correlator.enqueueMessage(mex2, new CorrelationKeySet("@2[1~a]"));
+        assertEquals(2, _correlator.getQueuedMessageCount());
+
+        List<MessageExchangeDAO> expired = new ArrayList<MessageExchangeDAO>();
+        _correlator.dequeueMessagesBefore(System.currentTimeMillis() - 60000, 10, expired);
+        assertTrue(expired.isEmpty());
+
+        _correlator.dequeueMessagesBefore(System.currentTimeMillis() + 1, 1, expired);
+        assertEquals(1, expired.size());
+        assertSame(mex1, expired.get(0));
+        assertEquals(1, _correlator.getQueuedMessageCount());
+
+        assertSame(mex2, _correlator.dequeueMessage(new CorrelationKeySet("@2[1~a]")));
+        assertNull(_correlator.dequeueMessage(new CorrelationKeySet("@2[1~a]")));
+    }
+
+    /**
+     * Routes messages to many waiting instances, each waiting on its own key.
+     */
+    public void testManyRoutes() {
+        int routes = 1000;
+        ProcessInstanceDaoImpl[] instances = new ProcessInstanceDaoImpl[routes];
+        for (int i = 0; i < routes; i++) {
+            instances[i] = addRoute("@2[1~" + i + "]", "one");
+        }
+        assertEquals(routes, _correlator.getIndexedRouteKeyCount());
+
+        for (int i = 0; i < routes; i++) {
+            List<MessageRouteDAO> found = _correlator.findRoute(new CorrelationKeySet("@2[1~" + i + "]"));
+            assertEquals(1, found.size());
+            assertSame(instances[i], found.get(0).getTargetInstance());
+        }
+
+        for (int i = 0; i < routes; i++) {
+            _correlator.enqueueMessage(new MessageExchangeDAOImpl('M', "mex" + i), new CorrelationKeySet("@2[1~" + i + "]"));
+        }
+        // One entry per key, plus the empty subset shared by all messages
+        assertEquals(routes + 1, _correlator.getIndexedMessageKeyCount());
+        for (int i = routes - 1; i >= 0; i--) {
+            assertNotNull(_correlator.dequeueMessage(new CorrelationKeySet("@2[1~" + i + "]")));
+        }
+        assertEquals(0, _correlator.getQueuedMessageCount());
+        assertEquals(0, _correlator.getIndexedMessageKeyCount());
+
+        for (int i = 0; i < routes; i++) {
+            _correlator._removeRoutes(null, instances[i]);
+        }
+        assertTrue(_correlator.getAllRoutes().isEmpty());
+        assertEquals(0, _correlator.getIndexedRouteKeyCount());
+    }
+
+    /**
+     * Routes messages to 10k and 100k waiting instances, each waiting on its own key, and checks that the cost per
+     * message stays flat. Only run with -Dode.benchmark=true, it takes a few seconds.
+     */
+    public void testManyRoutesCost() {
+        if (!Boolean.getBoolean("ode.benchmark")) return;
+
+        // warm up
+        measure(10000);
+        long[] small = measure(10000);
+        long[] large = measure(100000);
+        System.out.println("10000 routes: " + small[0] + "ns per routed message, " + small[1]
+                + "ns per queued and dequeued message");
+        System.out.println("100000 routes: " + large[0] + "ns per routed message, " + large[1]
+                + "ns per queued and dequeued message");
+        // a scan of the routes or of the queue would be 10 times slower per message
+        assertTrue("routing cost grows with the routes", large[0] < small[0] * 5);
+        assertTrue("queuing cost grows with the messages", large[1] < small[1] * 5);
+    }
+
+    /**
+     * @return the time in ns to route one message, and to queue and dequeue one message, with the given number of
+     * routes and queued messages
+     */
+    private long[] measure(int routes) {
+        _correlator = new CorrelatorDaoImpl("corr", null);
+        ProcessInstanceDaoImpl[] instances = new ProcessInstanceDaoImpl[routes];
+        for (int i = 0; i < routes; i++) {
+            instances[i] = addRoute("@2[1~" + i + "]", "one");
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < routes; i++) {
+            List<MessageRouteDAO> found = _correlator.findRoute(new CorrelationKeySet("@2[1~" + i + "]"));
+            assertSame(instances[i], found.get(0).getTargetInstance());
+        }
+        long routed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < routes; i++) {
+            _correlator.enqueueMessage(new MessageExchangeDAOImpl('M', "mex" + i), new CorrelationKeySet("@2[1~" + i + "]"));
+        }
+        for (int i = routes - 1; i >= 0; i--) {
+            assertNotNull(_correlator.dequeueMessage(new CorrelationKeySet("@2[1~" + i + "]")));
+        }
+        long dequeued = System.nanoTime() - start;
+
+        return new long[] { routed / routes, dequeued / routes };
+    }
+
+    private ProcessInstanceDaoImpl addRoute(String keySet, String policy) {
+        ProcessInstanceDaoImpl instance = new ProcessInstanceDaoImpl(null, null, null);
+        _correlator._addRoute(new MessageRouteDaoImpl(instance, "g", new CorrelationKeySet(keySet), 0, policy));
+        return instance;
+    }
+}
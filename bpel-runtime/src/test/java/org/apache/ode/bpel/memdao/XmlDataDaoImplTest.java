@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.memdao;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Node;
+
+public class XmlDataDaoImplTest extends TestCase {
+
+    public void testUnchangedValueIsNotWritten() throws Exception {
+        XmlDataDaoImpl var = new XmlDataDaoImpl(null, "var");
+        assertTrue(var.set(DOMUtils.stringToDOM("<a>1</a>")));
+
+        Node value = var.get();
+        assertFalse(var.set(value));
+        assertSame(value, var.get());
+
+        // A copy being changed is a new value
+        Node copy = DOMUtils.copyIfShared(value);
+        assertNotSame(value, copy);
+        assertTrue(var.set(copy));
+        assertNotSame(value, var.get());
+    }
+}
@@ -456,6 +456,10 @@ public class CoreBpelTest extends TestCase implements BpelRuntimeContext {
         return null;
     }
 
+    public QName getPID() {
+        return null;
+    }
+
     public Date getCurrentEventDateTime() {
         // TODO Auto-generated method stub
         return null;
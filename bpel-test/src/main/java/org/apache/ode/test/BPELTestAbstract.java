@@ -146,8 +146,8 @@ public abstract class BPELTestAbstract {
                 _server.unregister(event.pid);
                 if (event.type != ProcessStoreEvent.Type.UNDEPLOYED) {
                     ProcessConfImpl conf = (ProcessConfImpl) store.getProcessConfiguration(event.pid);
-                    // Test processes always run with in-mem DAOs
-                    conf.setTransient(true);
+                    // Test processes run with in-mem DAOs, unless the test needs them persistent
+                    conf.setTransient(isTransient());
                     _server.register(conf);
                 }
             }
@@ -179,6 +179,13 @@ public abstract class BPELTestAbstract {
         _invocations = null;
     }
 
+    /**
+     * @return whether the test processes are deployed as transient processes
+     */
+    protected boolean isTransient() {
+        return true;
+    }
+
     protected TransactionManager createTransactionManager() throws Exception {
         EmbeddedGeronimoFactory factory = new EmbeddedGeronimoFactory();
         TransactionManager _txManager = factory.getTransactionManager();
@@ -56,6 +56,11 @@ public class DataHandling20Test extends BPELTestAbstract {
         go("/bpel/2.0/TestSubTreeAssign");
     }
 
+    @Test
+    public void testSharedMessageInvoke() throws Throwable {
+        go("/bpel/2.0/TestSharedMessageInvoke");
+    }
+
     @Test
     public void testAssignActivity1() throws Throwable {
         go("/bpel/2.0/TestAssignActivity1");
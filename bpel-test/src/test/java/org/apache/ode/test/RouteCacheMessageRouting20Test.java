@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.test;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.ode.bpel.engine.BpelEngineImpl;
+import org.apache.ode.bpel.engine.RouteCache;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the message routing tests with persistent processes, their messages matched with the route cache.
+ */
+public class RouteCacheMessageRouting20Test extends MessageRouting20Test {
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        _server.setRouteCacheMaximumSize(1000);
+    }
+
+    @Override
+    protected boolean isTransient() {
+        return false;
+    }
+
+    @Test public void testRoutesLoaded() throws Throwable {
+        go("/bpel/2.0/TestCorrelationMulti");
+        RouteCache cache = ((BpelEngineImpl) _server.getEngine()).getRouteCache();
+        assertTrue(cache.toString(), cache.getLoads() > 0);
+    }
+}
@@ -168,7 +168,13 @@ public class HazelcastClusterImpl implements ClusterManager, ProcessStoreCluster
 
     public void publishProcessStoreClusterEvent(ProcessStoreClusterEvent clusterEvent) {
         clusterEvent.setEventGeneratingNode(nodeID);
-        __log.info("Send " + clusterEvent.getInfo() + " Cluster Message " + "for " + clusterEvent.getDuName() + " [" + nodeHostName + "]");
+        // Route cache invalidations are sent for every created and consumed route
+        if (clusterEvent instanceof RouteCacheInvalidatedEvent) {
+            if (__log.isDebugEnabled())
+                __log.debug("Send " + clusterEvent + " Cluster Message [" + nodeHostName + "]");
+        } else {
+            __log.info("Send " + clusterEvent.getInfo() + " Cluster Message " + "for " + clusterEvent.getDuName() + " [" + nodeHostName + "]");
+        }
         clusterDeploymentMessageTopic.publish(clusterEvent);
     }
 
@@ -11,6 +11,7 @@ CREATE INDEX IDX_UNMATCHED_CORRELATOR on BPEL_UNMATCHED (CORRELATOR);
 CREATE INDEX IDX_UNMATCHED_CKEY on BPEL_UNMATCHED (CORRELATION_KEY);
 CREATE INDEX IDX_UNMATCHED_CORRELATOR_CKEY on BPEL_UNMATCHED (CORRELATOR,CORRELATION_KEY);
 CREATE INDEX IDX_UNMATCHED_MEX on BPEL_UNMATCHED (MEX);
+CREATE INDEX IDX_UNMATCHED_INSERT_TIME on BPEL_UNMATCHED (INSERT_TIME);
 CREATE INDEX IDX_XMLDATA_IID on BPEL_XML_DATA (PIID);
 CREATE INDEX IDX_XMLDATA_SID on BPEL_XML_DATA (SCOPE_ID);
 CREATE INDEX IDX_XMLDATA_NAME on BPEL_XML_DATA (NAME);
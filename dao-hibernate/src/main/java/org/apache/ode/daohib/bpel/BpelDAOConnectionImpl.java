@@ -18,8 +18,6 @@
  */
 package org.apache.ode.daohib.bpel;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -53,6 +51,7 @@ import org.apache.ode.bpel.iapi.ProcessConf.CLEANUP_CATEGORY;
 import org.apache.ode.daohib.SessionManager;
 import org.apache.ode.daohib.bpel.hobj.HBpelEvent;
 import org.apache.ode.daohib.bpel.hobj.HCorrelationSet;
+import org.apache.ode.daohib.bpel.hobj.HCorrelatorMessage;
 import org.apache.ode.daohib.bpel.hobj.HMessageExchange;
 import org.apache.ode.daohib.bpel.hobj.HProcess;
 import org.apache.ode.daohib.bpel.hobj.HProcessInstance;
@@ -102,6 +101,25 @@ public class BpelDAOConnectionImpl implements BpelDAOConnection, FilteredInstanc
         return mex == null ? null : new MessageExchangeDaoImpl(_sm, mex);
     }
 
+    @SuppressWarnings("unchecked")
+    public List<MessageExchangeDAO> dequeueExpiredMessages(Date queuedBefore, int maxCount) {
+        List<HMessageExchange> mexs = getSession().getNamedQuery(HCorrelatorMessage.SELECT_CORMESSAGE_MEXS_BEFORE)
+                .setTimestamp("before", queuedBefore).setMaxResults(maxCount).list();
+        List<MessageExchangeDAO> expired = new ArrayList<MessageExchangeDAO>(mexs.size());
+        for (HMessageExchange mex : mexs) {
+            MessageExchangeDaoImpl mexDao = new MessageExchangeDaoImpl(_sm, mex);
+            // skip the messages a matcher took off the queue since the query
+            if (!mexDao.lockPremieMessages()) continue;
+            mexDao.releasePremieMessages();
+            expired.add(mexDao);
+        }
+        return expired;
+    }
+
+    public long getQueuedMessageCount() {
+        return ((Number) getSession().getNamedQuery(HCorrelatorMessage.COUNT_CORMESSAGE_MEXS).uniqueResult()).longValue();
+    }
+
     public ProcessDAO createProcess(QName pid, QName type, String guid, long version) {
         HProcess process = new HProcess();
         process.setProcessId(pid.toString());
@@ -231,11 +249,8 @@ public class BpelDAOConnectionImpl implements BpelDAOConnection, FilteredInstanc
         if (event instanceof ScopeEvent)
             hevent.setScopeId(((ScopeEvent) event).getScopeId());
         try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(bos);
-            oos.writeObject(event);
-            oos.flush();
-            hevent.setData(bos.toByteArray());
+            // DATA is already compressed by its GZipDataType mapping
+            hevent.setData(SerializableUtils.toBytes(event));
         } catch (Throwable ex) {
             // this is really unexpected.
             __log.error("InternalError: BpelEvent serialization failed.", ex);
@@ -58,6 +58,9 @@ class CorrelatorDaoImpl extends HibernateDao implements CorrelatorDAO {
     /** Query for removing routes. */
     private static final String QRY_DELSELECTORS = "delete from HCorrelatorSelector where instance = ? and groupId = ?";
 
+    /** Query for counting the routes of a group. */
+    private static final String QRY_CNTSELECTORS = "select count(*) from HCorrelatorSelector where instance = ? and groupId = ?";
+
     private HCorrelator _hobj;
 
     public CorrelatorDaoImpl(SessionManager sm, HCorrelator hobj) {
@@ -236,6 +239,14 @@ class CorrelatorDaoImpl extends HibernateDao implements CorrelatorDAO {
             __log.debug(hdr + "deleted " + updates + " rows");
     }
 
+    public boolean hasRoutes(String routeGroupId, ProcessInstanceDAO target) {
+        entering("CorrelatorDaoImpl.hasRoutes");
+        Query q = getSession().createQuery(QRY_CNTSELECTORS);
+        q.setEntity(0, ((ProcessInstanceDaoImpl) target).getHibernateObj()); // instance
+        q.setString(1, routeGroupId); // groupId
+        return ((Number) q.uniqueResult()).longValue() > 0;
+    }
+
     public Collection<CorrelatorMessageDAO> getAllMessages() {
         Collection<CorrelatorMessageDAO> msgs = new ArrayList<CorrelatorMessageDAO>();
         for (HCorrelatorMessage correlatorMessage : _hobj.getMessageCorrelations())
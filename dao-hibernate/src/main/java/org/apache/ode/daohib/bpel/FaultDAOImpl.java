@@ -24,9 +24,9 @@ import java.io.IOException;
 import javax.xml.namespace.QName;
 
 import org.apache.ode.bpel.dao.FaultDAO;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.apache.ode.daohib.SessionManager;
 import org.apache.ode.daohib.bpel.hobj.HFaultData;
-import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.QNameUtils;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
@@ -53,7 +53,7 @@ public class FaultDAOImpl extends HibernateDao implements FaultDAO {
         entering("FaultDAOImpl.getData");
         if (_self.getData() == null) return null;
         try {
-            return DOMUtils.stringToDOM(_self.getData());
+            return XmlDataCodecs.decode(_self.getData());
         } catch (SAXException e) {
             throw new RuntimeException(e);
         } catch (IOException e) {
@@ -24,9 +24,9 @@ import javax.xml.namespace.QName;
 
 import org.apache.ode.bpel.dao.MessageDAO;
 import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.apache.ode.daohib.SessionManager;
 import org.apache.ode.daohib.bpel.hobj.HMessage;
-import org.apache.ode.utils.DOMUtils;
 import org.hibernate.Session;
 import org.w3c.dom.Element;
 
@@ -55,7 +55,7 @@ public class MessageDaoImpl extends HibernateDao implements MessageDAO {
     public void setData(Element value) {
         entering("MessageDaoImpl.setData");
         if (value == null) return;
-        _hself.setMessageData(DOMUtils.domToBytes(value));
+        _hself.setMessageData(XmlDataCodecs.encode(value));
         update();
         leaving("MessageDaoImpl.setData");
     }
@@ -65,7 +65,7 @@ public class MessageDaoImpl extends HibernateDao implements MessageDAO {
         if (_hself.getMessageData() == null)
             return null;
         try {
-            return DOMUtils.stringToDOM(_hself.getMessageData());
+            return XmlDataCodecs.decode(_hself.getMessageData());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -74,7 +74,7 @@ public class MessageDaoImpl extends HibernateDao implements MessageDAO {
     public void setHeader(Element value) {
         entering("MessageDaoImpl.setHeader");
         if (value == null) return;
-        _hself.setHeader(DOMUtils.domToBytes(value));
+        _hself.setHeader(XmlDataCodecs.encode(value));
         update();
         leaving("MessageDaoImpl.setHeader");
     }
@@ -83,7 +83,7 @@ public class MessageDaoImpl extends HibernateDao implements MessageDAO {
         entering("MessageDaoImpl.getHeader");
         if (_hself.getHeader() == null) return null;
         try {
-            return DOMUtils.stringToDOM(_hself.getHeader());
+            return XmlDataCodecs.decode(_hself.getHeader());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -41,6 +41,7 @@ import org.apache.ode.bpel.dao.ProcessDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
 import org.apache.ode.bpel.dao.ScopeDAO;
 import org.apache.ode.bpel.dao.ScopeStateEnum;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.apache.ode.bpel.dao.XmlDataDAO;
 import org.apache.ode.bpel.evt.ProcessInstanceEvent;
 import org.apache.ode.bpel.iapi.ProcessConf.CLEANUP_CATEGORY;
@@ -67,6 +68,7 @@ import org.apache.ode.utils.stl.UnaryFunction;
 import org.hibernate.Criteria;
 import org.hibernate.Hibernate;
 import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.w3c.dom.Element;
@@ -126,7 +128,7 @@ public class ProcessInstanceDaoImpl extends HibernateDao implements ProcessInsta
     fault.setLineNo(lineNo);
     fault.setActivityId(activityId);
     if (faultData != null) {
-      fault.setData(DOMUtils.domToBytes(faultData));
+      fault.setData(XmlDataCodecs.encode(faultData));
     }
 
     _instance.setFault(fault);
@@ -158,10 +160,18 @@ public class ProcessInstanceDaoImpl extends HibernateDao implements ProcessInsta
         entering("ProcessInstanceDaoImpl.setExecutionState");
     if (bytes.length > 0) {
       _instance.setJacobState(bytes);
+      _instance.setJacobStateCounter(getExecutionStateCounter() + 1);
     }
     getSession().update(_instance);
   }
 
+  /**
+   * @see org.apache.ode.bpel.dao.ProcessInstanceDAO#getExecutionStateCounter()
+   */
+  public int getExecutionStateCounter() {
+    return _instance.getJacobStateCounter() == null ? 0 : _instance.getJacobStateCounter();
+  }
+
   /**
    * @see org.apache.ode.bpel.dao.ProcessInstanceDAO#getProcess()
    */
@@ -456,6 +466,16 @@ public class ProcessInstanceDaoImpl extends HibernateDao implements ProcessInsta
       BpelDAOConnectionImpl._insertBpelEvent(getSession(), event, this.getProcess(), this);
   }
 
+  public void insertBpelEvents(List<ProcessInstanceEvent> events) {
+      entering("ProcessInstanceDaoImpl.insertBpelEvents");
+      // Saved one after the other, the inserts end up in the same JDBC batch at flush when batching is enabled
+      // with hibernate.jdbc.batch_size (off by default, it applies to all the entities, see ode-axis2.properties)
+      Session session = getSession();
+      ProcessDAO process = getProcess();
+      for (ProcessInstanceEvent event : events)
+          BpelDAOConnectionImpl._insertBpelEvent(session, event, process, this);
+  }
+
   public EventsFirstLastCountTuple getEventsFirstLastCount() {
       entering("ProcessInstanceDaoImpl.getEventsFirstLastCount");
     // Using a criteria, find the min,max, and count of event tstamps.
@@ -18,9 +18,12 @@
  */
 package org.apache.ode.daohib.bpel;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.apache.ode.bpel.dao.ScopeDAO;
+import org.apache.ode.bpel.dao.XmlDataCache;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.apache.ode.bpel.dao.XmlDataDAO;
 import org.apache.ode.daohib.SessionManager;
 import org.apache.ode.daohib.bpel.hobj.HVariableProperty;
@@ -44,6 +47,8 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
 
     private HXmlData _data;
     private Node _node;
+    /** Content hash of the value as last read or written, unset for simple types. */
+    private Long _hash;
 
     /**
      * @param hobj
@@ -68,6 +73,7 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
         entering("XmlDataDaoImpl.get");
         if(_node == null){
             _node = prepare();
+            if (_node instanceof Element) _hash = DOMUtils.contentHash(_node);
         }
         return _node;
     }
@@ -81,31 +87,56 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
     /**
      * @see org.apache.ode.bpel.dao.XmlDataDAO#set(org.w3c.dom.Node)
      */
-    public void set(Node val) {
+    public boolean set(Node val) {
         entering("XmlDataDaoImpl.set");
         _node = val;
+        boolean changed;
         if (val != null && val.getNamespaceURI() == null && "temporary-simple-type-wrapper".equals(val.getLocalName())) {
-            _data.setSimpleType(true);
+            _hash = null;
             String value = _node.getTextContent();
             if (value.length() <= 255) {
+                changed = !_data.isSimpleType() || _data.getData() != null || !value.equals(_data.getSimpleValue());
                 _data.setSimpleValue(value);
                 _data.setData(null);
             } else {
-                _data.setData(value.getBytes());
+                byte[] bytes = value.getBytes();
+                changed = !_data.isSimpleType() || !Arrays.equals(bytes, _data.getData());
+                _data.setData(bytes);
                 _data.setSimpleValue(null);
             }
+            _data.setSimpleType(true);
         } else if (val instanceof Element) {
-            _data.setSimpleType(false);
-            _data.setData(DOMUtils.domToString(_node).getBytes());
-            _data.setSimpleValue(null);
+            long hash = DOMUtils.contentHash(val);
+            // Same content as when last read or written, no need to serialize it
+            if (!_data.isSimpleType() && _hash != null && _hash == hash) {
+                leaving("XmlDataDaoImpl.set");
+                return false;
+            }
+            _hash = hash;
+            byte[] bytes = XmlDataCodecs.encode((Element) _node);
+            changed = _data.isSimpleType() || !Arrays.equals(bytes, _data.getData());
+            if (changed) {
+                _data.setSimpleType(false);
+                _data.setData(bytes);
+                _data.setSimpleValue(null);
+                XmlDataCache cache = XmlDataCache.getDefault();
+                if (cache.isEnabled() && _data.getId() != null)
+                    cache.put(_data.getId(), bytes.length, XmlDataCache.checksum(bytes), _node);
+            }
         } else {
+            _hash = null;
+            String value = _node.getNodeValue();
+            changed = !_data.isSimpleType() || _data.getData() != null || value == null
+                    || !value.equals(_data.getSimpleValue());
             _data.setSimpleType(true);
-            _data.setSimpleValue(_node.getNodeValue());
+            _data.setSimpleValue(value);
             _data.setData(null);
         }
 
-        getSession().saveOrUpdate(_data);
+        // Unchanged values aren't flushed again
+        if (changed) getSession().saveOrUpdate(_data);
         leaving("XmlDataDaoImpl.set");
+        return changed;
     }
     /**
      * @see org.apache.ode.bpel.dao.XmlDataDAO#getProperty(java.lang.String)
@@ -174,14 +205,24 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
             e.appendChild(tnode);
             return tnode;
         } else {
-            if(_data.getData() == null || _data.getData().length == 0)
+            byte[] bytes = _data.getData();
+            if(bytes == null || bytes.length == 0)
                 return null;
-            String data = new String(_data.getData());
+            XmlDataCache cache = XmlDataCache.getDefault();
+            boolean cacheable = cache.isEnabled() && _data.getId() != null;
+            long checksum = cacheable ? XmlDataCache.checksum(bytes) : 0;
+            if (cacheable) {
+                Node cached = cache.get(_data.getId(), bytes.length, checksum);
+                if (cached != null) return cached;
+            }
+            Element node;
             try{
-                return DOMUtils.stringToDOM(data);
+                node = XmlDataCodecs.decode(bytes);
             }catch(Exception e){
                 throw new RuntimeException(e);
             }
+            if (cacheable) cache.put(_data.getId(), bytes.length, checksum, node);
+            return node;
         }
     }
 
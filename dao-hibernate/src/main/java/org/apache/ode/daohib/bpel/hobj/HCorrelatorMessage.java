@@ -24,11 +24,15 @@ package org.apache.ode.daohib.bpel.hobj;
  * @hibernate.query name="SELECT_CORMESSAGE_BY_MEX" query="from HCorrelatorMessage as m where m.messageExchange = :mex"
  * @hibernate.query name="SELECT_CORMESSAGE_IDS_BY_MEX" query="select id from HCorrelatorMessage as m where m.messageExchange = :mex"
  * @hibernate.query name="SELECT_CORMESSAGE_IDS_BY_INSTANCES" query="select id from HCorrelatorMessage as m where m.messageExchange in(select mex from HMessageExchange as mex where mex.instance in (:instances))"
+ * @hibernate.query name="SELECT_CORMESSAGE_MEXS_BEFORE" query="select distinct m.messageExchange from HCorrelatorMessage as m where m.created < :before"
+ * @hibernate.query name="COUNT_CORMESSAGE_MEXS" query="select count(distinct m.messageExchange) from HCorrelatorMessage as m"
  */
 public class HCorrelatorMessage extends HObject {
     public final static String SELECT_CORMESSAGE_BY_MEX = "SELECT_CORMESSAGE_BY_MEX";
     public final static String SELECT_CORMESSAGE_IDS_BY_MEX = "SELECT_CORMESSAGE_IDS_BY_MEX";
     public final static String SELECT_CORMESSAGE_IDS_BY_INSTANCES = "SELECT_CORMESSAGE_IDS_BY_INSTANCES";
+    public final static String SELECT_CORMESSAGE_MEXS_BEFORE = "SELECT_CORMESSAGE_MEXS_BEFORE";
+    public final static String COUNT_CORMESSAGE_MEXS = "COUNT_CORMESSAGE_MEXS";
 
     private HMessageExchange _messageExchange;
     private HCorrelator _correlator;
@@ -63,6 +63,8 @@ public class HProcessInstance extends HObject {
 
     private byte[] _jacobState;
 
+    private Integer _jacobStateCounter;
+
     private short _previousState;
 
     private short _state;
@@ -119,6 +121,19 @@ public class HProcessInstance extends HObject {
         _jacobState = jacobState;
     }
 
+    /**
+     * Number of times the jacob state was written, <code>null</code> for rows written before it was kept.
+     *
+     * @hibernate.property column="JACOB_STATE_COUNTER"
+     */
+    public Integer getJacobStateCounter() {
+        return _jacobStateCounter;
+    }
+
+    public void setJacobStateCounter(Integer jacobStateCounter) {
+        _jacobStateCounter = jacobStateCounter;
+    }
+
     /**
      * @hibernate.bag lazy="true" inverse="true"
      * @hibernate.collection-key column="IID" foreign-key="none"
@@ -20,6 +20,8 @@
 package org.apache.ode.daohib.bpel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -90,4 +92,32 @@ public class MexTest extends BaseTestDAO {
 
         assertEquals(0, sm.getSession().createSQLQuery("select count(*) from BPEL_MEX_PROPS").list().get(0));
     }
+
+    public void testDequeueExpiredMessages() throws Exception {
+        ProcessDAO p = daoConn.createProcess(QName.valueOf("abc"), QName.valueOf("abc"), "abc", 1);
+        CorrelatorDAO correlator = p.addCorrelator("abc");
+        MessageExchangeDAO a = daoConn.createMessageExchange('M');
+        correlator.enqueueMessage(a, new CorrelationKeySet("@2[1~a],[2~b]"));
+        MessageExchangeDAO b = daoConn.createMessageExchange('M');
+        correlator.enqueueMessage(b, new CorrelationKeySet("@2[3~c]"));
+        MessageExchangeDAO c = daoConn.createMessageExchange('M');
+        correlator.enqueueMessage(c, new CorrelationKeySet("@2[4~d]"));
+        txm.commit();
+        txm.begin();
+        assertEquals(3, daoConn.getQueuedMessageCount());
+
+        // Nothing queued before an hour ago
+        assertTrue(daoConn.dequeueExpiredMessages(new Date(System.currentTimeMillis() - 3600000), 10).isEmpty());
+
+        // A matched message is released, not expired
+        assertEquals(b.getMessageExchangeId(), correlator.dequeueMessage(new CorrelationKeySet("@2[3~c]")).getMessageExchangeId());
+        b.releasePremieMessages();
+
+        List<MessageExchangeDAO> expired = daoConn.dequeueExpiredMessages(new Date(System.currentTimeMillis() + 3600000), 10);
+        Set<String> expiredIds = new HashSet<String>();
+        for (MessageExchangeDAO mex : expired) expiredIds.add(mex.getMessageExchangeId());
+        assertEquals(new HashSet<String>(Arrays.asList(a.getMessageExchangeId(), c.getMessageExchangeId())), expiredIds);
+        assertEquals(0, daoConn.getQueuedMessageCount());
+        assertNull(correlator.dequeueMessage(new CorrelationKeySet("@2[1~a]")));
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.daohib.bpel;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.dao.CorrelatorDAO;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.bpel.dao.ScopeDAO;
+import org.apache.ode.bpel.dao.XmlDataDAO;
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that {@link XmlDataDAO#set} only reports a change when the value really changed.
+ */
+public class XmlDataDaoImplTest extends BaseTestDAO {
+
+    protected void setUp() throws Exception {
+        initTM();
+    }
+
+    protected void tearDown() throws Exception {
+        stopTM();
+    }
+
+    public void testSetElement() throws Exception {
+        XmlDataDAO var = createVariable();
+        Element value = DOMUtils.stringToDOM("<order><item>a</item></order>");
+        assertTrue(var.set(value));
+        assertFalse(var.set(value));
+
+        // Same content in another document
+        assertFalse(var.set(DOMUtils.stringToDOM("<order><item>a</item></order>")));
+
+        // Changed in place, even when marked shared the write must go through
+        DOMUtils.markShared(value);
+        value.getFirstChild().setTextContent("b");
+        assertTrue(var.set(value));
+        assertEquals("b", ((Element) var.get()).getFirstChild().getTextContent());
+        assertFalse(var.set(value));
+
+        value.setAttribute("id", "1");
+        assertTrue(var.set(value));
+    }
+
+    public void testSetAfterReload() throws Exception {
+        XmlDataDAO var = createVariable();
+        ScopeDAO scope = var.getScopeDAO();
+        Long iid = scope.getProcessInstance().getInstanceId();
+        Long sid = scope.getScopeInstanceId();
+        assertTrue(var.set(DOMUtils.stringToDOM("<order><item>a</item></order>")));
+        txm.commit();
+        txm.begin();
+
+        // A fresh DAO parses the stored value and compares against it
+        var = daoConn.getInstance(iid).getScope(sid).getVariable("var1");
+        Element value = (Element) var.get();
+        assertFalse(var.set(value));
+        value.getFirstChild().setTextContent("b");
+        assertTrue(var.set(value));
+    }
+
+    public void testSetSimpleType() throws Exception {
+        XmlDataDAO var = createVariable();
+        Element value = DOMUtils.stringToDOM("<order><item>a</item></order>");
+        assertTrue(var.set(value));
+        assertTrue(var.set(value.getOwnerDocument().createTextNode("a")));
+        assertFalse(var.set(value.getOwnerDocument().createTextNode("a")));
+
+        // Back to the element written before, it is a change again
+        assertTrue(var.set(value));
+    }
+
+    private XmlDataDAO createVariable() {
+        ProcessDAO p = daoConn.createProcess(QName.valueOf("abc"), QName.valueOf("abc"), "abc", 1);
+        CorrelatorDAO correlator = p.addCorrelator("abc");
+        ProcessInstanceDAO instance = p.createInstance(correlator);
+        ScopeDAO scope = instance.createScope(null, "Root", 1);
+        return scope.getVariable("var1");
+    }
+}
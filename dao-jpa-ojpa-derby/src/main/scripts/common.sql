@@ -1,2 +1,2 @@
 create table ODE_SCHEMA_VERSION (VERSION integer);
-insert into ODE_SCHEMA_VERSION values (7);
+insert into ODE_SCHEMA_VERSION values (9);
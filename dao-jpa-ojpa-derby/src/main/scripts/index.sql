@@ -0,0 +1,5 @@
+-- Indexes the mapping tool doesn't generate
+
+CREATE INDEX IDX_MSG_ROUTE_KEY_CORR_KEY ON ODE_MESSAGE_ROUTE_KEY (CORR_ID, CORRELATION_KEY);
+CREATE INDEX IDX_CORR_MSG_KEY_CORR_KEY ON ODE_CORRELATOR_MESSAGE_KEY (CORR_ID, CORRELATION_KEY);
+CREATE INDEX IDX_CORR_MSG_KEY_CREATE_TIME ON ODE_CORRELATOR_MESSAGE_KEY (CREATE_TIME);
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.dao.jpa.test;
+
+import junit.framework.TestCase;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.dao.CorrelatorDAO;
+import org.apache.ode.bpel.dao.MessageExchangeDAO;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.engine.migration.MessageQueueKeysMigration;
+import org.apache.ode.bpel.obj.OPartnerLink;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.dao.jpa.BPELDAOConnectionFactoryImpl;
+import org.apache.ode.il.EmbeddedGeronimoFactory;
+import org.apache.ode.utils.GUID;
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.transaction.TransactionManager;
+import javax.wsdl.Definition;
+import javax.wsdl.Operation;
+import javax.wsdl.PortType;
+import javax.wsdl.factory.WSDLFactory;
+import javax.xml.namespace.QName;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Checks the messages queued on a correlator through their ODE_CORRELATOR_MESSAGE_KEY rows: their expiry, the
+ * migration creating the rows of the messages queued before and the indexes of the table.
+ */
+public class CorrelatorMessageKeyTest extends TestCase {
+
+    private static final String TEST_NS = "http://org.apache.ode.jpa.test";
+    private static final QName PID = new QName(TEST_NS, "testPID1");
+
+    TransactionManager _txm;
+    JdbcDataSource _ds;
+    BPELDAOConnectionFactoryImpl factory;
+    BpelDAOConnection _conn;
+    CorrelatorDAO _corr;
+
+    @Override
+    protected void setUp() throws Exception {
+        _ds = new JdbcDataSource();
+        _ds.setURL("jdbc:h2:mem:" + new GUID().toString()+";DB_CLOSE_DELAY=-1");
+        _ds.setUser("sa");
+
+        _txm = new EmbeddedGeronimoFactory().getTransactionManager();
+
+        factory = new BPELDAOConnectionFactoryImpl();
+        factory.setDataSource(_ds);
+        factory.setTransactionManager(_txm);
+        Properties props = new Properties();
+        props.put("openjpa.jdbc.SynchronizeMappings", "buildSchema(ForeignKeys=false)");
+        factory.init(props);
+
+        _txm.begin();
+        _conn = factory.getConnection();
+        ProcessDAO process = _conn.createProcess(PID, new QName(TEST_NS, "testType"), "GUID1", 1);
+        _corr = process.addCorrelator("pl.op");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        _txm.commit();
+        _ds = null;
+        _txm = null;
+    }
+
+    public void testExpiry() throws Exception {
+        MessageExchangeDAO a = queue("@2[1~a]");
+        MessageExchangeDAO ab = queue("@2[1~a],[2~b]");
+        MessageExchangeDAO c = queue("@2[3~c]");
+        assertEquals(3, _conn.getQueuedMessageCount());
+
+        // Nothing queued before an hour ago
+        assertTrue(_conn.dequeueExpiredMessages(new Date(System.currentTimeMillis() - 3600000), 10).isEmpty());
+
+        Date later = new Date(System.currentTimeMillis() + 3600000);
+        assertEquals(Arrays.asList(a, ab), _conn.dequeueExpiredMessages(later, 2));
+        assertEquals(1, _conn.getQueuedMessageCount());
+        assertNull(_corr.dequeueMessage(new CorrelationKeySet("@2[1~a]")));
+
+        assertEquals(Arrays.asList(c), _conn.dequeueExpiredMessages(later, 2));
+        assertEquals(0, _conn.getQueuedMessageCount());
+        assertTrue(_conn.dequeueExpiredMessages(later, 2).isEmpty());
+    }
+
+    public void testMatchedNotExpired() throws Exception {
+        MessageExchangeDAO a = queue("@2[1~a]");
+        MessageExchangeDAO b = queue("@2[2~b]");
+
+        assertSame(a, _corr.dequeueMessage(new CorrelationKeySet("@2[1~a]")));
+        assertEquals(Arrays.asList(b), _conn.dequeueExpiredMessages(new Date(System.currentTimeMillis() + 3600000), 10));
+        assertNull(_corr.dequeueMessage(new CorrelationKeySet("@2[1~a]")));
+    }
+
+    public void testMigration() throws Exception {
+        queue("@2[1~a],[2~b]");
+        queue("@2[3~c]");
+        _txm.commit();
+
+        // As on a database upgraded from schema version 8, whose queued messages have no key rows
+        Connection conn = _ds.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("DELETE FROM ODE_CORRELATOR_MESSAGE_KEY");
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+
+        _txm.begin();
+        _conn = factory.getConnection();
+        ProcessDAO process = _conn.getProcess(PID);
+        _corr = process.getCorrelator("pl.op");
+        assertEquals(0, _conn.getQueuedMessageCount());
+
+        OProcess oprocess = new OProcess("2.0");
+        OPartnerLink plink = new OPartnerLink(oprocess);
+        plink.setName("pl");
+        Definition def = WSDLFactory.newInstance().newDefinition();
+        PortType portType = def.createPortType();
+        Operation op = def.createOperation();
+        op.setName("op");
+        op.setUndefined(false);
+        portType.addOperation(op);
+        plink.setMyRolePortType(portType);
+        oprocess.getAllPartnerLinks().add(plink);
+        new MessageQueueKeysMigration().migrate(process, oprocess);
+
+        assertEquals(2, _conn.getQueuedMessageCount());
+        assertNotNull(_corr.dequeueMessage(new CorrelationKeySet("@2[2~b]")));
+        assertNotNull(_corr.dequeueMessage(new CorrelationKeySet("@2[3~c]")));
+        assertEquals(0, _conn.getQueuedMessageCount());
+    }
+
+    public void testIndexScript() throws Exception {
+        queue("@2[1~a]");
+        _txm.commit();
+
+        StringBuilder script = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader("src/main/scripts/index.sql"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.startsWith("--")) script.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+
+        Connection conn = _ds.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            for (String sql : script.toString().split(";")) {
+                if (sql.trim().length() > 0) stmt.executeUpdate(sql);
+            }
+            stmt.close();
+
+            Map<String, Set<String>> indexes = new HashMap<String, Set<String>>();
+            ResultSet rs = conn.getMetaData().getIndexInfo(null, null, "ODE_CORRELATOR_MESSAGE_KEY", false, false);
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (!indexes.containsKey(name)) indexes.put(name, new HashSet<String>());
+                indexes.get(name).add(rs.getString("COLUMN_NAME"));
+            }
+            rs.close();
+            assertEquals(new HashSet<String>(Arrays.asList("CORR_ID", "CORRELATION_KEY")), indexes.get("IDX_CORR_MSG_KEY_CORR_KEY"));
+            assertEquals(new HashSet<String>(Arrays.asList("CREATE_TIME")), indexes.get("IDX_CORR_MSG_KEY_CREATE_TIME"));
+        } finally {
+            conn.close();
+        }
+
+        _txm.begin();
+    }
+
+    private MessageExchangeDAO queue(String keySet) {
+        MessageExchangeDAO mex = _conn.createMessageExchange('M');
+        _corr.enqueueMessage(mex, new CorrelationKeySet(keySet));
+        return mex;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.dao.jpa.test;
+
+import junit.framework.TestCase;
+import org.apache.ode.bpel.common.CorrelationKeySet;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.dao.CorrelatorDAO;
+import org.apache.ode.bpel.dao.MessageRouteDAO;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.dao.jpa.BPELDAOConnectionFactoryImpl;
+import org.apache.ode.il.EmbeddedGeronimoFactory;
+import org.apache.ode.utils.GUID;
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.transaction.TransactionManager;
+import javax.xml.namespace.QName;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Checks the routes found through their ODE_MESSAGE_ROUTE_KEY rows against the subsets of the message keys.
+ */
+public class MessageRouteKeyTest extends TestCase {
+
+    private static final String TEST_NS = "http://org.apache.ode.jpa.test";
+
+    TransactionManager _txm;
+    JdbcDataSource _ds;
+    BPELDAOConnectionFactoryImpl factory;
+    ProcessDAO _process;
+    CorrelatorDAO _corr;
+
+    @Override
+    protected void setUp() throws Exception {
+        _ds = new JdbcDataSource();
+        _ds.setURL("jdbc:h2:mem:" + new GUID().toString()+";DB_CLOSE_DELAY=-1");
+        _ds.setUser("sa");
+
+        _txm = new EmbeddedGeronimoFactory().getTransactionManager();
+
+        factory = new BPELDAOConnectionFactoryImpl();
+        factory.setDataSource(_ds);
+        factory.setTransactionManager(_txm);
+        Properties props = new Properties();
+        props.put("openjpa.jdbc.SynchronizeMappings", "buildSchema(ForeignKeys=false)");
+        factory.init(props);
+
+        _txm.begin();
+        BpelDAOConnection conn = factory.getConnection();
+        _process = conn.createProcess(new QName(TEST_NS, "testPID1"), new QName(TEST_NS, "testType"), "GUID1", 1);
+        _corr = _process.addCorrelator("testCorrelator1");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        _txm.commit();
+        _ds = null;
+        _txm = null;
+    }
+
+    public void testSubsetMatching() throws Exception {
+        addRoute("a", "@2[1~a]", "one");
+        addRoute("ab", "@2[1~a],[2~b]", "all");
+        addRoute("ac", "@2[1~a],[3~c]", "all");
+        addRoute("none", "@2", "all");
+        addRoute("opaque", "@2[-1~x]", "all");
+        addRoute("a2", "@2[1~a]", "one");
+        // Same keys on another correlator
+        CorrelatorDAO other = _process.addCorrelator("testCorrelator2");
+        other.addRoute("other", _process.createInstance(other), 0, new CorrelationKeySet("@2[1~a]"), "all");
+
+        // The first "one" route wins, routes are in creation order
+        assertRoutes("@2[1~a]", "a", "none");
+        assertRoutes("@2[1~a],[2~b]", "a", "ab", "none");
+        assertRoutes("@2[1~a],[2~b],[3~c]", "a", "ab", "ac", "none");
+        // All the keys of a route have to be in the message
+        assertRoutes("@2[2~b]", "none");
+        assertRoutes("@2[2~b],[3~c]", "none");
+        assertRoutes("@2[9~z]", "none");
+        // Opaque keys only count when the message has no other key
+        assertRoutes("@2[-1~x]", "none", "opaque");
+        assertRoutes("@2[1~a],[-1~x]", "a", "none");
+        // Without keys only the whole key set is matched
+        assertRoutes("@2", "none");
+    }
+
+    public void testKeySetChange() throws Exception {
+        addRoute("ab", "@2[1~a],[2~b]", "all");
+        MessageRouteDAO route = addRoute("c", "@2[3~c]", "all");
+        assertRoutes("@2[2~b]");
+
+        route.setCorrelationKeySet(new CorrelationKeySet("@2[2~b]"));
+        assertRoutes("@2[2~b]", "c");
+        assertRoutes("@2[3~c]");
+        assertRoutes("@2[1~a],[2~b]", "ab", "c");
+    }
+
+    public void testIndexScript() throws Exception {
+        addRoute("a", "@2[1~a]", "all");
+        _txm.commit();
+
+        StringBuilder script = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader("src/main/scripts/index.sql"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.startsWith("--")) script.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+
+        Connection conn = _ds.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            for (String sql : script.toString().split(";")) {
+                if (sql.trim().length() > 0) stmt.executeUpdate(sql);
+            }
+            stmt.close();
+
+            Set<String> indexes = new HashSet<String>();
+            ResultSet rs = conn.getMetaData().getIndexInfo(null, null, "ODE_MESSAGE_ROUTE_KEY", false, false);
+            while (rs.next()) {
+                if ("IDX_MSG_ROUTE_KEY_CORR_KEY".equals(rs.getString("INDEX_NAME")))
+                    indexes.add(rs.getString("COLUMN_NAME"));
+            }
+            rs.close();
+            assertEquals(new HashSet<String>(Arrays.asList("CORR_ID", "CORRELATION_KEY")), indexes);
+        } finally {
+            conn.close();
+        }
+
+        _txm.begin();
+    }
+
+    private MessageRouteDAO addRoute(String groupId, String keySet, String policy) {
+        _corr.addRoute(groupId, _process.createInstance(_corr), 0, new CorrelationKeySet(keySet), policy);
+        for (MessageRouteDAO route : _corr.getAllRoutes()) {
+            if (route.getGroupId().equals(groupId)) return route;
+        }
+        throw new AssertionError("Route " + groupId + " not added");
+    }
+
+    private void assertRoutes(String keySet, String... groupIds) {
+        List<String> found = new ArrayList<String>();
+        List<MessageRouteDAO> routes = _corr.findRoute(new CorrelationKeySet(keySet));
+        if (routes != null) {
+            for (MessageRouteDAO route : routes) found.add(route.getGroupId());
+        }
+        assertEquals(keySet, Arrays.asList(groupIds), found);
+    }
+}
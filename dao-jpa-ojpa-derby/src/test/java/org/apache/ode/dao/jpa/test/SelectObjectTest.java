@@ -116,6 +116,14 @@ public class SelectObjectTest extends TestCase {
         assertEquals(route.getIndex() , 1 );
         assertNotNull(route.getTargetInstance() );
 
+        // A message holding more keys than the route is routed too, one missing a route key isn't
+        CorrelationKey key2 = new CorrelationKey("key2",correlationKeys);
+        routes = corr.findRoute(new CorrelationKeySet().add(key1).add(key2));
+        assertNotNull( routes );
+        assertEquals(1, routes.size());
+        assertSame(route, routes.get(0));
+        assertNull(corr.findRoute(new CorrelationKeySet().add(key2)));
+
         // Assert the ProcessInstanceDAO
         for ( ProcessInstanceDAO inst : insts ) {
             Long id = inst.getInstanceId();
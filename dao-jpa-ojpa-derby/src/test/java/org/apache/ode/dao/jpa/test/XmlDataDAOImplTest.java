@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.dao.jpa.test;
+
+import junit.framework.TestCase;
+import org.apache.ode.bpel.dao.BpelDAOConnection;
+import org.apache.ode.bpel.dao.CorrelatorDAO;
+import org.apache.ode.bpel.dao.ProcessDAO;
+import org.apache.ode.bpel.dao.ProcessInstanceDAO;
+import org.apache.ode.bpel.dao.ScopeDAO;
+import org.apache.ode.bpel.dao.XmlDataDAO;
+import org.apache.ode.dao.jpa.BPELDAOConnectionFactoryImpl;
+import org.apache.ode.il.EmbeddedGeronimoFactory;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.GUID;
+import org.h2.jdbcx.JdbcDataSource;
+import org.w3c.dom.Element;
+
+import javax.transaction.TransactionManager;
+import javax.xml.namespace.QName;
+import java.util.Properties;
+
+/**
+ * Checks that {@link XmlDataDAO#set} only reports a change when the value really changed.
+ */
+public class XmlDataDAOImplTest extends TestCase {
+
+    private static final String TEST_NS = "http://org.apache.ode.jpa.test";
+
+    TransactionManager _txm;
+    BPELDAOConnectionFactoryImpl factory;
+
+    @Override
+    protected void setUp() throws Exception {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + new GUID().toString()+";DB_CLOSE_DELAY=-1");
+        h2.setUser("sa");
+
+        _txm = new EmbeddedGeronimoFactory().getTransactionManager();
+
+        factory = new BPELDAOConnectionFactoryImpl();
+        factory.setDataSource(h2);
+        factory.setTransactionManager(_txm);
+        Properties props = new Properties();
+        props.put("openjpa.jdbc.SynchronizeMappings", "buildSchema(ForeignKeys=false)");
+        factory.init(props);
+
+        _txm.begin();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        _txm.commit();
+        _txm = null;
+    }
+
+    public void testSetElement() throws Exception {
+        XmlDataDAO var = createVariable();
+        Element value = DOMUtils.stringToDOM("<order><item>a</item></order>");
+        assertTrue(var.set(value));
+        assertFalse(var.set(value));
+
+        // Same content in another document
+        assertFalse(var.set(DOMUtils.stringToDOM("<order><item>a</item></order>")));
+
+        // Changed in place, even when marked shared the write must go through
+        DOMUtils.markShared(value);
+        value.getFirstChild().setTextContent("b");
+        assertTrue(var.set(value));
+        assertEquals("b", ((Element) var.get()).getFirstChild().getTextContent());
+        assertFalse(var.set(value));
+
+        value.setAttribute("id", "1");
+        assertTrue(var.set(value));
+    }
+
+    public void testSetAfterReload() throws Exception {
+        XmlDataDAO var = createVariable();
+        ScopeDAO scope = var.getScopeDAO();
+        Long iid = scope.getProcessInstance().getInstanceId();
+        Long sid = scope.getScopeInstanceId();
+        assertTrue(var.set(DOMUtils.stringToDOM("<order><item>a</item></order>")));
+        _txm.commit();
+
+        _txm.begin();
+        BpelDAOConnection conn = factory.getConnection();
+        var = conn.getInstance(iid).getScope(sid).getVariable("var1");
+        Element value = (Element) var.get();
+        assertFalse(var.set(value));
+        value.getFirstChild().setTextContent("b");
+        assertTrue(var.set(value));
+    }
+
+    public void testSetSimpleType() throws Exception {
+        XmlDataDAO var = createVariable();
+        Element value = DOMUtils.stringToDOM("<order><item>a</item></order>");
+        assertTrue(var.set(value));
+        assertTrue(var.set(value.getOwnerDocument().createTextNode("a")));
+        assertFalse(var.set(value.getOwnerDocument().createTextNode("a")));
+
+        // Back to the element written before, it is a change again
+        assertTrue(var.set(value));
+    }
+
+    private XmlDataDAO createVariable() {
+        BpelDAOConnection conn = factory.getConnection();
+        ProcessDAO process = conn.createProcess(new QName(TEST_NS, "testPID1"), new QName(TEST_NS, "testType"), "GUID1", 1);
+        CorrelatorDAO corr = process.addCorrelator("testCorrelator1");
+        ProcessInstanceDAO pi = process.createInstance(corr);
+        ScopeDAO scope = pi.createScope(null, "Root", 1);
+        return scope.getVariable("var1");
+    }
+}
@@ -45,6 +45,10 @@ import java.util.Properties;
 public class BPELDAOConnectionFactoryImpl implements BpelDAOConnectionFactoryJDBC {
     static final Logger __log = LoggerFactory.getLogger(BPELDAOConnectionFactoryImpl.class);
 
+    private static final String DB_DICTIONARY = "openjpa.jdbc.DBDictionary";
+    /** Default maximum number of statements in a JDBC batch. */
+    private static final int BATCH_LIMIT = 100;
+
     protected EntityManagerFactory _emf;
     private TransactionManager _tm;
     private DataSource _ds;
@@ -108,15 +112,35 @@ public class BPELDAOConnectionFactoryImpl implements BpelDAOConnectionFactoryJDB
             propMap.put("openjpa.jdbc.TransactionIsolation", "read-committed");
 
         if (_dbdictionary != null)
-            propMap.put("openjpa.jdbc.DBDictionary", _dbdictionary);
+            propMap.put(DB_DICTIONARY, _dbdictionary);
 
         if (properties != null)
             for (Map.Entry me : properties.entrySet())
                 propMap.put((String)me.getKey(),me.getValue());
 
+        // Sends the inserts of a flush, like the events of an execution, in JDBC batches
+        Object dictionary = propMap.get(DB_DICTIONARY);
+        if (dictionary == null || dictionary instanceof String)
+            propMap.put(DB_DICTIONARY, withBatchLimit((String) dictionary));
+
         _emf = Persistence.createEntityManagerFactory("ode-dao", propMap);
     }
 
+    /**
+     * Add the default statement batch limit to a DBDictionary plugin string, unless it sets one.
+     */
+    static String withBatchLimit(String dictionary) {
+        String batchLimit = "batchLimit=" + BATCH_LIMIT;
+        if (dictionary == null || dictionary.trim().length() == 0) return batchLimit;
+        if (dictionary.indexOf("batchLimit") >= 0) return dictionary;
+        dictionary = dictionary.trim();
+        if (dictionary.endsWith(")")) {
+            String args = dictionary.substring(dictionary.indexOf('(') + 1, dictionary.length() - 1).trim();
+            return dictionary.substring(0, dictionary.length() - 1) + (args.length() == 0 ? "" : ",") + batchLimit + ")";
+        }
+        return dictionary + "(" + batchLimit + ")";
+    }
+
     public void setTransactionManager(TransactionManager tm) {
         _tm = tm;
     }
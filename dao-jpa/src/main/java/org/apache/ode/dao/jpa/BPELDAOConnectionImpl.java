@@ -23,6 +23,7 @@ import java.io.Serializable;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -37,6 +38,7 @@ import javax.xml.namespace.QName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.common.BpelEventFilter;
+import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.common.Filter;
 import org.apache.ode.bpel.common.InstanceFilter;
 import org.apache.ode.bpel.common.ProcessState;
@@ -328,6 +330,36 @@ public class BPELDAOConnectionImpl implements BpelDAOConnection {
         return _em.find(MessageExchangeDAOImpl.class, mexid);
     }
 
+    @SuppressWarnings("unchecked")
+    public List<MessageExchangeDAO> dequeueExpiredMessages(Date queuedBefore, int maxCount) {
+        // every queued message has a single row for the empty subset of its keys or a single unindexed row
+        Query qry = _em.createNamedQuery(CorrelatorMessageKey.SELECT_MESSAGE_KEYS_BEFORE);
+        qry.setParameter("keys", queueKeys());
+        qry.setParameter("before", queuedBefore);
+        qry.setMaxResults(maxCount);
+
+        List<MessageExchangeDAO> expired = new ArrayList<MessageExchangeDAO>();
+        for (CorrelatorMessageKey key : (List<CorrelatorMessageKey>) qry.getResultList()) {
+            MessageExchangeDAOImpl mex = key.getMessageExchange();
+            if (mex == null) {
+                CorrelatorDAOImpl.deleteMessageKeys(_em, key.getMessageExchangeId());
+            } else if (CorrelatorDAOImpl.dequeue(_em, mex)) {
+                expired.add(mex);
+            }
+        }
+        return expired;
+    }
+
+    public long getQueuedMessageCount() {
+        Query qry = _em.createNamedQuery(CorrelatorMessageKey.COUNT_MESSAGE_KEYS);
+        qry.setParameter("keys", queueKeys());
+        return ((Number) qry.getSingleResult()).longValue();
+    }
+
+    private static List<String> queueKeys() {
+        return Arrays.asList(new CorrelationKeySet().toCanonicalString(), CorrelatorMessageKey.UNINDEXED_KEY);
+    }
+
     public void deleteMessageExchange(MessageExchangeDAO mexDao) {
         _em.remove(mexDao);
     }
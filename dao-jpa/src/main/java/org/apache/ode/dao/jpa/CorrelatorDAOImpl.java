@@ -21,12 +21,15 @@ package org.apache.ode.dao.jpa;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.ode.bpel.common.CorrelationKey;
 import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.*;
 
 import javax.persistence.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
@@ -36,7 +39,6 @@ import java.util.List;
 public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
     private static Logger __log = LoggerFactory.getLogger(CorrelatorDAOImpl.class);
     public final static String DELETE_CORRELATORS_BY_PROCESS = "DELETE_CORRELATORS_BY_PROCESS";
-    private final static String ROUTE_BY_CKEY_HEADER = "select route from MessageRouteDAOImpl as route where route._correlator = :corr ";
 
     @Id
     @Column(name = "CORRELATOR_ID")
@@ -48,8 +50,6 @@ public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
     private String _correlatorKey;
     @OneToMany(targetEntity = MessageRouteDAOImpl.class, mappedBy = "_correlator", fetch = FetchType.EAGER, cascade = { CascadeType.MERGE, CascadeType.PERSIST, CascadeType.REFRESH })
     private Collection<MessageRouteDAOImpl> _routes = new ArrayList<MessageRouteDAOImpl>();
-    @OneToMany(targetEntity = MessageExchangeDAOImpl.class, mappedBy = "_correlator", fetch = FetchType.LAZY, cascade = { CascadeType.MERGE, CascadeType.PERSIST, CascadeType.REFRESH })
-    private Collection<MessageExchangeDAOImpl> _exchanges = new ArrayList<MessageExchangeDAOImpl>();
     @ManyToOne(fetch = FetchType.LAZY, cascade = { CascadeType.PERSIST })
     @Column(name = "PROC_ID")
     private ProcessDAOImpl _process;
@@ -71,56 +71,99 @@ public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
         getEM().flush();
     }
 
+    @SuppressWarnings("unchecked")
     public MessageExchangeDAO dequeueMessage(CorrelationKeySet correlationKeySet) {
-        // TODO: this thing does not seem to be scalable: loading up based on a correlator???
-        for (Iterator<MessageExchangeDAOImpl> itr = _exchanges.iterator(); itr.hasNext();) {
-            MessageExchangeDAOImpl mex = itr.next();
-            if (mex.getCorrelationKeySet().isRoutableTo(correlationKeySet, false)) {
-                itr.remove();
-                MessageExchangeDAOImpl mexImpl = (MessageExchangeDAOImpl) mex;
-                mexImpl.setCorrelationKeySet(null);
-                mexImpl.setCorrelator(null);
-                //getEM().remove(mex);
-                //getEM().flush();
-                return mex;
+        __log.debug("dequeueMessage {}", correlationKeySet);
+
+        Query qry = getEM().createNamedQuery(CorrelatorMessageKey.SELECT_MESSAGE_KEYS);
+        qry.setParameter("corr", this);
+        qry.setParameter("keys", Arrays.asList(correlationKeySet.toCanonicalString(), CorrelatorMessageKey.UNINDEXED_KEY));
+        for (CorrelatorMessageKey key : (List<CorrelatorMessageKey>) qry.getResultList()) {
+            MessageExchangeDAOImpl mex = key.getMessageExchange();
+            if (mex == null) {
+                // the message got deleted while queued
+                deleteMessageKeys(getEM(), key.getMessageExchangeId());
+                continue;
+            }
+            if (key.isUnindexed() && !mex.getCorrelationKeySet().isRoutableTo(correlationKeySet, false)) continue;
+
+            if (!dequeue(getEM(), mex)) {
+                // expired by the message queue purger meanwhile
+                continue;
             }
+            __log.debug("dequeueMessage found {}", mex);
+            return mex;
         }
         return null;
     }
 
     public void enqueueMessage(MessageExchangeDAO mex, CorrelationKeySet correlationKeySet) {
         MessageExchangeDAOImpl mexImpl = (MessageExchangeDAOImpl) mex;
+        if (mexImpl.getCorrelator() != null) {
+            // queued again, e.g. by a migration
+            deleteMessageKeys(getEM(), mexImpl.getMessageExchangeId());
+        }
         mexImpl.setCorrelationKeySet(correlationKeySet);
-        _exchanges.add(mexImpl);
         mexImpl.setCorrelator(this);
+
+        Date now = new Date();
+        List<String> keys = subsetKeys(correlationKeySet);
+        if (keys == null) {
+            getEM().persist(new CorrelatorMessageKey(mexImpl, this, CorrelatorMessageKey.UNINDEXED_KEY, now));
+        } else {
+            for (String key : keys) {
+                getEM().persist(new CorrelatorMessageKey(mexImpl, this, key, now));
+            }
+        }
     }
 
+    @SuppressWarnings("unchecked")
     public Collection<CorrelatorMessageDAO> getAllMessages() {
-        return new ArrayList<CorrelatorMessageDAO>(_exchanges);
+        Query qry = getEM().createNamedQuery(MessageExchangeDAOImpl.SELECT_MEXS_BY_CORRELATOR);
+        qry.setParameter("corr", this);
+        return new ArrayList<CorrelatorMessageDAO>((List<MessageExchangeDAOImpl>) qry.getResultList());
     }
 
-    @SuppressWarnings("unchecked")
-    public List<MessageRouteDAO> findRoute(CorrelationKeySet correlationKeySet) {
-        return findRoute(correlationKeySet, false);
+    /**
+     * Take a message off the queue of its correlator. Deleting its key rows write-locks them, so of the matcher and
+     * the message queue purger only the first transaction gets the message, the other one deletes no row.
+     * @return <code>false</code> if another transaction took the message off the queue already
+     */
+    static boolean dequeue(EntityManager em, MessageExchangeDAOImpl mex) {
+        if (deleteMessageKeys(em, mex.getMessageExchangeId()) == 0) return false;
+        mex.setCorrelationKeySet(null);
+        mex.setCorrelator(null);
+        return true;
     }
 
-    private String generateSelectorQuery(String header, List<CorrelationKeySet> subSets) {
-        StringBuffer filterQuery = new StringBuffer(header);
+    static int deleteMessageKeys(EntityManager em, String mexId) {
+        return em.createNamedQuery(CorrelatorMessageKey.DELETE_MESSAGE_KEYS_BY_MEX).setParameter("mexId", mexId).executeUpdate();
+    }
 
-        if (subSets.size() == 1) {
-            filterQuery.append(" and route._correlationKey = :s0");
-        } else if (subSets.size() > 1) {
-            filterQuery.append(" and route._correlationKey in(");
-            for (int i = 0; i < subSets.size(); i++) {
-                if (i > 0) {
-                    filterQuery.append(", ");
-                }
-                filterQuery.append(":s").append(i);
+    /**
+     * @return the canonical forms of all the subsets of a key set, the empty one included, or <code>null</code> if
+     *         the key set has more than {@link CorrelatorMessageKey#MAX_INDEXED_KEYS} keys
+     */
+    static List<String> subsetKeys(CorrelationKeySet keySet) {
+        List<CorrelationKey> keys = new ArrayList<CorrelationKey>();
+        for (Iterator<CorrelationKey> i = keySet.iterator(); i.hasNext();) {
+            keys.add(i.next());
+            if (keys.size() > CorrelatorMessageKey.MAX_INDEXED_KEYS) return null;
+        }
+        List<String> subsetKeys = new ArrayList<String>(1 << keys.size());
+        for (int bits = 0; bits < (1 << keys.size()); bits++) {
+            CorrelationKeySet subset = new CorrelationKeySet();
+            for (int i = 0; i < keys.size(); i++) {
+                if ((bits & (1 << i)) != 0) subset.add(keys.get(i));
             }
-            filterQuery.append(")");
+            subsetKeys.add(subset.toCanonicalString());
         }
+        return subsetKeys;
+    }
 
-        return filterQuery.toString();
+    @SuppressWarnings("unchecked")
+    public List<MessageRouteDAO> findRoute(CorrelationKeySet correlationKeySet) {
+        return findRoute(correlationKeySet, false);
     }
 
     public String getCorrelatorId() {
@@ -136,6 +179,13 @@ public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
         ((ProcessInstanceDAOImpl) target).removeRoutes(routeGroupId);
     }
 
+    public boolean hasRoutes(String routeGroupId, ProcessInstanceDAO target) {
+        Query qry = getEM().createNamedQuery(MessageRouteDAOImpl.COUNT_ROUTES_BY_GROUP);
+        qry.setParameter("instance", target);
+        qry.setParameter("groupId", routeGroupId);
+        return ((Number) qry.getSingleResult()).longValue() > 0;
+    }
+
     void removeLocalRoutes(String routeGroupId, ProcessInstanceDAO target) {
         if (__log.isDebugEnabled()) {
             __log.debug("removeLocalRoutes " + routeGroupId);
@@ -169,19 +219,18 @@ public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
     public List<MessageRouteDAO> findRoute(CorrelationKeySet correlationKeySet,boolean isCorrleationKeySetPreInitialized) {
         __log.debug("findRoute {}", correlationKeySet);
 
-        Query qry = null;
-
-        if(isCorrleationKeySetPreInitialized){
-            qry = getEM().createQuery(ROUTE_BY_CKEY_HEADER + " and route._correlationKey = :s0");
+        Query qry;
+        List<String> keys = isCorrleationKeySetPreInitialized ? null : findRoutingKeys(correlationKeySet);
+        if (keys == null || keys.isEmpty()) {
+            qry = getEM().createNamedQuery(MessageRouteDAOImpl.SELECT_ROUTES_BY_KEY_SET);
             qry.setParameter("corr", this);
-            qry.setParameter("s0", correlationKeySet.toCanonicalString());
+            qry.setParameter("keySet", correlationKeySet.toCanonicalString());
         } else {
-            List<CorrelationKeySet> subSets = correlationKeySet.findSubSets();
-            qry = getEM().createQuery(generateSelectorQuery(ROUTE_BY_CKEY_HEADER, subSets));
+            // Routes without keys match any message, as the empty subset of its keys
+            keys.add(MessageRouteKey.NO_KEYS);
+            qry = getEM().createNamedQuery(MessageRouteDAOImpl.SELECT_ROUTES_BY_KEYS);
             qry.setParameter("corr", this);
-            for (int i = 0; i < subSets.size(); i++) {
-                qry.setParameter("s" + i, subSets.get(i).toCanonicalString());
-            }
+            qry.setParameter("keys", keys);
         }
 
         List<MessageRouteDAO> candidateRoutes = (List<MessageRouteDAO>) qry.getResultList();
@@ -206,4 +255,20 @@ public class CorrelatorDAOImpl extends OpenJPADAO implements CorrelatorDAO {
             return null;
         }
     }
+
+    /**
+     * Keys a message is routed with, in their canonical form. As for {@link CorrelationKeySet#findSubSets()}, an
+     * opaque key is left out when the message also has explicit keys.
+     */
+    private static List<String> findRoutingKeys(CorrelationKeySet keySet) {
+        List<String> keys = new ArrayList<String>();
+        String opaqueKey = null;
+        for (Iterator<CorrelationKey> i = keySet.iterator(); i.hasNext();) {
+            CorrelationKey key = i.next();
+            if ("-1".equals(key.getCorrelationSetName())) opaqueKey = key.toCanonicalString();
+            else keys.add(key.toCanonicalString());
+        }
+        if (keys.isEmpty() && opaqueKey != null) keys.add(opaqueKey);
+        return keys;
+    }
 }
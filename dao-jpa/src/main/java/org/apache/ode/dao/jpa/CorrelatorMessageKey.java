@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.dao.jpa;
+
+import java.util.Date;
+
+import javax.persistence.Basic;
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * One subset of the correlation keys of a message queued on a correlator. A queued message has a row for each
+ * subset of its key set, the empty one included, so a route finds its message by looking up its own key set. A
+ * message with more than {@link #MAX_INDEXED_KEYS} keys gets a single {@link #UNINDEXED_KEY} row instead, and is
+ * checked against every route looking up messages.
+ */
+@Entity
+@Table(name="ODE_CORRELATOR_MESSAGE_KEY")
+@NamedQueries({
+    @NamedQuery(name=CorrelatorMessageKey.SELECT_MESSAGE_KEYS, query="select k from CorrelatorMessageKey as k where k._correlator = :corr and k.key in (:keys) order by k._id"),
+    @NamedQuery(name=CorrelatorMessageKey.SELECT_MESSAGE_KEYS_BEFORE, query="select k from CorrelatorMessageKey as k where k.key in (:keys) and k.createTime < :before order by k._id"),
+    @NamedQuery(name=CorrelatorMessageKey.COUNT_MESSAGE_KEYS, query="select count(k._id) from CorrelatorMessageKey as k where k.key in (:keys)"),
+    @NamedQuery(name=CorrelatorMessageKey.DELETE_MESSAGE_KEYS_BY_MEX, query="delete from CorrelatorMessageKey as k where k.mexId = :mexId"),
+    @NamedQuery(name=CorrelatorMessageKey.DELETE_MESSAGE_KEYS_BY_PROCESS, query="delete from CorrelatorMessageKey as k where k.correlatorId in (select c._correlatorId from CorrelatorDAOImpl as c where c._process = :process)")
+})
+public class CorrelatorMessageKey {
+    public final static String SELECT_MESSAGE_KEYS = "SELECT_MESSAGE_KEYS";
+    public final static String SELECT_MESSAGE_KEYS_BEFORE = "SELECT_MESSAGE_KEYS_BEFORE";
+    public final static String COUNT_MESSAGE_KEYS = "COUNT_MESSAGE_KEYS";
+    public final static String DELETE_MESSAGE_KEYS_BY_MEX = "DELETE_MESSAGE_KEYS_BY_MEX";
+    public final static String DELETE_MESSAGE_KEYS_BY_PROCESS = "DELETE_MESSAGE_KEYS_BY_PROCESS";
+
+    /** Key sets with more keys than this aren't broken down into subsets. */
+    public final static int MAX_INDEXED_KEYS = 6;
+    /** Key of the single row of a message with too many keys to be indexed. */
+    public final static String UNINDEXED_KEY = "*";
+
+    @Id @Column(name="ID")
+    @GeneratedValue(strategy=GenerationType.AUTO)
+    @SuppressWarnings("unused")
+    private Long _id;
+    @Basic @Column(name="CORRELATION_KEY")
+    private String key;
+    @Basic @Column(name="CREATE_TIME")
+    @SuppressWarnings("unused")
+    private Date createTime;
+
+    @Basic @Column(name="MEX_ID", insertable=false, updatable=false, nullable=true)
+    private String mexId;
+
+    @ManyToOne(fetch=FetchType.LAZY,cascade={CascadeType.PERSIST}) @Column(name="MEX_ID")
+    private MessageExchangeDAOImpl _messageExchange;
+
+    @SuppressWarnings("unused")
+    @Basic @Column(name="CORR_ID", insertable=false, updatable=false, nullable=true)
+    private Long correlatorId;
+
+    @ManyToOne(fetch=FetchType.LAZY,cascade={CascadeType.PERSIST}) @Column(name="CORR_ID")
+    @SuppressWarnings("unused")
+    private CorrelatorDAOImpl _correlator;
+
+    public CorrelatorMessageKey() {
+    }
+
+    public CorrelatorMessageKey(MessageExchangeDAOImpl mex, CorrelatorDAOImpl correlator, String key, Date createTime) {
+        _messageExchange = mex;
+        _correlator = correlator;
+        this.key = key;
+        this.createTime = createTime;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getMessageExchangeId() {
+        return mexId;
+    }
+
+    /**
+     * @return the queued message, <code>null</code> if it got deleted without being dequeued
+     */
+    public MessageExchangeDAOImpl getMessageExchange() {
+        return _messageExchange;
+    }
+
+    public boolean isUnindexed() {
+        return UNINDEXED_KEY.equals(key);
+    }
+}
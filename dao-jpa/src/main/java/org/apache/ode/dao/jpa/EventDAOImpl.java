@@ -20,6 +20,7 @@
 package org.apache.ode.dao.jpa;
 
 import org.apache.ode.bpel.evt.BpelEvent;
+import org.apache.ode.utils.SerializableUtils;
 
 import javax.persistence.Basic;
 import javax.persistence.CascadeType;
@@ -69,15 +70,16 @@ public class EventDAOImpl extends OpenJPADAO {
     private ProcessDAOImpl _process;
     @ManyToOne(fetch= FetchType.LAZY,cascade={CascadeType.PERSIST})	@Column(name="INSTANCE_ID")
     private ProcessInstanceDAOImpl _instance;
+    /** Serialized event, compressed unless written by an older version. */
     @Lob  @Column(name="DATA")
-    private BpelEvent _event;
+    private byte[] _data;
 
     public BpelEvent getEvent() {
-        return _event;
+        return _data == null ? null : (BpelEvent) SerializableUtils.toObject(_data, BpelEvent.class.getClassLoader());
     }
 
     public void setEvent(BpelEvent event) {
-        _event = event;
+        _data = SerializableUtils.toCompactBytes(event);
     }
 
     public String getDetail() {
@@ -20,7 +20,7 @@
 package org.apache.ode.dao.jpa;
 
 import org.apache.ode.bpel.dao.FaultDAO;
-import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.w3c.dom.Element;
 
 import javax.persistence.Basic;
@@ -66,7 +66,7 @@ public class FaultDAOImpl implements FaultDAO {
         _explanation = explanation;
         _lineNo = faultLineNo;
         _activityId = activityId;
-        _data = (faultMessage == null)?null:DOMUtils.domToString(faultMessage);
+        _data = (faultMessage == null)?null:XmlDataCodecs.encodeToString(faultMessage);
     }
 
     public int getActivityId() {
@@ -77,7 +77,7 @@ public class FaultDAOImpl implements FaultDAO {
         Element ret = null;
 
         try {
-            ret = (_data == null)?null:DOMUtils.stringToDOM(_data);
+            ret = (_data == null)?null:XmlDataCodecs.decode(_data);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -23,7 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.dao.MessageDAO;
 import org.apache.ode.bpel.dao.MessageExchangeDAO;
-import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.w3c.dom.Element;
 
 import javax.persistence.Basic;
@@ -80,7 +80,7 @@ public class MessageDAOImpl implements MessageDAO {
             __log.debug("getData " + _id + " " + _data);
         }
         try {
-            return _data == null ? null : DOMUtils.stringToDOM(_data);
+            return _data == null ? null : XmlDataCodecs.decode(_data);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -93,7 +93,7 @@ public class MessageDAOImpl implements MessageDAO {
             }
             return;
         }
-        _data = DOMUtils.domToString(value);
+        _data = XmlDataCodecs.encodeToString(value);
 
         if (__log.isDebugEnabled()) {
             __log.debug("setData " + _id + " " + _data);
@@ -102,7 +102,7 @@ public class MessageDAOImpl implements MessageDAO {
 
     public Element getHeader() {
         try {
-            return _header == null ? null : DOMUtils.stringToDOM(_header);
+            return _header == null ? null : XmlDataCodecs.decode(_header);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -111,7 +111,7 @@ public class MessageDAOImpl implements MessageDAO {
     public void setHeader(Element value) {
         if (value == null)
             return;
-        _header = DOMUtils.domToString(value);
+        _header = XmlDataCodecs.encodeToString(value);
     }
 
     public MessageExchangeDAO getMessageExchange() {
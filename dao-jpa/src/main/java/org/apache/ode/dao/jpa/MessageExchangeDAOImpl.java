@@ -53,13 +53,15 @@ import java.util.Set;
 @Table(name="ODE_MESSAGE_EXCHANGE")
 @NamedQueries({
     @NamedQuery(name=MessageExchangeDAOImpl.DELETE_MEXS_BY_PROCESS, query="delete from MessageExchangeDAOImpl as m where m._process = :process"),
-    @NamedQuery(name=MessageExchangeDAOImpl.SELECT_MEX_IDS_BY_PROCESS, query="select m._id from MessageExchangeDAOImpl as m where m._process = :process")
+    @NamedQuery(name=MessageExchangeDAOImpl.SELECT_MEX_IDS_BY_PROCESS, query="select m._id from MessageExchangeDAOImpl as m where m._process = :process"),
+    @NamedQuery(name=MessageExchangeDAOImpl.SELECT_MEXS_BY_CORRELATOR, query="select m from MessageExchangeDAOImpl as m where m._correlator = :corr")
 })
 public class MessageExchangeDAOImpl extends OpenJPADAO implements MessageExchangeDAO, CorrelatorMessageDAO {
     private static final Logger __log = LoggerFactory.getLogger(MessageExchangeDAOImpl.class);
 
     public final static String DELETE_MEXS_BY_PROCESS = "DELETE_MEXS_BY_PROCESS";
     public final static String SELECT_MEX_IDS_BY_PROCESS = "SELECT_MEX_IDS_BY_PROCESS";
+    public final static String SELECT_MEXS_BY_CORRELATOR = "SELECT_MEXS_BY_CORRELATOR";
 
     @Id @Column(name="MESSAGE_EXCHANGE_ID")
     private String _id;
@@ -326,7 +328,7 @@ public class MessageExchangeDAOImpl extends OpenJPADAO implements MessageExchang
         _correlationKeys = correlationKeySet != null ? correlationKeySet.toCanonicalString() : null;
     }
 
-    CorrelationKeySet getCorrelationKeySet() {
+    public CorrelationKeySet getCorrelationKeySet() {
         return new CorrelationKeySet(_correlationKeys);
     }
 
@@ -353,6 +355,8 @@ public class MessageExchangeDAOImpl extends OpenJPADAO implements MessageExchang
     public void deleteMessages() {
         if( __log.isDebugEnabled() ) __log.debug("Deleting message on MEX release.");
 
+        if (_correlator != null) CorrelatorDAOImpl.deleteMessageKeys(getEM(), _id);
+
         getEM().remove(this); // This deletes MexProperty, REQUEST MessageDAO, RESPONSE MessageDAO
     }
 
@@ -24,6 +24,10 @@ import org.apache.ode.bpel.common.CorrelationKeySet;
 import org.apache.ode.bpel.dao.MessageRouteDAO;
 import org.apache.ode.bpel.dao.ProcessInstanceDAO;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
 import javax.persistence.Basic;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -35,17 +39,24 @@ import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
 @Entity
 @Table(name="ODE_MESSAGE_ROUTE")
 @NamedQueries ({
     @NamedQuery(name=MessageRouteDAOImpl.DELETE_MESSAGE_ROUTES_BY_INSTANCE_IDS, query="delete from MessageRouteDAOImpl as r where r._instanceId in(:instanceIds)"),
-    @NamedQuery(name=MessageRouteDAOImpl.DELETE_MESSAGE_ROUTES_BY_INSTANCE, query="delete from MessageRouteDAOImpl as r where r._processInst = :instance")
+    @NamedQuery(name=MessageRouteDAOImpl.DELETE_MESSAGE_ROUTES_BY_INSTANCE, query="delete from MessageRouteDAOImpl as r where r._processInst = :instance"),
+    @NamedQuery(name=MessageRouteDAOImpl.SELECT_ROUTES_BY_KEY_SET, query="select r from MessageRouteDAOImpl as r where r._correlator = :corr and r._correlationKey = :keySet order by r._id"),
+    @NamedQuery(name=MessageRouteDAOImpl.SELECT_ROUTES_BY_KEYS, query="select r from MessageRouteDAOImpl as r where r._id in (select k.routeId from MessageRouteKey as k where k._correlator = :corr and k.key in (:keys) group by k.routeId, k.keyCount having count(k.routeId) = k.keyCount) order by r._id"),
+    @NamedQuery(name=MessageRouteDAOImpl.COUNT_ROUTES_BY_GROUP, query="select count(r._id) from MessageRouteDAOImpl as r where r._processInst = :instance and r._groupId = :groupId")
 })
-public class MessageRouteDAOImpl implements MessageRouteDAO {
+public class MessageRouteDAOImpl extends OpenJPADAO implements MessageRouteDAO {
     public final static String DELETE_MESSAGE_ROUTES_BY_INSTANCE = "DELETE_MESSAGE_ROUTES_BY_INSTANCE";
     public final static String DELETE_MESSAGE_ROUTES_BY_INSTANCE_IDS = "DELETE_MESSAGE_ROUTES_BY_INSTANCE_IDS";
+    public final static String SELECT_ROUTES_BY_KEY_SET = "SELECT_ROUTES_BY_KEY_SET";
+    public final static String SELECT_ROUTES_BY_KEYS = "SELECT_ROUTES_BY_KEYS";
+    public final static String COUNT_ROUTES_BY_GROUP = "COUNT_ROUTES_BY_GROUP";
 
     @Id @Column(name="MESSAGE_ROUTE_ID")
     @GeneratedValue(strategy=GenerationType.AUTO)
@@ -66,9 +77,11 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
     private ProcessInstanceDAOImpl _processInst;
 
     @ManyToOne(fetch= FetchType.LAZY,cascade={CascadeType.PERSIST}) @Column(name="CORR_ID")
-    @SuppressWarnings("unused")
     private CorrelatorDAOImpl _correlator;
 
+    @OneToMany(targetEntity=MessageRouteKey.class,mappedBy="_route",fetch=FetchType.LAZY,cascade={CascadeType.ALL})
+    private Collection<MessageRouteKey> _keys = new ArrayList<MessageRouteKey>();
+
     public MessageRouteDAOImpl() {}
     public MessageRouteDAOImpl(CorrelationKeySet keySet, String groupId, int index,
                                ProcessInstanceDAOImpl processInst, CorrelatorDAOImpl correlator, String routePolicy) {
@@ -78,6 +91,7 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
         _processInst = processInst;
         _correlator = correlator;
         _routePolicy = routePolicy;
+        addKeys(keySet);
     }
 
     public Long getId() {
@@ -90,6 +104,8 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
 
     public void setCorrelationKey(CorrelationKey key) {
         _correlationKey = key.toCanonicalString();
+        removeKeys();
+        addKeys(new CorrelationKeySet().add(key));
     }
 
     public String getGroupId() {
@@ -114,5 +130,23 @@ public class MessageRouteDAOImpl implements MessageRouteDAO {
 
     public void setCorrelationKeySet(CorrelationKeySet keySet) {
         _correlationKey = keySet.toCanonicalString();
+        removeKeys();
+        addKeys(keySet);
+    }
+
+    private void addKeys(CorrelationKeySet keySet) {
+        int count = 0;
+        for (Iterator<CorrelationKey> i = keySet.iterator(); i.hasNext(); i.next()) count++;
+        for (Iterator<CorrelationKey> i = keySet.iterator(); i.hasNext();) {
+            _keys.add(new MessageRouteKey(this, _correlator, i.next().toCanonicalString(), count));
+        }
+        if (count == 0) _keys.add(new MessageRouteKey(this, _correlator, MessageRouteKey.NO_KEYS, 1));
+    }
+
+    private void removeKeys() {
+        if (getEM() != null) {
+            for (MessageRouteKey key : _keys) getEM().remove(key);
+        }
+        _keys.clear();
     }
 }
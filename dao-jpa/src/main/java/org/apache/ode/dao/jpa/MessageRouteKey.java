@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.dao.jpa;
+
+import javax.persistence.Basic;
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * One correlation key of a message route. A route is matched by a message when the message holds all the keys
+ * of the route, that is when as many of the route keys are found in the message keys as the route has keys.
+ * A route without keys gets a single {@link #NO_KEYS} row, which every message with keys is looked up with.
+ */
+@Entity
+@Table(name="ODE_MESSAGE_ROUTE_KEY")
+@NamedQueries({
+    @NamedQuery(name=MessageRouteKey.DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE, query="delete from MessageRouteKey as k where k.routeId in (select r._id from MessageRouteDAOImpl as r where r._processInst = :instance)"),
+    @NamedQuery(name=MessageRouteKey.DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE_IDS, query="delete from MessageRouteKey as k where k.routeId in (select r._id from MessageRouteDAOImpl as r where r._instanceId in (:instanceIds))")
+})
+public class MessageRouteKey {
+    public final static String DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE = "DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE";
+    public final static String DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE_IDS = "DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE_IDS";
+
+    /** Key of the single row of a route without keys, canonical keys always hold a '~'. */
+    public final static String NO_KEYS = "*";
+
+    @Id @Column(name="ID")
+    @GeneratedValue(strategy=GenerationType.AUTO)
+    @SuppressWarnings("unused")
+    private Long _id;
+    @Basic @Column(name="CORRELATION_KEY")
+    private String key;
+    @Basic @Column(name="KEY_COUNT")
+    private int keyCount;
+
+    @SuppressWarnings("unused")
+    @Basic @Column(name="MESSAGE_ROUTE_ID", insertable=false, updatable=false, nullable=true)
+    private Long routeId;
+
+    @ManyToOne(fetch=FetchType.LAZY,cascade={CascadeType.PERSIST}) @Column(name="MESSAGE_ROUTE_ID")
+    @SuppressWarnings("unused")
+    private MessageRouteDAOImpl _route;
+
+    @ManyToOne(fetch=FetchType.LAZY,cascade={CascadeType.PERSIST}) @Column(name="CORR_ID")
+    @SuppressWarnings("unused")
+    private CorrelatorDAOImpl _correlator;
+
+    public MessageRouteKey() {
+    }
+
+    public MessageRouteKey(MessageRouteDAOImpl route, CorrelatorDAOImpl correlator, String key, int keyCount) {
+        _route = route;
+        _correlator = correlator;
+        this.key = key;
+        this.keyCount = keyCount;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+}
@@ -134,7 +134,9 @@ public class ProcessDAOImpl extends OpenJPADAO implements ProcessDAO {
     public void deleteProcessAndRoutes() {
         // delete routes
         Collection instanceIds = getEM().createNamedQuery(ProcessInstanceDAOImpl.SELECT_INSTANCE_IDS_BY_PROCESS).setParameter("process", this).getResultList();
+        batchUpdateByIds(instanceIds.iterator(), getEM().createNamedQuery(MessageRouteKey.DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE_IDS), "instanceIds");
         batchUpdateByIds(instanceIds.iterator(), getEM().createNamedQuery(MessageRouteDAOImpl.DELETE_MESSAGE_ROUTES_BY_INSTANCE_IDS), "instanceIds");
+        getEM().createNamedQuery(CorrelatorMessageKey.DELETE_MESSAGE_KEYS_BY_PROCESS).setParameter("process", this).executeUpdate();
         getEM().createNamedQuery(CorrelatorDAOImpl.DELETE_CORRELATORS_BY_PROCESS).setParameter("process", this).executeUpdate();
 
         deleteInstances(Integer.MAX_VALUE);
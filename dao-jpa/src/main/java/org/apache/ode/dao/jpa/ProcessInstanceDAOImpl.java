@@ -97,8 +97,10 @@ public class ProcessInstanceDAOImpl extends OpenJPADAO implements ProcessInstanc
     private short _state;
     @Basic @Column(name="PREVIOUS_STATE")
     private short _previousState;
-    @Lob @Column(name="EXECUTION_STATE")
+    @Lob @Basic(fetch=FetchType.LAZY) @Column(name="EXECUTION_STATE")
     private byte[] _executionState;
+    @Basic @Column(name="EXECUTION_STATE_COUNTER")
+    private int _executionStateCounter;
     @Basic @Column(name="SEQUENCE")
     private long _sequence;
     @Basic @Column(name="DATE_CREATED")
@@ -214,6 +216,7 @@ public class ProcessInstanceDAOImpl extends OpenJPADAO implements ProcessInstanc
     }
 
     private void deleteMessageRoutes() {
+        getEM().createNamedQuery(MessageRouteKey.DELETE_MESSAGE_ROUTE_KEYS_BY_INSTANCE).setParameter ("instance", this).executeUpdate();
         getEM().createNamedQuery(MessageRouteDAOImpl.DELETE_MESSAGE_ROUTES_BY_INSTANCE).setParameter ("instance", this).executeUpdate();
     }
 
@@ -373,8 +376,21 @@ public class ProcessInstanceDAOImpl extends OpenJPADAO implements ProcessInstanc
         getConn().insertBpelEvent(event, getProcess(), this);
     }
 
+    public void insertBpelEvents(List<ProcessInstanceEvent> events) {
+        // The inserts go in JDBC batches at flush, see the batchLimit of BPELDAOConnectionFactoryImpl
+        BPELDAOConnectionImpl conn = getConn();
+        ProcessDAO process = getProcess();
+        for (ProcessInstanceEvent event : events)
+            conn.insertBpelEvent(event, process, this);
+    }
+
     public void setExecutionState(byte[] execState) {
         _executionState = execState;
+        _executionStateCounter++;
+    }
+
+    public int getExecutionStateCounter() {
+        return _executionStateCounter;
     }
 
     public void setFault(FaultDAO fault) {
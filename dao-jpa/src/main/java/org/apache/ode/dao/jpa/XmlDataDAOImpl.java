@@ -20,6 +20,8 @@
 package org.apache.ode.dao.jpa;
 
 import org.apache.ode.bpel.dao.ScopeDAO;
+import org.apache.ode.bpel.dao.XmlDataCache;
+import org.apache.ode.bpel.dao.XmlDataCodecs;
 import org.apache.ode.bpel.dao.XmlDataDAO;
 import org.apache.ode.utils.DOMUtils;
 import org.w3c.dom.Document;
@@ -68,6 +70,9 @@ public class XmlDataDAOImpl implements XmlDataDAO {
     private String _data;
     @Transient
     private Node _node;
+    /** Content hash of the value as last read or written, unset for simple types. */
+    @Transient
+    private Long _hash;
     @Basic @Column(name="IS_SIMPLE_TYPE")
     private boolean _isSimpleType;
     @Basic @Column(name="NAME")
@@ -101,11 +106,19 @@ public class XmlDataDAOImpl implements XmlDataDAO {
                 e.appendChild(tnode);
                 _node = tnode;
            }else{
-              try{
-                  _node = DOMUtils.stringToDOM(_data);
-              }catch(Exception e){
-                  throw new RuntimeException(e);
+              XmlDataCache cache = XmlDataCache.getDefault();
+              boolean cacheable = cache.isEnabled() && _id != null;
+              long checksum = cacheable ? XmlDataCache.checksum(_data) : 0;
+              if (cacheable) _node = cache.get(_id, _data.length(), checksum);
+              if (_node == null) {
+                  try{
+                      _node = XmlDataCodecs.decode(_data);
+                  }catch(Exception e){
+                      throw new RuntimeException(e);
+                  }
+                  if (cacheable) cache.put(_id, _data.length(), checksum, _node);
               }
+              _hash = DOMUtils.contentHash(_node);
            }
         }
 
@@ -142,15 +155,29 @@ public class XmlDataDAOImpl implements XmlDataDAO {
 
     }
 
-    public void set(Node val) {
+    public boolean set(Node val) {
         _node = val;
         if ( val instanceof Element ) {
+            long hash = DOMUtils.contentHash(val);
+            // Same content as when last read or written, no need to serialize it
+            if (!_isSimpleType && _hash != null && _hash == hash) return false;
+            _hash = hash;
+            String data = XmlDataCodecs.encodeToString((Element) val);
+            // Leave the fields untouched when the value is unchanged so that no UPDATE is issued
+            if (!_isSimpleType && data.equals(_data)) return false;
             _isSimpleType = false;
-            _data = DOMUtils.domToString(val);
+            _data = data;
+            XmlDataCache cache = XmlDataCache.getDefault();
+            if (cache.isEnabled() && _id != null)
+                cache.put(_id, _data.length(), XmlDataCache.checksum(_data), val);
         } else if (_node != null) {
+            _hash = null;
+            String data = _node.getNodeValue();
+            if (_isSimpleType && data != null && data.equals(_data)) return false;
             _isSimpleType = true;
-            _data = _node.getNodeValue();
+            _data = data;
         }
+        return true;
     }
 
     public void setProperty(String pname, String pvalue) {
@@ -100,6 +100,9 @@ final public class OdeContext {
 
     ExecutorService _executorService;
 
+    /** Bounded pool for the scheduler transactions, only used along with virtual threads. */
+    ExecutorService _txExecutorService;
+
     BpelDAOConnectionFactory _daocf;
 
     OdeConfigProperties _config;
@@ -26,8 +26,11 @@ import org.apache.ode.bpel.connector.BpelServerConnector;
 import org.apache.ode.bpel.dao.BpelDAOConnectionFactoryJDBC;
 import org.apache.ode.bpel.eapi.AbstractExtensionBundle;
 import org.apache.ode.bpel.engine.BpelServerImpl;
+import org.apache.ode.bpel.engine.CostAwareDehydrationPolicy;
+import org.apache.ode.bpel.engine.CountLRUDehydrationPolicy;
 import org.apache.ode.bpel.engine.ProcessAndInstanceManagementMBean;
 import org.apache.ode.bpel.extvar.jdbc.JdbcExternalVariableModule;
+import org.apache.ode.bpel.evtproc.AsyncBpelEventListener;
 import org.apache.ode.bpel.iapi.BpelEventListener;
 import org.apache.ode.bpel.intercept.MessageExchangeInterceptor;
 import org.apache.ode.il.dbutil.Database;
@@ -37,6 +40,7 @@ import org.apache.ode.scheduler.simple.JdbcDelegate;
 import org.apache.ode.scheduler.simple.SimpleScheduler;
 import org.apache.ode.store.ProcessStoreImpl;
 import org.apache.ode.utils.GUID;
+import org.apache.ode.utils.VirtualThreads;
 import org.apache.ode.utils.fs.TempFileManager;
 
 import javax.jbi.JBIException;
@@ -48,6 +52,9 @@ import javax.management.ObjectName;
 import javax.transaction.TransactionManager;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
 
 /**
@@ -241,13 +248,23 @@ public class OdeLifeCycle implements ComponentLifeCycle {
         // we'll do that explcitly
         _ode._eprContext = new EndpointReferenceContextImpl(_ode);
         _ode._mexContext = new MessageExchangeContextImpl(_ode);
-        if (_ode._config.getThreadPoolMaxSize() == 0)
-            _ode._executorService = Executors.newCachedThreadPool();
-        else
-            _ode._executorService = Executors.newFixedThreadPool(_ode._config.getThreadPoolMaxSize());
+        if (_ode._config.isVirtualThreads()) {
+            _ode._executorService = VirtualThreads.newThreadPerTaskExecutor("ODE-virtual-");
+            if (_ode._executorService == null)
+                __log.warn("Virtual threads are not supported by this JVM, falling back to a platform thread pool.");
+            else
+                _ode._txExecutorService = Executors.newFixedThreadPool(_ode._config.getDbThreadPoolSize());
+        }
+        if (_ode._executorService == null) {
+            if (_ode._config.getThreadPoolMaxSize() == 0)
+                _ode._executorService = Executors.newCachedThreadPool();
+            else
+                _ode._executorService = Executors.newFixedThreadPool(_ode._config.getThreadPoolMaxSize());
+        }
         _ode._scheduler = new SimpleScheduler(new GUID().toString(),new JdbcDelegate(_ode._dataSource), _ode._config.getProperties());
         _ode._scheduler.setJobProcessor(_ode._server);
         _ode._scheduler.setExecutorService(_ode._executorService);
+        _ode._scheduler.setTransactionExecutorService(_ode._txExecutorService);
         _ode._scheduler.setTransactionManager((TransactionManager) _ode.getContext().getTransactionManager());
 
         _ode._store = new ProcessStoreImpl(_ode._eprContext , _ode._dataSource, _ode._config.getDAOConnectionFactory(), _ode._config, false);
@@ -261,9 +278,31 @@ public class OdeLifeCycle implements ComponentLifeCycle {
         _ode._server.setMessageExchangeContext(_ode._mexContext);
         _ode._server.setBindingContext(new BindingContextImpl(_ode));
         _ode._server.setScheduler(_ode._scheduler);
+        if (_ode._config.isDehydrationEnabled()) {
+            if ("cost".equals(_ode._config.getDehydrationPolicy())) {
+                CostAwareDehydrationPolicy dehy = new CostAwareDehydrationPolicy();
+                dehy.setProcessMaxAge(_ode._config.getDehydrationMaximumAge());
+                dehy.setProcessMaxCount(_ode._config.getDehydrationMaximumCount());
+                dehy.setHeapBudget(_ode._config.getDehydrationHeapBudget());
+                _ode._server.setDehydrationPolicy(dehy);
+            } else {
+                CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
+                dehy.setProcessMaxAge(_ode._config.getDehydrationMaximumAge());
+                dehy.setProcessMaxCount(_ode._config.getDehydrationMaximumCount());
+                _ode._server.setDehydrationPolicy(dehy);
+            }
+        }
     _ode._server.setConfigProperties(_ode._config.getProperties());
 
         _ode._server.init();
+        _ode._server.setInstanceStateCacheMaximumSize(_ode._config.getInstanceStateCacheMaximumSize());
+        _ode._server.setRouteCacheMaximumSize(_ode._config.getRouteCacheMaximumSize());
+        _ode._server.setMessageQueueTtl(_ode._config.getMessageQueueTtl());
+        _ode._server.setVariableCacheMaximumSize(_ode._config.getVariableCacheMaximumSize());
+        _ode._server.setXmlStorageFormat(_ode._config.getXmlStorageFormat());
+        _ode._server.setXslCacheMaximumSize(_ode._config.getXslCacheMaximumSize());
+        _ode._server.setPrecompileExpressions(_ode._config.isHydrationPrecompile());
+        _ode._server.setInstanceLockStriped(_ode._config.isInstanceLockStriped());
     }
 
     private void registerExternalVariableModules() {
@@ -344,9 +383,22 @@ public class OdeLifeCycle implements ComponentLifeCycle {
     private void registerEventListeners() {
         String listenersStr = _ode._config.getEventListeners();
         if (listenersStr != null) {
+            List<String> syncListeners = new ArrayList<String>();
+            if (_ode._config.getSyncEventListeners() != null)
+                syncListeners.addAll(Arrays.asList(_ode._config.getSyncEventListeners().split("\\s*(,|;)\\s*")));
             for (String listenerCN : listenersStr.split("\\s*(,|;)\\s*")) {
                 try {
-                    _ode._server.registerBpelEventListener((BpelEventListener) Class.forName(listenerCN).newInstance());
+                    BpelEventListener listener = (BpelEventListener) Class.forName(listenerCN).newInstance();
+                    if (_ode._config.isEventListenersAsync() && !syncListeners.contains(listenerCN)) {
+                        AsyncBpelEventListener async = new AsyncBpelEventListener(listener,
+                                _ode._config.getEventListenersAsyncCapacity(),
+                                AsyncBpelEventListener.Overflow.valueOf(_ode._config.getEventListenersAsyncPolicy().toUpperCase()),
+                                _ode._config.getEventListenersAsyncBatch());
+                        if (_ode.getContext().getWorkspaceRoot() != null)
+                            async.setSpillDirectory(new File(_ode.getContext().getWorkspaceRoot()));
+                        listener = async;
+                    }
+                    _ode._server.registerBpelEventListener(listener);
                     __log.info(__msgs.msgBpelEventListenerRegistered(listenerCN));
                 } catch (Exception e) {
                     __log.warn("Couldn't register the event listener " + listenerCN + ", the class couldn't be "
@@ -492,6 +544,15 @@ public class OdeLifeCycle implements ComponentLifeCycle {
 
             }
 
+            if (_ode._executorService != null) {
+                _ode._executorService.shutdownNow();
+                _ode._executorService = null;
+            }
+            if (_ode._txExecutorService != null) {
+                _ode._txExecutorService.shutdownNow();
+                _ode._txExecutorService = null;
+            }
+
             try {
                 _db.shutdown();
             } catch (Exception ex) {
@@ -25,6 +25,10 @@ import org.apache.ode.bpel.clapi.ClusterManager;
 import org.apache.ode.bpel.clapi.ClusterMemberListener;
 import org.apache.ode.bpel.iapi.ContextException;
 import org.apache.ode.bpel.iapi.Scheduler;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 
 import javax.transaction.*;
 import java.text.DateFormat;
@@ -56,6 +60,17 @@ import java.util.concurrent.atomic.AtomicLong;
 public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberListener {
     private static final Logger __log = LoggerFactory.getLogger(SimpleScheduler.class);
 
+    private static final Timer __jobTimer = MetricsRegistry.getDefault().timer("ode_scheduler_job_duration_seconds",
+            "Time spent running jobs, including their transaction.");
+    private static final Timer __jobDelay = MetricsRegistry.getDefault().timer("ode_scheduler_job_delay_seconds",
+            "Time between the scheduled date of jobs and their dispatch.");
+    private static final Counter __jobFailures = MetricsRegistry.getDefault().counter("ode_scheduler_job_failures_total",
+            "Jobs whose transaction failed, not counting the retries of jobs whose instance was busy.");
+    private static final Counter __jobRetries = MetricsRegistry.getDefault().counter("ode_scheduler_job_retries_total",
+            "Jobs rolled back to be retried because their instance was busy.");
+    private static final Counter __batchedJobs = MetricsRegistry.getDefault().counter("ode_scheduler_batched_jobs_total",
+            "Jobs run in a batch with other jobs of the same instance.");
+
     private static final int DEFAULT_TRANSACTION_TIMEOUT = 60 * 1000;
 
     /**
@@ -87,6 +102,12 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
 
     ExecutorService _exec;
 
+    /**
+     * Bounded executor for the database transactions (jobs and isolated transactions), used when {@link #_exec} is
+     * not suited for it, e.g. when it starts a virtual thread per task. Defaults to {@link #_exec}.
+     */
+    ExecutorService _txExec;
+
     String _nodeId;
 
     /** Maximum number of jobs in the "near future" / todo queue. */
@@ -118,6 +139,13 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         Used to avoid cases where a job would be dispatched twice if the server is under high load and
         does not fully process a job before it is reloaded from the database. */
     private ConcurrentHashMap<String, Long> _outstandingJobs = new ConcurrentHashMap<String, Long>();
+
+    /** Samples the outstanding jobs while the scheduler is running. */
+    private final Gauge.Value _outstandingJobsGauge = new Gauge.Value() {
+        public long get() {
+            return _outstandingJobs.size();
+        }
+    };
     /** Set of Jobs processed since the last LoadImmediate task.
         This prevents a race condition where a job is processed twice. This could happen if a LoadImediate tasks loads a job
         from the db before the job is processed but puts it in the _outstandingJobs map after the job was processed .
@@ -139,6 +167,16 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     /** Interval between immediate retries when the transaction fails **/
     private long _immediateTransactionRetryInterval = 1000;
 
+    /**
+     * Maximum number of jobs of the same instance that are run in a single transaction. When greater than 1, ready
+     * jobs are posted to a mailbox per instance that a single worker drains, so a burst of messages or timers for an
+     * instance costs one lock/hydrate/persist cycle and one commit instead of one per job.
+     */
+    private int _instanceMailboxBatchSize = 1;
+
+    /** Mailboxes of the instances that currently have jobs queued or running. Guarded by itself. */
+    private final HashMap<Long, InstanceMailbox> _mailboxes = new HashMap<Long, InstanceMailbox>();
+
     private DateFormat debugDateFormatter = new SimpleDateFormat("HH:mm:ss,SSS");
 
     public SimpleScheduler(String nodeId, DatabaseDelegate del, Properties conf) {
@@ -158,6 +196,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
 
         _immediateTransactionRetryLimit = getIntProperty(conf, "ode.scheduler.immediateTransactionRetryLimit", _immediateTransactionRetryLimit);
         _immediateTransactionRetryInterval = getLongProperty(conf, "ode.scheduler.immediateTransactionRetryInterval", _immediateTransactionRetryInterval);
+        _instanceMailboxBatchSize = getIntProperty(conf, "ode.scheduler.instanceMailboxBatchSize", _instanceMailboxBatchSize);
 
         _todo = new SchedulerThread(this);
     }
@@ -178,6 +217,10 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         else return defaultValue;
     }
 
+    public void setInstanceMailboxBatchSize(int instanceMailboxBatchSize) {
+        _instanceMailboxBatchSize = instanceMailboxBatchSize;
+    }
+
     public void setNodeId(String nodeId) {
         _nodeId = nodeId;
     }
@@ -214,6 +257,14 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _exec = executorService;
     }
 
+    public void setTransactionExecutorService(ExecutorService txExecutorService) {
+        _txExec = txExecutorService;
+    }
+
+    private ExecutorService txExec() {
+        return _txExec != null ? _txExec : _exec;
+    }
+
     public void setPolledRunnableProcesser(JobProcessor polledRunnableProcessor) {
         _polledRunnableProcessor = polledRunnableProcessor;
     }
@@ -230,7 +281,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     }
 
     public <T> Future<T> execIsolatedTransaction(final Callable<T> transaction) throws Exception, ContextException {
-        return _exec.submit(new Callable<T>() {
+        return txExec().submit(new Callable<T>() {
             public T call() throws Exception {
                 try {
                     return execTransaction(transaction);
@@ -467,6 +518,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _todo.clearTasks(CheckStaleNodes.class);
         _processedSinceLastLoadTask.clear();
         _outstandingJobs.clear();
+        MetricsRegistry.getDefault().remove("ode_scheduler_outstanding_jobs", _outstandingJobsGauge);
 
         _knownNodes.clear();
         _staleNodes.clear();
@@ -486,6 +538,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         }
 
         _todo.start();
+        MetricsRegistry.getDefault().gauge("ode_scheduler_outstanding_jobs", "Jobs queued or being run.", _outstandingJobsGauge);
         _running = true;
     }
 
@@ -503,6 +556,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _todo.clearTasks(CheckStaleNodes.class);
         _processedSinceLastLoadTask.clear();
         _outstandingJobs.clear();
+        MetricsRegistry.getDefault().remove("ode_scheduler_outstanding_jobs", _outstandingJobsGauge);
 
         // disable because this is not the right way to do it
         // will be fixed by ODE-595
@@ -562,6 +616,8 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         }
 
         public Void call() throws Exception {
+            recordDelay(job);
+            long start = __jobTimer.start();
             try {
                 final Scheduler.JobInfo jobInfo = new Scheduler.JobInfo(job.jobId, job.detail,
                         job.detail.getRetryCount());
@@ -601,6 +657,8 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                         // it the synchronization is a best-effort but not perfect.
                         __log.debug("job no longer in db forced rollback: "+job);
                     } catch (final Exception ex) {
+                        if (isBusy(ex)) __jobRetries.inc();
+                        else __jobFailures.inc();
                         __log.error("Error while processing a "+(job.persisted?"":"non-")+"persisted job"+(needRetry[0] && job.persisted?": ":", no retry: ")+job, ex);
 
                         // We only get here if the above execTransaction fails, so that transaction got
@@ -633,6 +691,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                 }
                 return null;
             } finally {
+                __jobTimer.stop(start);
                 // the order of these 2 actions is crucial to avoid a race condition.
                 _processedSinceLastLoadTask.put(job.jobId, job.schedDate);
                 _outstandingJobs.remove(job.jobId);
@@ -640,13 +699,136 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         }
     }
 
+    /**
+     * @return true if the job got rolled back to be retried later, without an error, e.g. on an instance lock timeout
+     */
+    private static boolean isBusy(Exception ex) {
+        return ex instanceof JobProcessorException && ((JobProcessorException) ex).retry && ex.getCause() == null;
+    }
+
+    private static void recordDelay(Job job) {
+        long delay = System.currentTimeMillis() - job.schedDate;
+        __jobDelay.record(TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0)));
+    }
+
     /**
      * Run a job in the current thread.
      *
      * @param job job to run.
      */
     protected void runJob(final Job job) {
-        _exec.submit(new RunJob(job, _jobProcessor));
+        Long iid = job.detail.getInstanceId();
+        if (_instanceMailboxBatchSize > 1 && iid != null && job.transacted) {
+            postToMailbox(iid, job);
+        } else {
+            txExec().submit(new RunJob(job, _jobProcessor));
+        }
+    }
+
+    private void postToMailbox(Long iid, Job job) {
+        InstanceMailbox mailbox;
+        boolean created = false;
+        synchronized (_mailboxes) {
+            mailbox = _mailboxes.get(iid);
+            if (mailbox == null) {
+                mailbox = new InstanceMailbox(iid);
+                _mailboxes.put(iid, mailbox);
+                created = true;
+            }
+            mailbox.jobs.add(job);
+        }
+        // Jobs posted to an existing mailbox are picked up by the worker already draining it
+        if (created) txExec().submit(new RunMailbox(mailbox, _jobProcessor));
+    }
+
+    /**
+     * Jobs of one instance waiting to be run.
+     */
+    static class InstanceMailbox {
+        final Long iid;
+        final LinkedList<Job> jobs = new LinkedList<Job>();
+
+        InstanceMailbox(Long iid) {
+            this.iid = iid;
+        }
+    }
+
+    /**
+     * Drains the mailbox of an instance, running up to {@link #_instanceMailboxBatchSize} of its jobs in one
+     * transaction. If the batch fails, its jobs are run again one by one to get the regular retry behavior for
+     * each of them.
+     */
+    class RunMailbox implements Callable<Void> {
+        final InstanceMailbox mailbox;
+        final JobProcessor processor;
+
+        RunMailbox(InstanceMailbox mailbox, JobProcessor processor) {
+            this.mailbox = mailbox;
+            this.processor = processor;
+        }
+
+        public Void call() throws Exception {
+            final List<Job> batch = new ArrayList<Job>();
+            synchronized (_mailboxes) {
+                while (batch.size() < _instanceMailboxBatchSize && !mailbox.jobs.isEmpty())
+                    batch.add(mailbox.jobs.removeFirst());
+                if (batch.isEmpty()) {
+                    _mailboxes.remove(mailbox.iid);
+                    return null;
+                }
+            }
+
+            try {
+                if (batch.size() == 1) {
+                    new RunJob(batch.get(0), processor).call();
+                } else {
+                    runBatch(batch);
+                }
+            } finally {
+                // Give other instances a chance, the jobs posted meanwhile are run by a new task
+                txExec().submit(this);
+            }
+            return null;
+        }
+
+        private void runBatch(final List<Job> batch) throws Exception {
+            if (__log.isDebugEnabled())
+                __log.debug("Running " + batch.size() + " jobs of instance " + mailbox.iid + " in one transaction");
+            long start = __jobTimer.start();
+            try {
+                execTransaction(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (Job job : batch) {
+                            if (job.persisted && !_db.deleteJob(job.jobId, _nodeId)) {
+                                // Another node got it, same as JobNoLongerInDbException for a single job
+                                __log.debug("job no longer in db, skipped: " + job);
+                                continue;
+                            }
+                            processor.onScheduledJob(new Scheduler.JobInfo(job.jobId, job.detail,
+                                    job.detail.getRetryCount()));
+                        }
+                        return null;
+                    }
+                });
+            } catch (Exception ex) {
+                __jobTimer.stop(start);
+                if (__log.isDebugEnabled())
+                    __log.debug("Batch of " + batch.size() + " jobs of instance " + mailbox.iid + " failed, running them one by one", ex);
+                // each RunJob records its own delay and duration
+                for (Job job : batch) {
+                    new RunJob(job, processor).call();
+                }
+                return;
+            }
+            __jobTimer.stop(start);
+            __batchedJobs.add(batch.size());
+            for (Job job : batch) {
+                recordDelay(job);
+                // the order of these 2 actions is crucial to avoid a race condition.
+                _processedSinceLastLoadTask.put(job.jobId, job.schedDate);
+                _outstandingJobs.remove(job.jobId);
+            }
+        }
     }
 
      /**
@@ -711,7 +893,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                 runJob(job);
             }
         } else if (task instanceof SchedulerTask) {
-            _exec.submit(new Callable<Void>() {
+            txExec().submit(new Callable<Void>() {
                 public Void call() throws Exception {
                     try {
                         ((SchedulerTask) task).run();
@@ -33,10 +33,14 @@ import javax.transaction.RollbackException;
 import javax.transaction.Status;
 import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
+import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 public class SimpleSchedulerTest extends Assert implements JobProcessor {
@@ -45,7 +49,11 @@ public class SimpleSchedulerTest extends Assert implements JobProcessor {
     SimpleScheduler _scheduler;
     ArrayList<JobInfo> _jobs;
     ArrayList<JobInfo> _commit;
+    /** Transaction each job of {@link #_jobs} ran in. */
+    ArrayList<Transaction> _jobTxs;
     TransactionManager _txm;
+    /** Time each job takes to run, in milliseconds. */
+    volatile long _jobDuration;
     
     @Before
     public void setUp() throws Exception {
@@ -55,6 +63,7 @@ public class SimpleSchedulerTest extends Assert implements JobProcessor {
         _scheduler = newScheduler("n1");
         _jobs = new ArrayList<JobInfo>(100);
         _commit = new ArrayList<JobInfo>(100);
+        _jobTxs = new ArrayList<Transaction>(100);
     }
     
     @After
@@ -104,6 +113,40 @@ public class SimpleSchedulerTest extends Assert implements JobProcessor {
         assertEquals(1, _jobs.size());
     }
     
+    @Test
+    public void testInstanceMailbox() throws Exception {
+        _scheduler.setInstanceMailboxBatchSize(4);
+        // slow jobs, so that the jobs of an instance pile up in its mailbox while the first one runs
+        _jobDuration = 50;
+        _scheduler.start();
+        _txm.begin();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                Scheduler.JobDetails jd = newDetail("123");
+                jd.setInstanceId(i % 2 == 0 ? 1L : 2L);
+                _scheduler.schedulePersistedJob(jd, new Date());
+            }
+        } finally {
+            _txm.commit();
+        }
+        for (long deadline = System.currentTimeMillis() + 10000; _commit.size() < 10 && System.currentTimeMillis() < deadline;)
+            Thread.sleep(20);
+
+        assertEquals(10, _jobs.size());
+        assertEquals(10, _commit.size());
+
+        // jobs of the same instance shared transactions, never more of them than the batch size
+        Map<Transaction, Integer> batches = new HashMap<Transaction, Integer>();
+        synchronized (_jobs) {
+            for (int i = 0; i < _jobs.size(); ++i) {
+                Integer count = batches.get(_jobTxs.get(i));
+                batches.put(_jobTxs.get(i), count == null ? 1 : count + 1);
+            }
+        }
+        assertTrue("no job was batched", batches.size() < 10);
+        assertTrue("batch too large", Collections.max(batches.values()) <= 4);
+    }
+
     @Test
     public void testStartStop() throws Exception {
         _scheduler.start();
@@ -221,11 +264,13 @@ public class SimpleSchedulerTest extends Assert implements JobProcessor {
     }
 
     public void onScheduledJob(final JobInfo jobInfo) throws JobProcessorException {
-        synchronized (_jobs) {
-            _jobs.add(jobInfo);
-        }
-
         try {
+            synchronized (_jobs) {
+                _jobs.add(jobInfo);
+                _jobTxs.add(_txm.getTransaction());
+            }
+            if (_jobDuration > 0) Thread.sleep(_jobDuration);
+
             _txm.getTransaction().registerSynchronization(new Synchronization() {
 
                 public void afterCompletion(int arg0) {
@@ -248,6 +293,8 @@ public class SimpleSchedulerTest extends Assert implements JobProcessor {
         } catch (SystemException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            throw new JobProcessorException(e, true);
         }
 
     }
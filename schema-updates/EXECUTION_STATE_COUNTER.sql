@@ -0,0 +1,45 @@
+# Run before starting the upgraded server. Rows written before keep an empty counter until their next write,
+# their execution state is read from the database until then.
+# USE THE SCRIPT FOR THE RELEVANT DAO AND DATABASE
+
+
+#OpenJPA Derby Script
+ALTER TABLE ODE_PROCESS_INSTANCE ADD COLUMN EXECUTION_STATE_COUNTER INTEGER;
+
+#Hibernate Derby Script
+ALTER TABLE BPEL_INSTANCE ADD COLUMN JACOB_STATE_COUNTER INTEGER;
+
+
+#OpenJPA H2 Script
+ALTER TABLE ODE_PROCESS_INSTANCE ADD COLUMN EXECUTION_STATE_COUNTER INTEGER;
+
+#Hibernate H2 Script
+ALTER TABLE BPEL_INSTANCE ADD COLUMN JACOB_STATE_COUNTER INTEGER;
+
+
+#OpenJPA MySQL Script
+ALTER TABLE ODE_PROCESS_INSTANCE ADD COLUMN EXECUTION_STATE_COUNTER INTEGER;
+
+#Hibernate MySQL Script
+ALTER TABLE BPEL_INSTANCE ADD COLUMN JACOB_STATE_COUNTER INTEGER;
+
+
+#OpenJPA Oracle Script
+ALTER TABLE ODE_PROCESS_INSTANCE ADD (EXECUTION_STATE_COUNTER NUMBER);
+
+#Hibernate Oracle Script
+ALTER TABLE BPEL_INSTANCE ADD (JACOB_STATE_COUNTER NUMBER);
+
+
+#OpenJPA Postgres Script
+ALTER TABLE ODE_PROCESS_INSTANCE ADD COLUMN EXECUTION_STATE_COUNTER INTEGER;
+
+#Hibernate Postgres Script
+ALTER TABLE BPEL_INSTANCE ADD COLUMN JACOB_STATE_COUNTER INTEGER;
+
+
+#OpenJPA SQLServer Script
+ALTER TABLE ODE_PROCESS_INSTANCE ADD EXECUTION_STATE_COUNTER INT;
+
+#Hibernate SQLServer Script
+ALTER TABLE BPEL_INSTANCE ADD JACOB_STATE_COUNTER INT;
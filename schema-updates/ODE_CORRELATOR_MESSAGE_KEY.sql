@@ -0,0 +1,33 @@
+# OpenJPA only, run before starting the upgraded server on a database at schema version 8.
+# The server fills the table with the keys of the queued messages when it migrates the database.
+# USE THE SCRIPT FOR THE RELEVANT DATABASE
+
+
+#Derby and H2 Script
+CREATE TABLE ODE_CORRELATOR_MESSAGE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), CREATE_TIME TIMESTAMP, MEX_ID VARCHAR(255), CORR_ID BIGINT, PRIMARY KEY (ID));
+CREATE INDEX IDX_CORR_MSG_KEY_CORR_KEY ON ODE_CORRELATOR_MESSAGE_KEY (CORR_ID, CORRELATION_KEY);
+CREATE INDEX IDX_CORR_MSG_KEY_CREATE_TIME ON ODE_CORRELATOR_MESSAGE_KEY (CREATE_TIME);
+
+
+#MySQL Script
+CREATE TABLE ODE_CORRELATOR_MESSAGE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), CREATE_TIME DATETIME, MEX_ID VARCHAR(255), CORR_ID BIGINT, PRIMARY KEY (ID)) ENGINE=INNODB;
+CREATE INDEX IDX_CORR_MSG_KEY_CORR_KEY ON ODE_CORRELATOR_MESSAGE_KEY (CORR_ID, CORRELATION_KEY);
+CREATE INDEX IDX_CORR_MSG_KEY_CREATE_TIME ON ODE_CORRELATOR_MESSAGE_KEY (CREATE_TIME);
+
+
+#Oracle Script
+CREATE TABLE ODE_CORRELATOR_MESSAGE_KEY (ID NUMBER NOT NULL, CORRELATION_KEY VARCHAR2(255), CREATE_TIME TIMESTAMP, MEX_ID VARCHAR2(255), CORR_ID NUMBER, PRIMARY KEY (ID));
+CREATE INDEX IDX_CORR_MSG_KEY_CORR_KEY ON ODE_CORRELATOR_MESSAGE_KEY (CORR_ID, CORRELATION_KEY);
+CREATE INDEX IDX_CORR_MSG_KEY_CREATE_TIME ON ODE_CORRELATOR_MESSAGE_KEY (CREATE_TIME);
+
+
+#Postgres Script
+CREATE TABLE ODE_CORRELATOR_MESSAGE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), CREATE_TIME TIMESTAMP, MEX_ID VARCHAR(255), CORR_ID BIGINT, PRIMARY KEY (ID));
+CREATE INDEX IDX_CORR_MSG_KEY_CORR_KEY ON ODE_CORRELATOR_MESSAGE_KEY (CORR_ID, CORRELATION_KEY);
+CREATE INDEX IDX_CORR_MSG_KEY_CREATE_TIME ON ODE_CORRELATOR_MESSAGE_KEY (CREATE_TIME);
+
+
+#SQLServer Script
+CREATE TABLE ODE_CORRELATOR_MESSAGE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), CREATE_TIME DATETIME, MEX_ID VARCHAR(255), CORR_ID BIGINT, PRIMARY KEY (ID));
+CREATE INDEX IDX_CORR_MSG_KEY_CORR_KEY ON ODE_CORRELATOR_MESSAGE_KEY (CORR_ID, CORRELATION_KEY);
+CREATE INDEX IDX_CORR_MSG_KEY_CREATE_TIME ON ODE_CORRELATOR_MESSAGE_KEY (CREATE_TIME);
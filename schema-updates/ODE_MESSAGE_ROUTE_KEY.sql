@@ -0,0 +1,28 @@
+# OpenJPA only, run before starting the upgraded server on a database at schema version 7.
+# The server fills the table with the keys of the existing routes when it migrates the database.
+# USE THE SCRIPT FOR THE RELEVANT DATABASE
+
+
+#Derby and H2 Script
+CREATE TABLE ODE_MESSAGE_ROUTE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), KEY_COUNT INTEGER, CORR_ID BIGINT, MESSAGE_ROUTE_ID BIGINT, PRIMARY KEY (ID));
+CREATE INDEX IDX_MSG_ROUTE_KEY_CORR_KEY ON ODE_MESSAGE_ROUTE_KEY (CORR_ID, CORRELATION_KEY);
+
+
+#MySQL Script
+CREATE TABLE ODE_MESSAGE_ROUTE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), KEY_COUNT INTEGER, CORR_ID BIGINT, MESSAGE_ROUTE_ID BIGINT, PRIMARY KEY (ID)) ENGINE=INNODB;
+CREATE INDEX IDX_MSG_ROUTE_KEY_CORR_KEY ON ODE_MESSAGE_ROUTE_KEY (CORR_ID, CORRELATION_KEY);
+
+
+#Oracle Script
+CREATE TABLE ODE_MESSAGE_ROUTE_KEY (ID NUMBER NOT NULL, CORRELATION_KEY VARCHAR2(255), KEY_COUNT NUMBER, CORR_ID NUMBER, MESSAGE_ROUTE_ID NUMBER, PRIMARY KEY (ID));
+CREATE INDEX IDX_MSG_ROUTE_KEY_CORR_KEY ON ODE_MESSAGE_ROUTE_KEY (CORR_ID, CORRELATION_KEY);
+
+
+#Postgres Script
+CREATE TABLE ODE_MESSAGE_ROUTE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), KEY_COUNT INTEGER, CORR_ID BIGINT, MESSAGE_ROUTE_ID BIGINT, PRIMARY KEY (ID));
+CREATE INDEX IDX_MSG_ROUTE_KEY_CORR_KEY ON ODE_MESSAGE_ROUTE_KEY (CORR_ID, CORRELATION_KEY);
+
+
+#SQLServer Script
+CREATE TABLE ODE_MESSAGE_ROUTE_KEY (ID BIGINT NOT NULL, CORRELATION_KEY VARCHAR(255), KEY_COUNT INT, CORR_ID BIGINT, MESSAGE_ROUTE_ID BIGINT, PRIMARY KEY (ID));
+CREATE INDEX IDX_MSG_ROUTE_KEY_CORR_KEY ON ODE_MESSAGE_ROUTE_KEY (CORR_ID, CORRELATION_KEY);
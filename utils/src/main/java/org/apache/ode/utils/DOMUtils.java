@@ -82,6 +82,9 @@ public class DOMUtils {
     /** The namespaceURI represented by the prefix <code>xmlns</code>. */
     public static final String NS_URI_XMLNS = "http://www.w3.org/2000/xmlns/";
 
+    /** User data key of the variable values shared by several variables. */
+    private static final String SHARED_VALUE = "org.apache.ode.sharedValue";
+
     private static ThreadLocal<Transformer> __txers = new ThreadLocal();
     private static ThreadLocal<DocumentBuilder> __builders = new ThreadLocal();
     private static TransformerFactory _transformerFactory = TransformerFactory.newInstance();
@@ -613,6 +616,77 @@ public class DOMUtils {
         return db.newDocument();
     }
 
+    /**
+     * Marks a variable value as held by several variables. A shared value must not be changed in place, a
+     * variable about to change it works on a copy, see {@link #copyIfShared(Node)}.
+     * @param value document element of the value
+     */
+    public static void markShared(Element value) {
+        value.setUserData(SHARED_VALUE, Boolean.TRUE, null);
+    }
+
+    /**
+     * @return whether the given variable value is shared with other variables
+     */
+    public static boolean isShared(Node value) {
+        return value != null && value.getUserData(SHARED_VALUE) != null;
+    }
+
+    /**
+     * Copy-on-write access to a variable value.
+     * @return a copy of the given value in a new document if the value is shared, the value itself otherwise
+     */
+    public static Node copyIfShared(Node value) {
+        if (!isShared(value)) return value;
+        Document doc = newDocument();
+        Node copy = doc.importNode(value, true);
+        doc.appendChild(copy);
+        return copy;
+    }
+
+    /**
+     * 64-bit hash of the content of a node: the names, values and attributes of the node and of its descendants,
+     * the attributes in any order. Nodes equal in the sense of {@link Node#isEqualNode(Node)} have the same hash.
+     * Walking the tree is much cheaper than serializing it, so this tells whether a value changed without
+     * serializing it.
+     */
+    public static long contentHash(Node node) {
+        long h = hash(FNV_OFFSET, node.getNodeType());
+        h = hash(h, node.getNamespaceURI());
+        h = hash(h, node.getNodeName());
+        h = hash(h, node.getNodeValue());
+        NamedNodeMap attrs = node.getAttributes();
+        if (attrs != null) {
+            long attrsHash = 0;
+            for (int i = 0; i < attrs.getLength(); i++) attrsHash += spread(contentHash(attrs.item(i)));
+            h = hash(h, attrsHash);
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+            h = hash(h, contentHash(child));
+        return h;
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long hash(long h, long value) {
+        for (int i = 0; i < 8; i++, value >>>= 8) h = (h ^ (value & 0xff)) * FNV_PRIME;
+        return h;
+    }
+
+    private static long hash(long h, String value) {
+        if (value == null) return hash(h, -1L);
+        for (int i = 0; i < value.length(); i++) h = (h ^ value.charAt(i)) * FNV_PRIME;
+        return hash(h, value.length());
+    }
+
+    /** Mixes all the bits of a hash, so that the sum of several hashes stays well distributed. */
+    private static long spread(long h) {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
     /**
      * Parse an XML stream using the pooled document builder.
      * @param inputStream input stream
@@ -216,6 +216,11 @@ public class NSContext implements NamespaceContext, Externalizable {
         return Collections.unmodifiableMap(_prefixToUriMap);
     }
 
+    @Override
+    public int hashCode() {
+        return _prefixToUriMap.hashCode();
+    }
+
     @Override
     public boolean equals(Object b) {
         if (b instanceof NSContext) {
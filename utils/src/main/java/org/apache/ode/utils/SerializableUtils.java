@@ -20,6 +20,9 @@
 package org.apache.ode.utils;
 
 import java.io.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Utitlity methods for <code>Serializable</code> objects.
@@ -77,6 +80,36 @@ public class SerializableUtils {
     return bos.toByteArray();
   }
 
+  /**
+   * Serialize an object in a compressed form, for objects that are stored in bulk. The result is
+   * a GZIP stream, which {@link #toObject(byte[], ClassLoader)} tells apart from a plain
+   * serialization stream by its header.
+   */
+  public static byte[] toCompactBytes(Object obj) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(StreamUtils.DEFAULT_BUFFER_SIZE);
+    try {
+      GZIPOutputStream gzos = new GZIPOutputStream(bos) {
+        {
+          def.setLevel(Deflater.BEST_SPEED);
+        }
+      };
+      ObjectOutputStream oos = new ObjectOutputStream(gzos);
+      oos.writeObject(obj);
+      oos.close();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Error serializing object: " + obj.getClass() + ".", e);
+    }
+    return bos.toByteArray();
+  }
+
+  /**
+   * @return whether the bytes were produced by {@link #toCompactBytes(Object)}
+   */
+  public static boolean isCompact(byte[] arr) {
+    return arr != null && arr.length > 2 && (arr[0] & 0xff) == 0x1f && (arr[1] & 0xff) == 0x8b;
+  }
+
   public static Object toObject(InputStream binaryStream, final ClassLoader cl) {
     try {
       ObjectInputStream ois = new ObjectInputStream(binaryStream) {
@@ -97,8 +130,19 @@ public class SerializableUtils {
     }
   }
 
+  /**
+   * Deserialize an object written by {@link #toBytes(Object)} or {@link #toCompactBytes(Object)}.
+   */
   public static Object toObject(byte[] arr, final ClassLoader cl) {
-    ByteArrayInputStream bis = new ByteArrayInputStream(arr);
+    InputStream bis = new ByteArrayInputStream(arr);
+    if (isCompact(arr)) {
+      try {
+        bis = new GZIPInputStream(bis);
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
     return toObject(bis, cl);
   }
 
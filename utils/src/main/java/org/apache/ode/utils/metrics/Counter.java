@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonically increasing count.
+ */
+public class Counter extends Metric {
+    private final AtomicLong _count = new AtomicLong();
+
+    Counter(String name, String help) {
+        super(name, help);
+    }
+
+    public void inc() {
+        _count.incrementAndGet();
+    }
+
+    public void add(long n) {
+        _count.addAndGet(n);
+    }
+
+    public long get() {
+        return _count.get();
+    }
+
+    void snapshot(Map<String, Number> values) {
+        values.put(getName(), get());
+    }
+
+    void writeText(Writer w) throws IOException {
+        writeHeader(w, "counter");
+        w.write(getName() + " " + get() + "\n");
+    }
+}
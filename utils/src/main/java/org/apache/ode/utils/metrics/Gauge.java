@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Value sampled when the metrics are read, e.g. the size of a queue.
+ */
+public class Gauge extends Metric {
+
+    /**
+     * Source of the value of a gauge.
+     */
+    public interface Value {
+        long get();
+    }
+
+    private volatile Value _value;
+
+    Gauge(String name, String help, Value value) {
+        super(name, help);
+        _value = value;
+    }
+
+    /**
+     * Rebind the gauge, e.g. when the component it samples got restarted.
+     */
+    public void setValue(Value value) {
+        _value = value;
+    }
+
+    boolean isBoundTo(Value value) {
+        return _value == value;
+    }
+
+    public long get() {
+        return _value.get();
+    }
+
+    void snapshot(Map<String, Number> values) {
+        values.put(getName(), get());
+    }
+
+    void writeText(Writer w) throws IOException {
+        writeHeader(w, "gauge");
+        w.write(getName() + " " + get() + "\n");
+    }
+}
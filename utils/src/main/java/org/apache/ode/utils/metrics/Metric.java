@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * A named metric of the {@link MetricsRegistry}.
+ */
+public abstract class Metric {
+    private final String _name;
+    private final String _help;
+
+    protected Metric(String name, String help) {
+        _name = name;
+        _help = help;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public String getHelp() {
+        return _help;
+    }
+
+    /**
+     * Add the current values of this metric to a flat name/value map, as exposed through JMX.
+     */
+    abstract void snapshot(Map<String, Number> values);
+
+    /**
+     * Write this metric in the Prometheus text exposition format.
+     */
+    abstract void writeText(Writer w) throws IOException;
+
+    void writeHeader(Writer w, String type) throws IOException {
+        w.write("# HELP " + _name + " " + _help + "\n");
+        w.write("# TYPE " + _name + " " + type + "\n");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of the engine-wide metrics. Components get their metrics once, typically in a static field, and update
+ * them without any locking; the registry is only traversed when the metrics are read through JMX or scraped.
+ *
+ * <p>
+ * Metric names follow the Prometheus conventions (<code>ode_</code> prefix, <code>_total</code> suffix for counters,
+ * base unit seconds for timers).
+ * </p>
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry __default = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Metric> _metrics = new ConcurrentHashMap<String, Metric>();
+
+    /** Incremented whenever a metric is added or removed. */
+    private final AtomicInteger _version = new AtomicInteger();
+
+    /**
+     * @return the registry shared by all the components of the server
+     */
+    public static MetricsRegistry getDefault() {
+        return __default;
+    }
+
+    public Counter counter(String name, String help) {
+        return register(new Counter(name, help), Counter.class);
+    }
+
+    public Timer timer(String name, String help) {
+        return register(new Timer(name, help), Timer.class);
+    }
+
+    /**
+     * Register a gauge, or rebind the existing one with that name to the given value.
+     */
+    public Gauge gauge(String name, String help, Gauge.Value value) {
+        Gauge gauge = register(new Gauge(name, help, value), Gauge.class);
+        gauge.setValue(value);
+        return gauge;
+    }
+
+    private <T extends Metric> T register(T metric, Class<T> type) {
+        Metric existing = _metrics.putIfAbsent(metric.getName(), metric);
+        if (existing == null) {
+            _version.incrementAndGet();
+            return metric;
+        }
+        if (!type.isInstance(existing))
+            throw new IllegalArgumentException("Metric " + metric.getName() + " is already registered as a "
+                    + existing.getClass().getSimpleName());
+        return type.cast(existing);
+    }
+
+    public Metric get(String name) {
+        return _metrics.get(name);
+    }
+
+    public void remove(String name) {
+        if (_metrics.remove(name) != null) _version.incrementAndGet();
+    }
+
+    /**
+     * Remove a gauge if it is still bound to the given value, i.e. if its component wasn't replaced meanwhile.
+     */
+    public void remove(String name, Gauge.Value value) {
+        Metric metric = _metrics.get(name);
+        if (metric instanceof Gauge && ((Gauge) metric).isBoundTo(value) && _metrics.remove(name, metric))
+            _version.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever the set of registered metrics changes
+     */
+    public int getVersion() {
+        return _version.get();
+    }
+
+    /**
+     * @return the current values of all the metrics, keyed by name (timers are flattened in several values)
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<String, Number>();
+        for (Metric metric : _metrics.values())
+            metric.snapshot(values);
+        return values;
+    }
+
+    /**
+     * @return the current value of one of the {@link #snapshot()} entries, only reading the metric it belongs to,
+     * or null if there's no such entry
+     */
+    public Number value(String name) {
+        Metric metric = _metrics.get(name);
+        // timers are flattened as name_count, name_max_ms..., look for the longest registered prefix
+        for (int i = name.lastIndexOf('_'); metric == null && i > 0; i = name.lastIndexOf('_', i - 1))
+            metric = _metrics.get(name.substring(0, i));
+        if (metric == null) return null;
+        Map<String, Number> values = new HashMap<String, Number>();
+        metric.snapshot(values);
+        return values.get(name);
+    }
+
+    /**
+     * Write all the metrics in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writeText(Writer w) throws IOException {
+        for (Metric metric : new TreeMap<String, Metric>(_metrics).values())
+            metric.writeText(w);
+        w.flush();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram. Durations are counted in log-linear buckets at microsecond resolution: each power of two is
+ * split in four sub-buckets, so percentiles are accurate to about 25% over the whole range while recording is a
+ * handful of lock-free increments.
+ */
+public class Timer extends Metric {
+    /** Sub-buckets per power of two, as a number of bits. */
+    private static final int SUB_BITS = 2;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /** Enough buckets for durations up to 2^40 microseconds, longer ones end up in the last bucket. */
+    static final int BUCKETS = SUB_COUNT + (40 - SUB_BITS) * SUB_COUNT;
+
+    static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _totalNanos = new AtomicLong();
+    private final AtomicLong _maxNanos = new AtomicLong();
+
+    Timer(String name, String help) {
+        super(name, help);
+    }
+
+    /**
+     * @return a start time to be passed to {@link #stop(long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time elapsed since <code>start</code>.
+     */
+    public void stop(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        _buckets.incrementAndGet(bucket(nanos / 1000));
+        _count.incrementAndGet();
+        _totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = _maxNanos.get()) && !_maxNanos.compareAndSet(max, nanos));
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_COUNT) return (int) micros;
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        int index = SUB_COUNT + (exp - SUB_BITS) * SUB_COUNT + sub;
+        return index < BUCKETS ? index : BUCKETS - 1;
+    }
+
+    /** Upper bound (exclusive) of a bucket, in microseconds. */
+    static long bucketLimit(int index) {
+        if (index < SUB_COUNT) return index + 1;
+        int exp = (index - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        return (long) (SUB_COUNT + sub + 1) << (exp - SUB_BITS);
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    /** Sum of all the recorded durations, in nanoseconds. */
+    public long getTotalTime() {
+        return _totalNanos.get();
+    }
+
+    /** Longest recorded duration, in nanoseconds. */
+    public long getMaxTime() {
+        return _maxNanos.get();
+    }
+
+    /**
+     * Estimate a percentile of the recorded durations.
+     *
+     * @param quantile between 0 and 1
+     * @return the duration in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+                return Math.min(bucketLimit(i) * 1000, getMaxTime());
+        }
+        return getMaxTime();
+    }
+
+    void snapshot(Map<String, Number> values) {
+        values.put(getName() + "_count", getCount());
+        values.put(getName() + "_max_ms", getMaxTime() / 1e6);
+        for (double q : QUANTILES)
+            values.put(getName() + "_p" + Math.round(q * 100) + "_ms", getPercentile(q) / 1e6);
+    }
+
+    void writeText(Writer w) throws IOException {
+        writeHeader(w, "summary");
+        for (double q : QUANTILES)
+            w.write(getName() + "{quantile=\"" + q + "\"} " + (getPercentile(q) / 1e9) + "\n");
+        w.write(getName() + "_sum " + (getTotalTime() / 1e9) + "\n");
+        w.write(getName() + "_count " + getCount() + "\n");
+    }
+}
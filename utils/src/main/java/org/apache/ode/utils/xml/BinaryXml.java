@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Compact binary form of a DOM element tree, much cheaper to write and read than textual XML.
+ *
+ * <p>
+ * The tree is written as a sequence of tokens (element start and end, attribute, text, CDATA, comment and
+ * processing instruction). Namespace URIs and qualified names are written once and then referenced by their
+ * index, text is written as length-prefixed UTF-8. Namespace declarations are plain attributes, as in the DOM
+ * tree, so the tree read back has the same namespace declarations as the one written.
+ * </p>
+ */
+public class BinaryXml {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int START_ELEMENT = 1;
+    private static final int END_ELEMENT = 2;
+    private static final int ATTRIBUTE = 3;
+    private static final int TEXT = 4;
+    private static final int CDATA = 5;
+    private static final int COMMENT = 6;
+    private static final int PROCESSING_INSTRUCTION = 7;
+
+    /** Name reference to a null name. */
+    private static final int NULL_NAME = 0;
+    /** Name reference followed by a name not written before. */
+    private static final int NEW_NAME = 1;
+
+    private BinaryXml() {
+    }
+
+    /**
+     * Write an element, its attributes and its descendants.
+     */
+    public static byte[] write(Element element) {
+        Writer writer = new Writer();
+        writer.writeElement(element);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Read an element written by {@link #write(Element)} as the document element of a new document.
+     *
+     * @param data buffer holding the element
+     * @param offset start of the element in the buffer
+     * @param length length of the element
+     * @throws IOException if the data is truncated or isn't a binary element
+     */
+    public static Element read(byte[] data, int offset, int length) throws IOException {
+        return new Reader(data, offset, length).readDocument();
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        private final Map<String, Integer> _names = new HashMap<String, Integer>();
+
+        Writer() {
+            super(1024);
+        }
+
+        void writeElement(Element element) {
+            write(START_ELEMENT);
+            writeName(element.getNamespaceURI());
+            writeName(element.getNodeName());
+            NamedNodeMap attrs = element.getAttributes();
+            for (int i = 0; i < attrs.getLength(); i++) {
+                Attr attr = (Attr) attrs.item(i);
+                String name = attr.getNodeName();
+                String ns = attr.getNamespaceURI();
+                // Declarations added without the namespace API
+                if (ns == null && (name.equals("xmlns") || name.startsWith("xmlns:"))) ns = DOMUtils.NS_URI_XMLNS;
+                write(ATTRIBUTE);
+                writeName(ns);
+                writeName(name);
+                writeString(attr.getValue());
+            }
+            writeChildren(element);
+            write(END_ELEMENT);
+        }
+
+        void writeChildren(Node parent) {
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+                switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    writeElement((Element) child);
+                    break;
+                case Node.TEXT_NODE:
+                    write(TEXT);
+                    writeString(child.getNodeValue());
+                    break;
+                case Node.CDATA_SECTION_NODE:
+                    write(CDATA);
+                    writeString(child.getNodeValue());
+                    break;
+                case Node.COMMENT_NODE:
+                    write(COMMENT);
+                    writeString(child.getNodeValue());
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    write(PROCESSING_INSTRUCTION);
+                    writeString(child.getNodeName());
+                    writeString(child.getNodeValue());
+                    break;
+                case Node.ENTITY_REFERENCE_NODE:
+                    // Written expanded, like the serializer does
+                    writeChildren(child);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        void writeName(String name) {
+            if (name == null) {
+                writeInt(NULL_NAME);
+                return;
+            }
+            Integer index = _names.get(name);
+            if (index != null) {
+                writeInt(index + 2);
+            } else {
+                _names.put(name, _names.size());
+                writeInt(NEW_NAME);
+                writeString(name);
+            }
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(UTF8);
+            writeInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        /** Variable length, 7 bits per byte. */
+        void writeInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] _data;
+        private final int _end;
+        private int _pos;
+        private final List<String> _names = new ArrayList<String>();
+
+        Reader(byte[] data, int offset, int length) {
+            _data = data;
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        Element readDocument() throws IOException {
+            if (readByte() != START_ELEMENT) throw new IOException("Not a binary XML element");
+            Document doc = DOMUtils.newDocument();
+            Element root = createElement(doc, readName(), readName());
+            doc.appendChild(root);
+            Node current = root;
+            while (current != doc) {
+                int token = readByte();
+                switch (token) {
+                case START_ELEMENT:
+                    Element element = createElement(doc, readName(), readName());
+                    current.appendChild(element);
+                    current = element;
+                    break;
+                case END_ELEMENT:
+                    current = current.getParentNode();
+                    break;
+                case ATTRIBUTE:
+                    String ns = readName();
+                    String name = readName();
+                    if (ns == null && name.indexOf(':') >= 0) ((Element) current).setAttribute(name, readString());
+                    else ((Element) current).setAttributeNS(ns, name, readString());
+                    break;
+                case TEXT:
+                    current.appendChild(doc.createTextNode(readString()));
+                    break;
+                case CDATA:
+                    current.appendChild(doc.createCDATASection(readString()));
+                    break;
+                case COMMENT:
+                    current.appendChild(doc.createComment(readString()));
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    current.appendChild(doc.createProcessingInstruction(readString(), readString()));
+                    break;
+                default:
+                    throw new IOException("Unknown binary XML token " + token);
+                }
+            }
+            return root;
+        }
+
+        /** Prefixed names without namespace come from trees built without the namespace API. */
+        private static Element createElement(Document doc, String ns, String name) {
+            if (ns == null && name.indexOf(':') >= 0) return doc.createElement(name);
+            return doc.createElementNS(ns, name);
+        }
+
+        String readName() throws IOException {
+            int ref = readInt();
+            if (ref == NULL_NAME) return null;
+            if (ref == NEW_NAME) {
+                String name = readString();
+                _names.add(name);
+                return name;
+            }
+            if (ref - 2 >= _names.size()) throw new IOException("Invalid binary XML name reference " + ref);
+            return _names.get(ref - 2);
+        }
+
+        String readString() throws IOException {
+            int length = readInt();
+            if (length < 0 || length > _end - _pos) throw new IOException("Truncated binary XML");
+            String s = new String(_data, _pos, length, UTF8);
+            _pos += length;
+            return s;
+        }
+
+        int readInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Invalid binary XML integer");
+        }
+
+        int readByte() throws IOException {
+            if (_pos >= _end) throw new IOException("Truncated binary XML");
+            return _data[_pos++] & 0xff;
+        }
+    }
+}
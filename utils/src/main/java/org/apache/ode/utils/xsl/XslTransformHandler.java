@@ -22,7 +22,13 @@ package org.apache.ode.utils.xsl;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.ErrorListener;
@@ -37,10 +43,13 @@ import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
-import org.apache.commons.collections.map.MultiKeyMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Gauge;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
@@ -50,17 +59,40 @@ import org.w3c.dom.Node;
  * depending on the version attribute provided in the XSL stylesheet (see
  * http://www.w3.org/TR/xslt20/#backwards - 3.8 Backwards-Compatible Processing).
  * <br/>
- * The transform handler also implements a simple cache to avo??d multiple pre-compilation
- * of the same XSL sheet.
+ * The transform handler also caches the compiled stylesheets, by process id and stylesheet
+ * URI, to avoid multiple pre-compilation of the same XSL sheet. Versions of a process have
+ * their own ids, so they don't share stylesheets. The cache is bounded by the
+ * total length of the stylesheet bodies and evicts the least recently used stylesheets
+ * first. Lookups don't lock, only eviction does. The time spent in each stylesheet is
+ * recorded in a timer named after the process and the stylesheet, removed along with the
+ * stylesheets of the process.
  */
 public class XslTransformHandler {
 
     private static final Logger __log = LoggerFactory.getLogger(XslTransformHandler.class);
 
+  /** Default maximum total length of the cached stylesheets. */
+  public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+  private static final Counter __parses = MetricsRegistry.getDefault().counter("ode_xsl_parses_total",
+          "XSL stylesheets compiled.");
+  private static final Counter __evictions = MetricsRegistry.getDefault().counter("ode_xsl_cache_evictions_total",
+          "Compiled XSL stylesheets evicted from the cache to keep it under its maximum size.");
+
   private static XslTransformHandler __singleton;
 
   private TransformerFactory _transformerFactory = null;
-  private final MultiKeyMap _templateCache = new MultiKeyMap();
+  private final ConcurrentHashMap<TemplatesKey, CachedTemplates> _templateCache =
+          new ConcurrentHashMap<TemplatesKey, CachedTemplates>();
+
+  /** Total length of the cached stylesheet bodies. */
+  private final AtomicLong _size = new AtomicLong();
+  private volatile long _maxSize = DEFAULT_MAX_SIZE;
+
+  /** Logical clock ordering the accesses to the cached stylesheets. */
+  private final AtomicLong _clock = new AtomicLong();
+
+  private final Object _evictionLock = new Object();
 
   /**
    * Singleton access.
@@ -69,6 +101,12 @@ public class XslTransformHandler {
   public static synchronized XslTransformHandler getInstance() {
     if (__singleton == null) {
       __singleton = new XslTransformHandler();
+      MetricsRegistry.getDefault().gauge("ode_xsl_cache_size", "Total length of the cached XSL stylesheets.",
+              new Gauge.Value() {
+                public long get() {
+                  return __singleton._size.get();
+                }
+              });
     }
     return __singleton;
   }
@@ -83,38 +121,61 @@ public class XslTransformHandler {
     _transformerFactory = transformerFactory;
   }
 
+  /**
+   * Sets the maximum total length of the cached stylesheets, 0 for no limit.
+   */
+  public void setMaxSize(long maxSize) {
+    _maxSize = maxSize;
+    evict();
+  }
+
+  public long getMaxSize() {
+    return _maxSize;
+  }
+
   /**
    * Always parses the provided stylesheet and stores it in cache from its URI.
    * @param uri referencing the stylesheet
    * @param body of the XSL document
    * @param resolver used to resolve includes and imports
+   * @return the compiled stylesheet
    */
-  public void parseXSLSheet(QName processQName, URI uri, String body, URIResolver resolver) {
+  public Templates parseXSLSheet(QName pid, URI uri, String body, URIResolver resolver) {
     Templates tm;
     try {
-      _transformerFactory.setURIResolver(resolver);
-      tm = _transformerFactory.newTemplates(new StreamSource(new StringReader(body)));
+      // The factory keeps the resolver, parses can't run concurrently
+      synchronized (this) {
+        _transformerFactory.setURIResolver(resolver);
+        tm = _transformerFactory.newTemplates(new StreamSource(new StringReader(body)));
+      }
     } catch (TransformerConfigurationException e) {
       throw new XslTransformException(e);
     }
-    synchronized(_templateCache) {
-      _templateCache.put(processQName, uri, tm);
-    }
+    __parses.inc();
+    TemplatesKey key = new TemplatesKey(pid, uri);
+    CachedTemplates cached = new CachedTemplates(tm, body, timer(key));
+    cached.lastAccess = _clock.incrementAndGet();
+    CachedTemplates old = _templateCache.put(key, cached);
+    _size.addAndGet(body.length() - (old == null ? 0 : old.length));
+    evict();
+    return tm;
   }
 
   /**
    * Parses the provided stylesheet and stores it in cache only if it's not there
-   * already.
+   * already, or if the cached one was parsed from another body.
    * @param uri referencing the stylesheet
    * @param body of the XSL document
    * @param resolver used to resolve includes and imports
+   * @return the compiled stylesheet
    */
-  public void cacheXSLSheet(QName processQName, URI uri, String body, URIResolver resolver) {
-    Templates tm;
-    synchronized (_templateCache) {
-      tm = (Templates) _templateCache.get(processQName, uri);
+  public Templates cacheXSLSheet(QName pid, URI uri, String body, URIResolver resolver) {
+    CachedTemplates cached = _templateCache.get(new TemplatesKey(pid, uri));
+    if (cached != null && cached.matches(body)) {
+      cached.lastAccess = _clock.incrementAndGet();
+      return cached.templates;
     }
-    if (tm == null) parseXSLSheet(processQName, uri, body, resolver);
+    return parseXSLSheet(pid, uri, body, resolver);
   }
 
   /**
@@ -126,14 +187,34 @@ public class XslTransformHandler {
    * @param resolver used to resolve includes and imports
    * @return result of the transformation (XSL, HTML or text depending of the output method specified in stylesheet.
    */
-  public Object transform(QName processQName, URI uri, Source source,
+  public Object transform(QName pid, URI uri, Source source,
                         Map<QName, Object> parameters, URIResolver resolver) {
-    Templates tm;
-    synchronized (_templateCache) {
-      tm = (Templates) _templateCache.get(processQName, uri);
-    }
-    if (tm == null)
+    CachedTemplates cached = _templateCache.get(new TemplatesKey(pid, uri));
+    if (cached == null)
       throw new XslTransformException("XSL sheet" + uri + " has not been parsed before transformation!");
+    cached.lastAccess = _clock.incrementAndGet();
+    return transform(cached.templates, cached.timer, source, parameters, resolver);
+  }
+
+  /**
+   * Transforms a Source document using the XSL stylesheet referenced by the provided URI,
+   * parsing it first if it isn't cached.
+   * @param uri referencing the stylesheet
+   * @param body of the XSL document
+   * @param source XML document
+   * @param parameters passed to the stylesheet
+   * @param resolver used to resolve includes and imports
+   * @return result of the transformation (XSL, HTML or text depending of the output method specified in stylesheet.
+   */
+  public Object transform(QName pid, URI uri, String body, Source source,
+                        Map<QName, Object> parameters, URIResolver resolver) {
+    Templates tm = cacheXSLSheet(pid, uri, body, resolver);
+    return transform(tm, timer(new TemplatesKey(pid, uri)), source, parameters, resolver);
+  }
+
+  private Object transform(Templates tm, Timer timer, Source source,
+                        Map<QName, Object> parameters, URIResolver resolver) {
+    long start = timer.start();
     try {
       Transformer tf = tm.newTransformer();
       tf.setURIResolver(resolver);
@@ -165,6 +246,8 @@ public class XslTransformHandler {
       throw new XslTransformException(e);
     } catch (TransformerException e) {
       throw new XslTransformException("XSL Transformation failed!", e);
+    } finally {
+      timer.stop(start);
     }
   }
 
@@ -172,10 +255,126 @@ public class XslTransformHandler {
     _transformerFactory.setErrorListener(l);
   }
 
-  public void clearXSLSheets(QName processQName) {
-    synchronized (_templateCache) {
-          _templateCache.removeAll(processQName);
+  /**
+   * Removes the stylesheets of a process from the cache, along with their timers.
+   */
+  public void clearXSLSheets(QName pid) {
+    for (TemplatesKey key : new ArrayList<TemplatesKey>(_templateCache.keySet())) {
+      if (!key.pid.equals(pid)) continue;
+      CachedTemplates removed = _templateCache.remove(key);
+      if (removed != null) _size.addAndGet(-removed.length);
+      MetricsRegistry.getDefault().remove(key.metricName());
+    }
+  }
+
+  /**
+   * @return number of cached stylesheets
+   */
+  public int getCount() {
+    return _templateCache.size();
+  }
+
+  /**
+   * @return total length of the cached stylesheets
+   */
+  public long getSize() {
+    return _size.get();
+  }
+
+  /**
+   * Evicts the least recently used stylesheets until the cache is under its maximum size.
+   */
+  private void evict() {
+    long maxSize = _maxSize;
+    if (maxSize <= 0 || _size.get() <= maxSize) return;
+    synchronized (_evictionLock) {
+      if (_size.get() <= maxSize) return;
+      List<Map.Entry<TemplatesKey, CachedTemplates>> entries =
+              new ArrayList<Map.Entry<TemplatesKey, CachedTemplates>>(_templateCache.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<TemplatesKey, CachedTemplates>>() {
+        public int compare(Map.Entry<TemplatesKey, CachedTemplates> e1, Map.Entry<TemplatesKey, CachedTemplates> e2) {
+          long a1 = e1.getValue().lastAccess;
+          long a2 = e2.getValue().lastAccess;
+          return a1 < a2 ? -1 : (a1 == a2 ? 0 : 1);
+        }
+      });
+      for (Map.Entry<TemplatesKey, CachedTemplates> entry : entries) {
+        if (_size.get() <= maxSize) break;
+        // Only remove the entry we looked at, not one parsed again in the meantime
+        if (_templateCache.remove(entry.getKey(), entry.getValue())) {
+          _size.addAndGet(-entry.getValue().length);
+          __evictions.inc();
+          if (__log.isDebugEnabled()) __log.debug("Evicted XSL sheet " + entry.getKey().uri + " of " + entry.getKey().pid);
+        }
+      }
     }
   }
 
+  private Timer timer(TemplatesKey key) {
+    return MetricsRegistry.getDefault().timer(key.metricName(),
+            "Time spent transforming with the XSL sheet " + key.uri + " of process " + key.pid + ".");
+  }
+
+  /**
+   * @return the name of the timer of a stylesheet; the readable part only has the local part of the process id,
+   * a hash of the full process id and URI keeps processes of different namespaces apart
+   */
+  static String metricName(QName pid, URI uri) {
+    String name = pid.getLocalPart() + "_" + uri;
+    StringBuilder metric = new StringBuilder("ode_xsl_transform_");
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      metric.append(Character.isLetterOrDigit(c) && c < 128 ? c : '_');
+    }
+    metric.append('_').append(Integer.toHexString((pid + " " + uri).hashCode()));
+    return metric.append("_duration_seconds").toString();
+  }
+
+  private static class TemplatesKey {
+    final QName pid;
+    final URI uri;
+
+    TemplatesKey(QName pid, URI uri) {
+      this.pid = pid;
+      this.uri = uri;
+    }
+
+    String metricName() {
+      return XslTransformHandler.metricName(pid, uri);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TemplatesKey)) return false;
+      TemplatesKey other = (TemplatesKey) o;
+      return pid.equals(other.pid) && uri.equals(other.uri);
+    }
+
+    @Override
+    public int hashCode() {
+      return pid.hashCode() * 31 + uri.hashCode();
+    }
+  }
+
+  private static class CachedTemplates {
+    final Templates templates;
+    final int length;
+    final int bodyHash;
+    final Timer timer;
+    volatile long lastAccess;
+
+    CachedTemplates(Templates templates, String body, Timer timer) {
+      this.templates = templates;
+      this.length = body.length();
+      this.bodyHash = body.hashCode();
+      this.timer = timer;
+    }
+
+    /**
+     * @return whether these templates were parsed from the given body, as far as its length and hash tell
+     */
+    boolean matches(String body) {
+      return body.length() == length && body.hashCode() == bodyHash;
+    }
+  }
 }
@@ -52,6 +52,42 @@ public class DOMUtilsTest extends TestCase {
     assertNotNull(DOMUtils.newDocument());
   }
 
+  public void testCopyIfShared() throws Exception {
+    Element value = DOMUtils.stringToDOM("<foo><bar>baz</bar></foo>");
+    assertSame(value, DOMUtils.copyIfShared(value));
+
+    DOMUtils.markShared(value);
+    assertTrue(DOMUtils.isShared(value));
+    Node copy = DOMUtils.copyIfShared(value);
+    assertNotSame(value, copy);
+    assertFalse(DOMUtils.isShared(copy));
+    assertSame(copy.getOwnerDocument().getDocumentElement(), copy);
+    assertEquals(DOMUtils.domToString(value), DOMUtils.domToString(copy));
+  }
+
+  public void testContentHash() throws Exception {
+    Element value = DOMUtils.stringToDOM("<foo xmlns:b='urn:b' a='1' b:c='2'><bar>baz</bar><b:qux/></foo>");
+    long hash = DOMUtils.contentHash(value);
+    assertEquals(hash, DOMUtils.contentHash(DOMUtils.stringToDOM(
+        "<foo b:c='2' a='1' xmlns:b='urn:b'><bar>baz</bar><b:qux/></foo>")));
+    assertEquals(hash, DOMUtils.contentHash(value.getOwnerDocument().importNode(value, true)));
+
+    ((Element) value.getFirstChild()).setTextContent("bax");
+    assertFalse(hash == DOMUtils.contentHash(value));
+    ((Element) value.getFirstChild()).setTextContent("baz");
+    assertEquals(hash, DOMUtils.contentHash(value));
+
+    value.setAttribute("a", "3");
+    assertFalse(hash == DOMUtils.contentHash(value));
+    value.setAttribute("a", "1");
+    value.appendChild(value.getOwnerDocument().createElement("bar"));
+    assertFalse(hash == DOMUtils.contentHash(value));
+
+    // Text moved from a child to its sibling
+    assertFalse(DOMUtils.contentHash(DOMUtils.stringToDOM("<foo><a>x</a><b/></foo>"))
+        == DOMUtils.contentHash(DOMUtils.stringToDOM("<foo><a/><b>x</b></foo>")));
+  }
+
   public void testSerializeDom() throws Exception {
     Document doc = DOMUtils.newDocument();
     Element foo = doc.createElement("foo");
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.metrics;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the {@link MetricsRegistry} and its metrics.
+ */
+public class MetricsRegistryTest extends TestCase {
+
+    MetricsRegistry _registry;
+
+    public void setUp() {
+        _registry = new MetricsRegistry();
+    }
+
+    public void testCounter() {
+        Counter c = _registry.counter("test_total", "A counter.");
+        c.inc();
+        c.add(2);
+        assertSame(c, _registry.counter("test_total", "A counter."));
+        assertEquals(3, c.get());
+        assertEquals(3L, _registry.snapshot().get("test_total"));
+    }
+
+    public void testTypeMismatch() {
+        _registry.counter("test", "A counter.");
+        try {
+            _registry.timer("test", "A timer.");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testRemoveGauge() {
+        Gauge.Value first = new Gauge.Value() {
+            public long get() {
+                return 1;
+            }
+        };
+        Gauge.Value second = new Gauge.Value() {
+            public long get() {
+                return 2;
+            }
+        };
+        int version = _registry.getVersion();
+        _registry.gauge("test", "A gauge.", first);
+        assertTrue(version != _registry.getVersion());
+        _registry.gauge("test", "A gauge.", second);
+        // rebound by another component, not removed by the first one
+        _registry.remove("test", first);
+        assertEquals(2L, _registry.snapshot().get("test"));
+        version = _registry.getVersion();
+        _registry.remove("test", second);
+        assertNull(_registry.get("test"));
+        assertTrue(version != _registry.getVersion());
+    }
+
+    public void testBuckets() {
+        for (long micros = 0; micros < 1000000; micros += 7) {
+            int bucket = Timer.bucket(micros);
+            assertTrue(micros < Timer.bucketLimit(bucket));
+            assertTrue(bucket == 0 || micros >= Timer.bucketLimit(bucket - 1));
+        }
+        assertEquals(Timer.BUCKETS - 1, Timer.bucket(Long.MAX_VALUE));
+    }
+
+    public void testPercentiles() {
+        Timer t = _registry.timer("test_seconds", "A timer.");
+        for (int i = 1; i <= 100; i++)
+            t.record(i * 1000000L);
+        assertEquals(100, t.getCount());
+        assertEquals(100000000L, t.getMaxTime());
+        // 25% precision
+        assertEquals(50e6, t.getPercentile(0.5), 50e6 * 0.25);
+        assertEquals(99e6, t.getPercentile(0.99), 99e6 * 0.25);
+        assertEquals(100000000L, t.getPercentile(1.0));
+    }
+
+    public void testText() throws Exception {
+        _registry.counter("b_total", "Counter.").inc();
+        _registry.timer("a_seconds", "Timer.").record(2000000L);
+        _registry.gauge("c", "Gauge.", new Gauge.Value() {
+            public long get() {
+                return 42;
+            }
+        });
+        StringWriter w = new StringWriter();
+        _registry.writeText(w);
+        String text = w.toString();
+        assertTrue(text.indexOf("# TYPE a_seconds summary") < text.indexOf("# TYPE b_total counter"));
+        assertTrue(text.contains("a_seconds_count 1\n"));
+        assertTrue(text.contains("b_total 1\n"));
+        assertTrue(text.contains("c 42\n"));
+
+        Map<String, Number> values = _registry.snapshot();
+        assertEquals(1L, values.get("a_seconds_count"));
+        assertEquals(42L, values.get("c"));
+    }
+
+    public void testValue() {
+        _registry.counter("b_total", "Counter.").inc();
+        _registry.timer("a_seconds", "Timer.").record(2000000L);
+        assertEquals(1L, _registry.value("b_total"));
+        assertEquals(1L, _registry.value("a_seconds_count"));
+        assertEquals(2.0, _registry.value("a_seconds_max_ms"));
+        assertNull(_registry.value("a_seconds"));
+        assertNull(_registry.value("a_seconds_foo"));
+        assertNull(_registry.value("unknown_total"));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.xml;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.DOMUtils;
+import org.w3c.dom.Element;
+
+public class BinaryXmlTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        String xml = "<m:message xmlns:m=\"urn:m\" xmlns=\"urn:d\" m:id=\"1\">"
+                + "<part a=\"x &amp; y\"><item>été</item><item>2</item></part>"
+                + "<m:part><![CDATA[<raw>]]><!-- note --><?pi data?></m:part>"
+                + "<plain xmlns=\"\">text</plain></m:message>";
+        Element value = DOMUtils.stringToDOM(xml);
+        byte[] binary = BinaryXml.write(value);
+        Element read = BinaryXml.read(binary, 0, binary.length);
+
+        assertEquals("urn:m", read.getNamespaceURI());
+        assertEquals("message", read.getLocalName());
+        assertEquals("1", read.getAttributeNS("urn:m", "id"));
+        assertSame(read, read.getOwnerDocument().getDocumentElement());
+        assertEquals(DOMUtils.domToString(value), DOMUtils.domToString(read));
+    }
+
+    public void testOffset() throws Exception {
+        byte[] binary = BinaryXml.write(DOMUtils.stringToDOM("<a><b/></a>"));
+        byte[] data = new byte[binary.length + 3];
+        System.arraycopy(binary, 0, data, 2, binary.length);
+        assertEquals("b", BinaryXml.read(data, 2, binary.length).getFirstChild().getNodeName());
+    }
+
+    public void testTruncated() throws Exception {
+        byte[] binary = BinaryXml.write(DOMUtils.stringToDOM("<a><b>text</b></a>"));
+        try {
+            BinaryXml.read(binary, 0, binary.length - 3);
+            fail("Truncated data must not be read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.utils.xsl;
+
+import java.io.StringReader;
+import java.net.URI;
+
+import javax.xml.namespace.QName;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.Timer;
+
+public class XslTransformHandlerTest extends TestCase {
+    private static final QName PROCESS = new QName("urn:test", "XslProcess");
+    private static final QName PROCESS_V2 = new QName("urn:test", "XslProcess-2");
+    private static final QName OTHER_NS_PROCESS = new QName("urn:other", "XslProcess");
+
+    private static final String SHEET = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:output method=\"text\"/><xsl:template match=\"/\">%s<xsl:value-of select=\"/a\"/></xsl:template>"
+            + "</xsl:stylesheet>";
+
+    private XslTransformHandler _handler;
+
+    protected void setUp() throws Exception {
+        _handler = XslTransformHandler.getInstance();
+        _handler.setTransformerFactory(TransformerFactory.newInstance());
+    }
+
+    protected void tearDown() throws Exception {
+        _handler.clearXSLSheets(PROCESS);
+        _handler.clearXSLSheets(PROCESS_V2);
+        _handler.clearXSLSheets(OTHER_NS_PROCESS);
+        _handler.setMaxSize(XslTransformHandler.DEFAULT_MAX_SIZE);
+    }
+
+    public void testCacheAndTransform() throws Exception {
+        URI uri = new URI("sheet.xsl");
+        String body = String.format(SHEET, "x");
+        Templates tm = _handler.cacheXSLSheet(PROCESS, uri, body, null);
+        assertSame(tm, _handler.cacheXSLSheet(PROCESS, uri, body, null));
+
+        assertEquals("x1", _handler.transform(PROCESS, uri, new StreamSource(new StringReader("<a>1</a>")), null, null));
+        String metric = XslTransformHandler.metricName(PROCESS, uri);
+        assertTrue(metric.startsWith("ode_xsl_transform_XslProcess_sheet_xsl_"));
+        Timer timer = (Timer) MetricsRegistry.getDefault().get(metric);
+        assertEquals(1, timer.getCount());
+
+        // The same process with a changed sheet
+        String changed = String.format(SHEET, "y");
+        assertNotSame(tm, _handler.cacheXSLSheet(PROCESS, uri, changed, null));
+        assertEquals("y2", _handler.transform(PROCESS, uri, changed, new StreamSource(new StringReader("<a>2</a>")), null, null));
+        assertEquals(changed.length(), _handler.getSize());
+
+        _handler.clearXSLSheets(PROCESS);
+        assertEquals(0, _handler.getSize());
+        assertNull(MetricsRegistry.getDefault().get(metric));
+    }
+
+    public void testTimersOfNamespacesKeptApart() throws Exception {
+        URI uri = new URI("sheet.xsl");
+        String body = String.format(SHEET, "x");
+        _handler.cacheXSLSheet(PROCESS, uri, body, null);
+        _handler.cacheXSLSheet(OTHER_NS_PROCESS, uri, body, null);
+        _handler.transform(PROCESS, uri, new StreamSource(new StringReader("<a>1</a>")), null, null);
+
+        String metric = XslTransformHandler.metricName(PROCESS, uri);
+        String otherMetric = XslTransformHandler.metricName(OTHER_NS_PROCESS, uri);
+        assertFalse(metric.equals(otherMetric));
+        assertEquals(1, ((Timer) MetricsRegistry.getDefault().get(metric)).getCount());
+        assertEquals(0, ((Timer) MetricsRegistry.getDefault().get(otherMetric)).getCount());
+
+        // Undeploying one process keeps the timer of the other
+        _handler.clearXSLSheets(OTHER_NS_PROCESS);
+        assertNull(MetricsRegistry.getDefault().get(otherMetric));
+        assertNotNull(MetricsRegistry.getDefault().get(metric));
+    }
+
+    public void testVersionsKeptApart() throws Exception {
+        URI uri = new URI("sheet.xsl");
+        String v1 = String.format(SHEET, "x");
+        String v2 = String.format(SHEET, "y");
+        Templates tm1 = _handler.cacheXSLSheet(PROCESS, uri, v1, null);
+        Templates tm2 = _handler.cacheXSLSheet(PROCESS_V2, uri, v2, null);
+        assertNotSame(tm1, tm2);
+        // Both versions stay cached, running one doesn't parse the other again
+        assertSame(tm1, _handler.cacheXSLSheet(PROCESS, uri, v1, null));
+        assertSame(tm2, _handler.cacheXSLSheet(PROCESS_V2, uri, v2, null));
+        assertEquals("x1", _handler.transform(PROCESS, uri, new StreamSource(new StringReader("<a>1</a>")), null, null));
+        assertEquals("y1", _handler.transform(PROCESS_V2, uri, new StreamSource(new StringReader("<a>1</a>")), null, null));
+
+        // Undeploying one version leaves the other alone
+        _handler.clearXSLSheets(PROCESS);
+        assertEquals(1, _handler.getCount());
+        assertEquals("y2", _handler.transform(PROCESS_V2, uri, new StreamSource(new StringReader("<a>2</a>")), null, null));
+    }
+
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        String body = String.format(SHEET, "");
+        _handler.setMaxSize(body.length() * 2);
+        URI first = new URI("first.xsl");
+        URI second = new URI("second.xsl");
+        _handler.cacheXSLSheet(PROCESS, first, body, null);
+        _handler.cacheXSLSheet(PROCESS, second, body, null);
+        _handler.cacheXSLSheet(PROCESS, first, body, null);
+
+        _handler.cacheXSLSheet(PROCESS, new URI("third.xsl"), body, null);
+        assertEquals(2, _handler.getCount());
+        assertEquals(body.length() * 2, _handler.getSize());
+        try {
+            _handler.transform(PROCESS, second, new StreamSource(new StringReader("<a/>")), null, null);
+            fail("The least recently used sheet should have been evicted");
+        } catch (XslTransformException e) {
+            // expected
+        }
+        _handler.transform(PROCESS, first, new StreamSource(new StringReader("<a/>")), null, null);
+    }
+}